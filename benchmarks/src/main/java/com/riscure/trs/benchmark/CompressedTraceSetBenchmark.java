@@ -0,0 +1,89 @@
+package com.riscure.trs.benchmark;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.compressed.CompressedTraceSet;
+import com.riscure.trs.compressed.TraceSetCompressor;
+import com.riscure.trs.enums.Encoding;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the compression of a trace set on a single core with the default codec of every encoding, and the
+ * sequential reading of the compressed trace set. The samples are a noisy, smooth signal, as created by
+ * {@link Fixtures#createSignalTraceSet(Encoding, int, int)}. The compression ratio is printed during the setup.
+ * The primary result of {@code compress} is in trace sets/s and of {@code read} in traces/s; the {@code bytes}
+ * counter is in uncompressed bytes/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressedTraceSetBenchmark {
+    private static final int BATCH = 256;
+
+    @Param({"BYTE", "SHORT", "INT", "FLOAT"})
+    public Encoding encoding;
+
+    @Param({"10000"})
+    public int numberOfTraces;
+
+    @Param({"1000"})
+    public int numberOfSamples;
+
+    private Path file;
+    private Path compressed;
+    private Path output;
+    private long fileSize;
+    private long traceSize;
+    private CompressedTraceSet compressedSet;
+    private int cursor;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, TRSFormatException {
+        file = Fixtures.createSignalTraceSet(encoding, numberOfTraces, numberOfSamples);
+        compressed = Files.createTempFile("trsfile-benchmark-compressed", TraceSetCompressor.EXTENSION);
+        output = Files.createTempFile("trsfile-benchmark-output", TraceSetCompressor.EXTENSION);
+        TraceSetCompressor.compress(file.toString(), compressed, null, 0, 1);
+        fileSize = Files.size(file);
+        try (TraceSet traceSet = TraceSet.open(file.toString())) {
+            traceSize = Fixtures.traceSize(traceSet.getMetaData());
+        }
+        System.out.printf("%nCompression ratio of %s samples with %s: %.2f%n", encoding,
+                TraceSetCompressor.defaultCodec(encoding), (double) fileSize / Files.size(compressed));
+        compressedSet = CompressedTraceSet.open(compressed.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        compressedSet.close();
+        Fixtures.delete(file);
+        Fixtures.delete(compressed);
+        Fixtures.delete(output);
+    }
+
+    @Benchmark
+    public void compress(ByteCounter counter) throws IOException, TRSFormatException {
+        TraceSetCompressor.compress(file.toString(), output, null, 0, 1);
+        counter.bytes += fileSize;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void read(ByteCounter counter, Blackhole blackhole) throws IOException {
+        for (int k = 0; k < BATCH; k++) {
+            blackhole.consume(compressedSet.get(cursor));
+            if (++cursor == numberOfTraces) {
+                cursor = 0;
+            }
+        }
+        counter.bytes += BATCH * traceSize;
+    }
+}
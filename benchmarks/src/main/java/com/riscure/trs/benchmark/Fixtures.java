@@ -0,0 +1,158 @@
+package com.riscure.trs.benchmark;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.enums.TRSTag;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Synthetic fixtures shared by the benchmarks. All fixtures are generated from a fixed seed.
+ */
+final class Fixtures {
+    static final long SEED = 0x5EED;
+    static final int NUMBER_OF_PARAMETERS = 20;
+
+    private Fixtures() {
+    }
+
+    /**
+     * Create a temporary trace set with the requested sample encoding
+     * @param encoding the sample encoding of the trace set
+     * @param numberOfTraces the number of traces to write
+     * @param numberOfSamples the number of samples per trace
+     * @return the path of the created file
+     */
+    static Path createTraceSet(Encoding encoding, int numberOfTraces, int numberOfSamples) throws IOException, TRSFormatException {
+        Path file = Files.createTempFile("trsfile-benchmark-" + encoding.name().toLowerCase(), ".trs");
+        Random random = new Random(SEED);
+        try (TraceSet traceSet = TraceSet.create(file.toString())) {
+            for (int k = 0; k < numberOfTraces; k++) {
+                traceSet.add(Trace.create("", samples(encoding, numberOfSamples, random), parameters(k)));
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Create a temporary trace set of a noisy, smooth signal, which compresses like a typical capture. The float
+     * samples are the average of 64 integer captures, like the output of trace averaging.
+     * @param encoding the sample encoding of the trace set
+     * @param numberOfTraces the number of traces to write
+     * @param numberOfSamples the number of samples per trace
+     * @return the path of the created file
+     */
+    static Path createSignalTraceSet(Encoding encoding, int numberOfTraces, int numberOfSamples) throws IOException, TRSFormatException {
+        Path file = Files.createTempFile("trsfile-benchmark-signal-" + encoding.name().toLowerCase(), ".trs");
+        Random random = new Random(SEED);
+        double amplitude = encoding == Encoding.BYTE ? 60 : encoding == Encoding.SHORT ? 8000 : 1 << 20;
+        try (TraceSet traceSet = TraceSet.create(file.toString())) {
+            for (int k = 0; k < numberOfTraces; k++) {
+                float[] samples = new float[numberOfSamples];
+                for (int j = 0; j < numberOfSamples; j++) {
+                    double value = amplitude * (Math.sin(j / 25.0) + 0.05 * random.nextGaussian());
+                    samples[j] = encoding == Encoding.FLOAT ? Math.round(value * 64) / 64f : (float) Math.rint(value);
+                }
+                Trace trace = Trace.create("", samples, parameters(k));
+                if (encoding == Encoding.FLOAT) {
+                    trace.forceFloatCoding();
+                }
+                traceSet.add(trace);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Create samples that are stored with exactly the requested encoding when used for the first trace of a set
+     */
+    static float[] samples(Encoding encoding, int numberOfSamples, Random random) {
+        float[] samples = new float[numberOfSamples];
+        for (int k = 0; k < numberOfSamples; k++) {
+            switch (encoding) {
+                case BYTE:
+                    samples[k] = (byte) random.nextInt();
+                    break;
+                case SHORT:
+                    samples[k] = (short) random.nextInt();
+                    break;
+                case INT:
+                    samples[k] = random.nextInt(1 << 24) - (1 << 23);
+                    break;
+                case FLOAT:
+                    samples[k] = (float) random.nextGaussian();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported encoding: " + encoding);
+            }
+        }
+        //make sure the range of the samples requires the requested encoding
+        switch (encoding) {
+            case SHORT:
+                samples[0] = Short.MAX_VALUE;
+                break;
+            case INT:
+                samples[0] = 1 << 23;
+                break;
+            case FLOAT:
+                samples[0] = 0.5f;
+                break;
+            default:
+                break;
+        }
+        return samples;
+    }
+
+    /**
+     * Create a parameter map with {@link #NUMBER_OF_PARAMETERS} parameters of mixed types, similar to a fuzzing setup
+     */
+    static TraceParameterMap parameters(int index) {
+        TraceParameterMap parameters = new TraceParameterMap();
+        parameters.put("INPUT", new byte[16]);
+        parameters.put("OUTPUT", new byte[16]);
+        parameters.put("KEY", new byte[16]);
+        parameters.put("COUNTER", index);
+        parameters.put("FAULT", index % 7 == 0);
+        parameters.put("TIMESTAMP", (long) index);
+        parameters.put("LABEL", String.format("%08d", index));
+        for (int k = parameters.size(); k < NUMBER_OF_PARAMETERS; k++) {
+            switch (k % 4) {
+                case 0:
+                    parameters.put("GLITCH_OFFSET_" + k, index);
+                    break;
+                case 1:
+                    parameters.put("GLITCH_WIDTH_" + k, (float) k);
+                    break;
+                case 2:
+                    parameters.put("VOLTAGE_" + k, (double) k);
+                    break;
+                default:
+                    parameters.put("SETTINGS_" + k, new short[]{(short) k, (short) index});
+                    break;
+            }
+        }
+        return parameters;
+    }
+
+    /**
+     * @return the number of bytes that a single trace occupies in a file with the provided metadata
+     */
+    static long traceSize(TRSMetaData metaData) {
+        int sampleSize = Encoding.fromValue(metaData.getInt(TRSTag.SAMPLE_CODING)).getSize();
+        return (long) metaData.getInt(TRSTag.NUMBER_OF_SAMPLES) * sampleSize
+                + metaData.getInt(TRSTag.DATA_LENGTH) + metaData.getInt(TRSTag.TITLE_SPACE);
+    }
+
+    static void delete(Path file) throws IOException {
+        if (file != null) {
+            Files.deleteIfExists(file);
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package com.riscure.trs.benchmark;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TRSMetaDataUtils;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures parsing the header of a trace set, both from memory and from disk. Results are in headers/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MetaDataBenchmark {
+    private Path file;
+    private ByteBuffer header;
+
+    @Setup
+    public void setup() throws IOException, TRSFormatException {
+        file = Fixtures.createTraceSet(Encoding.SHORT, 16, 1000);
+        header = ByteBuffer.wrap(Files.readAllBytes(file));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(file);
+    }
+
+    @Benchmark
+    public TRSMetaData readTRSMetaData() throws TRSFormatException {
+        return TRSMetaDataUtils.readTRSMetaData(header.duplicate());
+    }
+
+    @Benchmark
+    public TRSMetaData readMetaDataFromFile() throws IOException, TRSFormatException {
+        return TraceSet.readMetaData(file);
+    }
+}
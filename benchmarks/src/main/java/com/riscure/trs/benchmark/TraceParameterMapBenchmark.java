@@ -0,0 +1,50 @@
+package com.riscure.trs.benchmark;
+
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures serialization and deserialization of a trace parameter map with {@link Fixtures#NUMBER_OF_PARAMETERS}
+ * parameters. Results are in parameter maps/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceParameterMapBenchmark {
+    private TraceParameterMap parameters;
+    private TraceParameterDefinitionMap definitions;
+    private byte[] serialized;
+    private Set<String> projection;
+
+    @Setup
+    public void setup() {
+        parameters = Fixtures.parameters(42);
+        definitions = TraceParameterDefinitionMap.createFrom(parameters);
+        serialized = parameters.toByteArray();
+        projection = new HashSet<>(Arrays.asList("INPUT", "COUNTER"));
+    }
+
+    @Benchmark
+    public byte[] toByteArray() {
+        return parameters.toByteArray();
+    }
+
+    @Benchmark
+    public TraceParameterMap deserialize() {
+        return TraceParameterMap.deserialize(serialized, definitions);
+    }
+
+    @Benchmark
+    public TraceParameterMap deserializeProjection() {
+        return TraceParameterMap.deserialize(serialized, definitions, projection);
+    }
+}
@@ -0,0 +1,94 @@
+package com.riscure.trs.benchmark;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TraceSet#get(int)} per sample encoding, for sequential and random access patterns.
+ * A trace set maps a window of at most 2 GB of the file at a time. The {@code SMALL} fixture of {@link #numberOfTraces}
+ * traces fits in one window. The {@code BEYOND_WINDOW} fixture holds enough traces to make the file larger than the
+ * window, so random access jumps across window boundaries and includes the cost of remapping the file. It needs more
+ * than 2 GB of free space in the temporary directory per trial, so it only runs when selected with
+ * {@code -p fixture=BEYOND_WINDOW}.
+ * The primary result is in traces/s, the {@code bytes} counter is in bytes/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceSetReadBenchmark {
+    private static final int BATCH = 256;
+
+    @Param({"BYTE", "SHORT", "INT", "FLOAT"})
+    public Encoding encoding;
+
+    @Param({"SEQUENTIAL", "RANDOM"})
+    public String access;
+
+    @Param({"SMALL"})
+    public String fixture;
+
+    @Param({"20000"})
+    public int numberOfTraces;
+
+    @Param({"1000"})
+    public int numberOfSamples;
+
+    private Path file;
+    private TraceSet traceSet;
+    private int[] order;
+    private int cursor;
+    private long traceSize;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException, TRSFormatException {
+        if ("BEYOND_WINDOW".equals(fixture)) {
+            //the samples alone exceed the largest window, the trace parameters only add to that
+            numberOfTraces = (int) (Integer.MAX_VALUE / ((long) encoding.getSize() * numberOfSamples)) + 1;
+        }
+        file = Fixtures.createTraceSet(encoding, numberOfTraces, numberOfSamples);
+        traceSet = TraceSet.open(file.toString());
+        traceSize = Fixtures.traceSize(traceSet.getMetaData());
+        order = new int[numberOfTraces];
+        for (int k = 0; k < numberOfTraces; k++) {
+            order[k] = k;
+        }
+        if ("RANDOM".equals(access)) {
+            Random random = new Random(Fixtures.SEED);
+            for (int k = numberOfTraces - 1; k > 0; k--) {
+                int j = random.nextInt(k + 1);
+                int swap = order[k];
+                order[k] = order[j];
+                order[j] = swap;
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException, TRSFormatException {
+        traceSet.close();
+        Fixtures.delete(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void get(ByteCounter counter, Blackhole blackhole) throws IOException {
+        for (int k = 0; k < BATCH; k++) {
+            blackhole.consume(traceSet.get(order[cursor]));
+            if (++cursor == order.length) {
+                cursor = 0;
+            }
+        }
+        counter.bytes += BATCH * traceSize;
+    }
+}
@@ -0,0 +1,74 @@
+package com.riscure.trs.benchmark;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link TraceSet#add(Trace)} per sample encoding. Every iteration writes to a new file, which is closed
+ * (rewriting the header) and deleted at the end of the iteration.
+ * The primary result is in traces/s, the {@code bytes} counter is in bytes/s.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TraceSetWriteBenchmark {
+    private static final int BATCH = 256;
+    private static final int DISTINCT_TRACES = 64;
+
+    @Param({"BYTE", "SHORT", "INT", "FLOAT"})
+    public Encoding encoding;
+
+    @Param({"1000"})
+    public int numberOfSamples;
+
+    private Trace[] traces;
+    private Path file;
+    private TraceSet traceSet;
+    private int cursor;
+    private long traceSize;
+
+    @Setup(Level.Trial)
+    public void createTraces() {
+        Random random = new Random(Fixtures.SEED);
+        traces = new Trace[DISTINCT_TRACES];
+        for (int k = 0; k < DISTINCT_TRACES; k++) {
+            traces[k] = Trace.create("", Fixtures.samples(encoding, numberOfSamples, random), Fixtures.parameters(k));
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createFile() throws IOException, TRSFormatException {
+        file = Files.createTempFile("trsfile-benchmark-write", ".trs");
+        traceSet = TraceSet.create(file.toString());
+        traceSet.add(traces[0]);
+        traceSize = Fixtures.traceSize(traceSet.getMetaData());
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteFile() throws IOException, TRSFormatException {
+        traceSet.close();
+        Fixtures.delete(file);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void add(ByteCounter counter) throws IOException, TRSFormatException {
+        for (int k = 0; k < BATCH; k++) {
+            traceSet.add(traces[cursor]);
+            cursor = (cursor + 1) % DISTINCT_TRACES;
+        }
+        counter.bytes += BATCH * traceSize;
+    }
+}
@@ -0,0 +1,130 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.Encoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Callable;
+
+/**
+ * Rewrites the traces that were written before the sample coding of a trace set was promoted to a wider encoding,
+ * see {@link TraceSet#setAdaptiveEncoding(boolean)}.
+ *
+ * The traces are streamed from the previous file in chunks, and written with positional writes to the region that
+ * the writer reserved for them at the start of the new file, while the writer appends new traces after that region.
+ */
+final class EncodingPromotion implements Callable<Void> {
+    private static final int CHUNK_BYTES = 1 << 20;
+
+    private final Path source;
+    private final long sourceOffset;
+    private final boolean deleteSource;
+    private final Path target;
+    private final long targetOffset;
+    private final int numberOfTraces;
+    private final int prefixSize;
+    private final int numberOfSamples;
+    private final Encoding from;
+    private final Encoding to;
+
+    /**
+     * @param source the file that contains the traces in the previous encoding
+     * @param sourceOffset the offset of the first trace in the source
+     * @param deleteSource whether the source is a temporary file that is deleted after the conversion
+     * @param target the file to write the converted traces to
+     * @param targetOffset the offset of the first converted trace in the target
+     * @param numberOfTraces the number of traces to convert
+     * @param prefixSize the size of the title and the data of a trace
+     * @param numberOfSamples the number of samples of a trace
+     * @param from the previous encoding of the samples
+     * @param to the new, wider encoding of the samples. INT samples beyond 2^24 in magnitude are rounded to the
+     * nearest float when they are promoted to FLOAT.
+     */
+    EncodingPromotion(Path source, long sourceOffset, boolean deleteSource, Path target, long targetOffset,
+                      int numberOfTraces, int prefixSize, int numberOfSamples, Encoding from, Encoding to) {
+        this.source = source;
+        this.sourceOffset = sourceOffset;
+        this.deleteSource = deleteSource;
+        this.target = target;
+        this.targetOffset = targetOffset;
+        this.numberOfTraces = numberOfTraces;
+        this.prefixSize = prefixSize;
+        this.numberOfSamples = numberOfSamples;
+        this.from = from;
+        this.to = to;
+    }
+
+    @Override
+    public Void call() throws IOException {
+        long sourceTraceSize = prefixSize + (long) numberOfSamples * from.getSize();
+        long targetTraceSize = prefixSize + (long) numberOfSamples * to.getSize();
+        int chunkTraces = (int) Math.max(1, Math.min(numberOfTraces, CHUNK_BYTES / targetTraceSize));
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE)) {
+            ByteBuffer input = ByteBuffer.allocate((int) (chunkTraces * sourceTraceSize)).order(ByteOrder.LITTLE_ENDIAN);
+            ByteBuffer output = ByteBuffer.allocate((int) (chunkTraces * targetTraceSize)).order(ByteOrder.LITTLE_ENDIAN);
+            for (int first = 0; first < numberOfTraces; first += chunkTraces) {
+                int count = Math.min(chunkTraces, numberOfTraces - first);
+                input.clear().limit((int) (count * sourceTraceSize));
+                long position = sourceOffset + first * sourceTraceSize;
+                while (input.hasRemaining()) {
+                    int read = in.read(input, position);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of file while promoting the encoding of " + source);
+                    }
+                    position += read;
+                }
+                input.flip();
+                output.clear();
+                for (int trace = 0; trace < count; trace++) {
+                    for (int k = 0; k < prefixSize; k++) {
+                        output.put(input.get());
+                    }
+                    convertSamples(input, output);
+                }
+                output.flip();
+                position = targetOffset + first * targetTraceSize;
+                while (output.hasRemaining()) {
+                    position += out.write(output, position);
+                }
+            }
+        }
+        if (deleteSource) {
+            Files.deleteIfExists(source);
+        }
+        return null;
+    }
+
+    private void convertSamples(ByteBuffer input, ByteBuffer output) {
+        for (int k = 0; k < numberOfSamples; k++) {
+            int value;
+            switch (from) {
+                case BYTE:
+                    value = input.get();
+                    break;
+                case SHORT:
+                    value = input.getShort();
+                    break;
+                default:
+                    value = input.getInt();
+                    break;
+            }
+            switch (to) {
+                case SHORT:
+                    output.putShort((short) value);
+                    break;
+                case INT:
+                    output.putInt(value);
+                    break;
+                default:
+                    output.putFloat(value);
+                    break;
+            }
+        }
+    }
+}
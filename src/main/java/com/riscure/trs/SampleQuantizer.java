@@ -0,0 +1,164 @@
+package com.riscure.trs;
+
+import com.riscure.trs.enums.Encoding;
+
+/**
+ * Quantizes float samples to BYTE or SHORT samples while they are written, see
+ * {@link TraceSet#setQuantizer(SampleQuantizer)}.
+ *
+ * A sample {@code x} is stored as {@code round((x - offset) / scale)}, clamped to the range of the encoding. The scale
+ * is recorded in the {@link com.riscure.trs.enums.TRSTag#SCALE_Y} header field and the offset in the trace set
+ * parameter {@link #OFFSET_Y}, so that a reader can restore {@code x} up to half a quantization step with
+ * {@link TraceSet#setApplyScale(boolean)}. The scale and the offset are either derived from an explicit range of
+ * values, or from the range of the first traces that are written.
+ */
+public final class SampleQuantizer {
+    public static final String OFFSET_Y = "OFFSET_Y";
+    private static final String UNSUPPORTED_ENCODING = "Samples can only be quantized to BYTE or SHORT, not to %s";
+    private static final String INVALID_RANGE = "Invalid range of values [%f, %f]";
+    private static final String NOT_FINITE = "Cannot quantize sample value %f";
+
+    private final Encoding encoding;
+    private final int limit;
+    private final int calibrationTraces;
+    private float min = Float.POSITIVE_INFINITY;
+    private float max = Float.NEGATIVE_INFINITY;
+    private boolean calibrated;
+    private float scale;
+    private double offset;
+    private double inverseScale;
+    private long clippedSamples;
+
+    private SampleQuantizer(Encoding encoding, int calibrationTraces) {
+        if (encoding != Encoding.BYTE && encoding != Encoding.SHORT) {
+            throw new IllegalArgumentException(String.format(UNSUPPORTED_ENCODING, encoding));
+        }
+        this.encoding = encoding;
+        this.limit = encoding == Encoding.BYTE ? Byte.MAX_VALUE : Short.MAX_VALUE;
+        this.calibrationTraces = calibrationTraces;
+    }
+
+    /**
+     * Create a quantizer for a known range of values, for example the input range of a scope
+     * @param encoding the encoding to quantize to, BYTE or SHORT
+     * @param min the lowest value to represent
+     * @param max the highest value to represent
+     * @return the quantizer
+     */
+    public static SampleQuantizer forRange(Encoding encoding, double min, double max) {
+        if (!(min <= max) || Double.isInfinite(min) || Double.isInfinite(max)) {
+            throw new IllegalArgumentException(String.format(INVALID_RANGE, min, max));
+        }
+        SampleQuantizer quantizer = new SampleQuantizer(encoding, 0);
+        quantizer.calibrate(min, max);
+        return quantizer;
+    }
+
+    /**
+     * Create a quantizer for the range of the values of the first traces that are written. Samples of later traces
+     * that are out of this range are clamped, see {@link #getClippedSamples()}.
+     * @param encoding the encoding to quantize to, BYTE or SHORT
+     * @param calibrationTraces the number of traces to determine the range from, which are kept in memory until then
+     * @return the quantizer
+     */
+    public static SampleQuantizer fromFirstTraces(Encoding encoding, int calibrationTraces) {
+        return new SampleQuantizer(encoding, Math.max(1, calibrationTraces));
+    }
+
+    /**
+     * @return the encoding the samples are quantized to
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the number of traces to determine the range from, or 0 if the range was given explicitly
+     */
+    public int getCalibrationTraces() {
+        return calibrationTraces;
+    }
+
+    /**
+     * @return whether the scale and the offset have been determined
+     */
+    public boolean isCalibrated() {
+        return calibrated;
+    }
+
+    /**
+     * @return the difference between the values of two consecutive quantized samples
+     */
+    public float getScale() {
+        return scale;
+    }
+
+    /**
+     * @return the value of a quantized sample of zero
+     */
+    public double getOffset() {
+        return offset;
+    }
+
+    /**
+     * @return the number of samples that were out of range and have been clamped
+     */
+    public long getClippedSamples() {
+        return clippedSamples;
+    }
+
+    /**
+     * Include the samples of a trace in the range to determine the scale and the offset from
+     */
+    void observe(float[] samples) {
+        for (float sample : samples) {
+            checkFinite(sample);
+            min = Math.min(min, sample);
+            max = Math.max(max, sample);
+        }
+    }
+
+    /**
+     * Determine the scale and the offset from the observed samples
+     */
+    void calibrate() {
+        if (min > max) {
+            calibrate(0, 0);
+        } else {
+            calibrate(min, max);
+        }
+    }
+
+    private void calibrate(double min, double max) {
+        this.offset = (min + max) / 2;
+        //the scale is stored as a float, so quantize with exactly the value a reader will use
+        float step = (float) ((max - min) / (2.0 * limit));
+        this.scale = step > 0 && !Float.isInfinite(step) ? step : 1f;
+        this.inverseScale = 1.0 / scale;
+        this.calibrated = true;
+    }
+
+    /**
+     * @param sample the value to quantize
+     * @return the quantized value, within the range of the encoding
+     */
+    int quantize(float sample) {
+        checkFinite(sample);
+        long quantized = Math.round((sample - offset) * inverseScale);
+        if (quantized > limit) {
+            clippedSamples++;
+            return limit;
+        }
+        if (quantized < -limit) {
+            clippedSamples++;
+            return -limit;
+        }
+        return (int) quantized;
+    }
+
+    private static void checkFinite(float sample) {
+        if (Float.isNaN(sample) || Float.isInfinite(sample)) {
+            throw new IllegalArgumentException(String.format(NOT_FINITE, sample));
+        }
+    }
+}
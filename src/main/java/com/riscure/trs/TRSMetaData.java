@@ -6,26 +6,53 @@ import com.riscure.trs.parameter.trace.definition.UnmodifiableTraceParameterDefi
 import com.riscure.trs.parameter.traceset.TraceSetParameterMap;
 import com.riscure.trs.parameter.traceset.UnmodifiableTraceSetParameterMap;
 
-import java.util.HashMap;
+import java.util.EnumMap;
 import java.util.Map;
 
 public class TRSMetaData {
     private static final String IGNORING_NEW_VALUE = "%s: Ignoring new value (%s) because previously defined value is non-default (%s) and overwrite is disabled.%n";
     private static final String INCOMPATIBLE_TYPES = "Failed to add tag %s: Expected type (%s) does not match actual type (%s).";
 
+    private static final int DEFAULT_NUMBER_OF_TRACES = (Integer) TRSTag.NUMBER_OF_TRACES.getDefaultValue();
+    private static final int DEFAULT_NUMBER_OF_SAMPLES = (Integer) TRSTag.NUMBER_OF_SAMPLES.getDefaultValue();
+    private static final int DEFAULT_SAMPLE_CODING = (Integer) TRSTag.SAMPLE_CODING.getDefaultValue();
+    private static final int DEFAULT_DATA_LENGTH = (Integer) TRSTag.DATA_LENGTH.getDefaultValue();
+    private static final int DEFAULT_TITLE_SPACE = (Integer) TRSTag.TITLE_SPACE.getDefaultValue();
+
+    //The tags used for every trace read or written are kept as primitives, all other tags are kept in the map
+    private int numberOfTraces = DEFAULT_NUMBER_OF_TRACES;
+    private int numberOfSamples = DEFAULT_NUMBER_OF_SAMPLES;
+    private int sampleCoding = DEFAULT_SAMPLE_CODING;
+    private int dataLength = DEFAULT_DATA_LENGTH;
+    private int titleSpace = DEFAULT_TITLE_SPACE;
     private final Map<TRSTag, Object> metaData;
 
     /**
      * Creates a TRS metadata object with all default values
      */
     public TRSMetaData() {
-        metaData = new HashMap<>();
+        metaData = new EnumMap<>(TRSTag.class);
         init();
     }
 
     private void init() {
         for (TRSTag tag : TRSTag.values()) {
-            metaData.put(tag, tag.getDefaultValue());
+            if (!isPrimitive(tag)) {
+                metaData.put(tag, tag.getDefaultValue());
+            }
+        }
+    }
+
+    private static boolean isPrimitive(TRSTag tag) {
+        switch (tag) {
+            case NUMBER_OF_TRACES:
+            case NUMBER_OF_SAMPLES:
+            case SAMPLE_CODING:
+            case DATA_LENGTH:
+            case TITLE_SPACE:
+                return true;
+            default:
+                return false;
         }
     }
 
@@ -51,19 +78,72 @@ public class TRSMetaData {
                     String.format(INCOMPATIBLE_TYPES, tag.name(), tag.getType(), data.getClass()));
         }
 
-        if (hasDefaultValue(tag) || overwriteNonDefault) {
+        if (isPrimitive(tag)) {
+            put(tag, ((Integer) data).intValue(), overwriteNonDefault);
+        } else if (hasDefaultValue(tag) || overwriteNonDefault) {
             metaData.put(tag, data);
         } else {
             System.err.printf(IGNORING_NEW_VALUE, tag.name(), data.toString(), metaData.get(tag));
         }
     }
 
+    /**
+     * Add the integer value associated with the supplied tag to this metadata.
+     * This will overwrite any existing value
+     * @param tag the tag for which to save the metadata
+     * @param data the data to save
+     */
+    public void put(TRSTag tag, int data) {
+        put(tag, data, true);
+    }
+
+    /**
+     * Add the integer value associated with the supplied tag to this metadata
+     * @param tag the tag for which to save the metadata
+     * @param data the data to save
+     * @param overwriteNonDefault whether to overwrite non-default values currently saved for this tag
+     */
+    public void put(TRSTag tag, int data, boolean overwriteNonDefault) {
+        if (!isPrimitive(tag)) {
+            put(tag, (Object) data, overwriteNonDefault);
+            return;
+        }
+
+        if (!hasDefaultValue(tag) && !overwriteNonDefault) {
+            System.err.printf(IGNORING_NEW_VALUE, tag.name(), data, getInt(tag));
+            return;
+        }
+
+        switch (tag) {
+            case NUMBER_OF_TRACES:
+                numberOfTraces = data;
+                break;
+            case NUMBER_OF_SAMPLES:
+                numberOfSamples = data;
+                break;
+            case SAMPLE_CODING:
+                sampleCoding = data;
+                break;
+            case DATA_LENGTH:
+                dataLength = data;
+                break;
+            case TITLE_SPACE:
+                titleSpace = data;
+                break;
+            default:
+                throw new IllegalStateException("Unexpected primitive tag: " + tag.name());
+        }
+    }
+
     /**
      * Get the value of the associated tag
      * @param tag the tag to get the data for
      * @return the value of the supplied tag in the metadata. The type of the data is {@link TRSTag#getType()}.
      */
     public Object get(TRSTag tag) {
+        if (isPrimitive(tag)) {
+            return getInt(tag);
+        }
         return metaData.get(tag);
     }
 
@@ -74,7 +154,20 @@ public class TRSMetaData {
      * @throws ClassCastException if the type does not match the type of the TRSTag
      */
     public int getInt(TRSTag tag) {
-        return (Integer) metaData.get(tag);
+        switch (tag) {
+            case NUMBER_OF_TRACES:
+                return numberOfTraces;
+            case NUMBER_OF_SAMPLES:
+                return numberOfSamples;
+            case SAMPLE_CODING:
+                return sampleCoding;
+            case DATA_LENGTH:
+                return dataLength;
+            case TITLE_SPACE:
+                return titleSpace;
+            default:
+                return (Integer) metaData.get(tag);
+        }
     }
 
     /**
@@ -137,7 +230,20 @@ public class TRSMetaData {
      * @return true if the value of the supplied tag is default, false otherwise
      */
     public boolean hasDefaultValue(TRSTag tag) {
-        return tag.getDefaultValue().equals(metaData.get(tag));
+        switch (tag) {
+            case NUMBER_OF_TRACES:
+                return numberOfTraces == DEFAULT_NUMBER_OF_TRACES;
+            case NUMBER_OF_SAMPLES:
+                return numberOfSamples == DEFAULT_NUMBER_OF_SAMPLES;
+            case SAMPLE_CODING:
+                return sampleCoding == DEFAULT_SAMPLE_CODING;
+            case DATA_LENGTH:
+                return dataLength == DEFAULT_DATA_LENGTH;
+            case TITLE_SPACE:
+                return titleSpace == DEFAULT_TITLE_SPACE;
+            default:
+                return tag.getDefaultValue().equals(metaData.get(tag));
+        }
     }
 
     @Override
@@ -5,16 +5,47 @@ import com.riscure.trs.io.LittleEndianInputStream;
 import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
 import com.riscure.trs.parameter.traceset.TraceSetParameterMap;
 
+import java.io.ByteArrayOutputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 
 public class TRSMetaDataUtils {
     private static final String IGNORED_UNKNOWN_TAG = "ignored unknown metadata tag '%02X' while reading a TRS file\n";
     private static final String TAG_LENGTH_INVALID = "The length field following tag '%s' has value '%X', which is not between 0 and 0xffff";
     private static final String UNSUPPORTED_TAG_TYPE = "Unsupported tag type for tag '%s': %s";
     private static final String REWINDING_STREAM = "The output stream is not at the start of the file. Rewinding stream.";
+    private static final String LAYOUT_DIFFERS = "Trace set '%s' has a different %s (%s) than '%s' (%s)";
+    private static final TRSTag[] LAYOUT_TAGS = {TRSTag.NUMBER_OF_SAMPLES, TRSTag.SAMPLE_CODING, TRSTag.DATA_LENGTH,
+            TRSTag.TITLE_SPACE, TRSTag.TRS_VERSION};
+
+    /**
+     * Checks that the traces of two trace sets can be stored in the same trace set, i.e. that they have the same number
+     * of samples, sample coding, data length, title space, version and trace parameter definitions.
+     *
+     * @param expectedFile the path of the trace set with the expected layout
+     * @param expected     the metadata of the trace set with the expected layout
+     * @param file         the path of the trace set to check
+     * @param actual       the metadata of the trace set to check
+     * @throws IllegalArgumentException if the layouts differ
+     */
+    public static void checkSameLayout(Path expectedFile, TRSMetaData expected, Path file, TRSMetaData actual) {
+        for (TRSTag tag : LAYOUT_TAGS) {
+            if (expected.getInt(tag) != actual.getInt(tag)) {
+                throw new IllegalArgumentException(String.format(LAYOUT_DIFFERS, file, tag, actual.getInt(tag),
+                        expectedFile, expected.getInt(tag)));
+            }
+        }
+        if (!expected.getTraceParameterDefinitions().equals(actual.getTraceParameterDefinitions())) {
+            throw new IllegalArgumentException(String.format(LAYOUT_DIFFERS, file, TRSTag.TRACE_PARAMETER_DEFINITIONS,
+                    actual.getTraceParameterDefinitions(), expectedFile, expected.getTraceParameterDefinitions()));
+        }
+    }
 
     /**
      * Writes the provided TRS metadata to the stream.
@@ -29,6 +60,28 @@ public class TRSMetaDataUtils {
             System.err.println(REWINDING_STREAM);
             fos.getChannel().position(0);
         }
+        write(fos, metaData);
+    }
+
+    /**
+     * Serializes the provided TRS metadata to the bytes of a TRS header, as written by
+     * {@link #writeTRSMetaData(FileOutputStream, TRSMetaData)}.
+     *
+     * @param metaData the metadata to serialize
+     * @return the header bytes
+     * @throws TRSFormatException if the metadata contains unsupported tags
+     */
+    public static byte[] serializeTRSMetaData(TRSMetaData metaData) throws TRSFormatException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            write(bytes, metaData);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void write(OutputStream fos, TRSMetaData metaData) throws IOException, TRSFormatException {
         for (TRSTag tag : TRSTag.values()) {
             if (tag.equals(TRSTag.TRACE_BLOCK)) continue;                     //TRACE BLOCK should be the last write
             if (!tag.isRequired() && metaData.hasDefaultValue(tag)) continue; //ignore if default and not required
@@ -65,13 +118,13 @@ public class TRSMetaDataUtils {
         fos.write(TRSTag.TRACE_BLOCK.getLength());
     }
 
-    private static void writeInt(FileOutputStream fos, int value, int length) throws IOException {
+    private static void writeInt(OutputStream fos, int value, int length) throws IOException {
         for (int i = 0; i < length; i++) {
             fos.write((byte) (value >> (i * 8)));
         }
     }
 
-    private static void writeLength(FileOutputStream fos, long length) throws IOException {
+    private static void writeLength(OutputStream fos, long length) throws IOException {
         if (length > 0x7F) {
             int lenlen = 1 + (int) (Math.log(length) / Math.log(256));
             fos.write((byte) (0x80 + lenlen));
@@ -130,6 +183,7 @@ public class TRSMetaDataUtils {
             trsTag = TRSTag.fromValue(tag);
         } catch (TRSFormatException ex) {
             //unknown tag, but read it anyway
+            if (length > buffer.remaining()) throw new BufferUnderflowException();
             buffer.position(buffer.position() + length);
             System.err.printf(IGNORED_UNKNOWN_TAG, tag);
             return;
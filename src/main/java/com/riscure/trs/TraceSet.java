@@ -2,26 +2,46 @@ package com.riscure.trs;
 
 import com.riscure.trs.enums.Encoding;
 import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.index.ParameterIndex;
+import com.riscure.trs.index.TraceBitmap;
+import com.riscure.trs.index.Tombstones;
+import com.riscure.trs.jfr.TraceSetEvents;
+import com.riscure.trs.metrics.TraceSetMetricsListener;
 import com.riscure.trs.parameter.TraceParameter;
 import com.riscure.trs.parameter.primitive.StringParameter;
 import com.riscure.trs.parameter.trace.TraceParameterMap;
 import com.riscure.trs.parameter.trace.definition.TraceParameterDefinition;
 import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import com.riscure.trs.parameter.traceset.TraceSetParameterMap;
+import com.riscure.trs.types.TypedKey;
 
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.nio.*;
 import java.nio.channels.FileChannel;
 import java.nio.charset.CharsetDecoder;
 import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import static com.riscure.trs.enums.TRSTag.*;
 
@@ -35,8 +55,15 @@ public class TraceSet implements AutoCloseable {
     private static final String TRACE_DATA_LENGTH_DIFFERS = "All traces in a set need to have the same data length, but current trace data length (%d) differs from the previous trace(s) (%d)";
     private static final String UNKNOWN_SAMPLE_CODING = "Error reading TRS file: unknown sample coding '%d'";
     private static final long MAX_BUFFER_SIZE = Integer.MAX_VALUE;
+    private static final int HEADER_READ_SIZE = 4096;
+    private static final String HEADER_TRUNCATED = "Error reading TRS file: the header of '%s' ends before the trace block tag";
     private static final String PARAMETER_NOT_DEFINED = "Parameter %s is saved in the trace, but was not found in the header definition";
     private static final CharsetDecoder UTF8_DECODER = StandardCharsets.UTF_8.newDecoder();
+    public static final String LEGACY_DATA = "LEGACY_DATA";
+    private static final String SAMPLE_CODING_DIFFERS = "The samples of this trace set are encoded as %s, not as %s";
+    private static final String SAMPLES_OUT_OF_BOUNDS = "Requested samples (offset %d, length %d) are out of bounds of the number of samples (%d)";
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private static final int READ_SPAN_LIMIT = 4096;
 
     //Reading variables
     private int metaDataSize;
@@ -49,13 +76,31 @@ public class TraceSet implements AutoCloseable {
     private long bufferSize;        //the number of bytes that are in the buffer window
     private long fileSize;          //the total number of bytes in the underlying file
 
+    private Object readSpan;        //the flight recorder event of the current span of consecutive reads, if any
+    private int readSpanFirst;      //the index of the first trace of the current read span
+    private int readSpanNext;       //the index of the trace that continues the current read span
+    private float sampleScale = 1f; //the scale applied to decoded samples
+    private double sampleOffset;    //the offset added to decoded samples
+    private ParameterIndex parameterIndex;
+    private Tombstones tombstones;  //the deleted traces that are skipped, if any
+
     //Writing variables
     private FileOutputStream writeStream;
+    private ByteBuffer writeBuffer; //the encoded traces that have not been written to the file yet
+    private int bufferedTraces;     //the number of traces in the write buffer
+    private SampleQuantizer quantizer;
+    private List<Trace> calibrationTraces = new ArrayList<>();  //the traces kept until the quantizer is calibrated
+    private int headerSize;         //the size of the header that was last written
+    private boolean adaptiveEncoding;
+    private Path writePath;         //the file that is written, which differs from the path after a promotion
+    private ExecutorService promoter;
+    private Future<Void> promotion; //the rewrite of the traces written before the last promotion
 
     private boolean firstTrace = true;
 
     //Shared variables
     private final TRSMetaData metaData;
+    private TraceSetMetricsListener metrics;
     private boolean open;
     private final boolean writing;        //whether the trace is opened in write mode
     private final Path path;
@@ -82,6 +127,7 @@ public class TraceSet implements AutoCloseable {
         this.writing = true;
         this.metaData = metaData;
         this.path = Paths.get(outputFileName);
+        this.writePath = path;
         this.writeStream = new FileOutputStream(outputFileName);
     }
 
@@ -93,7 +139,9 @@ public class TraceSet implements AutoCloseable {
     }
 
     private void mapBuffer() throws IOException {
+        Object event = TraceSetEvents.beginRemap();
         this.buffer = this.channel.map(FileChannel.MapMode.READ_ONLY, this.bufferStart, this.bufferSize);
+        TraceSetEvents.commitRemap(event, path, bufferStart, bufferSize);
     }
 
     private void moveBufferIfNecessary(int traceIndex) throws IOException {
@@ -103,9 +151,13 @@ public class TraceSet implements AutoCloseable {
 
         boolean moveRequired = start < this.bufferStart || this.bufferStart + this.bufferSize < end;
         if (moveRequired) {
+            long startTime = metrics != null ? System.nanoTime() : 0L;
             this.bufferStart = start;
             this.bufferSize = Math.min(this.fileSize - start, MAX_BUFFER_SIZE);
             this.mapBuffer();
+            if (metrics != null) {
+                metrics.bufferRemapped(bufferStart, bufferSize, System.nanoTime() - startTime);
+            }
         }
     }
 
@@ -123,6 +175,258 @@ public class TraceSet implements AutoCloseable {
      * @throws IllegalArgumentException if this TraceSet is not ready be read from
      */
     public Trace get(int index) throws IOException {
+        return get(index, (Set<String>) null);
+    }
+
+    /**
+     * Get a trace from the set at the specified index, decoding only the requested trace parameters.
+     * All other parameters are skipped, which avoids materializing them when only a few are needed.
+     * @param index the index of the Trace to read from the file
+     * @param keys the typed keys of the parameters to decode
+     * @return the Trace at the requested trace index, containing only the requested parameters
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     */
+    public Trace get(int index, TypedKey<?>... keys) throws IOException {
+        Set<String> projection = new HashSet<>();
+        for (TypedKey<?> key : keys) {
+            projection.add(key.getKey());
+        }
+        return get(index, projection);
+    }
+
+    /**
+     * Get a trace from the set at the specified index, decoding only the requested trace parameters.
+     * All other parameters are skipped, which avoids materializing them when only a few are needed.
+     * @param index the index of the Trace to read from the file
+     * @param parameterNames the names of the parameters to decode, or null to decode all parameters
+     * @return the Trace at the requested trace index, containing only the requested parameters
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     */
+    public Trace get(int index, Set<String> parameterNames) throws IOException {
+        long traceSize = seekTrace(index);
+
+        String traceTitle = this.readTraceTitle();
+        if (traceTitle.trim().isEmpty()) {
+            traceTitle = String.format("%s %d", metaData.getString(GLOBAL_TITLE), index);
+        }
+
+        try {
+            TraceParameterMap traceParameterMap = readParameters(parameterNames);
+            float[] samples = readSamples();
+            TraceSetEvents.endTraceRead(readSpan);
+            if (metrics != null) {
+                metrics.traceRead(index, traceSize);
+            }
+            return new Trace(traceTitle, samples, traceParameterMap);
+        } catch (TRSFormatException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * Get the trace parameters of the trace at the specified index, without reading its title or samples
+     * @param index the index of the trace to read from the file
+     * @param parameterNames the names of the parameters to decode, or null to decode all parameters
+     * @return the trace parameters of the trace at the requested trace index
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from
+     */
+    public TraceParameterMap getParameters(int index, Set<String> parameterNames) throws IOException {
+        seekTrace(index);
+        buffer.position(buffer.position() + metaData.getInt(TITLE_SPACE));
+        int start = buffer.position();
+        TraceParameterMap traceParameterMap = readParameters(parameterNames);
+        TraceSetEvents.endTraceRead(readSpan);
+        if (metrics != null) {
+            metrics.traceRead(index, buffer.position() - start);
+        }
+        return traceParameterMap;
+    }
+
+    /**
+     * Find the traces with a value of a trace parameter. The query is answered from the parameter index sidecar of
+     * this trace set when it is up to date (see {@link ParameterIndex#index(String)}), and otherwise from an index
+     * that is built with a single pass over the trace parameters, and kept for the next queries. Strings are compared
+     * without the NUL characters they are padded with to the length of their definition.
+     * @param key the key of the trace parameter
+     * @param value the value to find
+     * @return the indices of the traces with the value
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, or the parameter is not defined
+     */
+    public <T> TraceBitmap indicesWhere(TypedKey<T> key, T value) throws IOException {
+        ParameterIndex index = getParameterIndex();
+        TraceBitmap candidates = index.where(key, value);
+        if (index.isExact(key.getKey())) {
+            return candidates;
+        }
+        //values that are indexed by their hash are compared to rule out collisions
+        TraceBitmap result = new TraceBitmap();
+        Set<String> names = Collections.singleton(key.getKey());
+        for (int candidate : candidates.toArray()) {
+            if (sameValue(value, getParameters(candidate, names).get(key).orElse(null))) {
+                result.add(candidate);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Find the traces with a value of a numeric trace parameter in a range, see
+     * {@link #indicesWhere(TypedKey, Object)}
+     * @param key the key of the trace parameter
+     * @param min the lowest value to find
+     * @param max the highest value to find
+     * @return the indices of the traces with a value in the range
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, or the parameter is not defined
+     * or does not have single numeric values
+     */
+    public <T extends Number> TraceBitmap indicesBetween(TypedKey<T> key, T min, T max) throws IOException {
+        return getParameterIndex().whereBetween(key, min, max);
+    }
+
+    private static boolean sameValue(Object value, Object stored) {
+        if (value instanceof String && stored instanceof String) {
+            return StringParameter.stripPadding((String) value).equals(StringParameter.stripPadding((String) stored));
+        }
+        return Objects.deepEquals(value, stored);
+    }
+
+    private ParameterIndex getParameterIndex() throws IOException {
+        if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
+        if (parameterIndex == null) {
+            Path sidecar = ParameterIndex.sidecarOf(path.toString());
+            if (Files.exists(sidecar)) {
+                ParameterIndex index = ParameterIndex.load(sidecar);
+                //the sidecar indexes all traces in the file, which differs from the live traces after a deletion
+                if (index.isUpToDate(path) && index.getNumberOfTraces() == metaData.getInt(NUMBER_OF_TRACES)) {
+                    parameterIndex = index;
+                }
+            }
+            if (parameterIndex == null) {
+                parameterIndex = ParameterIndex.build(this, null);
+            }
+        }
+        return parameterIndex;
+    }
+
+    private TraceParameterMap readParameters(Set<String> parameterNames) {
+        byte[] data;
+        if (metaData.getInt(TRS_VERSION) > 1) {
+            data = new byte[metaData.getTraceParameterDefinitions().totalSize()];
+            buffer.get(data);
+        } else {
+            data = readData();
+        }
+        return decodeParameters(metaData, data, parameterNames);
+    }
+
+    /**
+     * Decode the trace parameters of a trace from its data. The data of a legacy (version 1) trace set is not
+     * defined by the header, so it is returned as a single byte array parameter named {@value #LEGACY_DATA}.
+     * @param metaData the metadata of the trace set
+     * @param data the data of the trace
+     * @param parameterNames the names of the parameters to decode, or null to decode all parameters
+     * @return the decoded trace parameters
+     */
+    public static TraceParameterMap decodeParameters(TRSMetaData metaData, byte[] data, Set<String> parameterNames) {
+        if (metaData.getInt(TRS_VERSION) > 1) {
+            TraceParameterDefinitionMap definitions = metaData.getTraceParameterDefinitions();
+            return parameterNames == null
+                    ? TraceParameterMap.deserialize(data, definitions)
+                    : TraceParameterMap.deserialize(data, definitions, parameterNames);
+        }
+        //legacy mode
+        TraceParameterMap parameters = new TraceParameterMap();
+        if (data.length > 0 && (parameterNames == null || parameterNames.contains(LEGACY_DATA))) {
+            parameters.put(LEGACY_DATA, data);
+        }
+        return parameters;
+    }
+
+    /**
+     * Read the samples of a BYTE encoded trace set without converting them to float
+     * @param index the index of the trace to read from
+     * @param offset the index of the first sample to read
+     * @param destination the array to read the samples into, which determines the number of samples read
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, is not BYTE encoded, or if the
+     * requested samples are out of bounds
+     */
+    public void readSamples(int index, int offset, byte[] destination) throws IOException {
+        seekSamples(index, offset, destination.length, Encoding.BYTE);
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        buffer.get(destination);
+        TraceSetEvents.endTraceRead(readSpan);
+        reportSamplesRead(index, Encoding.BYTE, destination.length, startTime);
+    }
+
+    /**
+     * Read the samples of a SHORT encoded trace set without converting them to float
+     * @param index the index of the trace to read from
+     * @param offset the index of the first sample to read
+     * @param destination the array to read the samples into, which determines the number of samples read
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, is not SHORT encoded, or if the
+     * requested samples are out of bounds
+     */
+    public void readSamples(int index, int offset, short[] destination) throws IOException {
+        seekSamples(index, offset, destination.length, Encoding.SHORT);
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        buffer.order(ByteOrder.LITTLE_ENDIAN).asShortBuffer().get(destination);
+        TraceSetEvents.endTraceRead(readSpan);
+        reportSamplesRead(index, Encoding.SHORT, destination.length, startTime);
+    }
+
+    /**
+     * Read the samples of an INT encoded trace set without converting them to float
+     * @param index the index of the trace to read from
+     * @param offset the index of the first sample to read
+     * @param destination the array to read the samples into, which determines the number of samples read
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, is not INT encoded, or if the
+     * requested samples are out of bounds
+     */
+    public void readSamples(int index, int offset, int[] destination) throws IOException {
+        seekSamples(index, offset, destination.length, Encoding.INT);
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        buffer.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer().get(destination);
+        TraceSetEvents.endTraceRead(readSpan);
+        reportSamplesRead(index, Encoding.INT, destination.length, startTime);
+    }
+
+    /**
+     * Read the samples of a FLOAT encoded trace set into an existing array
+     * @param index the index of the trace to read from
+     * @param offset the index of the first sample to read
+     * @param destination the array to read the samples into, which determines the number of samples read
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this TraceSet is not ready be read from, is not FLOAT encoded, or if the
+     * requested samples are out of bounds
+     */
+    public void readSamples(int index, int offset, float[] destination) throws IOException {
+        seekSamples(index, offset, destination.length, Encoding.FLOAT);
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        buffer.order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(destination);
+        TraceSetEvents.endTraceRead(readSpan);
+        reportSamplesRead(index, Encoding.FLOAT, destination.length, startTime);
+    }
+
+    private void reportSamplesRead(int index, Encoding encoding, int numberOfSamples, long startTime) {
+        if (metrics != null) {
+            metrics.samplesDecoded(encoding, numberOfSamples, System.nanoTime() - startTime);
+            metrics.traceRead(index, (long) numberOfSamples * encoding.getSize());
+        }
+    }
+
+    /**
+     * Position the read buffer at the start of the requested trace
+     * @return the size of a trace in bytes
+     */
+    private long seekTrace(int index) throws IOException {
         if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
         if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
 
@@ -133,44 +437,45 @@ public class TraceSet implements AutoCloseable {
             throw new IllegalArgumentException(msg);
         }
 
-        long calculatedFileSize = metaDataSize + traceSize * nrOfTraces;
+        long tracesInFile = tombstones == null ? nrOfTraces : tombstones.getNumberOfTraces();
+        long calculatedFileSize = metaDataSize + traceSize * tracesInFile;
         if (fileSize != calculatedFileSize) {
-            String msg = String.format(ERROR_READING_FILE, fileSize, metaDataSize, traceSize, nrOfTraces);
+            String msg = String.format(ERROR_READING_FILE, fileSize, metaDataSize, traceSize, tracesInFile);
             throw new IllegalStateException(msg);
         }
+        int position = tombstones == null ? index : tombstones.select(index);
 
-        moveBufferIfNecessary(index);
+        //reading the parameters and the samples of a trace separately continues the span
+        boolean continuesSpan = index == readSpanNext || index == readSpanNext - 1;
+        if (readSpan == null || !continuesSpan || index - readSpanFirst >= READ_SPAN_LIMIT) {
+            commitReadSpan();
+            readSpan = TraceSetEvents.beginTraceRead();
+            readSpanFirst = index;
+        }
+        readSpanNext = index + 1;
+
+        moveBufferIfNecessary(position);
 
-        long absolutePosition = metaDataSize + index * traceSize;
+        long absolutePosition = metaDataSize + position * traceSize;
         buffer.position((int) (absolutePosition - this.bufferStart));
+        return traceSize;
+    }
 
-        String traceTitle = this.readTraceTitle();
-        if (traceTitle.trim().isEmpty()) {
-            traceTitle = String.format("%s %d", metaData.getString(GLOBAL_TITLE), index);
+    /**
+     * Position the read buffer at the requested sample of the requested trace
+     */
+    private void seekSamples(int index, int offset, int length, Encoding expected) throws IOException {
+        Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
+        if (encoding != expected) {
+            throw new IllegalArgumentException(String.format(SAMPLE_CODING_DIFFERS, encoding, expected));
         }
-
-        try {
-            TraceParameterMap traceParameterMap;
-            if (metaData.getInt(TRS_VERSION) > 1) {
-                TraceParameterDefinitionMap traceParameterDefinitionMap = metaData.getTraceParameterDefinitions();
-                int size = traceParameterDefinitionMap.totalSize();
-                byte[] data = new byte[size];
-                buffer.get(data);
-                traceParameterMap = TraceParameterMap.deserialize(data, traceParameterDefinitionMap);
-            } else {
-                //legacy mode
-                byte[] data = readData();
-                traceParameterMap = new TraceParameterMap();
-                if (data.length > 0) {
-                    traceParameterMap.put("LEGACY_DATA", data);
-                }
-            }
-
-            float[] samples = readSamples();
-            return new Trace(traceTitle, samples, traceParameterMap);
-        } catch (TRSFormatException ex) {
-            throw new IOException(ex);
+        int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+        if (offset < 0 || length < 0 || (long) offset + length > numberOfSamples) {
+            throw new IllegalArgumentException(String.format(SAMPLES_OUT_OF_BOUNDS, offset, length, numberOfSamples));
         }
+        seekTrace(index);
+        int skip = metaData.getInt(TITLE_SPACE) + metaData.getInt(DATA_LENGTH) + offset * encoding.getSize();
+        buffer.position(buffer.position() + skip);
     }
 
     /**
@@ -182,25 +487,137 @@ public class TraceSet implements AutoCloseable {
     public void add(Trace trace) throws IOException, TRSFormatException {
         if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
         if (!writing) throw new IllegalArgumentException(TRACE_SET_IN_READ_MODE);
+        if (quantizer != null && !quantizer.isCalibrated()) {
+            quantizer.observe(trace.getSample());
+            calibrationTraces.add(trace);
+            if (calibrationTraces.size() >= quantizer.getCalibrationTraces()) {
+                addCalibrationTraces();
+            }
+            return;
+        }
+        addTrace(trace);
+    }
+
+    private void addTrace(Trace trace) throws IOException, TRSFormatException {
         if (firstTrace) {
             int dataLength = trace.getData() == null ? 0 : trace.getData().length;
             int titleLength = trace.getTitle() == null ? 0 : trace.getTitle().getBytes(StandardCharsets.UTF_8).length;
             metaData.put(NUMBER_OF_SAMPLES, trace.getNumberOfSamples(), false);
             metaData.put(DATA_LENGTH, dataLength, false);
             metaData.put(TITLE_SPACE, titleLength, false);
-            metaData.put(SAMPLE_CODING, trace.getPreferredCoding(), false);
+            if (quantizer != null) {
+                metaData.put(SAMPLE_CODING, quantizer.getEncoding().getValue());
+                metaData.put(SCALE_Y, quantizer.getScale());
+                TraceSetParameterMap parameters = new TraceSetParameterMap(metaData.getTraceSetParameters());
+                parameters.put(SampleQuantizer.OFFSET_Y, quantizer.getOffset());
+                metaData.put(TRACE_SET_PARAMETERS, parameters);
+            } else {
+                metaData.put(SAMPLE_CODING, trace.getPreferredCoding(), false);
+            }
             metaData.put(TRACE_PARAMETER_DEFINITIONS, TraceParameterDefinitionMap.createFrom(trace.getParameters()));
-            TRSMetaDataUtils.writeTRSMetaData(writeStream, metaData);
+            writeHeader();
             firstTrace = false;
         }
         truncateStrings(trace, metaData);
         checkValid(trace);
+        if (adaptiveEncoding && quantizer == null) {
+            Encoding current = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
+            Encoding preferred = Encoding.fromValue(trace.getPreferredCoding());
+            if (preferred.ordinal() > current.ordinal()) {
+                promoteEncoding(current, preferred);
+            }
+        }
 
         trace.setTraceSet(this);
         writeTrace(trace);
 
         int numberOfTraces = metaData.getInt(NUMBER_OF_TRACES);
         metaData.put(NUMBER_OF_TRACES, numberOfTraces + 1);
+        if (metrics != null) {
+            metrics.traceWritten(numberOfTraces, calculateTraceSize());
+        }
+    }
+
+    /**
+     * Calibrate the quantizer from the traces that were kept, and add them
+     */
+    private void addCalibrationTraces() throws IOException, TRSFormatException {
+        quantizer.calibrate();
+        List<Trace> traces = calibrationTraces;
+        calibrationTraces = new ArrayList<>();
+        for (Trace trace : traces) {
+            addTrace(trace);
+        }
+    }
+
+    /**
+     * Continue writing in a new file with a wider encoding. The traces written so far are rewritten to the start of
+     * the new file in the background, while new traces are appended after the space reserved for them.
+     */
+    private void promoteEncoding(Encoding from, Encoding to) throws IOException, TRSFormatException {
+        awaitPromotion();
+        flushWriteBuffer();
+        writeStream.close();
+        Path source = writePath;
+        int sourceHeaderSize = headerSize;
+        int numberOfTraces = metaData.getInt(NUMBER_OF_TRACES);
+
+        metaData.put(SAMPLE_CODING, to.getValue());
+        writeBuffer = null;
+        Path absolute = path.toAbsolutePath();
+        writePath = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".promoted");
+        writeStream = new FileOutputStream(writePath.toFile());
+        writeHeader();
+        writeStream.getChannel().position(headerSize + numberOfTraces * calculateTraceSize());
+
+        if (promoter == null) {
+            promoter = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "trs-encoding-promotion");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        int prefixSize = metaData.getInt(TITLE_SPACE) + metaData.getInt(DATA_LENGTH);
+        promotion = promoter.submit(new EncodingPromotion(source, sourceHeaderSize, !source.equals(path), writePath,
+                headerSize, numberOfTraces, prefixSize, metaData.getInt(NUMBER_OF_SAMPLES), from, to));
+    }
+
+    /**
+     * Wait until the traces written before the last promotion have been rewritten
+     */
+    private void awaitPromotion() throws IOException {
+        if (promotion == null) {
+            return;
+        }
+        try {
+            promotion.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while promoting the sample encoding");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            throw new IOException(ex.getCause());
+        } finally {
+            promotion = null;
+        }
+    }
+
+    private void commitReadSpan() {
+        if (readSpan != null) {
+            TraceSetEvents.commitTraceRead(readSpan, path, readSpanFirst, readSpanNext - readSpanFirst);
+            readSpan = null;
+        }
+    }
+
+    private void writeHeader() throws IOException, TRSFormatException {
+        Object event = TraceSetEvents.beginHeaderWrite();
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        TRSMetaDataUtils.writeTRSMetaData(writeStream, metaData);
+        headerSize = (int) writeStream.getChannel().position();
+        if (metrics != null) {
+            metrics.headerWritten(headerSize, System.nanoTime() - startTime);
+        }
+        TraceSetEvents.commitHeaderWrite(event, path, metaData.getInt(NUMBER_OF_TRACES));
     }
 
     /**
@@ -251,60 +668,93 @@ public class TraceSet implements AutoCloseable {
         return new String(cb.array(), 0, cb.position());
     }
 
+    /**
+     * Encode a trace into the write buffer, which is written to the file when it is full.
+     * If the trace cannot be encoded, nothing of it remains in the buffer.
+     */
     private void writeTrace(Trace trace) throws TRSFormatException, IOException {
-        String title = trace.getTitle() == null ? "" : trace.getTitle();
-        writeStream.write(title.getBytes(StandardCharsets.UTF_8));
-        byte[] data = trace.getData() == null ? new byte[0] : trace.getData();
-        writeStream.write(data);
-        Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
-        writeStream.write(toByteArray(trace.getSample(), encoding));
+        long traceSize = calculateTraceSize();
+        if (writeBuffer == null) {
+            writeBuffer = ByteBuffer.allocate((int) Math.min(MAX_BUFFER_SIZE, Math.max(WRITE_BUFFER_SIZE, traceSize)));
+            writeBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (writeBuffer.remaining() < traceSize) {
+            flushWriteBuffer();
+        }
+        int start = writeBuffer.position();
+        try {
+            String title = trace.getTitle() == null ? "" : trace.getTitle();
+            writeBuffer.put(title.getBytes(StandardCharsets.UTF_8));
+            byte[] data = trace.getData() == null ? new byte[0] : trace.getData();
+            writeBuffer.put(data);
+            Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
+            encodeSamples(trace.getSample(), encoding);
+        } catch (RuntimeException | TRSFormatException ex) {
+            writeBuffer.position(start);
+            throw ex;
+        }
+        bufferedTraces++;
     }
 
-    private byte[] toByteArray(float[] samples, Encoding encoding) throws TRSFormatException {
-        byte[] result;
+    private void encodeSamples(float[] samples, Encoding encoding) throws TRSFormatException {
         switch (encoding) {
             case ILLEGAL:
                 throw new TRSFormatException("Illegal sample encoding");
             case BYTE:
-                result = new byte[samples.length];
-                for (int k = 0; k < samples.length; k++) {
-                    if (samples[k] != (byte)samples[k]) throw new IllegalArgumentException("Byte sample encoding too small");
-                    result[k] = (byte) samples[k];
+                if (quantizer != null) {
+                    for (float sample : samples) {
+                        writeBuffer.put((byte) quantizer.quantize(sample));
+                    }
+                    break;
+                }
+                for (float sample : samples) {
+                    if (sample != (byte) sample) throw new IllegalArgumentException("Byte sample encoding too small");
+                    writeBuffer.put((byte) sample);
                 }
                 break;
             case SHORT:
-                result = new byte[samples.length * 2];
-                for (int k = 0; k < samples.length; k++) {
-                    if (samples[k] != (short)samples[k]) throw new IllegalArgumentException("Short sample encoding too small");
-                    short value = (short) samples[k];
-                    result[2*k] = (byte) value;
-                    result[2*k + 1] = (byte) (value >> 8);
+                if (quantizer != null) {
+                    for (float sample : samples) {
+                        writeBuffer.putShort((short) quantizer.quantize(sample));
+                    }
+                    break;
+                }
+                for (float sample : samples) {
+                    if (sample != (short) sample) throw new IllegalArgumentException("Short sample encoding too small");
+                    writeBuffer.putShort((short) sample);
                 }
                 break;
             case INT:
-                result = new byte[samples.length * 4];
-                for (int k = 0; k < samples.length; k++) {
-                    int value = (int) samples[k];
-                    result[4*k] = (byte) value;
-                    result[4*k + 1] = (byte) (value >> 8);
-                    result[4*k + 2] = (byte) (value >> 16);
-                    result[4*k + 3] = (byte) (value >> 24);
+                for (float sample : samples) {
+                    writeBuffer.putInt((int) sample);
                 }
                 break;
             case FLOAT:
-                result = new byte[samples.length * 4];
-                for (int k = 0; k < samples.length; k++) {
-                    int value = Float.floatToIntBits(samples[k]);
-                    result[4*k] = (byte) value;
-                    result[4*k + 1] = (byte) (value >> 8);
-                    result[4*k + 2] = (byte) (value >> 16);
-                    result[4*k + 3] = (byte) (value >> 24);
+                for (float sample : samples) {
+                    writeBuffer.putFloat(sample);
                 }
                 break;
             default:
                 throw new TRSFormatException(String.format("Sample encoding not supported: %s", encoding.name()));
         }
-        return result;
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        if (writeBuffer == null || writeBuffer.position() == 0) {
+            return;
+        }
+        Object event = TraceSetEvents.beginWriterFlush();
+        FileChannel out = writeStream.getChannel();
+        long offset = out.position();
+        int bytes = writeBuffer.position();
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            out.write(writeBuffer);
+        }
+        writeBuffer.clear();
+        int firstTrace = metaData.getInt(NUMBER_OF_TRACES) - bufferedTraces;
+        TraceSetEvents.commitWriterFlush(event, path, offset, bytes, firstTrace, bufferedTraces);
+        bufferedTraces = 0;
     }
 
     @Override
@@ -338,18 +788,88 @@ public class TraceSet implements AutoCloseable {
     }
 
     private void closeReader() throws IOException {
+        commitReadSpan();
         readStream.close();
     }
 
     private void closeWriter() throws IOException, TRSFormatException {
         try {
+            if (!calibrationTraces.isEmpty()) {
+                addCalibrationTraces();
+            }
+            flushWriteBuffer();
+            awaitPromotion();
             //reset writer to start of file and overwrite header
             writeStream.getChannel().position(0);
-            TRSMetaDataUtils.writeTRSMetaData(writeStream, metaData);
+            writeHeader();
             writeStream.flush();
         } finally {
             writeStream.close();
+            if (promoter != null) {
+                promoter.shutdownNow();
+            }
         }
+        if (!writePath.equals(path)) {
+            Files.move(writePath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Register a listener that is notified of the traces read and written, the samples decoded, the remapping of the
+     * file window and the header writes of this trace set. Without a listener, no measurements are taken.
+     * @param listener the listener to notify, or null to stop notifying
+     */
+    public void setMetricsListener(TraceSetMetricsListener listener) {
+        this.metrics = listener;
+    }
+
+    /**
+     * Quantize the float samples of all traces that are added to BYTE or SHORT samples, which halves or quarters the
+     * size of a FLOAT trace set. The scale and offset of the quantization are recorded in the header.
+     * When the quantizer determines its range from the first traces, those are only written once enough of them have
+     * been added, or when the trace set is closed.
+     * @param quantizer the quantizer to apply to the samples
+     * @throws IllegalArgumentException if this trace set is not in write mode, or a trace has already been added
+     */
+    public void setQuantizer(SampleQuantizer quantizer) {
+        if (!writing) throw new IllegalArgumentException(TRACE_SET_IN_READ_MODE);
+        if (!firstTrace || !calibrationTraces.isEmpty()) {
+            throw new IllegalArgumentException("The quantizer must be set before the first trace is added");
+        }
+        this.quantizer = quantizer;
+    }
+
+    /**
+     * Promote the sample coding of this trace set when a trace is added that does not fit it, instead of rejecting
+     * the trace. The encoding is only ever widened, from BYTE to SHORT to INT to FLOAT. The traces that were already
+     * written are rewritten in the new encoding in the background, into a new file that replaces the original one
+     * when this trace set is closed. This has no effect when a {@link SampleQuantizer} is set.
+     * A float only represents whole numbers exactly up to 2^24 in magnitude, so promoting from INT to FLOAT rounds the
+     * larger samples of the traces that were already written to the nearest float.
+     * @param adaptiveEncoding whether to promote the encoding, false by default
+     * @throws IllegalArgumentException if this trace set is not in write mode
+     */
+    public void setAdaptiveEncoding(boolean adaptiveEncoding) {
+        if (!writing) throw new IllegalArgumentException(TRACE_SET_IN_READ_MODE);
+        this.adaptiveEncoding = adaptiveEncoding;
+    }
+
+    /**
+     * Apply the scale of the header field SCALE_Y and the offset of the trace set parameter
+     * {@link SampleQuantizer#OFFSET_Y}, if present, to the samples returned by {@link #get(int)}. This restores the
+     * original values of a trace set written with a {@link SampleQuantizer}.
+     * The samples read with {@link #readSamples(int, int, short[])} and the like are never scaled.
+     * @param applyScale whether to scale the samples, false by default
+     */
+    public void setApplyScale(boolean applyScale) {
+        if (!applyScale) {
+            sampleScale = 1f;
+            sampleOffset = 0;
+            return;
+        }
+        sampleScale = metaData.getFloat(SCALE_Y);
+        TraceSetParameterMap parameters = metaData.getTraceSetParameters();
+        sampleOffset = parameters.containsKey(SampleQuantizer.OFFSET_Y) ? parameters.getDouble(SampleQuantizer.OFFSET_Y) : 0;
     }
 
     /**
@@ -360,6 +880,22 @@ public class TraceSet implements AutoCloseable {
         return metaData;
     }
 
+    /**
+     * @return the size of the header of the file in bytes, which is where the first trace starts
+     * @throws IllegalArgumentException if this TraceSet is not opened in read mode
+     */
+    public int getHeaderSize() {
+        if (writing) throw new IllegalArgumentException(TRACE_SET_IN_WRITE_MODE);
+        return metaDataSize;
+    }
+
+    /**
+     * @return the size of a single trace in the file in bytes: its title, its data and its samples
+     */
+    public long getTraceSize() {
+        return calculateTraceSize();
+    }
+
     protected String readTraceTitle() {
         byte[] titleArray = new byte[metaData.getInt(TITLE_SPACE)];
         buffer.get(titleArray);
@@ -374,10 +910,12 @@ public class TraceSet implements AutoCloseable {
     }
 
     protected float[] readSamples() throws TRSFormatException {
+        long startTime = metrics != null ? System.nanoTime() : 0L;
         buffer.order(ByteOrder.LITTLE_ENDIAN);
         int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+        Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
         float[] samples;
-        switch (Encoding.fromValue(metaData.getInt(SAMPLE_CODING))) {
+        switch (encoding) {
             case BYTE:
                 byte[] byteData = new byte[numberOfSamples];
                 buffer.get(byteData);
@@ -393,6 +931,11 @@ public class TraceSet implements AutoCloseable {
                 FloatBuffer floatView = buffer.asFloatBuffer();
                 samples = new float[numberOfSamples];
                 floatView.get(samples);
+                if (sampleScale != 1f || sampleOffset != 0) {
+                    for (int k = 0; k < numberOfSamples; k++) {
+                        samples[k] = (float) (samples[k] * sampleScale + sampleOffset);
+                    }
+                }
                 break;
             case INT:
                 IntBuffer intView = buffer.asIntBuffer();
@@ -404,11 +947,20 @@ public class TraceSet implements AutoCloseable {
                 throw new TRSFormatException(String.format(UNKNOWN_SAMPLE_CODING, metaData.getInt(SAMPLE_CODING)));
         }
 
+        if (metrics != null) {
+            metrics.samplesDecoded(encoding, numberOfSamples, System.nanoTime() - startTime);
+        }
         return samples;
     }
 
     private float[] toFloatArray(byte[] numbers) {
         float[] result = new float[numbers.length];
+        if (sampleScale != 1f || sampleOffset != 0) {
+            for (int k = 0; k < numbers.length; k++) {
+                result[k] = (float) (numbers[k] * sampleScale + sampleOffset);
+            }
+            return result;
+        }
         for (int k = 0; k < numbers.length; k++) {
             result[k] = numbers[k];
         }
@@ -417,6 +969,12 @@ public class TraceSet implements AutoCloseable {
 
     private float[] toFloatArray(int[] numbers) {
         float[] result = new float[numbers.length];
+        if (sampleScale != 1f || sampleOffset != 0) {
+            for (int k = 0; k < numbers.length; k++) {
+                result[k] = (float) (numbers[k] * (double) sampleScale + sampleOffset);
+            }
+            return result;
+        }
         for (int k = 0; k < numbers.length; k++) {
             result[k] = (float) numbers[k];
         }
@@ -425,6 +983,12 @@ public class TraceSet implements AutoCloseable {
 
     private float[] toFloatArray(short[] numbers) {
         float[] result = new float[numbers.length];
+        if (sampleScale != 1f || sampleOffset != 0) {
+            for (int k = 0; k < numbers.length; k++) {
+                result[k] = (float) (numbers[k] * sampleScale + sampleOffset);
+            }
+            return result;
+        }
         for (int k = 0; k < numbers.length; k++) {
             result[k] = numbers[k];
         }
@@ -444,6 +1008,60 @@ public class TraceSet implements AutoCloseable {
         return new TraceSet(file);
     }
 
+    /**
+     * Open a trace set for reading, showing only the traces that have not been deleted (see {@link Tombstones}).
+     * The number of traces in the metadata of the trace set is the number of live traces, and a trace index is the
+     * index of a trace among the live traces.
+     * @param file the path to the TRS file to open
+     * @return the TraceSet representation of the live traces of the file
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static TraceSet openLive(String file) throws IOException, TRSFormatException {
+        Tombstones tombstones = Tombstones.load(file);
+        TraceSet traceSet = new TraceSet(file);
+        if (tombstones.getNumberOfDeleted() > 0) {
+            traceSet.tombstones = tombstones;
+            traceSet.metaData.put(NUMBER_OF_TRACES, tombstones.getNumberOfLiveTraces());
+        }
+        return traceSet;
+    }
+
+    /**
+     * Read only the metadata of a TRS file, without opening it as a trace set.
+     * The header is read through a small heap buffer, which is only enlarged if the header does not fit in it.
+     * This is considerably cheaper than {@link #open(String)} when only the metadata is of interest.
+     * @param file the path to the TRS file to read the metadata from
+     * @return the metadata of the file
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS header is encountered
+     */
+    public static TRSMetaData readMetaData(Path file) throws IOException, TRSFormatException {
+        try (FileChannel headerChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = headerChannel.size();
+            ByteBuffer header = ByteBuffer.allocate((int) Math.min(size, HEADER_READ_SIZE));
+            while (true) {
+                while (header.hasRemaining() && headerChannel.read(header, header.position()) >= 0) {
+                    //keep reading until the buffer is full
+                }
+                header.flip();
+                try {
+                    return TRSMetaDataUtils.readTRSMetaData(header);
+                } catch (BufferUnderflowException ex) {
+                    if (header.limit() >= size || header.limit() >= MAX_BUFFER_SIZE) {
+                        throw new TRSFormatException(String.format(HEADER_TRUNCATED, file), ex);
+                    }
+                    //the header is larger than the buffer: grow it, keeping the bytes that were already read
+                    int grown = (int) Math.min(Math.min(size, MAX_BUFFER_SIZE), 2L * header.limit());
+                    ByteBuffer larger = ByteBuffer.allocate(grown);
+                    header.rewind();
+                    larger.put(header);
+                    header = larger;
+                }
+            }
+        }
+    }
+
     /**
      * A one-shot creator of a TRS file. The metadata not related to the trace list is assumed to be default.
      * @param file the path to the file to save
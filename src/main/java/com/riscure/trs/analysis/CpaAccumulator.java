@@ -0,0 +1,166 @@
+package com.riscure.trs.analysis;
+
+import java.util.Arrays;
+
+/**
+ * The running sums of a correlation power analysis over a set of traces, for a number of hypotheses per trace.
+ *
+ * The samples are shifted by a fixed reference before they are summed, which keeps the sums small and the
+ * correlation numerically stable. The products of samples and hypotheses are accumulated per batch of traces, in
+ * tiles of samples, so that a tile of the sums stays in the cache while the batch is added to it.
+ */
+final class CpaAccumulator {
+    private static final int BATCH_SIZE = 64;
+    private static final int TILE_SIZE = 512;
+
+    private final int numberOfSamples;
+    private final int numberOfHypotheses;
+    private final double[] shift;
+    private long count;
+    private final double[] sumX;
+    private final double[] sumX2;
+    private final double[] sumH;
+    private final double[] sumH2;
+    private final double[][] sumXH;     //[hypothesis][sample]
+
+    private final double[][] samples;   //[trace in batch][sample]
+    private final double[][] hypotheses;    //[trace in batch][hypothesis]
+    private int batchCount;
+
+    /**
+     * @param shift the reference that is subtracted from the samples of every trace
+     * @param numberOfHypotheses the number of hypotheses of every trace
+     */
+    CpaAccumulator(double[] shift, int numberOfHypotheses) {
+        this.numberOfSamples = shift.length;
+        this.numberOfHypotheses = numberOfHypotheses;
+        this.shift = shift;
+        this.sumX = new double[numberOfSamples];
+        this.sumX2 = new double[numberOfSamples];
+        this.sumH = new double[numberOfHypotheses];
+        this.sumH2 = new double[numberOfHypotheses];
+        this.sumXH = new double[numberOfHypotheses][numberOfSamples];
+        this.samples = new double[BATCH_SIZE][numberOfSamples];
+        this.hypotheses = new double[BATCH_SIZE][numberOfHypotheses];
+    }
+
+    long getCount() {
+        return count + batchCount;
+    }
+
+    /**
+     * @return the arrays to fill with the samples and hypotheses of the next trace, which is added with {@link #commit()}
+     */
+    double[] nextSamples() {
+        return samples[batchCount];
+    }
+
+    double[] nextHypotheses() {
+        return hypotheses[batchCount];
+    }
+
+    /**
+     * Add the trace that was written to {@link #nextSamples()} and {@link #nextHypotheses()}
+     */
+    void commit() {
+        double[] x = samples[batchCount];
+        for (int k = 0; k < numberOfSamples; k++) {
+            x[k] -= shift[k];
+        }
+        batchCount++;
+        if (batchCount == BATCH_SIZE) {
+            flush();
+        }
+    }
+
+    void flush() {
+        for (int b = 0; b < batchCount; b++) {
+            double[] x = samples[b];
+            double[] h = hypotheses[b];
+            for (int k = 0; k < numberOfSamples; k++) {
+                sumX[k] += x[k];
+                sumX2[k] += x[k] * x[k];
+            }
+            for (int g = 0; g < numberOfHypotheses; g++) {
+                sumH[g] += h[g];
+                sumH2[g] += h[g] * h[g];
+            }
+        }
+        for (int start = 0; start < numberOfSamples; start += TILE_SIZE) {
+            int end = Math.min(numberOfSamples, start + TILE_SIZE);
+            for (int g = 0; g < numberOfHypotheses; g++) {
+                double[] row = sumXH[g];
+                for (int b = 0; b < batchCount; b++) {
+                    double h = hypotheses[b][g];
+                    double[] x = samples[b];
+                    for (int k = start; k < end; k++) {
+                        row[k] += h * x[k];
+                    }
+                }
+            }
+        }
+        count += batchCount;
+        batchCount = 0;
+    }
+
+    /**
+     * Add the sums of another accumulator with the same shift to this one
+     */
+    void merge(CpaAccumulator other) {
+        flush();
+        other.flush();
+        count += other.count;
+        for (int k = 0; k < numberOfSamples; k++) {
+            sumX[k] += other.sumX[k];
+            sumX2[k] += other.sumX2[k];
+        }
+        for (int g = 0; g < numberOfHypotheses; g++) {
+            sumH[g] += other.sumH[g];
+            sumH2[g] += other.sumH2[g];
+            double[] row = sumXH[g];
+            double[] otherRow = other.sumXH[g];
+            for (int k = 0; k < numberOfSamples; k++) {
+                row[k] += otherRow[k];
+            }
+        }
+    }
+
+    /**
+     * Remove all traces from this accumulator, keeping its arrays for reuse
+     */
+    void reset() {
+        count = 0;
+        batchCount = 0;
+        Arrays.fill(sumX, 0);
+        Arrays.fill(sumX2, 0);
+        Arrays.fill(sumH, 0);
+        Arrays.fill(sumH2, 0);
+        for (double[] row : sumXH) {
+            Arrays.fill(row, 0);
+        }
+    }
+
+    /**
+     * @param firstHypothesis the index of the first hypothesis
+     * @param numberOfHypotheses the number of hypotheses
+     * @return the Pearson correlation of every hypothesis in the range with every sample
+     */
+    double[][] correlation(int firstHypothesis, int numberOfHypotheses) {
+        flush();
+        double n = count;
+        double[] deviationX = new double[numberOfSamples];
+        for (int k = 0; k < numberOfSamples; k++) {
+            deviationX[k] = Math.sqrt(n * sumX2[k] - sumX[k] * sumX[k]);
+        }
+        double[][] correlation = new double[numberOfHypotheses][numberOfSamples];
+        for (int g = 0; g < numberOfHypotheses; g++) {
+            int hypothesis = firstHypothesis + g;
+            double deviationH = Math.sqrt(n * sumH2[hypothesis] - sumH[hypothesis] * sumH[hypothesis]);
+            for (int k = 0; k < numberOfSamples; k++) {
+                double covariance = n * sumXH[hypothesis][k] - sumX[k] * sumH[hypothesis];
+                correlation[g][k] = covariance / (deviationX[k] * deviationH);
+            }
+        }
+        return correlation;
+    }
+}
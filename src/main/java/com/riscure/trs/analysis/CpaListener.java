@@ -0,0 +1,14 @@
+package com.riscure.trs.analysis;
+
+/**
+ * A listener to the progress of a {@link TraceSetCpa}, which can stop the analysis early
+ */
+@FunctionalInterface
+public interface CpaListener {
+    /**
+     * Called after every checkpoint of the analysis
+     * @param intermediate the result over the traces processed so far
+     * @return true to continue the analysis, false to stop it
+     */
+    boolean progress(CpaResult intermediate);
+}
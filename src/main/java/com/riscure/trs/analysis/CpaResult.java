@@ -0,0 +1,97 @@
+package com.riscure.trs.analysis;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * The (intermediate) result of a correlation power analysis, for every attacked key byte
+ */
+public class CpaResult {
+    private final double[][][] correlation;     //[target][guess][sample]
+    private final int tracesProcessed;
+    private final boolean stopped;
+
+    CpaResult(double[][][] correlation, int tracesProcessed, boolean stopped) {
+        this.correlation = correlation;
+        this.tracesProcessed = tracesProcessed;
+        this.stopped = stopped;
+    }
+
+    /**
+     * @return the number of attacked key bytes, one per leakage model
+     */
+    public int getNumberOfTargets() {
+        return correlation.length;
+    }
+
+    /**
+     * @param target the index of the leakage model
+     * @return the correlation of every guess with every sample point, indexed as [guess][sample]
+     */
+    public double[][] getCorrelation(int target) {
+        double[][] copy = new double[LeakageModel.GUESSES][];
+        for (int guess = 0; guess < LeakageModel.GUESSES; guess++) {
+            copy[guess] = correlation[target][guess].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * @param target the index of the leakage model
+     * @param guess the key byte guess
+     * @return the largest absolute correlation of the guess over all sample points
+     */
+    public double getPeak(int target, int guess) {
+        double peak = 0;
+        for (double value : correlation[target][guess]) {
+            if (Math.abs(value) > peak) peak = Math.abs(value);
+        }
+        return peak;
+    }
+
+    /**
+     * @param target the index of the leakage model
+     * @return all guesses, ordered from the highest to the lowest peak correlation
+     */
+    public int[] getRanking(int target) {
+        double[] peaks = new double[LeakageModel.GUESSES];
+        for (int guess = 0; guess < LeakageModel.GUESSES; guess++) {
+            peaks[guess] = getPeak(target, guess);
+        }
+        return IntStream.range(0, LeakageModel.GUESSES).boxed()
+                .sorted(Comparator.comparingDouble((Integer guess) -> peaks[guess]).reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * @return the best guess of every target, which is the key if the attack succeeded
+     */
+    public byte[] getBestGuesses() {
+        byte[] key = new byte[correlation.length];
+        for (int target = 0; target < correlation.length; target++) {
+            key[target] = (byte) getRanking(target)[0];
+        }
+        return key;
+    }
+
+    /**
+     * @return the number of traces processed so far
+     */
+    public int getTracesProcessed() {
+        return tracesProcessed;
+    }
+
+    /**
+     * @return whether the analysis was stopped by its listener before all traces were processed
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CpaResult{traces=%d, bestGuesses=%s}", tracesProcessed, Arrays.toString(getBestGuesses()));
+    }
+}
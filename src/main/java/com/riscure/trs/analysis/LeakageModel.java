@@ -0,0 +1,33 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.crypto.AesSbox;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import com.riscure.trs.types.TypedKey;
+
+/**
+ * A hypothesis of the leakage of a trace, for each of the 256 guesses of a key byte
+ */
+@FunctionalInterface
+public interface LeakageModel {
+    int GUESSES = 256;
+
+    /**
+     * @param parameters the trace parameters of the trace
+     * @param guess the key byte guess, from 0 to 255
+     * @return the hypothetical leakage of the trace for the guess
+     */
+    double leakage(TraceParameterMap parameters, int guess);
+
+    /**
+     * The Hamming weight of the AES S-box output, for the first round of an AES encryption
+     * @param input the key of the byte array parameter holding the plaintext
+     * @param byteIndex the index of the attacked byte
+     * @return the leakage model HW(S(input[byteIndex] ^ guess))
+     */
+    static LeakageModel sboxHammingWeight(TypedKey<byte[]> input, int byteIndex) {
+        return (parameters, guess) -> {
+            int value = parameters.getOrElseThrow(input)[byteIndex] & 0xFF;
+            return Integer.bitCount(AesSbox.sbox(value ^ guess));
+        };
+    }
+}
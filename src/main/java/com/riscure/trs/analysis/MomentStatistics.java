@@ -0,0 +1,234 @@
+package com.riscure.trs.analysis;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable accumulator of the per-sample mean and central moment sums up to an arbitrary order.
+ *
+ * Traces are added one at a time, and accumulators of disjoint sets of traces are combined, with the one-pass update
+ * formulas of Pébay ("Formulas for robust, one-pass parallel computation of covariances and arbitrary-order
+ * statistical moments", 2008). Adding a trace is the special case of merging a set of one trace.
+ */
+public class MomentStatistics {
+    private static final String LENGTH_DIFFERS = "Expected %d samples, but got %d";
+    private static final String INVALID_ORDER = "The highest moment must be at least 2, but was %d";
+
+    private final int numberOfSamples;
+    private final int maxMoment;
+    private final double[][] binomials;
+    private long count;
+    private final double[] mean;
+    private final double[][] sums;      //sums[p][k] is the sum of (x - mean)^p of sample k, for 2 <= p <= maxMoment
+    private final double[] scratch;
+
+    /**
+     * @param numberOfSamples the number of samples of every trace
+     * @param maxMoment the highest central moment to accumulate, at least 2
+     */
+    public MomentStatistics(int numberOfSamples, int maxMoment) {
+        if (maxMoment < 2) {
+            throw new IllegalArgumentException(String.format(INVALID_ORDER, maxMoment));
+        }
+        this.numberOfSamples = numberOfSamples;
+        this.maxMoment = maxMoment;
+        this.mean = new double[numberOfSamples];
+        this.sums = new double[maxMoment + 1][];
+        for (int p = 2; p <= maxMoment; p++) {
+            sums[p] = new double[numberOfSamples];
+        }
+        this.scratch = new double[maxMoment + 1];
+        this.binomials = new double[maxMoment + 1][maxMoment + 1];
+        for (int p = 0; p <= maxMoment; p++) {
+            binomials[p][0] = 1;
+            for (int k = 1; k <= p; k++) {
+                binomials[p][k] = binomials[p - 1][k - 1] + (k < p ? binomials[p - 1][k] : 0);
+            }
+        }
+    }
+
+    /**
+     * @return the number of samples of every trace
+     */
+    public int getNumberOfSamples() {
+        return numberOfSamples;
+    }
+
+    /**
+     * @return the highest central moment accumulated
+     */
+    public int getMaxMoment() {
+        return maxMoment;
+    }
+
+    /**
+     * @return the number of traces added to this accumulator
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(float[] samples) {
+        checkLength(samples.length);
+        for (int k = 0; k < numberOfSamples; k++) {
+            addSample(k, samples[k]);
+        }
+        count++;
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(int[] samples) {
+        checkLength(samples.length);
+        for (int k = 0; k < numberOfSamples; k++) {
+            addSample(k, samples[k]);
+        }
+        count++;
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(short[] samples) {
+        checkLength(samples.length);
+        for (int k = 0; k < numberOfSamples; k++) {
+            addSample(k, samples[k]);
+        }
+        count++;
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(byte[] samples) {
+        checkLength(samples.length);
+        for (int k = 0; k < numberOfSamples; k++) {
+            addSample(k, samples[k]);
+        }
+        count++;
+    }
+
+    /**
+     * Add all traces of another accumulator to this one
+     * @param other the accumulator to merge into this one, which has no traces in common with this one
+     */
+    public void merge(MomentStatistics other) {
+        checkLength(other.numberOfSamples);
+        if (other.maxMoment != maxMoment) {
+            throw new IllegalArgumentException("Cannot merge accumulators of a different highest moment");
+        }
+        if (other.count == 0) {
+            return;
+        }
+        if (count == 0) {
+            System.arraycopy(other.mean, 0, mean, 0, numberOfSamples);
+            for (int p = 2; p <= maxMoment; p++) {
+                System.arraycopy(other.sums[p], 0, sums[p], 0, numberOfSamples);
+            }
+            count = other.count;
+            return;
+        }
+        double na = count;
+        double nb = other.count;
+        double n = na + nb;
+        double[] powersA = new double[maxMoment + 1];
+        double[] powersB = new double[maxMoment + 1];
+        for (int k = 0; k < numberOfSamples; k++) {
+            double delta = other.mean[k] - mean[k];
+            powers(powersA, -nb * delta / n);
+            powers(powersB, na * delta / n);
+            //update the highest moments first, as they depend on the lower moments before the update
+            for (int p = maxMoment; p >= 2; p--) {
+                double sum = sums[p][k] + other.sums[p][k];
+                for (int j = 1; j <= p - 2; j++) {
+                    sum += binomials[p][j] * (sums[p - j][k] * powersA[j] + other.sums[p - j][k] * powersB[j]);
+                }
+                sum += Math.pow(na * nb * delta / n, p) * (1 / Math.pow(nb, p - 1) - Math.pow(-1 / na, p - 1));
+                sums[p][k] = sum;
+            }
+            mean[k] += delta * nb / n;
+        }
+        count += other.count;
+    }
+
+    /**
+     * Remove all traces from this accumulator, keeping its arrays for reuse
+     */
+    public void reset() {
+        count = 0;
+        Arrays.fill(mean, 0);
+        for (int p = 2; p <= maxMoment; p++) {
+            Arrays.fill(sums[p], 0);
+        }
+    }
+
+    /**
+     * @return the mean of every sample
+     */
+    public double[] getMean() {
+        return mean.clone();
+    }
+
+    /**
+     * @param p the order of the moment, between 2 and the highest moment
+     * @return the p-th central moment E[(x - mean)^p] of every sample, normalized by the number of traces
+     */
+    public double[] getCentralMoment(int p) {
+        if (p < 2 || p > maxMoment) {
+            throw new IllegalArgumentException(String.format("Central moment %d was not accumulated", p));
+        }
+        double[] moment = new double[numberOfSamples];
+        for (int k = 0; k < numberOfSamples; k++) {
+            moment[k] = sums[p][k] / count;
+        }
+        return moment;
+    }
+
+    /**
+     * Add a single value to the accumulator of a sample, for a count that is not yet incremented
+     */
+    private void addSample(int k, double x) {
+        if (count == 0) {
+            mean[k] = x;
+            return;
+        }
+        double n = count + 1;
+        double delta = x - mean[k];
+        if (maxMoment == 2) {
+            //Welford's update
+            sums[2][k] += delta * delta * count / n;
+            mean[k] += delta / n;
+            return;
+        }
+        powers(scratch, -delta / n);
+        for (int p = maxMoment; p >= 2; p--) {
+            double sum = sums[p][k];
+            for (int j = 1; j <= p - 2; j++) {
+                sum += binomials[p][j] * sums[p - j][k] * scratch[j];
+            }
+            sum += Math.pow(count * delta / n, p) * (1 - Math.pow(-1.0 / count, p - 1));
+            sums[p][k] = sum;
+        }
+        mean[k] += delta / n;
+    }
+
+    private static void powers(double[] powers, double base) {
+        powers[0] = 1;
+        for (int j = 1; j < powers.length; j++) {
+            powers[j] = powers[j - 1] * base;
+        }
+    }
+
+    private void checkLength(int length) {
+        if (length != numberOfSamples) {
+            throw new IllegalArgumentException(String.format(LENGTH_DIFFERS, numberOfSamples, length));
+        }
+    }
+}
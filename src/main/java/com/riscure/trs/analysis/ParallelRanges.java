@@ -0,0 +1,246 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.TRSTag;
+import com.riscure.trs.index.Tombstones;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Splits a range of traces into contiguous parts that are processed on a thread pool.
+ * A {@link TraceSet} is not thread-safe, so every part opens its own. The trace sets are opened with
+ * {@link TraceSet#openLive(String)}, so the traces are indexed among the traces that have not been deleted.
+ *
+ * A range can also be processed in checkpoints, for analyses that report intermediate results. The pool, the trace
+ * sets and the accumulators of the workers are then created once, and every checkpoint is split over the workers.
+ */
+final class ParallelRanges {
+    private static final String INVALID_RANGE = "Invalid trace range [%d, %d) for a trace set of %d traces";
+
+    private ParallelRanges() {
+    }
+
+    /**
+     * The processing of one contiguous range of traces
+     * @param <R> the type of the result of a range
+     */
+    @FunctionalInterface
+    interface RangeTask<R> {
+        R process(TraceSet traceSet, int first, int last) throws IOException;
+    }
+
+    /**
+     * The creation of the accumulator of a worker, which is called once per worker on its own trace set
+     * @param <A> the type of the accumulator
+     */
+    @FunctionalInterface
+    interface AccumulatorFactory<A> {
+        A create(TraceSet traceSet) throws IOException;
+    }
+
+    /**
+     * The processing of one contiguous range of traces into the accumulator of a worker
+     * @param <A> the type of the accumulator
+     */
+    @FunctionalInterface
+    interface AccumulateTask<A> {
+        void accumulate(TraceSet traceSet, A accumulator, int first, int last) throws IOException;
+    }
+
+    /**
+     * The handling of a checkpoint, which typically merges the accumulators of the workers into a total and resets them
+     * @param <A> the type of the accumulator
+     */
+    @FunctionalInterface
+    interface Checkpoint<A> {
+        /**
+         * @param accumulators the accumulators of the workers, in the order of the traces
+         * @param tracesProcessed the number of traces processed since the start of the range
+         * @return whether to continue with the next checkpoint
+         */
+        boolean reached(List<A> accumulators, int tracesProcessed);
+    }
+
+    /**
+     * Process a range of traces in parallel
+     * @param file the path of the trace set
+     * @param first the index of the first trace to process
+     * @param last the index after the last trace to process
+     * @param threads the number of parts to process in parallel
+     * @param task the processing of a single part
+     * @return the results of the parts, in the order of the traces
+     */
+    static <R> List<R> process(String file, int first, int last, int threads, RangeTask<R> task) throws IOException {
+        int parts = Math.max(1, Math.min(threads, last - first));
+        ExecutorService executor = Executors.newFixedThreadPool(parts);
+        try {
+            List<Future<R>> futures = new ArrayList<>(parts);
+            for (int part = 0; part < parts; part++) {
+                int partFirst = (int) (first + (long) (last - first) * part / parts);
+                int partLast = (int) (first + (long) (last - first) * (part + 1) / parts);
+                futures.add(executor.submit(() -> {
+                    try (TraceSet traceSet = TraceSet.openLive(file)) {
+                        return task.process(traceSet, partFirst, partLast);
+                    }
+                }));
+            }
+            List<R> results = new ArrayList<>(parts);
+            for (Future<R> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing traces");
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Process a range of traces in parallel, in checkpoints of a fixed number of traces. Every checkpoint is split into
+     * contiguous parts, one per worker, and each worker adds its part to its own accumulator with its own trace set.
+     * When all workers have finished their part of a checkpoint, the checkpoint handler is called with the accumulators.
+     * @param file the path of the trace set
+     * @param first the index of the first trace to process
+     * @param last the index after the last trace to process
+     * @param threads the number of workers
+     * @param checkpointInterval the number of traces per checkpoint
+     * @param factory the creation of the accumulator of a worker
+     * @param task the processing of the part of a worker in a checkpoint
+     * @param checkpoint the handler that is called after every checkpoint
+     * @return the number of traces processed, which is less than the range if the checkpoint handler stopped
+     */
+    static <A> int process(String file, int first, int last, int threads, int checkpointInterval,
+                           AccumulatorFactory<A> factory, AccumulateTask<A> task, Checkpoint<A> checkpoint) throws IOException {
+        int interval = Math.max(1, checkpointInterval);
+        int workers = Math.max(1, Math.min(threads, Math.min(interval, last - first)));
+        TraceSet[] traceSets = new TraceSet[workers];
+        List<A> accumulators = new ArrayList<>(Collections.nCopies(workers, null));
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        try {
+            List<Future<?>> futures = new ArrayList<>(workers);
+            int start = first;
+            while (start < last) {
+                int end = (int) Math.min(last, (long) start + interval);
+                futures.clear();
+                for (int worker = 0; worker < workers; worker++) {
+                    int partFirst = (int) (start + (long) (end - start) * worker / workers);
+                    int partLast = (int) (start + (long) (end - start) * (worker + 1) / workers);
+                    if (partFirst == partLast) {
+                        continue;
+                    }
+                    int w = worker;
+                    //a worker only runs one part at a time, and waiting for the parts orders them between checkpoints
+                    futures.add(executor.submit(() -> {
+                        if (traceSets[w] == null) {
+                            traceSets[w] = TraceSet.openLive(file);
+                            accumulators.set(w, factory.create(traceSets[w]));
+                        }
+                        task.accumulate(traceSets[w], accumulators.get(w), partFirst, partLast);
+                        return null;
+                    }));
+                }
+                awaitAll(futures);
+                start = end;
+                List<A> created = new ArrayList<>(workers);
+                for (A accumulator : accumulators) {
+                    if (accumulator != null) {
+                        created.add(accumulator);
+                    }
+                }
+                if (!checkpoint.reached(created, start - first)) {
+                    break;
+                }
+            }
+            return start - first;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while processing traces");
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        } finally {
+            executor.shutdownNow();
+            close(traceSets);
+        }
+    }
+
+    /**
+     * Wait for all futures, also when one of them fails, so that no task is still using a trace set when it is closed
+     */
+    private static void awaitAll(List<Future<?>> futures) throws InterruptedException, ExecutionException {
+        ExecutionException failure = null;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException ex) {
+                if (failure == null) failure = ex;
+            }
+        }
+        if (failure != null) throw failure;
+    }
+
+    private static void close(TraceSet[] traceSets) throws IOException {
+        for (TraceSet traceSet : traceSets) {
+            if (traceSet != null) {
+                try {
+                    traceSet.close();
+                } catch (TRSFormatException ex) {
+                    throw new IOException(ex);
+                }
+            }
+        }
+    }
+
+    private static IOException unwrap(ExecutionException ex) {
+        if (ex.getCause() instanceof IOException) return (IOException) ex.getCause();
+        if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+        if (ex.getCause() instanceof Error) throw (Error) ex.getCause();
+        return new IOException(ex.getCause());
+    }
+
+    /**
+     * @param numberOfTraces the number of traces in the trace set
+     * @param first the index of the first trace to process
+     * @param last the index after the last trace to process
+     * @throws IllegalArgumentException if the range is not within the trace set
+     */
+    static void checkRange(int numberOfTraces, int first, int last) {
+        if (first < 0 || last < first || last > numberOfTraces) {
+            throw new IllegalArgumentException(String.format(INVALID_RANGE, first, last, numberOfTraces));
+        }
+    }
+
+    /**
+     * @param file the path of the trace set
+     * @return the number of live traces in the trace set
+     */
+    static int numberOfTraces(String file) throws IOException, TRSFormatException {
+        return readMetaData(file).getInt(TRSTag.NUMBER_OF_TRACES);
+    }
+
+    /**
+     * Read the metadata of a trace set as it is seen by {@link TraceSet#openLive(String)}
+     * @param file the path of the trace set
+     * @return the metadata of the trace set, with the number of live traces as its number of traces
+     */
+    static TRSMetaData readMetaData(String file) throws IOException, TRSFormatException {
+        TRSMetaData metaData = TraceSet.readMetaData(Paths.get(file));
+        Tombstones tombstones = Tombstones.load(file, metaData.getInt(TRSTag.NUMBER_OF_TRACES));
+        metaData.put(TRSTag.NUMBER_OF_TRACES, tombstones.getNumberOfLiveTraces());
+        return metaData;
+    }
+}
@@ -0,0 +1,148 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+
+import java.io.IOException;
+
+import static com.riscure.trs.enums.TRSTag.SAMPLE_CODING;
+
+/**
+ * A reusable array for reading a window of samples of a trace set in their stored encoding
+ */
+final class SampleBuffer {
+    private final Encoding encoding;
+    private final int offset;
+    private byte[] bytes;
+    private short[] shorts;
+    private int[] ints;
+    private float[] floats;
+
+    /**
+     * @param traceSet the trace set to read from
+     * @param offset the index of the first sample to read
+     * @param length the number of samples to read
+     */
+    SampleBuffer(TraceSet traceSet, int offset, int length) throws IOException {
+        this.encoding = Encoding.fromValue(traceSet.getMetaData().getInt(SAMPLE_CODING));
+        this.offset = offset;
+        switch (encoding) {
+            case BYTE:
+                bytes = new byte[length];
+                break;
+            case SHORT:
+                shorts = new short[length];
+                break;
+            case INT:
+                ints = new int[length];
+                break;
+            case FLOAT:
+                floats = new float[length];
+                break;
+            default:
+                throw new IOException(new TRSFormatException("Unsupported sample coding: " + encoding));
+        }
+    }
+
+    Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Read the samples of a trace into this buffer
+     */
+    void read(TraceSet traceSet, int index) throws IOException {
+        switch (encoding) {
+            case BYTE:
+                traceSet.readSamples(index, offset, bytes);
+                break;
+            case SHORT:
+                traceSet.readSamples(index, offset, shorts);
+                break;
+            case INT:
+                traceSet.readSamples(index, offset, ints);
+                break;
+            default:
+                traceSet.readSamples(index, offset, floats);
+                break;
+        }
+    }
+
+    void addTo(SampleStatistics statistics) {
+        switch (encoding) {
+            case BYTE:
+                statistics.add(bytes);
+                break;
+            case SHORT:
+                statistics.add(shorts);
+                break;
+            case INT:
+                statistics.add(ints);
+                break;
+            default:
+                statistics.add(floats);
+                break;
+        }
+    }
+
+    void addTo(MomentStatistics statistics) {
+        switch (encoding) {
+            case BYTE:
+                statistics.add(bytes);
+                break;
+            case SHORT:
+                statistics.add(shorts);
+                break;
+            case INT:
+                statistics.add(ints);
+                break;
+            default:
+                statistics.add(floats);
+                break;
+        }
+    }
+
+    /**
+     * Add the samples in this buffer to exact histograms, which requires a BYTE or SHORT encoding
+     */
+    void addTo(SampleHistograms histograms) {
+        if (encoding == Encoding.BYTE) {
+            histograms.add(bytes);
+        } else {
+            histograms.add(shorts);
+        }
+    }
+
+    /**
+     * Add the samples in this buffer to quantile sketches, which requires an INT or FLOAT encoding
+     */
+    void addTo(SampleQuantileSketches sketches) {
+        if (encoding == Encoding.INT) {
+            sketches.add(ints);
+        } else {
+            sketches.add(floats);
+        }
+    }
+
+    /**
+     * Convert the samples in this buffer to double
+     * @param destination the array to write the samples to
+     */
+    void copyTo(double[] destination) {
+        switch (encoding) {
+            case BYTE:
+                for (int k = 0; k < bytes.length; k++) destination[k] = bytes[k];
+                break;
+            case SHORT:
+                for (int k = 0; k < shorts.length; k++) destination[k] = shorts[k];
+                break;
+            case INT:
+                for (int k = 0; k < ints.length; k++) destination[k] = ints[k];
+                break;
+            default:
+                for (int k = 0; k < floats.length; k++) destination[k] = floats[k];
+                break;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.riscure.trs.analysis;
+
+/**
+ * The distribution of the values of every sample point over a set of traces
+ */
+public interface SampleDistribution {
+    /**
+     * @return the number of sample points
+     */
+    int getNumberOfSamples();
+
+    /**
+     * @return the number of traces in the distribution
+     */
+    long getCount();
+
+    /**
+     * @param sample the index of the sample point
+     * @param quantile the quantile, between 0 and 1
+     * @return the value at the requested quantile of the sample point, or NaN if the distribution is empty
+     */
+    double getQuantile(int sample, double quantile);
+
+    /**
+     * @param quantile the quantile, between 0 and 1
+     * @return the value at the requested quantile of every sample point
+     */
+    default double[] getQuantiles(double quantile) {
+        double[] values = new double[getNumberOfSamples()];
+        for (int k = 0; k < values.length; k++) {
+            values[k] = getQuantile(k, quantile);
+        }
+        return values;
+    }
+
+    /**
+     * @return the median of every sample point
+     */
+    default double[] getMedian() {
+        return getQuantiles(0.5);
+    }
+}
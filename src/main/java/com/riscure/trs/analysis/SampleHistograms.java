@@ -0,0 +1,161 @@
+package com.riscure.trs.analysis;
+
+/**
+ * Exact histograms of the integer values of every sample point, with one bin per value.
+ *
+ * The bins of a sample point only cover the range of values seen so far, and grow when a value outside that range is
+ * added, so traces that use part of the range of their encoding need proportionally less memory. The memory does
+ * not depend on the number of traces.
+ */
+public class SampleHistograms implements SampleDistribution {
+    private static final String LENGTH_DIFFERS = "Expected %d samples, but got %d";
+
+    private final int numberOfSamples;
+    private long count;
+    private final long[][] bins;
+    private final int[] lowest;     //the value of the first bin of every sample point
+
+    /**
+     * @param numberOfSamples the number of sample points
+     */
+    public SampleHistograms(int numberOfSamples) {
+        this.numberOfSamples = numberOfSamples;
+        this.bins = new long[numberOfSamples][];
+        this.lowest = new int[numberOfSamples];
+    }
+
+    @Override
+    public int getNumberOfSamples() {
+        return numberOfSamples;
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(byte[] samples) {
+        checkLength(samples.length);
+        for (int k = 0; k < numberOfSamples; k++) {
+            increment(k, samples[k], 1);
+        }
+        count++;
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(short[] samples) {
+        checkLength(samples.length);
+        for (int k = 0; k < numberOfSamples; k++) {
+            increment(k, samples[k], 1);
+        }
+        count++;
+    }
+
+    /**
+     * Add all traces of another histogram to this one
+     * @param other the histograms to merge into this one
+     */
+    public void merge(SampleHistograms other) {
+        checkLength(other.numberOfSamples);
+        for (int k = 0; k < numberOfSamples; k++) {
+            long[] otherBins = other.bins[k];
+            if (otherBins == null) continue;
+            for (int bin = 0; bin < otherBins.length; bin++) {
+                if (otherBins[bin] != 0) {
+                    increment(k, other.lowest[k] + bin, otherBins[bin]);
+                }
+            }
+        }
+        count += other.count;
+    }
+
+    /**
+     * @param sample the index of the sample point
+     * @param value the value of the sample
+     * @return the number of traces in which the sample point has the given value
+     */
+    public long getFrequency(int sample, int value) {
+        long[] sampleBins = bins[sample];
+        int bin = value - lowest[sample];
+        return sampleBins == null || bin < 0 || bin >= sampleBins.length ? 0 : sampleBins[bin];
+    }
+
+    /**
+     * @param sample the index of the sample point
+     * @return the lowest value of the sample point, or 0 if the histogram is empty
+     */
+    public int getMin(int sample) {
+        long[] sampleBins = bins[sample];
+        if (sampleBins == null) return 0;
+        int bin = 0;
+        while (sampleBins[bin] == 0) bin++;
+        return lowest[sample] + bin;
+    }
+
+    /**
+     * @param sample the index of the sample point
+     * @return the highest value of the sample point, or 0 if the histogram is empty
+     */
+    public int getMax(int sample) {
+        long[] sampleBins = bins[sample];
+        if (sampleBins == null) return 0;
+        int bin = sampleBins.length - 1;
+        while (sampleBins[bin] == 0) bin--;
+        return lowest[sample] + bin;
+    }
+
+    /**
+     * The quantile is the value of the sample of rank {@code floor(quantile * (count - 1))}, without interpolation
+     */
+    @Override
+    public double getQuantile(int sample, double quantile) {
+        if (count == 0) return Double.NaN;
+        long rank = (long) Math.floor(Math.max(0, Math.min(1, quantile)) * (count - 1));
+        long[] sampleBins = bins[sample];
+        long seen = 0;
+        for (int bin = 0; bin < sampleBins.length; bin++) {
+            seen += sampleBins[bin];
+            if (seen > rank) {
+                return lowest[sample] + bin;
+            }
+        }
+        return lowest[sample] + sampleBins.length - 1;
+    }
+
+    private void increment(int k, int value, long frequency) {
+        long[] sampleBins = bins[k];
+        if (sampleBins == null) {
+            sampleBins = new long[16];
+            bins[k] = sampleBins;
+            lowest[k] = value - 8;
+        }
+        int bin = value - lowest[k];
+        if (bin < 0 || bin >= sampleBins.length) {
+            //grow to at least twice the size, keeping the existing bins
+            int newLowest = Math.min(lowest[k], value);
+            int newHighest = Math.max(lowest[k] + sampleBins.length - 1, value);
+            int size = Math.max(newHighest - newLowest + 1, 2 * sampleBins.length);
+            if (bin < 0) newLowest = newHighest - size + 1;
+            long[] grown = new long[size];
+            System.arraycopy(sampleBins, 0, grown, lowest[k] - newLowest, sampleBins.length);
+            sampleBins = grown;
+            bins[k] = grown;
+            lowest[k] = newLowest;
+            bin = value - newLowest;
+        }
+        sampleBins[bin] += frequency;
+    }
+
+    private void checkLength(int length) {
+        if (length != numberOfSamples) {
+            throw new IllegalArgumentException(String.format(LENGTH_DIFFERS, numberOfSamples, length));
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.enums.Encoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A reader of a sample-major (transposed) copy of a window of samples of a trace set, as written by
+ * {@link TraceSetTranspose}. All values of one sample point are stored contiguously, so a column is read with a single
+ * memory-mapped bulk read instead of a strided pass over the whole trace set.
+ *
+ * The file starts with a header of {@value #HEADER_SIZE} bytes: the magic number, the format version, the sample
+ * coding, the number of traces, the index of the first sample and the number of samples, as little endian ints.
+ * The header is followed by the columns, each consisting of the sample of every trace in the original encoding.
+ */
+public class SampleMajorTraceSet implements AutoCloseable {
+    static final int MAGIC = 0x58535254;      //"TRSX" in little endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 32;
+    private static final long MAX_BUFFER_SIZE = Integer.MAX_VALUE;
+    private static final String INVALID_FILE = "'%s' is not a sample-major trace set file";
+    private static final String UNSUPPORTED_VERSION = "Unsupported sample-major trace set version: %d";
+    private static final String SAMPLE_OUT_OF_BOUNDS = "Sample %d is not in the transposed window [%d, %d)";
+    private static final String SAMPLE_CODING_DIFFERS = "The samples of this file are encoded as %s, not as %s";
+    private static final String LENGTH_DIFFERS = "A column has %d values, but the destination has length %d";
+
+    private final Path path;
+    private final FileChannel channel;
+    private final Encoding encoding;
+    private final int numberOfTraces;
+    private final int sampleOffset;
+    private final int numberOfSamples;
+    private final long columnSize;
+
+    private ByteBuffer buffer;
+    private long bufferStart;
+    private long bufferSize;
+
+    private SampleMajorTraceSet(Path path) throws IOException, TRSFormatException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && channel.read(header, header.position()) >= 0) {
+                //keep reading until the header is complete
+            }
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new TRSFormatException(String.format(INVALID_FILE, path));
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                throw new TRSFormatException(String.format(UNSUPPORTED_VERSION, version));
+            }
+            this.encoding = Encoding.fromValue(header.getInt());
+            this.numberOfTraces = header.getInt();
+            this.sampleOffset = header.getInt();
+            this.numberOfSamples = header.getInt();
+            this.columnSize = (long) numberOfTraces * encoding.getSize();
+            if (columnSize > MAX_BUFFER_SIZE) {
+                throw new TRSFormatException(String.format("Columns of %d bytes are too large to be mapped", columnSize));
+            }
+        } catch (IOException | TRSFormatException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Open a sample-major file for reading
+     * @param path the path of the file
+     * @return the opened file
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when the file is not a valid sample-major file
+     */
+    public static SampleMajorTraceSet open(Path path) throws IOException, TRSFormatException {
+        return new SampleMajorTraceSet(path);
+    }
+
+    /**
+     * @return the path on disk of this file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the encoding of the samples, which is the encoding of the original trace set
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * @return the number of traces, which is the length of every column
+     */
+    public int getNumberOfTraces() {
+        return numberOfTraces;
+    }
+
+    /**
+     * @return the index in the original traces of the first transposed sample
+     */
+    public int getSampleOffset() {
+        return sampleOffset;
+    }
+
+    /**
+     * @return the number of transposed samples
+     */
+    public int getNumberOfSamples() {
+        return numberOfSamples;
+    }
+
+    /**
+     * Read the column of a sample point of a BYTE encoded file
+     * @param sample the index of the sample point in the original traces
+     * @param destination the array to read the samples of all traces into
+     * @throws IOException if a read error occurs
+     */
+    public void readColumn(int sample, byte[] destination) throws IOException {
+        seekColumn(sample, destination.length, Encoding.BYTE);
+        buffer.get(destination);
+    }
+
+    /**
+     * Read the column of a sample point of a SHORT encoded file
+     * @param sample the index of the sample point in the original traces
+     * @param destination the array to read the samples of all traces into
+     * @throws IOException if a read error occurs
+     */
+    public void readColumn(int sample, short[] destination) throws IOException {
+        seekColumn(sample, destination.length, Encoding.SHORT);
+        buffer.asShortBuffer().get(destination);
+    }
+
+    /**
+     * Read the column of a sample point of an INT encoded file
+     * @param sample the index of the sample point in the original traces
+     * @param destination the array to read the samples of all traces into
+     * @throws IOException if a read error occurs
+     */
+    public void readColumn(int sample, int[] destination) throws IOException {
+        seekColumn(sample, destination.length, Encoding.INT);
+        buffer.asIntBuffer().get(destination);
+    }
+
+    /**
+     * Read the column of a sample point of a FLOAT encoded file
+     * @param sample the index of the sample point in the original traces
+     * @param destination the array to read the samples of all traces into
+     * @throws IOException if a read error occurs
+     */
+    public void readColumn(int sample, float[] destination) throws IOException {
+        seekColumn(sample, destination.length, Encoding.FLOAT);
+        buffer.asFloatBuffer().get(destination);
+    }
+
+    /**
+     * Read the column of a sample point of a file of any encoding, converted to float
+     * @param sample the index of the sample point in the original traces
+     * @return the samples of all traces at the sample point
+     * @throws IOException if a read error occurs
+     */
+    public float[] readColumn(int sample) throws IOException {
+        float[] column = new float[numberOfTraces];
+        seekColumn(sample, numberOfTraces, encoding);
+        switch (encoding) {
+            case BYTE:
+                for (int k = 0; k < numberOfTraces; k++) column[k] = buffer.get();
+                break;
+            case SHORT:
+                for (int k = 0; k < numberOfTraces; k++) column[k] = buffer.getShort();
+                break;
+            case INT:
+                for (int k = 0; k < numberOfTraces; k++) column[k] = buffer.getInt();
+                break;
+            default:
+                buffer.asFloatBuffer().get(column);
+                break;
+        }
+        return column;
+    }
+
+    /**
+     * Position the buffer at the start of a column, mapping a new window of the file if necessary
+     */
+    private void seekColumn(int sample, int length, Encoding expected) throws IOException {
+        if (encoding != expected) {
+            throw new IllegalArgumentException(String.format(SAMPLE_CODING_DIFFERS, encoding, expected));
+        }
+        if (sample < sampleOffset || sample >= sampleOffset + numberOfSamples) {
+            throw new IllegalArgumentException(String.format(SAMPLE_OUT_OF_BOUNDS, sample, sampleOffset, sampleOffset + numberOfSamples));
+        }
+        if (length != numberOfTraces) {
+            throw new IllegalArgumentException(String.format(LENGTH_DIFFERS, numberOfTraces, length));
+        }
+        long start = HEADER_SIZE + (sample - sampleOffset) * columnSize;
+        long end = start + columnSize;
+        if (buffer == null || start < bufferStart || bufferStart + bufferSize < end) {
+            bufferStart = start;
+            bufferSize = Math.min(channel.size() - start, MAX_BUFFER_SIZE);
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, bufferStart, bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        }
+        buffer.position((int) (start - bufferStart));
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
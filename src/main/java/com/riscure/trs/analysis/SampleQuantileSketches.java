@@ -0,0 +1,215 @@
+package com.riscure.trs.analysis;
+
+/**
+ * Mergeable quantile sketches of the values of every sample point, in the style of DDSketch (Masson et al., 2019).
+ *
+ * Values are counted in buckets of logarithmically increasing width, so every quantile is estimated within a
+ * relative error of the configured accuracy. The number of buckets per sample point is bounded: when it is exceeded,
+ * the buckets of the values closest to zero are collapsed, which only affects the accuracy of the lowest quantiles
+ * of the magnitude. The memory does not depend on the number of traces.
+ */
+public class SampleQuantileSketches implements SampleDistribution {
+    public static final double DEFAULT_ACCURACY = 0.01;
+    public static final int DEFAULT_MAX_BUCKETS = 2048;
+    private static final String LENGTH_DIFFERS = "Expected %d samples, but got %d";
+
+    private final int numberOfSamples;
+    private final double relativeAccuracy;
+    private final int maxBuckets;
+    private final double gamma;
+    private final double logGamma;
+    private long count;
+    private final long[] zeros;
+    private final Buckets[] positive;
+    private final Buckets[] negative;
+
+    /**
+     * @param numberOfSamples the number of sample points
+     */
+    public SampleQuantileSketches(int numberOfSamples) {
+        this(numberOfSamples, DEFAULT_ACCURACY, DEFAULT_MAX_BUCKETS);
+    }
+
+    /**
+     * @param numberOfSamples the number of sample points
+     * @param relativeAccuracy the relative accuracy of the quantiles, between 0 and 1
+     * @param maxBuckets the maximum number of buckets for the positive and for the negative values of a sample point
+     */
+    public SampleQuantileSketches(int numberOfSamples, double relativeAccuracy, int maxBuckets) {
+        if (relativeAccuracy <= 0 || relativeAccuracy >= 1) {
+            throw new IllegalArgumentException("The relative accuracy must be between 0 and 1");
+        }
+        this.numberOfSamples = numberOfSamples;
+        this.relativeAccuracy = relativeAccuracy;
+        this.maxBuckets = Math.max(16, maxBuckets);
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+        this.zeros = new long[numberOfSamples];
+        this.positive = new Buckets[numberOfSamples];
+        this.negative = new Buckets[numberOfSamples];
+        for (int k = 0; k < numberOfSamples; k++) {
+            positive[k] = new Buckets();
+            negative[k] = new Buckets();
+        }
+    }
+
+    @Override
+    public int getNumberOfSamples() {
+        return numberOfSamples;
+    }
+
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * @return the relative accuracy of the quantiles
+     */
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(float[] samples) {
+        checkLength(samples.length);
+        for (int k = 0; k < numberOfSamples; k++) {
+            addValue(k, samples[k]);
+        }
+        count++;
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(int[] samples) {
+        checkLength(samples.length);
+        for (int k = 0; k < numberOfSamples; k++) {
+            addValue(k, samples[k]);
+        }
+        count++;
+    }
+
+    /**
+     * Add all traces of another sketch with the same accuracy to this one
+     * @param other the sketches to merge into this one
+     */
+    public void merge(SampleQuantileSketches other) {
+        checkLength(other.numberOfSamples);
+        if (other.gamma != gamma) {
+            throw new IllegalArgumentException("Cannot merge sketches of a different accuracy");
+        }
+        for (int k = 0; k < numberOfSamples; k++) {
+            zeros[k] += other.zeros[k];
+            positive[k].merge(other.positive[k], maxBuckets);
+            negative[k].merge(other.negative[k], maxBuckets);
+        }
+        count += other.count;
+    }
+
+    @Override
+    public double getQuantile(int sample, double quantile) {
+        if (count == 0) return Double.NaN;
+        long rank = (long) Math.floor(Math.max(0, Math.min(1, quantile)) * (count - 1));
+        //negative values, from the largest magnitude to the smallest
+        Buckets buckets = negative[sample];
+        long seen = 0;
+        for (int bin = buckets.counts.length - 1; bin >= 0; bin--) {
+            seen += buckets.counts[bin];
+            if (seen > rank) {
+                return -value(buckets.lowest + bin);
+            }
+        }
+        seen += zeros[sample];
+        if (seen > rank) {
+            return 0;
+        }
+        buckets = positive[sample];
+        for (int bin = 0; bin < buckets.counts.length; bin++) {
+            seen += buckets.counts[bin];
+            if (seen > rank) {
+                return value(buckets.lowest + bin);
+            }
+        }
+        return value(buckets.lowest + buckets.counts.length - 1);
+    }
+
+    private void addValue(int k, double value) {
+        if (value > 0) {
+            positive[k].increment(index(value), 1, maxBuckets);
+        } else if (value < 0) {
+            negative[k].increment(index(-value), 1, maxBuckets);
+        } else {
+            zeros[k]++;
+        }
+    }
+
+    /**
+     * @return the index of the bucket (gamma^(i-1), gamma^i] that contains a positive value
+     */
+    private int index(double value) {
+        return (int) Math.ceil(Math.log(value) / logGamma);
+    }
+
+    /**
+     * @return the representative value of a bucket, which is within the relative accuracy of all values in it
+     */
+    private double value(int index) {
+        return 2 * Math.pow(gamma, index) / (gamma + 1);
+    }
+
+    private void checkLength(int length) {
+        if (length != numberOfSamples) {
+            throw new IllegalArgumentException(String.format(LENGTH_DIFFERS, numberOfSamples, length));
+        }
+    }
+
+    /**
+     * A contiguous range of bucket counts, of which the lowest buckets are collapsed when it grows too large
+     */
+    private static final class Buckets {
+        private long[] counts = new long[0];
+        private int lowest;
+
+        void increment(int index, long frequency, int maxBuckets) {
+            if (counts.length == 0) {
+                counts = new long[8];
+                lowest = index - 4;
+            }
+            int bin = index - lowest;
+            if (bin < 0 || bin >= counts.length) {
+                int newLowest = Math.min(lowest, index);
+                int newHighest = Math.max(lowest + counts.length - 1, index);
+                int size = Math.min(maxBuckets, Math.max(newHighest - newLowest + 1, 2 * counts.length));
+                if (bin >= 0 || newHighest - newLowest + 1 > size) {
+                    //grow upwards, or keep the highest buckets if the range exceeds the maximum
+                    newLowest = Math.max(newLowest, newHighest - size + 1);
+                } else {
+                    newLowest = newHighest - size + 1;
+                }
+                long[] resized = new long[size];
+                for (int old = 0; old < counts.length; old++) {
+                    //buckets below the new range are collapsed into its lowest bucket
+                    int target = Math.max(0, lowest + old - newLowest);
+                    resized[target] += counts[old];
+                }
+                counts = resized;
+                lowest = newLowest;
+                bin = Math.max(0, index - newLowest);
+            }
+            counts[bin] += frequency;
+        }
+
+        void merge(Buckets other, int maxBuckets) {
+            for (int bin = 0; bin < other.counts.length; bin++) {
+                if (other.counts[bin] != 0) {
+                    increment(other.lowest + bin, other.counts[bin], maxBuckets);
+                }
+            }
+        }
+    }
+}
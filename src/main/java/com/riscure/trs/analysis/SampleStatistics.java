@@ -0,0 +1,234 @@
+package com.riscure.trs.analysis;
+
+import java.util.Arrays;
+
+/**
+ * A mergeable accumulator of the per-sample mean, variance, minimum and maximum of a collection of traces.
+ *
+ * Float and int samples update a Welford accumulator directly. Byte and short samples are first summed exactly in
+ * {@code long} batches, which are folded into the Welford accumulator when a batch is full or a result is requested.
+ * Accumulators of disjoint sets of traces can be combined with {@link #merge(SampleStatistics)}, using the pairwise
+ * update of Chan et al.
+ */
+public class SampleStatistics {
+    //the squares of byte and short samples fit in 31 bits, so a batch of 2^16 traces cannot overflow a long
+    private static final int BATCH_SIZE = 1 << 16;
+    private static final String LENGTH_DIFFERS = "Expected %d samples, but got %d";
+
+    private final int numberOfSamples;
+    private long count;
+    private final double[] mean;
+    private final double[] m2;
+    private final float[] min;
+    private final float[] max;
+
+    private int batchCount;
+    private long[] batchSum;
+    private long[] batchSumOfSquares;
+
+    /**
+     * @param numberOfSamples the number of samples of every trace
+     */
+    public SampleStatistics(int numberOfSamples) {
+        this.numberOfSamples = numberOfSamples;
+        this.mean = new double[numberOfSamples];
+        this.m2 = new double[numberOfSamples];
+        this.min = new float[numberOfSamples];
+        this.max = new float[numberOfSamples];
+        Arrays.fill(min, Float.POSITIVE_INFINITY);
+        Arrays.fill(max, Float.NEGATIVE_INFINITY);
+    }
+
+    /**
+     * @return the number of samples of every trace
+     */
+    public int getNumberOfSamples() {
+        return numberOfSamples;
+    }
+
+    /**
+     * @return the number of traces added to this accumulator
+     */
+    public long getCount() {
+        return count + batchCount;
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(float[] samples) {
+        checkLength(samples.length);
+        long n = ++count;
+        for (int k = 0; k < numberOfSamples; k++) {
+            float x = samples[k];
+            double delta = x - mean[k];
+            mean[k] += delta / n;
+            m2[k] += delta * (x - mean[k]);
+            if (x < min[k]) min[k] = x;
+            if (x > max[k]) max[k] = x;
+        }
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(int[] samples) {
+        checkLength(samples.length);
+        long n = ++count;
+        for (int k = 0; k < numberOfSamples; k++) {
+            int x = samples[k];
+            double delta = x - mean[k];
+            mean[k] += delta / n;
+            m2[k] += delta * (x - mean[k]);
+            if (x < min[k]) min[k] = x;
+            if (x > max[k]) max[k] = x;
+        }
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(short[] samples) {
+        checkLength(samples.length);
+        startBatchTrace();
+        for (int k = 0; k < numberOfSamples; k++) {
+            int x = samples[k];
+            batchSum[k] += x;
+            batchSumOfSquares[k] += x * x;
+            if (x < min[k]) min[k] = x;
+            if (x > max[k]) max[k] = x;
+        }
+    }
+
+    /**
+     * Add the samples of a trace
+     * @param samples the samples to add
+     */
+    public void add(byte[] samples) {
+        checkLength(samples.length);
+        startBatchTrace();
+        for (int k = 0; k < numberOfSamples; k++) {
+            int x = samples[k];
+            batchSum[k] += x;
+            batchSumOfSquares[k] += x * x;
+            if (x < min[k]) min[k] = x;
+            if (x > max[k]) max[k] = x;
+        }
+    }
+
+    /**
+     * Add all traces of another accumulator to this one
+     * @param other the accumulator to merge into this one, which has no traces in common with this one
+     */
+    public void merge(SampleStatistics other) {
+        checkLength(other.numberOfSamples);
+        other.flushBatch();
+        flushBatch();
+        for (int k = 0; k < numberOfSamples; k++) {
+            min[k] = Math.min(min[k], other.min[k]);
+            max[k] = Math.max(max[k], other.max[k]);
+        }
+        combine(other.count, other.mean, other.m2);
+    }
+
+    /**
+     * @return the mean of every sample
+     */
+    public double[] getMean() {
+        flushBatch();
+        return mean.clone();
+    }
+
+    /**
+     * @return the sample variance of every sample, or NaN for fewer than two traces
+     */
+    public double[] getVariance() {
+        flushBatch();
+        double[] variance = new double[numberOfSamples];
+        for (int k = 0; k < numberOfSamples; k++) {
+            variance[k] = count < 2 ? Double.NaN : m2[k] / (count - 1);
+        }
+        return variance;
+    }
+
+    /**
+     * @return the sample standard deviation of every sample, or NaN for fewer than two traces
+     */
+    public double[] getStandardDeviation() {
+        double[] deviation = getVariance();
+        for (int k = 0; k < numberOfSamples; k++) {
+            deviation[k] = Math.sqrt(deviation[k]);
+        }
+        return deviation;
+    }
+
+    /**
+     * @return the minimum of every sample, or positive infinity if no traces were added
+     */
+    public float[] getMin() {
+        return min.clone();
+    }
+
+    /**
+     * @return the maximum of every sample, or negative infinity if no traces were added
+     */
+    public float[] getMax() {
+        return max.clone();
+    }
+
+    private void startBatchTrace() {
+        if (batchSum == null) {
+            batchSum = new long[numberOfSamples];
+            batchSumOfSquares = new long[numberOfSamples];
+        } else if (batchCount == BATCH_SIZE) {
+            flushBatch();
+        }
+        batchCount++;
+    }
+
+    /**
+     * Fold the exact sums of the current batch into the Welford accumulator
+     */
+    private void flushBatch() {
+        if (batchCount == 0) {
+            return;
+        }
+        int b = batchCount;
+        double[] batchMean = new double[numberOfSamples];
+        double[] batchM2 = new double[numberOfSamples];
+        for (int k = 0; k < numberOfSamples; k++) {
+            long sum = batchSum[k];
+            batchMean[k] = (double) sum / b;
+            //b * sumOfSquares - sum^2 is exact, as both terms are below 2^62
+            batchM2[k] = (double) (b * batchSumOfSquares[k] - sum * sum) / b;
+        }
+        Arrays.fill(batchSum, 0L);
+        Arrays.fill(batchSumOfSquares, 0L);
+        batchCount = 0;
+        combine(b, batchMean, batchM2);
+    }
+
+    private void combine(long otherCount, double[] otherMean, double[] otherM2) {
+        if (otherCount == 0) {
+            return;
+        }
+        long n = count + otherCount;
+        double weight = (double) otherCount / n;
+        double crossWeight = (double) count * otherCount / n;
+        for (int k = 0; k < numberOfSamples; k++) {
+            double delta = otherMean[k] - mean[k];
+            mean[k] += delta * weight;
+            m2[k] += otherM2[k] + delta * delta * crossWeight;
+        }
+        count = n;
+    }
+
+    private void checkLength(int length) {
+        if (length != numberOfSamples) {
+            throw new IllegalArgumentException(String.format(LENGTH_DIFFERS, numberOfSamples, length));
+        }
+    }
+}
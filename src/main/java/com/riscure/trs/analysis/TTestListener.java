@@ -0,0 +1,22 @@
+package com.riscure.trs.analysis;
+
+/**
+ * A listener to the progress of a {@link TraceSetTTest}, which can stop the test early
+ */
+@FunctionalInterface
+public interface TTestListener {
+    /**
+     * Called after every checkpoint of the test
+     * @param intermediate the result over the traces processed so far
+     * @return true to continue the test, false to stop it
+     */
+    boolean progress(TTestResult intermediate);
+
+    /**
+     * @param threshold the absolute t-statistic at which leakage is considered detected, commonly 4.5
+     * @return a listener that stops the test as soon as any sample point of any order exceeds the threshold
+     */
+    static TTestListener stopAbove(double threshold) {
+        return intermediate -> intermediate.getMaxAbsT() <= threshold;
+    }
+}
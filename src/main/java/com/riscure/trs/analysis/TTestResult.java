@@ -0,0 +1,84 @@
+package com.riscure.trs.analysis;
+
+/**
+ * The (intermediate) result of a Welch t-test of two groups of traces, for every sample point and every order
+ */
+public class TTestResult {
+    private final double[][] t;
+    private final long[] groupSizes;
+    private final int tracesProcessed;
+    private final boolean stopped;
+
+    TTestResult(double[][] t, long[] groupSizes, int tracesProcessed, boolean stopped) {
+        this.t = t;
+        this.groupSizes = groupSizes;
+        this.tracesProcessed = tracesProcessed;
+        this.stopped = stopped;
+    }
+
+    /**
+     * @return the highest order of the test
+     */
+    public int getMaxOrder() {
+        return t.length;
+    }
+
+    /**
+     * @param order the order of the test, from 1 to the highest order
+     * @return the t-statistic of every sample point for the requested order
+     */
+    public double[] getT(int order) {
+        return t[order - 1].clone();
+    }
+
+    /**
+     * @param order the order of the test, from 1 to the highest order
+     * @return the largest absolute t-statistic over all sample points for the requested order
+     */
+    public double getMaxAbsT(int order) {
+        double max = 0;
+        for (double value : t[order - 1]) {
+            if (Math.abs(value) > max) max = Math.abs(value);
+        }
+        return max;
+    }
+
+    /**
+     * @return the largest absolute t-statistic over all sample points and all orders
+     */
+    public double getMaxAbsT() {
+        double max = 0;
+        for (int order = 1; order <= t.length; order++) {
+            max = Math.max(max, getMaxAbsT(order));
+        }
+        return max;
+    }
+
+    /**
+     * @return the number of traces in the group for which the predicate holds
+     */
+    public long getFirstGroupSize() {
+        return groupSizes[0];
+    }
+
+    /**
+     * @return the number of traces in the group for which the predicate does not hold
+     */
+    public long getSecondGroupSize() {
+        return groupSizes[1];
+    }
+
+    /**
+     * @return the number of traces processed so far
+     */
+    public int getTracesProcessed() {
+        return tracesProcessed;
+    }
+
+    /**
+     * @return whether the test was stopped by its listener before all traces were processed
+     */
+    public boolean isStopped() {
+        return stopped;
+    }
+}
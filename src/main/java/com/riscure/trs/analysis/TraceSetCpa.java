@@ -0,0 +1,184 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * A correlation power analysis of a trace set, attacking any number of key bytes in a single pass.
+ *
+ * Every {@link LeakageModel} defines the hypothetical leakage of a trace for the 256 guesses of one key byte. The
+ * running sums of the samples, the hypotheses and their products are accumulated in parallel, and merged after every
+ * checkpoint, after which a {@link CpaListener} can inspect the ranking of the guesses and stop the analysis.
+ *
+ * The sums of the products take {@code 8 * 256 * models * samples} bytes per thread, so for long traces it is
+ * advisable to restrict the analysis to a window of samples with {@link #setSampleWindow(int, int)}.
+ */
+public class TraceSetCpa {
+    private static final String INVALID_WINDOW = "Sample window [%d, %d) is out of bounds of the number of samples (%d)";
+
+    private final LeakageModel[] models;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int checkpointInterval;
+    private int sampleOffset;
+    private int sampleLength = -1;
+    private Set<String> parameterNames;
+    private CpaListener listener;
+
+    /**
+     * @param models the leakage models of the attacked key bytes
+     */
+    public TraceSetCpa(LeakageModel... models) {
+        if (models.length == 0) {
+            throw new IllegalArgumentException("At least one leakage model is required");
+        }
+        this.models = models.clone();
+    }
+
+    /**
+     * @param threads the number of threads to use, the number of processors by default
+     * @return this analysis
+     */
+    public TraceSetCpa setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * @param checkpointInterval the number of traces between two calls to the listener
+     * @return this analysis
+     */
+    public TraceSetCpa setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        return this;
+    }
+
+    /**
+     * @param offset the index of the first sample to analyze
+     * @param length the number of samples to analyze
+     * @return this analysis
+     */
+    public TraceSetCpa setSampleWindow(int offset, int length) {
+        this.sampleOffset = offset;
+        this.sampleLength = length;
+        return this;
+    }
+
+    /**
+     * Only decode the given trace parameters before evaluating the leakage models
+     * @param parameterNames the names of the parameters the leakage models depend on
+     * @return this analysis
+     */
+    public TraceSetCpa setParameterNames(String... parameterNames) {
+        this.parameterNames = new HashSet<>(Arrays.asList(parameterNames));
+        return this;
+    }
+
+    /**
+     * @param listener the listener to call after every checkpoint, or null to not report progress
+     * @return this analysis
+     */
+    public TraceSetCpa setListener(CpaListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Run the analysis on all traces of a trace set
+     * @param file the path of the trace set
+     * @return the correlation and ranking of all guesses
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public CpaResult run(String file) throws IOException, TRSFormatException {
+        return run(file, 0, ParallelRanges.numberOfTraces(file));
+    }
+
+    /**
+     * Run the analysis on a range of traces of a trace set
+     * @param file the path of the trace set
+     * @param first the index of the first trace to include
+     * @param last the index after the last trace to include
+     * @return the correlation and ranking of all guesses
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public CpaResult run(String file, int first, int last) throws IOException, TRSFormatException {
+        TRSMetaData metaData = ParallelRanges.readMetaData(file);
+        ParallelRanges.checkRange(metaData.getInt(NUMBER_OF_TRACES), first, last);
+        int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+        int length = sampleLength < 0 ? numberOfSamples - sampleOffset : sampleLength;
+        if (sampleOffset < 0 || length < 0 || (long) sampleOffset + length > numberOfSamples) {
+            throw new IllegalArgumentException(String.format(INVALID_WINDOW, sampleOffset, sampleOffset + length, numberOfSamples));
+        }
+
+        double[] shift = new double[length];
+        if (first < last) {
+            try (TraceSet traceSet = TraceSet.openLive(file)) {
+                SampleBuffer samples = new SampleBuffer(traceSet, sampleOffset, length);
+                samples.read(traceSet, first);
+                samples.copyTo(shift);
+            }
+        }
+
+        CpaAccumulator total = new CpaAccumulator(shift, models.length * LeakageModel.GUESSES);
+        int interval = checkpointInterval > 0 ? checkpointInterval : Math.max(1, last - first);
+        int processed = ParallelRanges.process(file, first, last, threads, interval,
+                traceSet -> new WorkerAccumulator(traceSet, shift),
+                this::accumulate,
+                (workers, tracesProcessed) -> {
+                    for (WorkerAccumulator worker : workers) {
+                        total.merge(worker.accumulator);
+                        worker.accumulator.reset();
+                    }
+                    return listener == null || listener.progress(result(total, tracesProcessed, false));
+                });
+        return result(total, processed, processed < last - first);
+    }
+
+    private void accumulate(TraceSet traceSet, WorkerAccumulator worker, int first, int last) throws IOException {
+        CpaAccumulator accumulator = worker.accumulator;
+        for (int index = first; index < last; index++) {
+            TraceParameterMap parameters = traceSet.getParameters(index, parameterNames);
+            double[] hypotheses = accumulator.nextHypotheses();
+            for (int target = 0; target < models.length; target++) {
+                for (int guess = 0; guess < LeakageModel.GUESSES; guess++) {
+                    hypotheses[target * LeakageModel.GUESSES + guess] = models[target].leakage(parameters, guess);
+                }
+            }
+            worker.samples.read(traceSet, index);
+            worker.samples.copyTo(accumulator.nextSamples());
+            accumulator.commit();
+        }
+        accumulator.flush();
+    }
+
+    private CpaResult result(CpaAccumulator total, int tracesProcessed, boolean stopped) {
+        double[][][] correlation = new double[models.length][][];
+        for (int target = 0; target < models.length; target++) {
+            correlation[target] = total.correlation(target * LeakageModel.GUESSES, LeakageModel.GUESSES);
+        }
+        return new CpaResult(correlation, tracesProcessed, stopped);
+    }
+
+    /**
+     * The sums of the traces of a worker since the last checkpoint
+     */
+    private final class WorkerAccumulator {
+        private final CpaAccumulator accumulator;
+        private final SampleBuffer samples;
+
+        private WorkerAccumulator(TraceSet traceSet, double[] shift) throws IOException {
+            this.accumulator = new CpaAccumulator(shift, models.length * LeakageModel.GUESSES);
+            this.samples = new SampleBuffer(traceSet, sampleOffset, shift.length);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.enums.Encoding;
+
+import java.io.IOException;
+import java.util.List;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * Computes the distribution of every sample point of a trace set, for medians, percentiles and histograms.
+ *
+ * BYTE and SHORT encoded trace sets are counted exactly in {@link SampleHistograms}, indexed by the raw sample
+ * value. INT and FLOAT encoded trace sets are summarized in {@link SampleQuantileSketches} with a bounded relative
+ * error. In both cases the memory is bounded regardless of the number of traces, and the traces are processed in
+ * parallel ranges of which the results are merged.
+ */
+public final class TraceSetDistributions {
+    private static final String INVALID_WINDOW = "Sample window [%d, %d) is out of bounds of the number of samples (%d)";
+
+    private TraceSetDistributions() {
+    }
+
+    /**
+     * Compute the distribution of every sample point over all traces of a trace set, using all processors
+     * @param file the path of the trace set
+     * @return the exact histograms for BYTE or SHORT samples, and quantile sketches otherwise
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static SampleDistribution compute(String file) throws IOException, TRSFormatException {
+        TRSMetaData metaData = ParallelRanges.readMetaData(file);
+        return compute(file, 0, metaData.getInt(NUMBER_OF_TRACES), 0, metaData.getInt(NUMBER_OF_SAMPLES),
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Compute the distribution of a window of sample points over a range of traces of a trace set
+     * @param file the path of the trace set
+     * @param first the index of the first trace to include
+     * @param last the index after the last trace to include
+     * @param offset the index of the first sample point to include
+     * @param length the number of sample points to include
+     * @param threads the number of threads to use
+     * @return the exact histograms for BYTE or SHORT samples, and quantile sketches otherwise
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static SampleDistribution compute(String file, int first, int last, int offset, int length, int threads)
+            throws IOException, TRSFormatException {
+        TRSMetaData metaData = ParallelRanges.readMetaData(file);
+        ParallelRanges.checkRange(metaData.getInt(NUMBER_OF_TRACES), first, last);
+        int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+        if (offset < 0 || length < 0 || (long) offset + length > numberOfSamples) {
+            throw new IllegalArgumentException(String.format(INVALID_WINDOW, offset, offset + length, numberOfSamples));
+        }
+
+        Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
+        if (encoding == Encoding.BYTE || encoding == Encoding.SHORT) {
+            List<SampleHistograms> parts = ParallelRanges.process(file, first, last, threads, (traceSet, partFirst, partLast) -> {
+                SampleHistograms histograms = new SampleHistograms(length);
+                SampleBuffer samples = new SampleBuffer(traceSet, offset, length);
+                for (int index = partFirst; index < partLast; index++) {
+                    samples.read(traceSet, index);
+                    samples.addTo(histograms);
+                }
+                return histograms;
+            });
+            SampleHistograms result = new SampleHistograms(length);
+            parts.forEach(result::merge);
+            return result;
+        } else {
+            List<SampleQuantileSketches> parts = ParallelRanges.process(file, first, last, threads, (traceSet, partFirst, partLast) -> {
+                SampleQuantileSketches sketches = new SampleQuantileSketches(length);
+                SampleBuffer samples = new SampleBuffer(traceSet, offset, length);
+                for (int index = partFirst; index < partLast; index++) {
+                    samples.read(traceSet, index);
+                    samples.addTo(sketches);
+                }
+                return sketches;
+            });
+            SampleQuantileSketches result = new SampleQuantileSketches(length);
+            parts.forEach(result::merge);
+            return result;
+        }
+    }
+}
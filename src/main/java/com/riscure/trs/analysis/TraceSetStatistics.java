@@ -0,0 +1,70 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TraceSet;
+
+import java.io.IOException;
+import java.util.List;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * Computes the per-sample statistics of a trace set in a single pass.
+ *
+ * The traces are split into contiguous ranges, which are processed in parallel with a {@link TraceSet} per range.
+ * The samples are read in their stored encoding, without converting them to float. The accumulators of the ranges
+ * are merged in the order of the ranges, so the result does not depend on the scheduling of the threads.
+ */
+public final class TraceSetStatistics {
+    private TraceSetStatistics() {
+    }
+
+    /**
+     * Compute the statistics of all traces of a trace set, using all processors
+     * @param file the path of the trace set
+     * @return the statistics of every sample
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static SampleStatistics compute(String file) throws IOException, TRSFormatException {
+        return compute(file, 0, ParallelRanges.numberOfTraces(file), Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Compute the statistics of a range of traces of a trace set
+     * @param file the path of the trace set
+     * @param first the index of the first trace to include
+     * @param last the index after the last trace to include
+     * @param threads the number of threads to use
+     * @return the statistics of every sample
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static SampleStatistics compute(String file, int first, int last, int threads) throws IOException, TRSFormatException {
+        TRSMetaData metaData = ParallelRanges.readMetaData(file);
+        ParallelRanges.checkRange(metaData.getInt(NUMBER_OF_TRACES), first, last);
+        int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+
+        List<SampleStatistics> parts = ParallelRanges.process(file, first, last, threads,
+                (traceSet, partFirst, partLast) -> accumulate(traceSet, partFirst, partLast, numberOfSamples));
+        SampleStatistics result = new SampleStatistics(numberOfSamples);
+        for (SampleStatistics part : parts) {
+            result.merge(part);
+        }
+        return result;
+    }
+
+    /**
+     * Add a range of traces to a new accumulator, reading the samples in their stored encoding
+     */
+    static SampleStatistics accumulate(TraceSet traceSet, int first, int last, int numberOfSamples) throws IOException {
+        SampleStatistics statistics = new SampleStatistics(numberOfSamples);
+        SampleBuffer samples = new SampleBuffer(traceSet, 0, numberOfSamples);
+        for (int index = first; index < last; index++) {
+            samples.read(traceSet, index);
+            samples.addTo(statistics);
+        }
+        return statistics;
+    }
+}
@@ -0,0 +1,221 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * A Welch t-test (TVLA) between two groups of traces of a trace set, for every sample point.
+ *
+ * The traces are split into the two groups by a predicate on their trace parameters, for example
+ * {@code parameters -> parameters.getBoolean("FIXED")}. The mean and the central moments of both groups are
+ * accumulated in parallel, which allows tests of a higher order: the second order test compares the variances, and
+ * higher orders compare the standardized moments.
+ *
+ * The traces are processed in checkpoints. After every checkpoint the partial results of the threads are merged, and
+ * the {@link TTestListener} can inspect the intermediate result and stop the test, for example once the commonly used
+ * threshold of {@link #THRESHOLD} is exceeded.
+ */
+public class TraceSetTTest {
+    public static final double THRESHOLD = 4.5;
+    private static final String INVALID_ORDER = "The order of the test must be at least 1, but was %d";
+
+    private final Predicate<TraceParameterMap> firstGroup;
+    private int maxOrder = 1;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int checkpointInterval;
+    private Set<String> parameterNames;
+    private TTestListener listener;
+
+    /**
+     * @param firstGroup the predicate that holds for the trace parameters of the traces in the first group
+     */
+    public TraceSetTTest(Predicate<TraceParameterMap> firstGroup) {
+        this.firstGroup = firstGroup;
+    }
+
+    /**
+     * @param maxOrder the highest order of the test, 1 by default
+     * @return this test
+     */
+    public TraceSetTTest setMaxOrder(int maxOrder) {
+        if (maxOrder < 1) {
+            throw new IllegalArgumentException(String.format(INVALID_ORDER, maxOrder));
+        }
+        this.maxOrder = maxOrder;
+        return this;
+    }
+
+    /**
+     * @param threads the number of threads to use, the number of processors by default
+     * @return this test
+     */
+    public TraceSetTTest setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * @param checkpointInterval the number of traces between two calls to the listener
+     * @return this test
+     */
+    public TraceSetTTest setCheckpointInterval(int checkpointInterval) {
+        this.checkpointInterval = Math.max(1, checkpointInterval);
+        return this;
+    }
+
+    /**
+     * Only decode the given trace parameters before testing the predicate, which saves decoding the others
+     * @param parameterNames the names of the parameters the predicate depends on
+     * @return this test
+     */
+    public TraceSetTTest setParameterNames(String... parameterNames) {
+        this.parameterNames = new HashSet<>(Arrays.asList(parameterNames));
+        return this;
+    }
+
+    /**
+     * @param listener the listener to call after every checkpoint, or null to not report progress
+     * @return this test
+     */
+    public TraceSetTTest setListener(TTestListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * Run the test on all traces of a trace set
+     * @param file the path of the trace set
+     * @return the t-statistics of all orders
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public TTestResult run(String file) throws IOException, TRSFormatException {
+        return run(file, 0, ParallelRanges.numberOfTraces(file));
+    }
+
+    /**
+     * Run the test on a range of traces of a trace set
+     * @param file the path of the trace set
+     * @param first the index of the first trace to include
+     * @param last the index after the last trace to include
+     * @return the t-statistics of all orders
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public TTestResult run(String file, int first, int last) throws IOException, TRSFormatException {
+        TRSMetaData metaData = ParallelRanges.readMetaData(file);
+        ParallelRanges.checkRange(metaData.getInt(NUMBER_OF_TRACES), first, last);
+        int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+        int maxMoment = Math.max(2, 2 * maxOrder);
+        MomentStatistics[] groups = {new MomentStatistics(numberOfSamples, maxMoment),
+                new MomentStatistics(numberOfSamples, maxMoment)};
+
+        int interval = checkpointInterval > 0 ? checkpointInterval : Math.max(1, last - first);
+        int processed = ParallelRanges.process(file, first, last, threads, interval,
+                traceSet -> new GroupAccumulator(traceSet, numberOfSamples, maxMoment),
+                this::accumulate,
+                (workers, tracesProcessed) -> {
+                    for (GroupAccumulator worker : workers) {
+                        groups[0].merge(worker.groups[0]);
+                        groups[1].merge(worker.groups[1]);
+                        worker.groups[0].reset();
+                        worker.groups[1].reset();
+                    }
+                    return listener == null || listener.progress(result(groups, tracesProcessed, false));
+                });
+        return result(groups, processed, processed < last - first);
+    }
+
+    private void accumulate(TraceSet traceSet, GroupAccumulator worker, int first, int last) throws IOException {
+        for (int index = first; index < last; index++) {
+            TraceParameterMap parameters = traceSet.getParameters(index, parameterNames);
+            worker.samples.read(traceSet, index);
+            worker.samples.addTo(worker.groups[firstGroup.test(parameters) ? 0 : 1]);
+        }
+    }
+
+    private TTestResult result(MomentStatistics[] groups, int tracesProcessed, boolean stopped) {
+        double[][] t = new double[maxOrder][];
+        for (int order = 1; order <= maxOrder; order++) {
+            t[order - 1] = tStatistic(groups[0], groups[1], order);
+        }
+        return new TTestResult(t, new long[]{groups[0].getCount(), groups[1].getCount()}, tracesProcessed, stopped);
+    }
+
+    /**
+     * The moments of both groups of the traces of a worker since the last checkpoint
+     */
+    private static final class GroupAccumulator {
+        private final MomentStatistics[] groups;
+        private final SampleBuffer samples;
+
+        private GroupAccumulator(TraceSet traceSet, int numberOfSamples, int maxMoment) throws IOException {
+            this.groups = new MomentStatistics[]{new MomentStatistics(numberOfSamples, maxMoment),
+                    new MomentStatistics(numberOfSamples, maxMoment)};
+            this.samples = new SampleBuffer(traceSet, 0, numberOfSamples);
+        }
+    }
+
+    /**
+     * Compute the Welch t-statistic of a given order between two groups
+     * @param a the moments of the first group
+     * @param b the moments of the second group
+     * @param order the order of the test, for which the central moments up to twice the order are required
+     * @return the t-statistic of every sample point
+     */
+    static double[] tStatistic(MomentStatistics a, MomentStatistics b, int order) {
+        double[][] meanAndVarianceA = meanAndVariance(a, order);
+        double[][] meanAndVarianceB = meanAndVariance(b, order);
+        double[] t = new double[a.getNumberOfSamples()];
+        for (int k = 0; k < t.length; k++) {
+            double difference = meanAndVarianceA[0][k] - meanAndVarianceB[0][k];
+            double deviation = Math.sqrt(meanAndVarianceA[1][k] / a.getCount() + meanAndVarianceB[1][k] / b.getCount());
+            t[k] = difference / deviation;
+        }
+        return t;
+    }
+
+    /**
+     * @return the mean and the variance of the statistic that is compared by a test of the given order
+     */
+    private static double[][] meanAndVariance(MomentStatistics statistics, int order) {
+        int numberOfSamples = statistics.getNumberOfSamples();
+        double[] mean = new double[numberOfSamples];
+        double[] variance = new double[numberOfSamples];
+        if (statistics.getCount() == 0) {
+            Arrays.fill(mean, Double.NaN);
+            Arrays.fill(variance, Double.NaN);
+        } else if (order == 1) {
+            mean = statistics.getMean();
+            variance = statistics.getCentralMoment(2);
+        } else if (order == 2) {
+            //the test on (x - mean)^2
+            mean = statistics.getCentralMoment(2);
+            double[] m4 = statistics.getCentralMoment(4);
+            for (int k = 0; k < numberOfSamples; k++) {
+                variance[k] = m4[k] - mean[k] * mean[k];
+            }
+        } else {
+            //the test on ((x - mean) / sigma)^order
+            double[] m2 = statistics.getCentralMoment(2);
+            double[] md = statistics.getCentralMoment(order);
+            double[] m2d = statistics.getCentralMoment(2 * order);
+            for (int k = 0; k < numberOfSamples; k++) {
+                double scale = Math.pow(m2[k], order);
+                mean[k] = md[k] / Math.sqrt(scale);
+                variance[k] = (m2d[k] - md[k] * md[k]) / scale;
+            }
+        }
+        return new double[][]{mean, variance};
+    }
+}
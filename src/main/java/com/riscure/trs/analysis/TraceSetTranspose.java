@@ -0,0 +1,230 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * Writes a sample-major (transposed) copy of a window of samples of a trace set, to be read with
+ * {@link SampleMajorTraceSet}.
+ *
+ * The traces are transposed in tiles of a fixed amount of memory, which span a block of traces and a strip of samples.
+ * A tile spans enough traces that the part of a column it holds is written with a single positional write of at least
+ * {@value #MIN_RUN_BYTES} bytes, and as many samples as then fit in the tile. Every thread reads the strips of its
+ * block of traces one tile at a time, transposes a tile in small cache-sized blocks, and writes its column parts. The
+ * trace set is therefore never held in memory as a whole, and the writes are large even for long traces.
+ */
+public final class TraceSetTranspose {
+    public static final String SIDECAR_EXTENSION = ".columns";
+    private static final int TILE_BYTES = 16 << 20;
+    private static final int MIN_RUN_BYTES = 32 << 10;
+    private static final int BLOCK = 64;
+    private static final String INVALID_WINDOW = "Sample window [%d, %d) is out of bounds of the number of samples (%d)";
+
+    private TraceSetTranspose() {
+    }
+
+    /**
+     * @param file the path of a trace set
+     * @return the default path of the sample-major sidecar of the trace set
+     */
+    public static Path sidecarOf(String file) {
+        return Paths.get(file + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * Transpose all samples of a trace set to its default sidecar, using all processors
+     * @param file the path of the trace set
+     * @return the path of the written sidecar
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static Path transpose(String file) throws IOException, TRSFormatException {
+        TRSMetaData metaData = ParallelRanges.readMetaData(file);
+        Path sidecar = sidecarOf(file);
+        transpose(file, sidecar, 0, metaData.getInt(NUMBER_OF_SAMPLES), Runtime.getRuntime().availableProcessors());
+        return sidecar;
+    }
+
+    /**
+     * Transpose a window of samples of a trace set
+     * @param file the path of the trace set
+     * @param destination the path of the sample-major file to write
+     * @param offset the index of the first sample to transpose
+     * @param length the number of samples to transpose
+     * @param threads the number of threads to use
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static void transpose(String file, Path destination, int offset, int length, int threads) throws IOException, TRSFormatException {
+        transpose(file, destination, offset, length, threads, TILE_BYTES);
+    }
+
+    static void transpose(String file, Path destination, int offset, int length, int threads, int tileBytes)
+            throws IOException, TRSFormatException {
+        TRSMetaData metaData = ParallelRanges.readMetaData(file);
+        int numberOfTraces = metaData.getInt(NUMBER_OF_TRACES);
+        int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+        if (offset < 0 || length < 0 || (long) offset + length > numberOfSamples) {
+            throw new IllegalArgumentException(String.format(INVALID_WINDOW, offset, offset + length, numberOfSamples));
+        }
+        Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
+        int size = encoding.getSize();
+
+        Path absolute = destination.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(SampleMajorTraceSet.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(SampleMajorTraceSet.MAGIC)
+                    .putInt(SampleMajorTraceSet.VERSION)
+                    .putInt(encoding.getValue())
+                    .putInt(numberOfTraces)
+                    .putInt(offset)
+                    .putInt(length);
+            header.rewind();
+            writeFully(out, header, 0);
+
+            if (numberOfTraces > 0 && length > 0) {
+                int blockTraces = (int) Math.min(numberOfTraces, Math.max(MIN_RUN_BYTES / size, tileBytes / ((long) length * size)));
+                int tileSamples = (int) Math.max(1, Math.min(length, tileBytes / ((long) blockTraces * size)));
+                ParallelRanges.process(file, 0, numberOfTraces, threads, (traceSet, first, last) -> {
+                    transposeRange(traceSet, out, first, last, offset, length, blockTraces, tileSamples, numberOfTraces);
+                    return null;
+                });
+            }
+            out.force(false);
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void transposeRange(TraceSet traceSet, FileChannel out, int first, int last, int offset, int length,
+                                       int blockTraces, int tileSamples, int numberOfTraces) throws IOException {
+        Encoding encoding = Encoding.fromValue(traceSet.getMetaData().getInt(SAMPLE_CODING));
+        int size = encoding.getSize();
+        long columnSize = (long) numberOfTraces * size;
+        int rowsInRange = Math.min(blockTraces, last - first);
+        Tile tile = new Tile(encoding, rowsInRange, tileSamples);
+        //the last strip of samples is narrower if the tile width does not divide the number of samples
+        Tile lastTile = length % tileSamples == 0 ? tile : new Tile(encoding, rowsInRange, length % tileSamples);
+        ByteBuffer transposed = ByteBuffer.allocate(rowsInRange * tileSamples * size).order(ByteOrder.LITTLE_ENDIAN);
+        for (int blockStart = first; blockStart < last; blockStart += blockTraces) {
+            int rows = Math.min(blockTraces, last - blockStart);
+            for (int sampleStart = 0; sampleStart < length; sampleStart += tileSamples) {
+                Tile current = sampleStart + tileSamples <= length ? tile : lastTile;
+                for (int row = 0; row < rows; row++) {
+                    current.read(traceSet, blockStart + row, row, offset + sampleStart);
+                }
+                current.transpose(transposed, rows);
+                //the values of one sample of this block are contiguous in both the tile and the destination
+                int columnPart = rows * size;
+                for (int sample = 0; sample < current.length; sample++) {
+                    transposed.limit(sample * columnPart + columnPart).position(sample * columnPart);
+                    long column = sampleStart + sample;
+                    writeFully(out, transposed, SampleMajorTraceSet.HEADER_SIZE + column * columnSize + (long) blockStart * size);
+                }
+                transposed.clear();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            position += out.write(source, position);
+        }
+    }
+
+    /**
+     * A block of traces and a strip of their samples in their stored encoding, indexed as [row][sample]
+     */
+    private static final class Tile {
+        private final Encoding encoding;
+        private byte[][] bytes;
+        private short[][] shorts;
+        private int[][] ints;
+        private float[][] floats;
+        private final int length;
+
+        Tile(Encoding encoding, int rows, int length) {
+            this.encoding = encoding;
+            this.length = length;
+            switch (encoding) {
+                case BYTE:
+                    bytes = new byte[rows][length];
+                    break;
+                case SHORT:
+                    shorts = new short[rows][length];
+                    break;
+                case INT:
+                    ints = new int[rows][length];
+                    break;
+                default:
+                    floats = new float[rows][length];
+                    break;
+            }
+        }
+
+        void read(TraceSet traceSet, int index, int row, int offset) throws IOException {
+            switch (encoding) {
+                case BYTE:
+                    traceSet.readSamples(index, offset, bytes[row]);
+                    break;
+                case SHORT:
+                    traceSet.readSamples(index, offset, shorts[row]);
+                    break;
+                case INT:
+                    traceSet.readSamples(index, offset, ints[row]);
+                    break;
+                default:
+                    traceSet.readSamples(index, offset, floats[row]);
+                    break;
+            }
+        }
+
+        /**
+         * Write the first rows of this tile sample-major into the destination, in blocks that fit in the cache
+         */
+        void transpose(ByteBuffer destination, int rows) {
+            int size = encoding.getSize();
+            for (int rowBlock = 0; rowBlock < rows; rowBlock += BLOCK) {
+                int rowEnd = Math.min(rows, rowBlock + BLOCK);
+                for (int sampleBlock = 0; sampleBlock < length; sampleBlock += BLOCK) {
+                    int sampleEnd = Math.min(length, sampleBlock + BLOCK);
+                    for (int sample = sampleBlock; sample < sampleEnd; sample++) {
+                        int base = sample * rows;
+                        for (int row = rowBlock; row < rowEnd; row++) {
+                            int position = (base + row) * size;
+                            switch (encoding) {
+                                case BYTE:
+                                    destination.put(position, bytes[row][sample]);
+                                    break;
+                                case SHORT:
+                                    destination.putShort(position, shorts[row][sample]);
+                                    break;
+                                case INT:
+                                    destination.putInt(position, ints[row][sample]);
+                                    break;
+                                default:
+                                    destination.putFloat(position, floats[row][sample]);
+                                    break;
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
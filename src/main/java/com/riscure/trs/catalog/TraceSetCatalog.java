@@ -0,0 +1,340 @@
+package com.riscure.trs.catalog;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.TRSTag;
+import com.riscure.trs.io.LittleEndianInputStream;
+import com.riscure.trs.io.LittleEndianOutputStream;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import com.riscure.trs.parameter.traceset.TraceSetParameterMap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * An in-memory catalog of the headers of a collection of TRS files.
+ * Only the header of every file is read (see {@link TraceSet#readMetaData(Path)}), so cataloging a large collection
+ * costs a few kilobytes of I/O per file, regardless of the number of traces in it.
+ *
+ * A catalog can be persisted to a compact binary file, and refreshed incrementally: only the files of which the size
+ * or modification time changed are read again. A catalog loaded from a file contains the essentials of every header:
+ * NUMBER_OF_TRACES, NUMBER_OF_SAMPLES, SAMPLE_CODING, DATA_LENGTH, TITLE_SPACE, TRS_VERSION, the trace parameter
+ * definitions and the trace set parameters. Files with an unreadable header are remembered with their size and
+ * modification time as well, so that they are only read again when they change.
+ */
+public class TraceSetCatalog {
+    private static final String TRS_EXTENSION = ".trs";
+    private static final String SKIPPING_FILE = "Skipping '%s' while cataloging: %s%n";
+    private static final String INVALID_CATALOG = "'%s' is not a trace set catalog file";
+    private static final String UNSUPPORTED_VERSION = "Unsupported trace set catalog version: %d";
+    private static final int MAGIC = 0x43535254;    //"TRSC" in little endian
+    private static final int VERSION = 1;
+    private static final TRSTag[] ESSENTIAL_TAGS = {NUMBER_OF_TRACES, NUMBER_OF_SAMPLES, SAMPLE_CODING, DATA_LENGTH,
+            TITLE_SPACE, TRS_VERSION};
+
+    private final ConcurrentSkipListMap<Path, TraceSetCatalogEntry> entries = new ConcurrentSkipListMap<>();
+    //the files of which the header could not be read, without metadata
+    private final ConcurrentSkipListMap<Path, TraceSetCatalogEntry> unreadable = new ConcurrentSkipListMap<>();
+
+    /**
+     * Add an entry to this catalog, replacing any previous entry for the same path
+     * @param entry the entry to add
+     */
+    public void put(TraceSetCatalogEntry entry) {
+        Path path = entry.getPath().toAbsolutePath().normalize();
+        unreadable.remove(path);
+        entries.put(path, entry);
+    }
+
+    /**
+     * @param path the path of the cataloged file
+     * @return the catalog entry of the requested file, or null if it is not in this catalog
+     */
+    public TraceSetCatalogEntry get(Path path) {
+        return entries.get(path.toAbsolutePath().normalize());
+    }
+
+    /**
+     * @return all entries in this catalog, ordered by path
+     */
+    public Collection<TraceSetCatalogEntry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    /**
+     * @return the number of files in this catalog
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the files of which the header could not be read, ordered by path
+     */
+    public List<Path> getUnreadable() {
+        return new ArrayList<>(unreadable.keySet());
+    }
+
+    /**
+     * Find all cataloged trace sets matching a condition. This only uses the catalog, no trace file is accessed.
+     * @param predicate the condition that the entries need to match
+     * @return all entries matching the condition, ordered by path
+     */
+    public List<TraceSetCatalogEntry> find(Predicate<TraceSetCatalogEntry> predicate) {
+        return entries.values().stream().filter(predicate).collect(Collectors.toList());
+    }
+
+    /**
+     * Catalog all TRS files in a directory and its subdirectories, using one thread per available processor
+     * @param directory the root directory to scan
+     * @return a new catalog containing the headers of all readable TRS files
+     * @throws IOException if the directory could not be scanned
+     */
+    public static TraceSetCatalog scan(Path directory) throws IOException {
+        return scan(directory, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Catalog all TRS files in a directory and its subdirectories.
+     * Files with an unreadable header are reported and skipped.
+     * @param directory the root directory to scan
+     * @param threads the number of threads used to read the headers
+     * @return a new catalog containing the headers of all readable TRS files
+     * @throws IOException if the directory could not be scanned
+     */
+    public static TraceSetCatalog scan(Path directory, int threads) throws IOException {
+        TraceSetCatalog catalog = new TraceSetCatalog();
+        catalog.catalogFiles(findTraceSets(directory), threads);
+        return catalog;
+    }
+
+    /**
+     * Bring this catalog up to date with the TRS files in a directory and its subdirectories.
+     * Only new files and files of which the size or modification time changed are read, including files that could
+     * not be read before. Entries of files in the directory that no longer exist are removed.
+     * @param directory the root directory to scan
+     * @param threads the number of threads used to read the headers
+     * @return the number of files of which the header was read
+     * @throws IOException if the directory could not be scanned
+     */
+    public int refresh(Path directory, int threads) throws IOException {
+        Path root = directory.toAbsolutePath().normalize();
+        List<Path> files = findTraceSets(root);
+        Set<Path> present = new HashSet<>(files);
+        entries.keySet().removeIf(path -> path.startsWith(root) && !present.contains(path));
+        unreadable.keySet().removeIf(path -> path.startsWith(root) && !present.contains(path));
+
+        List<Path> changed = new ArrayList<>();
+        for (Path file : files) {
+            TraceSetCatalogEntry entry = entries.containsKey(file) ? entries.get(file) : unreadable.get(file);
+            if (entry == null || isChanged(entry)) {
+                changed.add(file);
+            }
+        }
+        for (Path file : changed) {
+            //make sure that files that became unreadable do not keep their old entry
+            entries.remove(file);
+        }
+        catalogFiles(changed, threads);
+        return changed.size();
+    }
+
+    private static boolean isChanged(TraceSetCatalogEntry entry) {
+        try {
+            return !entry.isUpToDate();
+        } catch (IOException ex) {
+            return true;
+        }
+    }
+
+    /**
+     * Load a catalog from disk, refresh it with the current contents of a directory, and save it again.
+     * If the catalog file does not exist yet, a new catalog is created.
+     * @param directory the root directory to scan
+     * @param catalogFile the file in which the catalog is persisted
+     * @return the refreshed catalog
+     * @throws IOException if the directory could not be scanned, or the catalog could not be read or written
+     */
+    public static TraceSetCatalog update(Path directory, Path catalogFile) throws IOException {
+        TraceSetCatalog catalog = Files.exists(catalogFile) ? load(catalogFile) : new TraceSetCatalog();
+        int before = catalog.entries.size() + catalog.unreadable.size();
+        int read = catalog.refresh(directory, Runtime.getRuntime().availableProcessors());
+        //without any header read, the catalog only changed if files were removed
+        boolean removed = catalog.entries.size() + catalog.unreadable.size() != before;
+        if (read > 0 || removed || !Files.exists(catalogFile)) {
+            catalog.save(catalogFile);
+        }
+        return catalog;
+    }
+
+    /**
+     * Write this catalog to a file. The file is written next to its destination first, and then moved into place.
+     * @param catalogFile the file to write the catalog to
+     * @throws IOException if the catalog could not be written
+     */
+    public void save(Path catalogFile) throws IOException {
+        Path absolute = catalogFile.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (LittleEndianOutputStream dos = new LittleEndianOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            Collection<TraceSetCatalogEntry> values = entries.values();
+            dos.writeInt(values.size());
+            for (TraceSetCatalogEntry entry : values) {
+                writeBytes(dos, entry.getPath().toString().getBytes(StandardCharsets.UTF_8));
+                dos.writeLong(entry.getSize());
+                dos.writeLong(entry.getLastModified());
+                TRSMetaData metaData = entry.getMetaData();
+                for (TRSTag tag : ESSENTIAL_TAGS) {
+                    dos.writeInt(metaData.getInt(tag));
+                }
+                writeBytes(dos, metaData.getTraceParameterDefinitions().serialize());
+                writeBytes(dos, metaData.getTraceSetParameters().serialize());
+            }
+            Collection<TraceSetCatalogEntry> unreadableValues = unreadable.values();
+            dos.writeInt(unreadableValues.size());
+            for (TraceSetCatalogEntry entry : unreadableValues) {
+                writeBytes(dos, entry.getPath().toString().getBytes(StandardCharsets.UTF_8));
+                dos.writeLong(entry.getSize());
+                dos.writeLong(entry.getLastModified());
+            }
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read a catalog that was written by {@link #save(Path)}
+     * @param catalogFile the file to read the catalog from
+     * @return the catalog stored in the file
+     * @throws IOException if the catalog could not be read
+     */
+    public static TraceSetCatalog load(Path catalogFile) throws IOException {
+        TraceSetCatalog catalog = new TraceSetCatalog();
+        try (LittleEndianInputStream dis = new LittleEndianInputStream(new BufferedInputStream(Files.newInputStream(catalogFile)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException(String.format(INVALID_CATALOG, catalogFile));
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new IOException(String.format(UNSUPPORTED_VERSION, version));
+            }
+            int numberOfEntries = dis.readInt();
+            for (int k = 0; k < numberOfEntries; k++) {
+                Path path = Paths.get(new String(readBytes(dis), StandardCharsets.UTF_8));
+                long size = dis.readLong();
+                long lastModified = dis.readLong();
+                TRSMetaData metaData = TRSMetaData.create();
+                for (TRSTag tag : ESSENTIAL_TAGS) {
+                    metaData.put(tag, dis.readInt());
+                }
+                metaData.put(TRACE_PARAMETER_DEFINITIONS, TraceParameterDefinitionMap.deserialize(readBytes(dis)));
+                metaData.put(TRACE_SET_PARAMETERS, TraceSetParameterMap.deserialize(readBytes(dis)));
+                catalog.put(new TraceSetCatalogEntry(path, size, lastModified, metaData));
+            }
+            int numberOfUnreadable = dis.readInt();
+            for (int k = 0; k < numberOfUnreadable; k++) {
+                Path path = Paths.get(new String(readBytes(dis), StandardCharsets.UTF_8));
+                long size = dis.readLong();
+                long lastModified = dis.readLong();
+                catalog.unreadable.put(path, new TraceSetCatalogEntry(path, size, lastModified, null));
+            }
+        }
+        return catalog;
+    }
+
+    private static void writeBytes(LittleEndianOutputStream dos, byte[] bytes) throws IOException {
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    private static byte[] readBytes(LittleEndianInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return bytes;
+    }
+
+    static List<Path> findTraceSets(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(file -> file.getFileName().toString().toLowerCase().endsWith(TRS_EXTENSION))
+                    .filter(Files::isRegularFile)
+                    .map(file -> file.toAbsolutePath().normalize())
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Read the headers of the provided files in parallel, and add them to this catalog
+     * @param files the files to catalog
+     * @param threads the number of threads used to read the headers
+     * @throws IOException if the calling thread was interrupted while waiting for the headers
+     */
+    void catalogFiles(List<Path> files, int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            List<Future<TraceSetCatalogEntry>> futures = new ArrayList<>(files.size());
+            for (Path file : files) {
+                futures.add(executor.submit(() -> readEntry(file)));
+            }
+            for (Future<TraceSetCatalogEntry> future : futures) {
+                TraceSetCatalogEntry entry = future.get();
+                if (entry.getMetaData() != null) {
+                    put(entry);
+                } else {
+                    unreadable.put(entry.getPath(), entry);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cataloging trace sets");
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Create a catalog entry by reading the attributes and the header of a file
+     * @param file the file to read
+     * @return the catalog entry of the file, without metadata if the header could not be read
+     */
+    static TraceSetCatalogEntry readEntry(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        long size = -1;
+        long lastModified = -1;
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            size = attributes.size();
+            lastModified = attributes.lastModifiedTime().toMillis();
+            return new TraceSetCatalogEntry(path, size, lastModified, TraceSet.readMetaData(file));
+        } catch (IOException | TRSFormatException | RuntimeException ex) {
+            System.err.printf(SKIPPING_FILE, file, ex.getMessage());
+            return new TraceSetCatalogEntry(path, size, lastModified, null);
+        }
+    }
+}
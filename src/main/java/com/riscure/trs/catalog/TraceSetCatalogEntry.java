@@ -0,0 +1,67 @@
+package com.riscure.trs.catalog;
+
+import com.riscure.trs.TRSMetaData;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * A catalog entry describes one TRS file: its location, its size and modification time on disk, and its header.
+ */
+public class TraceSetCatalogEntry {
+    private final Path path;
+    private final long size;
+    private final long lastModified;
+    private final TRSMetaData metaData;
+
+    public TraceSetCatalogEntry(Path path, long size, long lastModified, TRSMetaData metaData) {
+        this.path = path;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.metaData = metaData;
+    }
+
+    /**
+     * @return the Path on disk of the cataloged trace set
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the size in bytes of the file at the time it was cataloged
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the last modification time of the file at the time it was cataloged, in milliseconds since the epoch
+     */
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * @return the header of the cataloged trace set
+     */
+    public TRSMetaData getMetaData() {
+        return metaData;
+    }
+
+    /**
+     * @return whether the file still has the size and modification time it had when it was cataloged
+     * @throws IOException when the attributes of the file cannot be read, e.g. because it no longer exists
+     */
+    public boolean isUpToDate() throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("TraceSetCatalogEntry{Path=%s, Size=%d, LastModified=%d}", path, size, lastModified);
+    }
+}
@@ -0,0 +1,385 @@
+package com.riscure.trs.catalog;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TRSMetaDataUtils;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.index.Tombstones;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * Many TRS files with the same layout, presented as one trace set with a global trace index.
+ *
+ * Only the headers of the files are read when a collection is created. The files are opened when their traces are
+ * read, and at most a given number of files is open at once: the least recently used file that is not being read is
+ * closed to make room for another. A global index is routed to its file with a binary search of the cumulative
+ * numbers of traces of the files. Traces that have been deleted from a file are skipped, like
+ * {@link TraceSet#openLive(String)} does.
+ *
+ * A collection can be read from several threads at once; every file that is read by more than one thread at the same
+ * time is opened once per thread.
+ */
+public class TraceSetCollection implements AutoCloseable {
+    private static final String NO_FILES = "A trace set collection needs at least one file";
+    private static final String INVALID_POOL_SIZE = "The maximum number of open files must be positive, but was %d";
+    private static final String OUT_OF_DATE = "Trace set '%s' has changed since it was cataloged";
+    private static final String INDEX_OUT_OF_BOUNDS = "Requested trace index (%d) is out of bounds of the number of traces (%d).";
+    private static final String COLLECTION_CLOSED = "The trace set collection has been closed.";
+
+    private final List<Path> paths;
+    private final TRSMetaData metaData;
+    private final long[] firstTraces;   //the global index of the first trace of every file, followed by the size
+    private final int maxOpenFiles;
+    private final LinkedList<OpenTraceSet> idle = new LinkedList<>();  //least recently used first
+    private int numberOfOpenFiles;
+    private boolean closed;
+
+    private TraceSetCollection(List<Path> paths, List<TRSMetaData> metaData, int[] numberOfLiveTraces, int maxOpenFiles) {
+        if (paths.isEmpty()) {
+            throw new IllegalArgumentException(NO_FILES);
+        }
+        if (maxOpenFiles <= 0) {
+            throw new IllegalArgumentException(String.format(INVALID_POOL_SIZE, maxOpenFiles));
+        }
+        this.paths = new ArrayList<>(paths);
+        //a file without traces has no layout, since the layout of a trace set is taken from its first trace
+        int reference = 0;
+        while (reference < paths.size() - 1 && metaData.get(reference).getInt(NUMBER_OF_TRACES) == 0) {
+            reference++;
+        }
+        this.metaData = metaData.get(reference);
+        this.firstTraces = new long[paths.size() + 1];
+        for (int file = 0; file < paths.size(); file++) {
+            if (metaData.get(file).getInt(NUMBER_OF_TRACES) > 0) {
+                TRSMetaDataUtils.checkSameLayout(paths.get(reference), this.metaData, paths.get(file), metaData.get(file));
+            }
+            firstTraces[file + 1] = firstTraces[file] + numberOfLiveTraces[file];
+        }
+        this.maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * Create a collection of TRS files, reading only their headers
+     * @param files the paths of the TRS files, in the order of their traces
+     * @param maxOpenFiles the maximum number of files that are open at once
+     * @return the collection
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of a TRS header is encountered
+     * @throws IllegalArgumentException when the files with traces have a different number of samples, sample coding,
+     * data length, title space, version or trace parameter definitions
+     */
+    public static TraceSetCollection open(List<Path> files, int maxOpenFiles) throws IOException, TRSFormatException {
+        List<TRSMetaData> metaData = new ArrayList<>(files.size());
+        for (Path file : files) {
+            metaData.add(TraceSet.readMetaData(file));
+        }
+        return new TraceSetCollection(files, metaData, numberOfLiveTraces(files, metaData), maxOpenFiles);
+    }
+
+    /**
+     * Create a collection of cataloged TRS files, without reading their headers again. Only the size and modification
+     * time of every file are checked against its catalog entry.
+     * @param entries the catalog entries of the TRS files, in the order of their traces
+     * @param maxOpenFiles the maximum number of files that are open at once
+     * @return the collection
+     * @throws IOException when a file has changed since it was cataloged, or its deleted traces cannot be read
+     * @throws IllegalArgumentException when the files with traces have a different number of samples, sample coding,
+     * data length, title space, version or trace parameter definitions
+     */
+    public static TraceSetCollection of(Collection<TraceSetCatalogEntry> entries, int maxOpenFiles) throws IOException {
+        List<Path> files = new ArrayList<>(entries.size());
+        List<TRSMetaData> metaData = new ArrayList<>(entries.size());
+        for (TraceSetCatalogEntry entry : entries) {
+            if (!entry.isUpToDate()) {
+                throw new IOException(String.format(OUT_OF_DATE, entry.getPath()));
+            }
+            files.add(entry.getPath());
+            metaData.add(entry.getMetaData());
+        }
+        return new TraceSetCollection(files, metaData, numberOfLiveTraces(files, metaData), maxOpenFiles);
+    }
+
+    /**
+     * The traces that have been deleted from a file (see {@link Tombstones}) are not part of the collection
+     */
+    private static int[] numberOfLiveTraces(List<Path> files, List<TRSMetaData> metaData) throws IOException {
+        int[] numberOfLiveTraces = new int[files.size()];
+        for (int file = 0; file < files.size(); file++) {
+            Tombstones tombstones = Tombstones.load(files.get(file).toString(), metaData.get(file).getInt(NUMBER_OF_TRACES));
+            numberOfLiveTraces[file] = tombstones.getNumberOfLiveTraces();
+        }
+        return numberOfLiveTraces;
+    }
+
+    /**
+     * @return the total number of traces in all files
+     */
+    public long size() {
+        return firstTraces[paths.size()];
+    }
+
+    /**
+     * @return the number of files in this collection
+     */
+    public int getNumberOfFiles() {
+        return paths.size();
+    }
+
+    /**
+     * @param file the index of a file in this collection
+     * @return the path of the file
+     */
+    public Path getPath(int file) {
+        return paths.get(file);
+    }
+
+    /**
+     * @param file the index of a file in this collection
+     * @return the global index of the first trace of the file
+     */
+    public long getFirstTrace(int file) {
+        return firstTraces[file];
+    }
+
+    /**
+     * @return the metadata of the first file with traces, which has the same layout as all other files with traces
+     */
+    public TRSMetaData getMetaData() {
+        return metaData;
+    }
+
+    /**
+     * @param index a global trace index
+     * @return the index of the file that contains the trace
+     * @throws IllegalArgumentException when the index is out of bounds
+     */
+    public int fileOf(long index) {
+        if (index < 0 || index >= size()) {
+            throw new IllegalArgumentException(String.format(INDEX_OUT_OF_BOUNDS, index, size()));
+        }
+        int file = Arrays.binarySearch(firstTraces, index);
+        //files without traces share their first index with the next file
+        if (file >= 0) {
+            while (firstTraces[file + 1] == index) {
+                file++;
+            }
+            return file;
+        }
+        return -file - 2;
+    }
+
+    /**
+     * Get a trace by its global index
+     * @param index the global index of the trace
+     * @return the trace
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException when the index is out of bounds
+     */
+    public Trace get(long index) throws IOException {
+        int file = fileOf(index);
+        OpenTraceSet traceSet = acquire(file);
+        try {
+            return traceSet.traceSet.get((int) (index - firstTraces[file]));
+        } finally {
+            release(traceSet);
+        }
+    }
+
+    /**
+     * @return a sequential stream of all traces, in order of their global index
+     */
+    public Stream<Trace> stream() {
+        return StreamSupport.stream(new TraceSpliterator(0, size()), false);
+    }
+
+    /**
+     * @return a parallel stream of all traces. The traces are split into ranges, and a file is only opened once for
+     * all traces of a range in it.
+     */
+    public Stream<Trace> parallelStream() {
+        return StreamSupport.stream(new TraceSpliterator(0, size()), true);
+    }
+
+    /**
+     * Close all open files. Files that are being read are closed when the read is done.
+     */
+    @Override
+    public void close() throws IOException {
+        List<OpenTraceSet> toClose;
+        synchronized (this) {
+            closed = true;
+            toClose = new ArrayList<>(idle);
+            idle.clear();
+            numberOfOpenFiles -= toClose.size();
+            notifyAll();
+        }
+        closeAll(toClose);
+    }
+
+    /**
+     * Take an open trace set of a file from the pool, or open one. When the maximum number of files is open, the
+     * least recently used file that is not being read is closed, or this waits until a file is released.
+     */
+    private OpenTraceSet acquire(int file) throws IOException {
+        OpenTraceSet evicted = null;
+        synchronized (this) {
+            while (true) {
+                if (closed) throw new IllegalStateException(COLLECTION_CLOSED);
+                Iterator<OpenTraceSet> iterator = idle.descendingIterator();
+                while (iterator.hasNext()) {
+                    OpenTraceSet candidate = iterator.next();
+                    if (candidate.file == file) {
+                        iterator.remove();
+                        return candidate;
+                    }
+                }
+                if (numberOfOpenFiles < maxOpenFiles) {
+                    numberOfOpenFiles++;
+                    break;
+                }
+                if (!idle.isEmpty()) {
+                    evicted = idle.removeFirst();
+                    break;
+                }
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for an open trace set");
+                }
+            }
+        }
+        try {
+            if (evicted != null) {
+                evicted.traceSet.close();
+            }
+            return new OpenTraceSet(file, TraceSet.openLive(paths.get(file).toString()));
+        } catch (IOException | TRSFormatException | RuntimeException ex) {
+            synchronized (this) {
+                numberOfOpenFiles--;
+                notifyAll();
+            }
+            if (ex instanceof IOException) throw (IOException) ex;
+            if (ex instanceof RuntimeException) throw (RuntimeException) ex;
+            throw new IOException(ex);
+        }
+    }
+
+    private void release(OpenTraceSet traceSet) throws IOException {
+        synchronized (this) {
+            if (!closed) {
+                idle.addLast(traceSet);
+                notifyAll();
+                return;
+            }
+            numberOfOpenFiles--;
+        }
+        closeAll(Collections.singletonList(traceSet));
+    }
+
+    private static void closeAll(List<OpenTraceSet> traceSets) throws IOException {
+        for (OpenTraceSet traceSet : traceSets) {
+            try {
+                traceSet.traceSet.close();
+            } catch (TRSFormatException ex) {
+                throw new IOException(ex);
+            }
+        }
+    }
+
+    private static final class OpenTraceSet {
+        private final int file;
+        private final TraceSet traceSet;
+
+        private OpenTraceSet(int file, TraceSet traceSet) {
+            this.file = file;
+            this.traceSet = traceSet;
+        }
+    }
+
+    /**
+     * Splits a range of global trace indices, and reads the traces of a file with a single open trace set
+     */
+    private final class TraceSpliterator implements Spliterator<Trace> {
+        private long next;
+        private final long end;
+
+        private TraceSpliterator(long next, long end) {
+            this.next = next;
+            this.end = end;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super Trace> action) {
+            if (next >= end) {
+                return false;
+            }
+            try {
+                action.accept(get(next++));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super Trace> action) {
+            try {
+                while (next < end) {
+                    int file = fileOf(next);
+                    long last = Math.min(end, firstTraces[file + 1]);
+                    OpenTraceSet traceSet = acquire(file);
+                    try {
+                        for (; next < last; next++) {
+                            action.accept(traceSet.traceSet.get((int) (next - firstTraces[file])));
+                        }
+                    } finally {
+                        release(traceSet);
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        @Override
+        public Spliterator<Trace> trySplit() {
+            long remaining = end - next;
+            if (remaining < 2) {
+                return null;
+            }
+            long middle = next + remaining / 2;
+            TraceSpliterator prefix = new TraceSpliterator(next, middle);
+            next = middle;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return end - next;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SIZED | SUBSIZED | NONNULL | IMMUTABLE;
+        }
+    }
+}
@@ -0,0 +1,390 @@
+package com.riscure.trs.compressed;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TRSMetaDataUtils;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.metrics.TraceSetMetricsListener;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import com.riscure.trs.types.TypedKey;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * A read-only trace set stored in the compressed container written by {@link TraceSetCompressor}.
+ *
+ * Traces are read with the same {@link #get(int)} methods as a {@link com.riscure.trs.TraceSet}. A trace is read by
+ * decoding the whole block that contains it, and the most recently used blocks are kept in a cache, so that reading
+ * the traces in order decodes every block only once. When opened with prefetch threads, the blocks that follow a block
+ * that was not cached are decoded in the background, in parallel.
+ *
+ * Like a TraceSet, a CompressedTraceSet is not thread-safe.
+ */
+public class CompressedTraceSet implements AutoCloseable {
+    public static final int DEFAULT_CACHE_BLOCKS = 16;
+    private static final String NOT_COMPRESSED = "Error reading compressed TRS file: '%s' is not a compressed trace set";
+    private static final String UNSUPPORTED_VERSION = "Error reading compressed TRS file: unsupported version %d";
+    private static final String TRACE_SET_NOT_OPEN = "TraceSet has not been opened or has been closed.";
+    private static final String TRACE_INDEX_OUT_OF_BOUNDS = "Requested trace index (%d) is larger than the total number of available traces (%d).";
+    private static final String UNKNOWN_SAMPLE_CODING = "Error reading TRS file: unknown sample coding '%d'";
+
+    private final Path path;
+    private final FileChannel channel;
+    private final TRSMetaData metaData;
+    private final int headerSize;
+    private final int tracesPerBlock;
+    private final long[] offsets;       //the offset of every block, followed by the offset of the index
+    private final long traceSize;
+    private final Map<Integer, Future<ByteBuffer>> cache;
+    private final ExecutorService decoders;
+    private final int prefetch;
+    private TraceSetMetricsListener metrics;
+    private boolean open = true;
+
+    private CompressedTraceSet(String file, int cacheBlocks, int prefetchThreads) throws IOException, TRSFormatException {
+        this.path = Paths.get(file);
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < TraceSetCompressor.PREAMBLE_SIZE + TraceSetCompressor.TRAILER_SIZE) {
+                throw new TRSFormatException(String.format(NOT_COMPRESSED, file));
+            }
+            ByteBuffer trailer = read(size - TraceSetCompressor.TRAILER_SIZE, TraceSetCompressor.TRAILER_SIZE);
+            long indexOffset = trailer.getLong();
+            int numberOfBlocks = trailer.getInt();
+            ByteBuffer preamble = read(0, TraceSetCompressor.PREAMBLE_SIZE);
+            if (trailer.getInt() != TraceSetCompressor.MAGIC || preamble.getInt() != TraceSetCompressor.MAGIC) {
+                throw new TRSFormatException(String.format(NOT_COMPRESSED, file));
+            }
+            int version = preamble.getInt();
+            if (version != TraceSetCompressor.VERSION) {
+                throw new TRSFormatException(String.format(UNSUPPORTED_VERSION, version));
+            }
+            this.tracesPerBlock = preamble.getInt();
+
+            ByteBuffer index = read(indexOffset, numberOfBlocks * 8);
+            this.offsets = new long[numberOfBlocks + 1];
+            for (int block = 0; block < numberOfBlocks; block++) {
+                offsets[block] = index.getLong();
+            }
+            offsets[numberOfBlocks] = indexOffset;
+
+            long headerEnd = numberOfBlocks > 0 ? offsets[0] : indexOffset;
+            this.headerSize = (int) (headerEnd - TraceSetCompressor.PREAMBLE_SIZE);
+            this.metaData = TRSMetaDataUtils.readTRSMetaData(read(TraceSetCompressor.PREAMBLE_SIZE, headerSize));
+        } catch (IOException | TRSFormatException | RuntimeException ex) {
+            channel.close();
+            throw ex;
+        }
+        int sampleSize = Encoding.fromValue(metaData.getInt(SAMPLE_CODING)).getSize();
+        this.traceSize = metaData.getInt(TITLE_SPACE) + metaData.getInt(DATA_LENGTH)
+                + (long) metaData.getInt(NUMBER_OF_SAMPLES) * sampleSize;
+
+        int capacity = Math.max(1, cacheBlocks);
+        this.cache = new LinkedHashMap<Integer, Future<ByteBuffer>>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Future<ByteBuffer>> eldest) {
+                if (size() <= capacity) {
+                    return false;
+                }
+                //a prefetched block that is evicted before it is read does not need to be decoded anymore
+                eldest.getValue().cancel(false);
+                return true;
+            }
+        };
+        this.prefetch = Math.min(prefetchThreads, capacity - 1);
+        this.decoders = prefetch > 0 ? Executors.newFixedThreadPool(prefetch, runnable -> {
+            Thread thread = new Thread(runnable, "trs-block-decoder");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+    }
+
+    /**
+     * Open a compressed trace set with a cache of {@link #DEFAULT_CACHE_BLOCKS} blocks, without prefetching
+     * @param file the path of the compressed file
+     * @return the opened trace set
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the file is encountered
+     */
+    public static CompressedTraceSet open(String file) throws IOException, TRSFormatException {
+        return open(file, DEFAULT_CACHE_BLOCKS, 0);
+    }
+
+    /**
+     * Open a compressed trace set
+     * @param file the path of the compressed file
+     * @param cacheBlocks the number of decoded blocks to keep in memory
+     * @param prefetchThreads the number of blocks to decode ahead in the background, at most one less than the
+     *                        size of the cache, or 0 to only decode blocks when they are read
+     * @return the opened trace set
+     * @throws IOException when any read exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the file is encountered
+     */
+    public static CompressedTraceSet open(String file, int cacheBlocks, int prefetchThreads) throws IOException, TRSFormatException {
+        return new CompressedTraceSet(file, cacheBlocks, prefetchThreads);
+    }
+
+    /**
+     * @return the Path on disk of this trace set
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the metadata of the original trace set
+     */
+    public TRSMetaData getMetaData() {
+        return metaData;
+    }
+
+    /**
+     * @return the number of traces in this trace set
+     */
+    public int size() {
+        return metaData.getInt(NUMBER_OF_TRACES);
+    }
+
+    /**
+     * @return the number of compressed blocks
+     */
+    public int getNumberOfBlocks() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return the number of traces in every block but the last
+     */
+    public int getTracesPerBlock() {
+        return tracesPerBlock;
+    }
+
+    /**
+     * Register a listener that is notified of every trace read and every block decoded
+     * @param listener the listener to notify, or null to stop measuring
+     */
+    public void setMetricsListener(TraceSetMetricsListener listener) {
+        this.metrics = listener;
+    }
+
+    /**
+     * Get a trace from the set at the specified index
+     * @param index the index of the Trace to read
+     * @return the Trace at the requested trace index
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this trace set is closed or the index is out of bounds
+     */
+    public Trace get(int index) throws IOException {
+        return get(index, (Set<String>) null);
+    }
+
+    /**
+     * Get a trace from the set at the specified index, decoding only the requested trace parameters
+     * @param index the index of the Trace to read
+     * @param keys the typed keys of the parameters to decode
+     * @return the Trace at the requested trace index, containing only the requested parameters
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this trace set is closed or the index is out of bounds
+     */
+    public Trace get(int index, TypedKey<?>... keys) throws IOException {
+        Set<String> projection = new HashSet<>();
+        for (TypedKey<?> key : keys) {
+            projection.add(key.getKey());
+        }
+        return get(index, projection);
+    }
+
+    /**
+     * Get a trace from the set at the specified index, decoding only the requested trace parameters
+     * @param index the index of the Trace to read
+     * @param parameterNames the names of the parameters to decode, or null to decode all parameters
+     * @return the Trace at the requested trace index, containing only the requested parameters
+     * @throws IOException if a read error occurs
+     * @throws IllegalArgumentException if this trace set is closed or the index is out of bounds
+     */
+    public Trace get(int index, Set<String> parameterNames) throws IOException {
+        if (!open) throw new IllegalArgumentException(TRACE_SET_NOT_OPEN);
+        if (index < 0 || index >= size()) {
+            throw new IllegalArgumentException(String.format(TRACE_INDEX_OUT_OF_BOUNDS, index, size()));
+        }
+        ByteBuffer block = block(index / tracesPerBlock).duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        block.position((int) ((index % tracesPerBlock) * traceSize));
+
+        byte[] titleArray = new byte[metaData.getInt(TITLE_SPACE)];
+        block.get(titleArray);
+        String title = new String(titleArray);
+        if (title.trim().isEmpty()) {
+            title = String.format("%s %d", metaData.getString(GLOBAL_TITLE), index);
+        }
+        try {
+            TraceParameterMap parameters = readParameters(block, parameterNames);
+            float[] samples = readSamples(block);
+            if (metrics != null) {
+                metrics.traceRead(index, traceSize);
+            }
+            return new Trace(title, samples, parameters);
+        } catch (TRSFormatException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private TraceParameterMap readParameters(ByteBuffer block, Set<String> parameterNames) {
+        byte[] data = new byte[metaData.getInt(DATA_LENGTH)];
+        block.get(data);
+        return TraceSet.decodeParameters(metaData, data, parameterNames);
+    }
+
+    private float[] readSamples(ByteBuffer block) throws TRSFormatException {
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+        Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
+        float[] samples = new float[numberOfSamples];
+        switch (encoding) {
+            case BYTE:
+                for (int k = 0; k < numberOfSamples; k++) {
+                    samples[k] = block.get();
+                }
+                break;
+            case SHORT:
+                for (int k = 0; k < numberOfSamples; k++) {
+                    samples[k] = block.getShort();
+                }
+                break;
+            case INT:
+                for (int k = 0; k < numberOfSamples; k++) {
+                    samples[k] = (float) block.getInt();
+                }
+                break;
+            case FLOAT:
+                block.asFloatBuffer().get(samples);
+                break;
+            default:
+                throw new TRSFormatException(String.format(UNKNOWN_SAMPLE_CODING, metaData.getInt(SAMPLE_CODING)));
+        }
+        if (metrics != null) {
+            metrics.samplesDecoded(encoding, numberOfSamples, System.nanoTime() - startTime);
+        }
+        return samples;
+    }
+
+    /**
+     * @return the decoded traces of a block, taken from the cache or decoded and added to it
+     */
+    private ByteBuffer block(int block) throws IOException {
+        Future<ByteBuffer> decoded = cache.get(block);
+        long startTime = metrics != null ? System.nanoTime() : 0L;
+        boolean hit = decoded != null;
+        if (!hit) {
+            decoded = decode(block);
+            cache.put(block, decoded);
+            //decode the following blocks in the background, as they are likely to be read next
+            for (int next = block + 1; next <= block + prefetch && next < getNumberOfBlocks(); next++) {
+                if (!cache.containsKey(next)) {
+                    cache.put(next, decode(next));
+                }
+            }
+        }
+        try {
+            ByteBuffer result = decoded.get();
+            if (metrics != null) {
+                if (hit) {
+                    metrics.blockCacheHit(block);
+                } else {
+                    metrics.blockCacheMiss(block, System.nanoTime() - startTime);
+                }
+            }
+            return result;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while decoding a block");
+        } catch (ExecutionException ex) {
+            cache.remove(block);
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+            throw new IOException(ex.getCause());
+        }
+    }
+
+    private Future<ByteBuffer> decode(int block) throws IOException {
+        if (decoders != null) {
+            return decoders.submit(() -> readBlock(block));
+        }
+        return CompletableFuture.completedFuture(readBlock(block));
+    }
+
+    /**
+     * Read and decode a block. The channel is only read with positional reads, so blocks can be decoded concurrently.
+     * @return the traces of the block, as they are stored in the original TRS file
+     */
+    ByteBuffer readBlock(int block) throws IOException {
+        long length = offsets[block + 1] - offsets[block];
+        ByteBuffer compressed = read(offsets[block], (int) length);
+        SampleCodec codec = SampleCodec.fromValue(compressed.get());
+        int count = Math.min(tracesPerBlock, size() - block * tracesPerBlock);
+        int prefixSize = metaData.getInt(TITLE_SPACE) + metaData.getInt(DATA_LENGTH);
+        int sampleSize = (int) (traceSize - prefixSize);
+
+        ByteBuffer prefixes = compressed.duplicate();
+        prefixes.limit(prefixes.position() + count * prefixSize);
+        compressed.position(prefixes.limit());
+        ByteBuffer samples = ByteBuffer.allocate(count * sampleSize).order(ByteOrder.LITTLE_ENDIAN);
+        Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
+        codec.decode(compressed, encoding, metaData.getInt(NUMBER_OF_SAMPLES), samples);
+        samples.flip();
+
+        ByteBuffer traces = ByteBuffer.allocate((int) (count * traceSize)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int trace = 0; trace < count; trace++) {
+            prefixes.limit(prefixes.position() + prefixSize);
+            traces.put(prefixes);
+            samples.limit(samples.position() + sampleSize);
+            traces.put(samples);
+        }
+        traces.flip();
+        return traces;
+    }
+
+    /**
+     * @return the TRS header of the original trace set
+     */
+    ByteBuffer readHeader() throws IOException {
+        return read(TraceSetCompressor.PREAMBLE_SIZE, headerSize);
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        TraceSetCompressor.readFully(channel, buffer, position);
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+        cache.clear();
+        if (decoders != null) {
+            decoders.shutdownNow();
+        }
+        channel.close();
+    }
+}
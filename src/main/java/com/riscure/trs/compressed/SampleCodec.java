@@ -0,0 +1,357 @@
+package com.riscure.trs.compressed;
+
+import com.riscure.trs.enums.Encoding;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * The codecs that compress the samples of a block of a {@link CompressedTraceSet}.
+ *
+ * A codec encodes the samples of consecutive traces in their stored (little-endian) encoding, and decodes them back
+ * to exactly the same bytes. The codec of a block is stored in front of it, so every block can use a different one.
+ */
+public enum SampleCodec {
+    /**
+     * The samples are stored as they are
+     */
+    RAW(0) {
+        @Override
+        public boolean supports(Encoding encoding) {
+            return true;
+        }
+
+        @Override
+        byte[] encode(ByteBuffer samples, Encoding encoding, int numberOfSamples) {
+            byte[] result = new byte[samples.remaining()];
+            samples.duplicate().get(result);
+            return result;
+        }
+
+        @Override
+        void decode(ByteBuffer source, Encoding encoding, int numberOfSamples, ByteBuffer destination) {
+            destination.put(source);
+        }
+    },
+    /**
+     * The difference between consecutive samples of a trace is zigzag encoded, and bit-packed in groups of
+     * {@value #GROUP} values that share the width of their largest value. This suits integer samples of a signal
+     * that changes slowly compared to its range.
+     */
+    DELTA_BITPACK(1) {
+        @Override
+        public boolean supports(Encoding encoding) {
+            return encoding == Encoding.BYTE || encoding == Encoding.SHORT || encoding == Encoding.INT;
+        }
+
+        @Override
+        byte[] encode(ByteBuffer samples, Encoding encoding, int numberOfSamples) {
+            ByteBuffer source = samples.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int count = source.remaining() / encoding.getSize();
+            BitOutput output = new BitOutput(source.remaining() / 2 + 16);
+            long[] group = new long[GROUP];
+            long previous = 0;
+            for (int start = 0; start < count; start += GROUP) {
+                int length = Math.min(GROUP, count - start);
+                long bits = 0;
+                for (int k = 0; k < length; k++) {
+                    int index = start + k;
+                    long value = get(source, encoding, index);
+                    if (index % numberOfSamples == 0) {
+                        previous = 0;
+                    }
+                    long delta = value - previous;
+                    previous = value;
+                    group[k] = (delta << 1) ^ (delta >> 63);
+                    bits |= group[k];
+                }
+                int width = 64 - Long.numberOfLeadingZeros(bits);
+                output.writeByte(width);
+                for (int k = 0; k < length; k++) {
+                    output.write(group[k], width);
+                }
+                output.align();
+            }
+            return output.toByteArray();
+        }
+
+        @Override
+        void decode(ByteBuffer source, Encoding encoding, int numberOfSamples, ByteBuffer destination) {
+            ByteBuffer target = destination.order(ByteOrder.LITTLE_ENDIAN);
+            int count = target.remaining() / encoding.getSize();
+            long previous = 0;
+            for (int start = 0; start < count; start += GROUP) {
+                int length = Math.min(GROUP, count - start);
+                int width = source.get() & 0xFF;
+                long mask = (1L << width) - 1;
+                long buffer = 0;
+                int available = 0;
+                for (int k = 0; k < length; k++) {
+                    while (available < width) {
+                        buffer |= (source.get() & 0xFFL) << available;
+                        available += 8;
+                    }
+                    long zigzag = buffer & mask;
+                    buffer >>>= width;
+                    available -= width;
+                    if ((start + k) % numberOfSamples == 0) {
+                        previous = 0;
+                    }
+                    previous += (zigzag >>> 1) ^ -(zigzag & 1);
+                    put(target, encoding, previous);
+                }
+            }
+        }
+    },
+    /**
+     * Every float sample is XORed with the previous sample of the trace, in the style of the Gorilla and Chimp time
+     * series compression. Neighbouring samples of a smooth signal share their sign, exponent and leading mantissa
+     * bits, and samples that are averages of integer captures end in zeros, so only the bits between the leading and
+     * trailing zeros of the XOR are stored, after a 2-bit flag value:
+     * <pre>
+     * 00                                              the sample equals the previous one
+     * 01 5 bits leading zeros, 5 bits length - 1,     the XOR has more than {@value #TRAILING_THRESHOLD} trailing
+     *    the bits between the leading and trailing    zeros
+     *    zeros
+     * 10 the bits after the leading zeros             the XOR has as many leading zeros as the previous one
+     * 11 5 bits leading zeros, the bits after them    otherwise
+     * </pre>
+     * The samples are compared bit for bit, so the compression is lossless, including negative zero and subnormal
+     * values.
+     */
+    XOR_FLOAT(2) {
+        @Override
+        public boolean supports(Encoding encoding) {
+            return encoding == Encoding.FLOAT;
+        }
+
+        @Override
+        byte[] encode(ByteBuffer samples, Encoding encoding, int numberOfSamples) {
+            ByteBuffer source = samples.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int count = source.remaining() / Float.BYTES;
+            BitOutput output = new BitOutput(source.remaining() / 2 + 16);
+            int previous = 0;
+            int previousLeading = -1;
+            for (int index = 0; index < count; index++) {
+                if (index % numberOfSamples == 0) {
+                    previous = 0;
+                    previousLeading = -1;
+                }
+                int value = source.getInt(source.position() + index * Float.BYTES);
+                int xor = value ^ previous;
+                previous = value;
+                if (xor == 0) {
+                    output.write(0b00, 2);
+                    continue;
+                }
+                int leading = Integer.numberOfLeadingZeros(xor);
+                int trailing = Integer.numberOfTrailingZeros(xor);
+                if (trailing > TRAILING_THRESHOLD) {
+                    output.write(0b01, 2);
+                    output.write(leading, 5);
+                    output.write(31 - leading - trailing, 5);
+                    output.write(xor >>> trailing, 32 - leading - trailing);
+                    previousLeading = -1;
+                } else if (leading == previousLeading) {
+                    output.write(0b10, 2);
+                    output.write(xor, 32 - leading);
+                } else {
+                    output.write(0b11, 2);
+                    output.write(leading, 5);
+                    output.write(xor, 32 - leading);
+                    previousLeading = leading;
+                }
+            }
+            return output.toByteArray();
+        }
+
+        @Override
+        void decode(ByteBuffer source, Encoding encoding, int numberOfSamples, ByteBuffer destination) {
+            ByteBuffer target = destination.order(ByteOrder.LITTLE_ENDIAN);
+            int count = target.remaining() / Float.BYTES;
+            BitInput input = new BitInput(source);
+            int previous = 0;
+            int previousLeading = 0;
+            for (int index = 0; index < count; index++) {
+                if (index % numberOfSamples == 0) {
+                    previous = 0;
+                }
+                switch ((int) input.read(2)) {
+                    case 0b00:
+                        break;
+                    case 0b01: {
+                        int leading = (int) input.read(5);
+                        int length = (int) input.read(5) + 1;
+                        previous ^= (int) input.read(length) << (32 - leading - length);
+                        break;
+                    }
+                    case 0b10:
+                        previous ^= (int) input.read(32 - previousLeading);
+                        break;
+                    default:
+                        previousLeading = (int) input.read(5);
+                        previous ^= (int) input.read(32 - previousLeading);
+                        break;
+                }
+                target.putInt(previous);
+            }
+        }
+    };
+
+    static final int GROUP = 128;
+    static final int TRAILING_THRESHOLD = 5;
+    private static final String UNKNOWN_CODEC = "Unknown sample codec '%d'";
+
+    private final int value;
+
+    SampleCodec(int value) {
+        this.value = value;
+    }
+
+    /**
+     * @return the value that identifies this codec in a file
+     */
+    public int getValue() {
+        return value;
+    }
+
+    /**
+     * @param value the value that identifies a codec in a file
+     * @return the codec identified by the value
+     * @throws IllegalArgumentException if no codec is identified by the value
+     */
+    public static SampleCodec fromValue(int value) {
+        for (SampleCodec codec : values()) {
+            if (codec.value == value) {
+                return codec;
+            }
+        }
+        throw new IllegalArgumentException(String.format(UNKNOWN_CODEC, value));
+    }
+
+    /**
+     * @param encoding the encoding of the samples
+     * @return whether this codec can compress samples of the encoding
+     */
+    public abstract boolean supports(Encoding encoding);
+
+    /**
+     * Encode the samples of consecutive traces
+     * @param samples the remaining samples of the buffer, in their stored little-endian encoding
+     * @param encoding the encoding of the samples
+     * @param numberOfSamples the number of samples of a trace
+     * @return the encoded samples
+     */
+    abstract byte[] encode(ByteBuffer samples, Encoding encoding, int numberOfSamples);
+
+    /**
+     * Decode the samples of consecutive traces
+     * @param source the encoded samples, from its position onwards
+     * @param encoding the encoding of the samples
+     * @param numberOfSamples the number of samples of a trace
+     * @param destination the buffer to decode into, of which exactly the remaining bytes are filled
+     */
+    abstract void decode(ByteBuffer source, Encoding encoding, int numberOfSamples, ByteBuffer destination);
+
+    private static long get(ByteBuffer source, Encoding encoding, int index) {
+        switch (encoding) {
+            case BYTE:
+                return source.get(source.position() + index);
+            case SHORT:
+                return source.getShort(source.position() + index * 2);
+            default:
+                return source.getInt(source.position() + index * 4);
+        }
+    }
+
+    private static void put(ByteBuffer destination, Encoding encoding, long value) {
+        switch (encoding) {
+            case BYTE:
+                destination.put((byte) value);
+                break;
+            case SHORT:
+                destination.putShort((short) value);
+                break;
+            default:
+                destination.putInt((int) value);
+                break;
+        }
+    }
+
+    /**
+     * Reads a buffer a number of bits at a time, least significant bits first, as written by a {@link BitOutput}
+     */
+    static final class BitInput {
+        private final ByteBuffer source;
+        private long buffer;
+        private int available;
+
+        BitInput(ByteBuffer source) {
+            this.source = source;
+        }
+
+        long read(int width) {
+            while (available < width) {
+                buffer |= (source.get() & 0xFFL) << available;
+                available += 8;
+            }
+            long value = buffer & ((1L << width) - 1);
+            buffer >>>= width;
+            available -= width;
+            return value;
+        }
+    }
+
+    /**
+     * A growable array that is written a number of bits at a time, least significant bits first
+     */
+    static final class BitOutput {
+        private byte[] bytes;
+        private int size;
+        private long buffer;
+        private int available;
+
+        BitOutput(int capacity) {
+            this.bytes = new byte[Math.max(16, capacity)];
+        }
+
+        void write(long value, int width) {
+            //at most 7 bits are pending, and no value is wider than the 33 bits of the zigzag delta of two ints
+            buffer |= (value & ((1L << width) - 1)) << available;
+            available += width;
+            while (available >= 8) {
+                writeByte((int) buffer);
+                buffer >>>= 8;
+                available -= 8;
+            }
+        }
+
+        void writeByte(int value) {
+            if (size == bytes.length) {
+                bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        /**
+         * Write the pending bits, padded with zeros to a whole byte
+         */
+        void align() {
+            if (available > 0) {
+                writeByte((int) buffer);
+                buffer = 0;
+                available = 0;
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            align();
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package com.riscure.trs.compressed;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TRSMetaDataUtils;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.index.Tombstones;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * Converts a TRS file to the compressed container read by {@link CompressedTraceSet}, and back.
+ *
+ * The traces are grouped in blocks of a fixed number of traces. The titles and the data of the traces of a block are
+ * stored as they are, and their samples are compressed with a {@link SampleCodec}: by default a delta codec for
+ * integer samples, and an XOR codec for float samples. Blocks are compressed in parallel and written in order, after
+ * which an index of the offsets of the blocks is appended. Traces that have been deleted from the original file (see
+ * {@link Tombstones}) are left out, in which case the header is written again with the number of live traces.
+ *
+ * The layout of the container (little-endian) is:
+ * <pre>
+ * int magic, int version, int traces per block, the TRS header of the original file
+ * every block: byte codec, the titles and data of its traces, the encoded samples of its traces
+ * long offset of every block
+ * long offset of the index, int number of blocks, int magic
+ * </pre>
+ */
+public final class TraceSetCompressor {
+    public static final String EXTENSION = ".trsz";
+    static final int MAGIC = 0x5A535254;
+    static final int VERSION = 1;
+    static final int PREAMBLE_SIZE = 12;
+    static final int TRAILER_SIZE = 16;
+    private static final int BLOCK_BYTES = 1 << 20;
+    private static final String INVALID_BLOCK_SIZE = "The number of traces per block must be positive, but was %d";
+
+    private TraceSetCompressor() {
+    }
+
+    /**
+     * Compress a trace set with the default codec of its encoding, using all processors
+     * @param source the path of the TRS file to compress
+     * @param destination the path of the compressed file to write
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static void compress(String source, Path destination) throws IOException, TRSFormatException {
+        compress(source, destination, null, 0, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Compress a trace set
+     * @param source the path of the TRS file to compress
+     * @param destination the path of the compressed file to write
+     * @param codec the codec to compress the samples with, or null for the default codec of the encoding
+     * @param tracesPerBlock the number of traces in a block, or 0 to fit about 1 MB of traces in a block
+     * @param threads the number of blocks to compress in parallel
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     * @throws IllegalArgumentException when the codec does not support the encoding of the samples
+     */
+    public static void compress(String source, Path destination, SampleCodec codec, int tracesPerBlock, int threads)
+            throws IOException, TRSFormatException {
+        if (tracesPerBlock < 0) {
+            throw new IllegalArgumentException(String.format(INVALID_BLOCK_SIZE, tracesPerBlock));
+        }
+        try (TraceSet traceSet = TraceSet.open(source);
+             FileChannel in = FileChannel.open(Paths.get(source), StandardOpenOption.READ)) {
+            TRSMetaData metaData = traceSet.getMetaData();
+            Encoding encoding = Encoding.fromValue(metaData.getInt(SAMPLE_CODING));
+            SampleCodec selected = codec != null ? codec : defaultCodec(encoding);
+            if (!selected.supports(encoding)) {
+                throw new IllegalArgumentException(String.format("Codec %s does not support %s samples", selected, encoding));
+            }
+            Tombstones tombstones = Tombstones.load(source, metaData.getInt(NUMBER_OF_TRACES));
+            int numberOfTraces = tombstones.getNumberOfLiveTraces();
+            long traceSize = traceSet.getTraceSize();
+            int headerSize = traceSet.getHeaderSize();
+            int blockTraces = tracesPerBlock > 0 ? tracesPerBlock : (int) Math.max(1, BLOCK_BYTES / Math.max(1, traceSize));
+            if ((long) blockTraces * traceSize > Integer.MAX_VALUE - 1) {
+                blockTraces = (int) Math.max(1, (Integer.MAX_VALUE - 1) / traceSize);
+            }
+            int numberOfBlocks = (int) ((numberOfTraces + (long) blockTraces - 1) / blockTraces);
+            int prefixSize = metaData.getInt(TITLE_SPACE) + metaData.getInt(DATA_LENGTH);
+            int numberOfSamples = metaData.getInt(NUMBER_OF_SAMPLES);
+
+            Path absolute = destination.toAbsolutePath();
+            Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temporary, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer preamble;
+                if (tombstones.getNumberOfDeleted() == 0) {
+                    preamble = ByteBuffer.allocate(PREAMBLE_SIZE + headerSize).order(ByteOrder.LITTLE_ENDIAN);
+                    preamble.putInt(MAGIC).putInt(VERSION).putInt(blockTraces);
+                    readFully(in, preamble, 0);
+                } else {
+                    TRSMetaData live = TraceSet.readMetaData(Paths.get(source));
+                    live.put(NUMBER_OF_TRACES, numberOfTraces);
+                    byte[] header = TRSMetaDataUtils.serializeTRSMetaData(live);
+                    preamble = ByteBuffer.allocate(PREAMBLE_SIZE + header.length).order(ByteOrder.LITTLE_ENDIAN);
+                    preamble.putInt(MAGIC).putInt(VERSION).putInt(blockTraces).put(header);
+                }
+                preamble.flip();
+                writeFully(out, preamble);
+
+                long[] offsets = new long[numberOfBlocks];
+                ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+                try {
+                    Deque<Future<ByteBuffer>> pending = new ArrayDeque<>();
+                    int submitted = 0;
+                    for (int block = 0; block < numberOfBlocks; block++) {
+                        while (submitted < numberOfBlocks && pending.size() < 2 * Math.max(1, threads)) {
+                            int first = submitted * blockTraces;
+                            int count = Math.min(blockTraces, numberOfTraces - first);
+                            int position = tombstones.select(first);
+                            pending.add(executor.submit(() -> compressBlock(in, headerSize, tombstones, position, count,
+                                    traceSize, prefixSize, numberOfSamples, encoding, selected)));
+                            submitted++;
+                        }
+                        offsets[block] = out.position();
+                        writeFully(out, pending.remove().get());
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while compressing traces");
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+                    if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+                    throw new IOException(ex.getCause());
+                } finally {
+                    executor.shutdownNow();
+                }
+
+                long indexOffset = out.position();
+                ByteBuffer index = ByteBuffer.allocate(numberOfBlocks * 8 + TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                for (long offset : offsets) {
+                    index.putLong(offset);
+                }
+                index.putLong(indexOffset).putInt(numberOfBlocks).putInt(MAGIC);
+                index.flip();
+                writeFully(out, index);
+                out.force(false);
+            }
+            Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /**
+     * Restore the original TRS file of a compressed trace set
+     * @param source the path of the compressed file
+     * @param destination the path of the TRS file to write
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the compressed file is encountered
+     */
+    public static void decompress(String source, Path destination) throws IOException, TRSFormatException {
+        try (CompressedTraceSet traceSet = CompressedTraceSet.open(source, 1, 0);
+             FileChannel out = FileChannel.open(destination, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            writeFully(out, traceSet.readHeader());
+            for (int block = 0; block < traceSet.getNumberOfBlocks(); block++) {
+                writeFully(out, traceSet.readBlock(block));
+            }
+        }
+    }
+
+    /**
+     * @param encoding the encoding of the samples
+     * @return the codec that is used when none is specified
+     */
+    public static SampleCodec defaultCodec(Encoding encoding) {
+        if (SampleCodec.XOR_FLOAT.supports(encoding)) {
+            return SampleCodec.XOR_FLOAT;
+        }
+        return SampleCodec.DELTA_BITPACK.supports(encoding) ? SampleCodec.DELTA_BITPACK : SampleCodec.RAW;
+    }
+
+    /**
+     * Read the live traces of a block from the original file, in runs of consecutive live traces, and compress their
+     * samples. When the codec does not make the samples smaller, they are stored raw.
+     */
+    private static ByteBuffer compressBlock(FileChannel in, int headerSize, Tombstones tombstones, int position, int count,
+                                            long traceSize, int prefixSize, int numberOfSamples, Encoding encoding,
+                                            SampleCodec codec) throws IOException {
+        ByteBuffer raw = ByteBuffer.allocate((int) (count * traceSize)).order(ByteOrder.LITTLE_ENDIAN);
+        for (int remaining = count; remaining > 0; ) {
+            int run = Math.min(remaining, tombstones.nextDeleted(position) - position);
+            raw.limit((int) (raw.position() + run * traceSize));
+            readFully(in, raw, headerSize + position * traceSize);
+            remaining -= run;
+            position = tombstones.nextLive(position + run);
+        }
+        raw.flip();
+        int sampleSize = numberOfSamples * encoding.getSize();
+        ByteBuffer prefixes = ByteBuffer.allocate(count * prefixSize);
+        ByteBuffer samples = ByteBuffer.allocate(count * sampleSize).order(ByteOrder.LITTLE_ENDIAN);
+        for (int trace = 0; trace < count; trace++) {
+            int start = (int) (trace * traceSize);
+            raw.limit(start + prefixSize).position(start);
+            prefixes.put(raw);
+            raw.limit(start + prefixSize + sampleSize);
+            samples.put(raw);
+        }
+        samples.flip();
+        byte[] encoded = codec.encode(samples, encoding, numberOfSamples);
+        SampleCodec used = codec;
+        if (encoded.length >= samples.remaining()) {
+            used = SampleCodec.RAW;
+            encoded = SampleCodec.RAW.encode(samples, encoding, numberOfSamples);
+        }
+        ByteBuffer block = ByteBuffer.allocate(1 + prefixes.capacity() + encoded.length);
+        block.put((byte) used.getValue());
+        prefixes.flip();
+        block.put(prefixes);
+        block.put(encoded);
+        block.flip();
+        return block;
+    }
+
+    static void readFully(FileChannel in, ByteBuffer destination, long position) throws IOException {
+        while (destination.hasRemaining()) {
+            int read = in.read(destination, position);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file at offset " + position);
+            }
+            position += read;
+        }
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            out.write(source);
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package com.riscure.trs.crypto;
+
+/**
+ * The AES S-box, which is shared by the synthetic trace generator and the leakage models of the analyses
+ */
+public final class AesSbox {
+    private static final int[] SBOX = createSbox();
+
+    private AesSbox() {
+    }
+
+    /**
+     * @param value a byte value, in the range 0 to 255
+     * @return the output of the AES S-box for the given value
+     */
+    public static int sbox(int value) {
+        return SBOX[value];
+    }
+
+    private static int[] createSbox() {
+        int[] sbox = new int[256];
+        int p = 1;
+        int q = 1;
+        //p iterates over all non-zero elements of GF(2^8) by multiplying by 3, q tracks its inverse
+        do {
+            p = (p ^ (p << 1) ^ ((p & 0x80) != 0 ? 0x1B : 0)) & 0xFF;
+            q ^= q << 1;
+            q ^= q << 2;
+            q ^= q << 4;
+            q &= 0xFF;
+            if ((q & 0x80) != 0) q ^= 0x09;
+            int affine = q ^ rotateLeft(q, 1) ^ rotateLeft(q, 2) ^ rotateLeft(q, 3) ^ rotateLeft(q, 4);
+            sbox[p] = (affine ^ 0x63) & 0xFF;
+        } while (p != 1);
+        sbox[0] = 0x63;
+        return sbox;
+    }
+
+    private static int rotateLeft(int value, int shift) {
+        return ((value << shift) | (value >>> (8 - shift))) & 0xFF;
+    }
+}
@@ -7,6 +7,14 @@ public enum Encoding {
     INT (0x04, 4),
     FLOAT (0x14, 4);
 
+    private static final Encoding[] BY_VALUE = new Encoding[256];
+
+    static {
+        for (Encoding encoding : values()) {
+            BY_VALUE[encoding.value] = encoding;
+        }
+    }
+
     private final int value;
     private final int size;
 
@@ -24,9 +32,10 @@ public enum Encoding {
     }
 
     public static Encoding fromValue(int value) {
-        for (Encoding encoding : Encoding.values()) {
-            if (encoding.getValue() == value) return encoding;
+        Encoding encoding = (value & ~0xFF) == 0 ? BY_VALUE[value] : null;
+        if (encoding == null) {
+            throw new IllegalArgumentException("Unknown Trace encoding: " + value);
         }
-        throw new IllegalArgumentException("Unknown Trace encoding: " + value);
+        return encoding;
     }
 }
@@ -1,5 +1,8 @@
 package com.riscure.trs.enums;
 
+import java.util.HashMap;
+import java.util.Map;
+
 public enum ParameterType {
     BYTE (0x01, Byte.BYTES, Byte.class, byte[].class),
     SHORT (0x02, Short.BYTES, Short.class, short[].class),
@@ -10,6 +13,17 @@ public enum ParameterType {
     STRING (0x20, Byte.BYTES, String.class, String.class),
     BOOL (0x31, Byte.BYTES, Boolean.class, boolean[].class);
 
+    private static final ParameterType[] BY_VALUE = new ParameterType[256];
+    private static final Map<Class<?>, ParameterType> BY_CLASS = new HashMap<>();
+
+    static {
+        for (ParameterType parameterType : values()) {
+            BY_VALUE[parameterType.value & 0xFF] = parameterType;
+            BY_CLASS.put(parameterType.cls, parameterType);
+            BY_CLASS.put(parameterType.arrayCls, parameterType);
+        }
+    }
+
     private final byte value;
     private final int byteSize;
     private final Class<?> cls;
@@ -31,15 +45,18 @@ public enum ParameterType {
     }
 
     public static ParameterType fromValue(byte value) {
-        for (ParameterType parameterType : ParameterType.values()) {
-            if (parameterType.value == value) {
-                return parameterType;
-            }
+        ParameterType parameterType = BY_VALUE[value & 0xFF];
+        if (parameterType == null) {
+            throw new IllegalArgumentException("Unknown parameter type: " + value);
         }
-        throw new IllegalArgumentException("Unknown parameter type: " + value);
+        return parameterType;
     }
 
     public static ParameterType fromClass(Class<?> cls) {
+        ParameterType exact = BY_CLASS.get(cls);
+        if (exact != null) {
+            return exact;
+        }
         for (ParameterType parameterType : ParameterType.values()) {
             if (parameterType.cls.isAssignableFrom(cls) || parameterType.arrayCls.isAssignableFrom(cls)) {
                 return parameterType;
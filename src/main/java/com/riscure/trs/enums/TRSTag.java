@@ -57,6 +57,13 @@ public enum TRSTag {
     TRACE_PARAMETER_DEFINITIONS      (0x77, "LP", false,    TraceParameterDefinitionMap.class, 0, UnmodifiableTraceParameterDefinitionMap.of(new TraceParameterDefinitionMap()),                 "The set of custom local trace parameters");
 
     private static final String UNKNOWN_TAG = "Unknown tag: 0x%X";
+    private static final TRSTag[] BY_VALUE = new TRSTag[256];
+
+    static {
+        for (TRSTag tag : values()) {
+            BY_VALUE[tag.value & 0xFF] = tag;
+        }
+    }
 
     private final byte value;
     private final String name;
@@ -105,10 +112,11 @@ public enum TRSTag {
     }
 
     public static TRSTag fromValue(byte value) throws TRSFormatException {
-        for (TRSTag tag : TRSTag.values()) {
-            if (tag.getValue() == value) return tag;
+        TRSTag tag = BY_VALUE[value & 0xFF];
+        if (tag == null) {
+            throw new TRSFormatException(String.format(UNKNOWN_TAG, value));
         }
-        throw new TRSFormatException(String.format(UNKNOWN_TAG, value));
+        return tag;
     }
 
     @Override
@@ -0,0 +1,314 @@
+package com.riscure.trs.generator;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.crypto.AesSbox;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import com.riscure.trs.parameter.traceset.TraceSetParameterMap;
+import com.riscure.trs.types.ByteArrayTypeKey;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * A generator of synthetic trace sets, for load and scale testing without real acquisitions.
+ *
+ * Every trace has a random 16 byte {@link #INPUT} parameter. The 16 byte {@link #KEY} is fixed for the whole set, and
+ * is stored as a trace set parameter. Byte {@code b} of the key leaks at sample {@code leakageOffset + b}, as the
+ * Hamming weight of the AES S-box output {@code S(input[b] ^ key[b])}, scaled by the leakage amplitude.
+ * Gaussian noise is added to every sample, after which the samples are rounded and clamped to the chosen encoding.
+ * Additional random trace parameters can be defined with {@link #addParameter(String, ParameterType, int)}.
+ *
+ * The content of every trace depends only on the seed and its index, so a set is reproducible regardless of the
+ * number of threads or the chunk size. Chunks of traces are generated in parallel, and added to the
+ * {@link TraceSet} in order.
+ */
+public class TraceSetGenerator {
+    public static final ByteArrayTypeKey INPUT = new ByteArrayTypeKey("INPUT");
+    public static final ByteArrayTypeKey KEY = new ByteArrayTypeKey("KEY");
+    public static final int KEY_LENGTH = 16;
+    private static final String INVALID_ENCODING = "Cannot generate samples with encoding %s";
+    private static final String INVALID_PARAMETER_LENGTH = "Parameter %s must have a positive length, but was %d";
+
+    private final int numberOfTraces;
+    private final int numberOfSamples;
+    private final Map<String, Map.Entry<ParameterType, Integer>> parameters = new LinkedHashMap<>();
+    private Encoding encoding = Encoding.SHORT;
+    private long seed;
+    private int leakageOffset;
+    private double amplitude = 1.0;
+    private double baseline;
+    private double noise = 1.0;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = 1024;
+
+    /**
+     * @param numberOfTraces the number of traces to generate
+     * @param numberOfSamples the number of samples of every trace
+     */
+    public TraceSetGenerator(int numberOfTraces, int numberOfSamples) {
+        if (numberOfTraces < 0) throw new IllegalArgumentException("The number of traces cannot be negative");
+        if (numberOfSamples <= 0) throw new IllegalArgumentException("The number of samples must be positive");
+        this.numberOfTraces = numberOfTraces;
+        this.numberOfSamples = numberOfSamples;
+    }
+
+    /**
+     * @param encoding the sample encoding of the generated set, SHORT by default
+     * @return this generator
+     */
+    public TraceSetGenerator setEncoding(Encoding encoding) {
+        if (encoding == Encoding.ILLEGAL) {
+            throw new IllegalArgumentException(String.format(INVALID_ENCODING, encoding));
+        }
+        this.encoding = encoding;
+        return this;
+    }
+
+    /**
+     * @param seed the seed from which the key and all traces are derived
+     * @return this generator
+     */
+    public TraceSetGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+    /**
+     * @param leakageOffset the index of the sample at which the first key byte leaks
+     * @param amplitude the value added to the leaking samples per bit of the Hamming weight
+     * @return this generator
+     */
+    public TraceSetGenerator setLeakage(int leakageOffset, double amplitude) {
+        this.leakageOffset = leakageOffset;
+        this.amplitude = amplitude;
+        return this;
+    }
+
+    /**
+     * @param baseline the value of every sample before leakage and noise are added
+     * @param noise the standard deviation of the Gaussian noise added to every sample
+     * @return this generator
+     */
+    public TraceSetGenerator setNoise(double baseline, double noise) {
+        this.baseline = baseline;
+        this.noise = noise;
+        return this;
+    }
+
+    /**
+     * @param threads the number of threads generating traces, the number of processors by default
+     * @return this generator
+     */
+    public TraceSetGenerator setThreads(int threads) {
+        this.threads = Math.max(1, threads);
+        return this;
+    }
+
+    /**
+     * @param chunkSize the number of traces generated in one task
+     * @return this generator
+     */
+    public TraceSetGenerator setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+        return this;
+    }
+
+    /**
+     * Add a trace parameter that is filled with random values
+     * @param name the name of the parameter
+     * @param type the type of the parameter
+     * @param length the number of values of the parameter, or the number of characters for a STRING
+     * @return this generator
+     */
+    public TraceSetGenerator addParameter(String name, ParameterType type, int length) {
+        if (length <= 0) {
+            throw new IllegalArgumentException(String.format(INVALID_PARAMETER_LENGTH, name, length));
+        }
+        parameters.put(name, new AbstractMap.SimpleImmutableEntry<>(type, length));
+        return this;
+    }
+
+    /**
+     * @return the key that leaks in the generated traces
+     */
+    public byte[] getKey() {
+        byte[] key = new byte[KEY_LENGTH];
+        new Random(seed).nextBytes(key);
+        return key;
+    }
+
+    /**
+     * Generate a trace set
+     * @param file the path of the file to create
+     * @throws IOException when any write exception is encountered
+     * @throws TRSFormatException when any TRS formatting issues arise from the generated traces
+     */
+    public void generate(String file) throws IOException, TRSFormatException {
+        TRSMetaData metaData = TRSMetaData.create();
+        metaData.put(SAMPLE_CODING, encoding.getValue());
+        metaData.put(GLOBAL_TITLE, "Generated trace set");
+        TraceSetParameterMap traceSetParameters = new TraceSetParameterMap();
+        traceSetParameters.put(KEY.getKey(), getKey());
+        metaData.put(TRACE_SET_PARAMETERS, traceSetParameters);
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try (TraceSet traceSet = TraceSet.create(file, metaData)) {
+            //keep a bounded number of chunks in flight, and add them in order
+            Deque<Future<List<Trace>>> pending = new ArrayDeque<>();
+            int next = 0;
+            while (next < numberOfTraces || !pending.isEmpty()) {
+                while (next < numberOfTraces && pending.size() < 2 * threads) {
+                    int first = next;
+                    int last = (int) Math.min(numberOfTraces, (long) next + chunkSize);
+                    pending.add(executor.submit(() -> generateChunk(first, last)));
+                    next = last;
+                }
+                for (Trace trace : pending.remove().get()) {
+                    traceSet.add(trace);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while generating traces");
+        } catch (ExecutionException ex) {
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Generate a single trace. The result depends only on the seed and the index.
+     * @param index the index of the trace
+     * @return the generated trace
+     */
+    public Trace generateTrace(int index) {
+        return generateTrace(index, getKey());
+    }
+
+    private Trace generateTrace(int index, byte[] key) {
+        Random random = new Random(mix(seed, index));
+        byte[] input = new byte[KEY_LENGTH];
+        random.nextBytes(input);
+
+        TraceParameterMap traceParameters = new TraceParameterMap();
+        traceParameters.put(INPUT, input);
+        for (Map.Entry<String, Map.Entry<ParameterType, Integer>> parameter : parameters.entrySet()) {
+            putRandom(traceParameters, parameter.getKey(), parameter.getValue().getKey(), parameter.getValue().getValue(), random);
+        }
+
+        float[] samples = new float[numberOfSamples];
+        for (int k = 0; k < numberOfSamples; k++) {
+            double value = baseline + noise * random.nextGaussian();
+            int b = k - leakageOffset;
+            if (b >= 0 && b < KEY_LENGTH) {
+                value += amplitude * Integer.bitCount(AesSbox.sbox((input[b] ^ key[b]) & 0xFF));
+            }
+            samples[k] = quantize(value);
+        }
+        Trace trace = Trace.create("", samples, traceParameters);
+        if (encoding == Encoding.FLOAT) {
+            trace.forceFloatCoding();
+        }
+        return trace;
+    }
+
+    private List<Trace> generateChunk(int first, int last) {
+        byte[] key = getKey();
+        List<Trace> traces = new ArrayList<>(last - first);
+        for (int index = first; index < last; index++) {
+            traces.add(generateTrace(index, key));
+        }
+        return traces;
+    }
+
+    private float quantize(double value) {
+        switch (encoding) {
+            case BYTE:
+                return (float) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, Math.rint(value)));
+            case SHORT:
+                return (float) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.rint(value)));
+            case INT:
+                //integers beyond 2^24 are not exactly representable as float, so stay within that range
+                return (float) Math.max(-(1 << 24), Math.min(1 << 24, Math.rint(value)));
+            default:
+                return (float) value;
+        }
+    }
+
+    private static void putRandom(TraceParameterMap map, String name, ParameterType type, int length, Random random) {
+        switch (type) {
+            case BYTE:
+                byte[] bytes = new byte[length];
+                random.nextBytes(bytes);
+                map.put(name, bytes);
+                break;
+            case SHORT:
+                short[] shorts = new short[length];
+                for (int k = 0; k < length; k++) shorts[k] = (short) random.nextInt();
+                map.put(name, shorts);
+                break;
+            case INT:
+                int[] ints = new int[length];
+                for (int k = 0; k < length; k++) ints[k] = random.nextInt();
+                map.put(name, ints);
+                break;
+            case FLOAT:
+                float[] floats = new float[length];
+                for (int k = 0; k < length; k++) floats[k] = random.nextFloat();
+                map.put(name, floats);
+                break;
+            case LONG:
+                long[] longs = new long[length];
+                for (int k = 0; k < length; k++) longs[k] = random.nextLong();
+                map.put(name, longs);
+                break;
+            case DOUBLE:
+                double[] doubles = new double[length];
+                for (int k = 0; k < length; k++) doubles[k] = random.nextDouble();
+                map.put(name, doubles);
+                break;
+            case STRING:
+                char[] chars = new char[length];
+                for (int k = 0; k < length; k++) chars[k] = (char) ('a' + random.nextInt(26));
+                map.put(name, new String(chars));
+                break;
+            case BOOL:
+                boolean[] booleans = new boolean[length];
+                for (int k = 0; k < length; k++) booleans[k] = random.nextBoolean();
+                map.put(name, booleans);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported parameter type: " + type);
+        }
+    }
+
+    /**
+     * Derive an independent seed for every trace from the seed of the set, using the SplitMix64 finalizer
+     */
+    private static long mix(long seed, int index) {
+        long z = seed + (index + 1L) * 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
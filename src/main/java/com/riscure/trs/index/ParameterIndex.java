@@ -0,0 +1,358 @@
+package com.riscure.trs.index;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.io.LittleEndianInputStream;
+import com.riscure.trs.io.LittleEndianOutputStream;
+import com.riscure.trs.parameter.TraceParameter;
+import com.riscure.trs.parameter.primitive.StringParameter;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinition;
+import com.riscure.trs.parameter.trace.definition.TraceParameterDefinitionMap;
+import com.riscure.trs.types.TypedKey;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.riscure.trs.enums.TRSTag.NUMBER_OF_TRACES;
+
+/**
+ * A secondary index of the values of the trace parameters of a trace set, which maps every value of a parameter to
+ * the set of traces that have it (see {@link TraceBitmap}).
+ *
+ * Single numeric and boolean values are indexed by their value, so that they can also be queried by range. Arrays
+ * and strings are indexed by a 64-bit hash of their value, so the traces found for such a value may, very rarely,
+ * include traces with a different value of the same hash (see {@link #isExact(String)}).
+ *
+ * An index is built with a single pass over the trace parameters of a trace set, without reading any samples, and can
+ * be persisted to a sidecar next to the trace set, which {@link TraceSet#indicesWhere(TypedKey, Object)} uses when
+ * it is up to date.
+ */
+public final class ParameterIndex {
+    public static final String SIDECAR_EXTENSION = ".index";
+    private static final int MAGIC = 0x49535254;    //"TRSI" in little endian
+    private static final int VERSION = 1;
+    private static final String INVALID_INDEX = "'%s' is not a trace parameter index file";
+    private static final String UNSUPPORTED_VERSION = "Unsupported trace parameter index version: %d";
+    private static final String NOT_INDEXED = "Trace parameter '%s' is not indexed";
+    private static final String NO_RANGE = "Trace parameter '%s' does not have single numeric values, and cannot be queried by range";
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final int numberOfTraces;
+    private final long fileSize;
+    private final long lastModified;
+    private final Map<String, Postings> postings;
+
+    private ParameterIndex(int numberOfTraces, long fileSize, long lastModified, Map<String, Postings> postings) {
+        this.numberOfTraces = numberOfTraces;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.postings = postings;
+    }
+
+    /**
+     * @param file the path of a trace set
+     * @return the default path of the parameter index of the trace set
+     */
+    public static Path sidecarOf(String file) {
+        return Paths.get(file + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * Index all trace parameters of a trace set, and save the index to its default sidecar
+     * @param file the path of the trace set
+     * @return the index
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static ParameterIndex index(String file) throws IOException, TRSFormatException {
+        ParameterIndex index;
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            index = build(traceSet, null);
+        }
+        index.save(sidecarOf(file));
+        return index;
+    }
+
+    /**
+     * Index the trace parameters of a trace set
+     * @param traceSet a trace set in read mode
+     * @param parameterNames the names of the parameters to index, or null to index all parameters
+     * @return the index
+     * @throws IOException when any read exception is encountered
+     */
+    public static ParameterIndex build(TraceSet traceSet, Set<String> parameterNames) throws IOException {
+        int numberOfTraces = traceSet.getMetaData().getInt(NUMBER_OF_TRACES);
+        Map<String, Postings> postings = new LinkedHashMap<>();
+        TraceParameterDefinitionMap definitions = traceSet.getMetaData().getTraceParameterDefinitions();
+        for (Map.Entry<String, TraceParameterDefinition<TraceParameter>> entry : definitions.entrySet()) {
+            if (parameterNames == null || parameterNames.contains(entry.getKey())) {
+                postings.put(entry.getKey(), new Postings(Kind.of(entry.getValue().getType(), entry.getValue().getLength())));
+            }
+        }
+        Set<String> names = Collections.unmodifiableSet(postings.keySet());
+        if (!names.isEmpty()) {
+            for (int index = 0; index < numberOfTraces; index++) {
+                TraceParameterMap parameters = traceSet.getParameters(index, names);
+                for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                    TraceParameter parameter = parameters.get(entry.getKey());
+                    if (parameter != null) {
+                        Postings values = entry.getValue();
+                        values.traces.computeIfAbsent(values.kind.keyOf(parameter), key -> new TraceBitmap()).add(index);
+                    }
+                }
+            }
+        }
+        Path path = traceSet.getPath();
+        return new ParameterIndex(numberOfTraces, Files.size(path), Files.getLastModifiedTime(path).toMillis(), postings);
+    }
+
+    /**
+     * @param file the path of a trace set
+     * @return whether this index was built from the current version of the trace set
+     * @throws IOException when the attributes of the trace set cannot be read
+     */
+    public boolean isUpToDate(Path file) throws IOException {
+        return Files.size(file) == fileSize && Files.getLastModifiedTime(file).toMillis() == lastModified;
+    }
+
+    /**
+     * @return the number of traces of the indexed trace set
+     */
+    public int getNumberOfTraces() {
+        return numberOfTraces;
+    }
+
+    /**
+     * @return the names of the indexed trace parameters
+     */
+    public Set<String> getParameterNames() {
+        return Collections.unmodifiableSet(postings.keySet());
+    }
+
+    /**
+     * @param name the name of an indexed trace parameter
+     * @return whether the values of the parameter are indexed by their value, rather than by their hash
+     * @throws IllegalArgumentException when the parameter is not indexed
+     */
+    public boolean isExact(String name) {
+        return postingsOf(name).kind != Kind.HASHED;
+    }
+
+    /**
+     * Find the traces with a value of a trace parameter
+     * @param key the key of the trace parameter
+     * @param value the value to find
+     * @return the indices of the traces with the value
+     * @throws IllegalArgumentException when the parameter is not indexed
+     */
+    public <T> TraceBitmap where(TypedKey<T> key, T value) {
+        Postings values = postingsOf(key.getKey());
+        TraceParameter parameter = key.createParameter(value);
+        if (Kind.of(parameter.getType(), parameter.length()) != values.kind) {
+            return new TraceBitmap();
+        }
+        TraceBitmap traces = values.traces.get(values.kind.keyOf(parameter));
+        return traces == null ? new TraceBitmap() : new TraceBitmap().or(traces);
+    }
+
+    /**
+     * Find the traces with a value of a numeric trace parameter in a range
+     * @param key the key of the trace parameter
+     * @param min the lowest value to find
+     * @param max the highest value to find
+     * @return the indices of the traces with a value in the range
+     * @throws IllegalArgumentException when the parameter is not indexed, or does not have single numeric values
+     */
+    public <T extends Number> TraceBitmap whereBetween(TypedKey<T> key, T min, T max) {
+        Postings values = postingsOf(key.getKey());
+        long from;
+        long to;
+        if (values.kind == Kind.INTEGRAL) {
+            from = min.longValue();
+            to = max.longValue();
+        } else if (values.kind == Kind.FLOATING) {
+            from = sortable(min.doubleValue());
+            to = sortable(max.doubleValue());
+        } else {
+            throw new IllegalArgumentException(String.format(NO_RANGE, key.getKey()));
+        }
+        if (from > to) {
+            return new TraceBitmap();
+        }
+        //merge pairwise, so that every index is copied a logarithmic number of times
+        List<TraceBitmap> union = new ArrayList<>(values.traces.subMap(from, true, to, true).values());
+        if (union.isEmpty()) {
+            return new TraceBitmap();
+        }
+        while (union.size() > 1) {
+            List<TraceBitmap> merged = new ArrayList<>((union.size() + 1) / 2);
+            for (int k = 0; k + 1 < union.size(); k += 2) {
+                merged.add(union.get(k).or(union.get(k + 1)));
+            }
+            if (union.size() % 2 == 1) {
+                merged.add(union.get(union.size() - 1));
+            }
+            union = merged;
+        }
+        return new TraceBitmap().or(union.get(0));
+    }
+
+    /**
+     * Save this index to a file
+     * @param indexFile the path of the file to write
+     * @throws IOException when any write exception is encountered
+     */
+    public void save(Path indexFile) throws IOException {
+        Path absolute = indexFile.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (LittleEndianOutputStream dos = new LittleEndianOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(numberOfTraces);
+            dos.writeLong(fileSize);
+            dos.writeLong(lastModified);
+            dos.writeInt(postings.size());
+            for (Map.Entry<String, Postings> entry : postings.entrySet()) {
+                byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                dos.writeInt(name.length);
+                dos.write(name);
+                Postings values = entry.getValue();
+                dos.writeByte(values.kind.ordinal());
+                dos.writeInt(values.traces.size());
+                for (Map.Entry<Long, TraceBitmap> value : values.traces.entrySet()) {
+                    dos.writeLong(value.getKey());
+                    value.getValue().write(dos);
+                }
+            }
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Load an index from a file
+     * @param indexFile the path of the file to read
+     * @return the index
+     * @throws IOException when any read exception is encountered, or the file is not an index
+     */
+    public static ParameterIndex load(Path indexFile) throws IOException {
+        try (LittleEndianInputStream dis = new LittleEndianInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (dis.readInt() != MAGIC) {
+                throw new IOException(String.format(INVALID_INDEX, indexFile));
+            }
+            int version = dis.readInt();
+            if (version != VERSION) {
+                throw new IOException(String.format(UNSUPPORTED_VERSION, version));
+            }
+            int numberOfTraces = dis.readInt();
+            long fileSize = dis.readLong();
+            long lastModified = dis.readLong();
+            int numberOfParameters = dis.readInt();
+            Map<String, Postings> postings = new LinkedHashMap<>();
+            for (int k = 0; k < numberOfParameters; k++) {
+                byte[] name = new byte[dis.readInt()];
+                dis.readFully(name);
+                Postings values = new Postings(Kind.values()[dis.readByte()]);
+                int numberOfValues = dis.readInt();
+                for (int v = 0; v < numberOfValues; v++) {
+                    long value = dis.readLong();
+                    values.traces.put(value, TraceBitmap.read(dis));
+                }
+                postings.put(new String(name, StandardCharsets.UTF_8), values);
+            }
+            return new ParameterIndex(numberOfTraces, fileSize, lastModified, postings);
+        }
+    }
+
+    private Postings postingsOf(String name) {
+        Postings values = postings.get(name);
+        if (values == null) {
+            throw new IllegalArgumentException(String.format(NOT_INDEXED, name));
+        }
+        return values;
+    }
+
+    /**
+     * @return a long of which the signed order is the order of the double values
+     */
+    private static long sortable(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * How the values of a trace parameter are mapped to the keys of its postings
+     */
+    private enum Kind {
+        INTEGRAL,
+        FLOATING,
+        HASHED;
+
+        static Kind of(ParameterType type, int length) {
+            if (length != 1 || type == ParameterType.STRING) {
+                return HASHED;
+            }
+            return type == ParameterType.FLOAT || type == ParameterType.DOUBLE ? FLOATING : INTEGRAL;
+        }
+
+        long keyOf(TraceParameter parameter) {
+            switch (this) {
+                case INTEGRAL:
+                    Object scalar = parameter.getScalarValue();
+                    return scalar instanceof Boolean ? ((Boolean) scalar ? 1 : 0) : ((Number) scalar).longValue();
+                case FLOATING:
+                    return sortable(((Number) parameter.getScalarValue()).doubleValue());
+                default:
+                    return hash(parameter);
+            }
+        }
+
+        private static long hash(TraceParameter parameter) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (LittleEndianOutputStream dos = new LittleEndianOutputStream(bytes)) {
+                if (parameter instanceof StringParameter) {
+                    //a string is stored padded to the length of its definition, and queried without that padding
+                    dos.write(StringParameter.stripPadding(((StringParameter) parameter).getValue()).getBytes(StandardCharsets.UTF_8));
+                } else {
+                    parameter.serialize(dos);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            long hash = FNV_OFFSET_BASIS;
+            for (byte b : bytes.toByteArray()) {
+                hash = (hash ^ (b & 0xFF)) * FNV_PRIME;
+            }
+            return hash;
+        }
+    }
+
+    /**
+     * The traces of every value of a trace parameter
+     */
+    private static final class Postings {
+        private final Kind kind;
+        private final TreeMap<Long, TraceBitmap> traces = new TreeMap<>();
+
+        private Postings(Kind kind) {
+            this.kind = kind;
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package com.riscure.trs.index;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.io.LittleEndianInputStream;
+import com.riscure.trs.io.LittleEndianOutputStream;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.BitSet;
+
+import static com.riscure.trs.enums.TRSTag.NUMBER_OF_TRACES;
+
+/**
+ * The traces of a trace set that have been deleted without rewriting the trace set, which are stored in a sidecar
+ * next to it.
+ *
+ * A trace set that is opened with {@link TraceSet#openLive(String)} only shows the traces that have not been deleted:
+ * its trace indices are mapped to the positions of the live traces in the file with a rank and select directory,
+ * which samples the position of every {@value #SELECT_SAMPLE}th live trace, so that a trace is found in constant time
+ * unless most traces are deleted. The deleted traces are removed from the file by
+ * {@link com.riscure.trs.tools.TraceSetTools#compact(String, double, int)}.
+ */
+public final class Tombstones {
+    public static final String SIDECAR_EXTENSION = ".deleted";
+    static final int SELECT_SAMPLE = 512;
+    private static final int BLOCK_WORDS = 8;
+    private static final int MAGIC = 0x44535254;    //"TRSD" in little endian
+    private static final int VERSION = 1;
+    private static final String INVALID_TOMBSTONES = "'%s' is not a trace deletion file";
+    private static final String UNSUPPORTED_VERSION = "Unsupported trace deletion file version: %d";
+    private static final String OUT_OF_DATE = "The deleted traces in '%s' are of a trace set of %d traces, but the trace set has %d traces";
+    private static final String INDEX_OUT_OF_BOUNDS = "Trace index %d is out of bounds for %d traces";
+
+    private final Path sidecar;
+    private final int numberOfTraces;
+    private final BitSet deleted;
+    //the rank and select directory, which is rebuilt after a deletion
+    private int[] blockRanks;       //the number of live traces before every block of BLOCK_WORDS words
+    private int[] selectBlocks;     //the block of every SELECT_SAMPLE-th live trace
+    private long[] liveWords;
+
+    private Tombstones(Path sidecar, int numberOfTraces, BitSet deleted) {
+        this.sidecar = sidecar;
+        this.numberOfTraces = numberOfTraces;
+        this.deleted = deleted;
+    }
+
+    /**
+     * @param file the path of a trace set
+     * @return the path of the sidecar with the deleted traces of the trace set
+     */
+    public static Path sidecarOf(String file) {
+        return Paths.get(file + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * Load the deleted traces of a trace set, which is empty if none have been deleted
+     * @param file the path of the trace set
+     * @return the deleted traces
+     * @throws IOException when any read exception is encountered, or the sidecar is not of the current trace set
+     * @throws TRSFormatException when any incorrect formatting of the TRS header is encountered
+     */
+    public static Tombstones load(String file) throws IOException, TRSFormatException {
+        return load(file, TraceSet.readMetaData(Paths.get(file)).getInt(NUMBER_OF_TRACES));
+    }
+
+    /**
+     * Load the deleted traces of a trace set of which the number of traces is already known, without reading its header
+     * @param file the path of the trace set
+     * @param numberOfTraces the number of traces in the trace set, including the deleted traces
+     * @return the deleted traces
+     * @throws IOException when any read exception is encountered, or the sidecar is not of a trace set of this size
+     */
+    public static Tombstones load(String file, int numberOfTraces) throws IOException {
+        Path sidecar = sidecarOf(file);
+        BitSet deleted = new BitSet(numberOfTraces);
+        if (Files.exists(sidecar)) {
+            try (LittleEndianInputStream dis = new LittleEndianInputStream(new BufferedInputStream(Files.newInputStream(sidecar)))) {
+                if (dis.readInt() != MAGIC) {
+                    throw new IOException(String.format(INVALID_TOMBSTONES, sidecar));
+                }
+                int version = dis.readInt();
+                if (version != VERSION) {
+                    throw new IOException(String.format(UNSUPPORTED_VERSION, version));
+                }
+                int sidecarTraces = dis.readInt();
+                if (sidecarTraces != numberOfTraces) {
+                    throw new IOException(String.format(OUT_OF_DATE, sidecar, sidecarTraces, numberOfTraces));
+                }
+                TraceBitmap.read(dis).forEach(deleted::set);
+            }
+        }
+        return new Tombstones(sidecar, numberOfTraces, deleted);
+    }
+
+    /**
+     * Save the deleted traces to the sidecar of the trace set, or remove the sidecar if no traces are deleted
+     * @throws IOException when any write exception is encountered
+     */
+    public void save() throws IOException {
+        if (deleted.isEmpty()) {
+            Files.deleteIfExists(sidecar);
+            return;
+        }
+        TraceBitmap bitmap = new TraceBitmap();
+        deleted.stream().forEach(bitmap::add);
+        Path absolute = sidecar.toAbsolutePath();
+        Path temporary = absolute.resolveSibling(absolute.getFileName() + ".tmp");
+        try (LittleEndianOutputStream dos = new LittleEndianOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(numberOfTraces);
+            bitmap.write(dos);
+        }
+        Files.move(temporary, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Mark a trace as deleted
+     * @param index the index of the trace in the file
+     * @throws IllegalArgumentException when the index is out of bounds
+     */
+    public void delete(int index) {
+        checkIndex(index);
+        if (!deleted.get(index)) {
+            deleted.set(index);
+            liveWords = null;
+        }
+    }
+
+    /**
+     * @param index the index of a trace in the file
+     * @return whether the trace is deleted
+     */
+    public boolean isDeleted(int index) {
+        checkIndex(index);
+        return deleted.get(index);
+    }
+
+    /**
+     * @return the number of traces in the file, including the deleted traces
+     */
+    public int getNumberOfTraces() {
+        return numberOfTraces;
+    }
+
+    /**
+     * @return the number of deleted traces
+     */
+    public int getNumberOfDeleted() {
+        return deleted.cardinality();
+    }
+
+    /**
+     * @return the number of traces that are not deleted
+     */
+    public int getNumberOfLiveTraces() {
+        return numberOfTraces - getNumberOfDeleted();
+    }
+
+    /**
+     * @return the part of the traces that is deleted
+     */
+    public double getDeletedRatio() {
+        return numberOfTraces == 0 ? 0 : (double) getNumberOfDeleted() / numberOfTraces;
+    }
+
+    /**
+     * @param from the index of a trace in the file
+     * @return the index of the first trace from the given one that is not deleted, or the number of traces if none
+     */
+    public int nextLive(int from) {
+        return Math.min(numberOfTraces, deleted.nextClearBit(from));
+    }
+
+    /**
+     * @param from the index of a trace in the file
+     * @return the index of the first deleted trace from the given one, or the number of traces if none
+     */
+    public int nextDeleted(int from) {
+        int next = deleted.nextSetBit(from);
+        return next < 0 ? numberOfTraces : next;
+    }
+
+    /**
+     * @param index the index of a trace in the file, or the number of traces
+     * @return the number of live traces before it
+     */
+    public int rank(int index) {
+        if (index < 0 || index > numberOfTraces) {
+            throw new IllegalArgumentException(String.format(INDEX_OUT_OF_BOUNDS, index, numberOfTraces));
+        }
+        buildDirectory();
+        int word = index >>> 6;
+        int block = word / BLOCK_WORDS;
+        int rank = blockRanks[block];
+        for (int w = block * BLOCK_WORDS; w < word; w++) {
+            rank += Long.bitCount(liveWords[w]);
+        }
+        if ((index & 63) != 0) {
+            rank += Long.bitCount(liveWords[word] & ((1L << index) - 1));
+        }
+        return rank;
+    }
+
+    /**
+     * @param live the index of a trace among the live traces
+     * @return the index of the trace in the file
+     * @throws IllegalArgumentException when the index is out of bounds of the live traces
+     */
+    public int select(int live) {
+        buildDirectory();
+        int numberOfLive = blockRanks[blockRanks.length - 1];
+        if (live < 0 || live >= numberOfLive) {
+            throw new IllegalArgumentException(String.format(INDEX_OUT_OF_BOUNDS, live, numberOfLive));
+        }
+        int block = selectBlocks[live / SELECT_SAMPLE];
+        while (blockRanks[block + 1] <= live) {
+            block++;
+        }
+        int remaining = live - blockRanks[block];
+        int word = block * BLOCK_WORDS;
+        int count;
+        while ((count = Long.bitCount(liveWords[word])) <= remaining) {
+            remaining -= count;
+            word++;
+        }
+        long bits = liveWords[word];
+        for (int k = 0; k < remaining; k++) {
+            bits &= bits - 1;
+        }
+        return (word << 6) + Long.numberOfTrailingZeros(bits);
+    }
+
+    private void buildDirectory() {
+        if (liveWords != null) {
+            return;
+        }
+        int numberOfBlocks = ((numberOfTraces + 63) / 64 + BLOCK_WORDS - 1) / BLOCK_WORDS;
+        long[] words = new long[Math.max(1, numberOfBlocks) * BLOCK_WORDS];
+        long[] deletedWords = deleted.toLongArray();
+        for (int w = 0; w < (numberOfTraces + 63) / 64; w++) {
+            long live = w < deletedWords.length ? ~deletedWords[w] : -1L;
+            int valid = numberOfTraces - (w << 6);
+            words[w] = valid >= 64 ? live : live & ((1L << valid) - 1);
+        }
+        int[] ranks = new int[numberOfBlocks + 1];
+        int[] samples = new int[(numberOfTraces - deleted.cardinality() + SELECT_SAMPLE - 1) / SELECT_SAMPLE];
+        for (int block = 0; block < numberOfBlocks; block++) {
+            int count = 0;
+            for (int w = block * BLOCK_WORDS; w < (block + 1) * BLOCK_WORDS; w++) {
+                count += Long.bitCount(words[w]);
+            }
+            ranks[block + 1] = ranks[block] + count;
+            //the samples of the live traces that start in this block
+            for (int sample = (ranks[block] + SELECT_SAMPLE - 1) / SELECT_SAMPLE; sample * SELECT_SAMPLE < ranks[block + 1]; sample++) {
+                samples[sample] = block;
+            }
+        }
+        this.blockRanks = ranks;
+        this.selectBlocks = samples;
+        this.liveWords = words;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= numberOfTraces) {
+            throw new IllegalArgumentException(String.format(INDEX_OUT_OF_BOUNDS, index, numberOfTraces));
+        }
+    }
+}
@@ -0,0 +1,473 @@
+package com.riscure.trs.index;
+
+import com.riscure.trs.io.LittleEndianInputStream;
+import com.riscure.trs.io.LittleEndianOutputStream;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of trace indices, in the style of a roaring bitmap.
+ *
+ * The indices are grouped by their upper 16 bits. The lower 16 bits of a group are stored as a sorted array when
+ * the group contains up to {@value #ARRAY_LIMIT} indices, and as a bitmap of 8 kB otherwise, so that both sparse and
+ * dense sets are small, and intersections and unions work on whole groups at a time.
+ */
+public final class TraceBitmap {
+    static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+    private static final byte ARRAY_CONTAINER = 0;
+    private static final byte BITMAP_CONTAINER = 1;
+
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int size;
+
+    /**
+     * Add a trace index. Adding indices in increasing order is the fastest.
+     * @param index the index to add
+     * @throws IllegalArgumentException if the index is negative
+     */
+    public void add(int index) {
+        if (index < 0) {
+            throw new IllegalArgumentException("Trace index must be non-negative, but was " + index);
+        }
+        char key = (char) (index >>> 16);
+        int position = size > 0 && keys[size - 1] == key ? size - 1 : find(key);
+        if (position < 0) {
+            position = -position - 1;
+            insert(position, key, new ArrayContainer());
+        }
+        containers[position] = containers[position].add((char) index);
+    }
+
+    /**
+     * @param index a trace index
+     * @return whether the index is in this set
+     */
+    public boolean contains(int index) {
+        if (index < 0) {
+            return false;
+        }
+        int position = find((char) (index >>> 16));
+        return position >= 0 && containers[position].contains((char) index);
+    }
+
+    /**
+     * @return the number of indices in this set
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for (int k = 0; k < size; k++) {
+            cardinality += containers[k].cardinality();
+        }
+        return cardinality;
+    }
+
+    /**
+     * @return whether this set contains no indices
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param other another set
+     * @return a new set of the indices that are in both sets
+     */
+    public TraceBitmap and(TraceBitmap other) {
+        TraceBitmap result = new TraceBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container container = containers[i].and(other.containers[j]);
+                if (container.cardinality() > 0) {
+                    result.insert(result.size, keys[i], container);
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param other another set
+     * @return a new set of the indices that are in either set
+     */
+    public TraceBitmap or(TraceBitmap other) {
+        TraceBitmap result = new TraceBitmap();
+        int i = 0;
+        int j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                result.insert(result.size, keys[i], containers[i].copy());
+                i++;
+            } else if (i >= size || keys[i] > other.keys[j]) {
+                result.insert(result.size, other.keys[j], other.containers[j].copy());
+                j++;
+            } else {
+                result.insert(result.size, keys[i], containers[i].or(other.containers[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Perform an action for every index in this set, in increasing order
+     * @param action the action to perform
+     */
+    public void forEach(IntConsumer action) {
+        for (int k = 0; k < size; k++) {
+            containers[k].forEach(keys[k] << 16, action);
+        }
+    }
+
+    /**
+     * @return the indices in this set, in increasing order
+     */
+    public int[] toArray() {
+        int[] indices = new int[cardinality()];
+        int[] position = new int[1];
+        forEach(index -> indices[position[0]++] = index);
+        return indices;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Arrays.equals(toArray(), ((TraceBitmap) o).toArray());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(toArray());
+    }
+
+    @Override
+    public String toString() {
+        return "TraceBitmap{cardinality=" + cardinality() + '}';
+    }
+
+    void write(LittleEndianOutputStream dos) throws IOException {
+        dos.writeInt(size);
+        for (int k = 0; k < size; k++) {
+            dos.writeShort(keys[k]);
+            containers[k].write(dos);
+        }
+    }
+
+    static TraceBitmap read(LittleEndianInputStream dis) throws IOException {
+        TraceBitmap bitmap = new TraceBitmap();
+        int size = dis.readInt();
+        for (int k = 0; k < size; k++) {
+            char key = (char) dis.readUnsignedShort();
+            byte type = dis.readByte();
+            Container container;
+            if (type == ARRAY_CONTAINER) {
+                container = ArrayContainer.read(dis);
+            } else if (type == BITMAP_CONTAINER) {
+                container = BitmapContainer.read(dis);
+            } else {
+                throw new IOException("Unknown trace bitmap container type: " + type);
+            }
+            bitmap.insert(k, key, container);
+        }
+        return bitmap;
+    }
+
+    private int find(char key) {
+        return Arrays.binarySearch(keys, 0, size, key);
+    }
+
+    private void insert(int position, char key, Container container) {
+        if (size == keys.length) {
+            int capacity = Math.max(4, size * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            containers = Arrays.copyOf(containers, capacity);
+        }
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        System.arraycopy(containers, position, containers, position + 1, size - position);
+        keys[position] = key;
+        containers[position] = container;
+        size++;
+    }
+
+    /**
+     * The lower 16 bits of the indices of a group
+     */
+    private abstract static class Container {
+        abstract Container add(char value);
+
+        abstract boolean contains(char value);
+
+        abstract int cardinality();
+
+        abstract Container and(Container other);
+
+        abstract Container or(Container other);
+
+        abstract Container copy();
+
+        abstract void forEach(int high, IntConsumer action);
+
+        abstract void write(LittleEndianOutputStream dos) throws IOException;
+    }
+
+    private static final class ArrayContainer extends Container {
+        private char[] values;
+        private int cardinality;
+
+        ArrayContainer() {
+            this(new char[4], 0);
+        }
+
+        ArrayContainer(char[] values, int cardinality) {
+            this.values = values;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            int position = cardinality > 0 && values[cardinality - 1] < value
+                    ? -cardinality - 1
+                    : Arrays.binarySearch(values, 0, cardinality, value);
+            if (position >= 0) {
+                return this;
+            }
+            if (cardinality == ARRAY_LIMIT) {
+                return toBitmap().add(value);
+            }
+            position = -position - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(values, position, values, position + 1, cardinality - position);
+            values[position] = value;
+            cardinality++;
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return Arrays.binarySearch(values, 0, cardinality, value) >= 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            char[] result = new char[cardinality];
+            int count = 0;
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                int i = 0;
+                int j = 0;
+                while (i < cardinality && j < array.cardinality) {
+                    if (values[i] < array.values[j]) {
+                        i++;
+                    } else if (values[i] > array.values[j]) {
+                        j++;
+                    } else {
+                        result[count++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            } else {
+                for (int k = 0; k < cardinality; k++) {
+                    if (other.contains(values[k])) {
+                        result[count++] = values[k];
+                    }
+                }
+            }
+            return new ArrayContainer(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            if (other instanceof BitmapContainer) {
+                return other.or(this);
+            }
+            ArrayContainer array = (ArrayContainer) other;
+            char[] result = new char[cardinality + array.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i < cardinality || j < array.cardinality) {
+                if (j >= array.cardinality || (i < cardinality && values[i] < array.values[j])) {
+                    result[count++] = values[i++];
+                } else if (i >= cardinality || values[i] > array.values[j]) {
+                    result[count++] = array.values[j++];
+                } else {
+                    result[count++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            ArrayContainer union = new ArrayContainer(result, count);
+            return count > ARRAY_LIMIT ? union.toBitmap() : union;
+        }
+
+        @Override
+        Container copy() {
+            return new ArrayContainer(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int k = 0; k < cardinality; k++) {
+                action.accept(high | values[k]);
+            }
+        }
+
+        @Override
+        void write(LittleEndianOutputStream dos) throws IOException {
+            dos.writeByte(ARRAY_CONTAINER);
+            dos.writeShort(cardinality - 1);
+            for (int k = 0; k < cardinality; k++) {
+                dos.writeShort(values[k]);
+            }
+        }
+
+        static ArrayContainer read(LittleEndianInputStream dis) throws IOException {
+            int cardinality = dis.readUnsignedShort() + 1;
+            char[] values = new char[cardinality];
+            for (int k = 0; k < cardinality; k++) {
+                values[k] = (char) dis.readUnsignedShort();
+            }
+            return new ArrayContainer(values, cardinality);
+        }
+
+        private BitmapContainer toBitmap() {
+            BitmapContainer bitmap = new BitmapContainer(new long[BITMAP_WORDS], 0);
+            for (int k = 0; k < cardinality; k++) {
+                bitmap.add(values[k]);
+            }
+            return bitmap;
+        }
+    }
+
+    private static final class BitmapContainer extends Container {
+        private final long[] words;
+        private int cardinality;
+
+        BitmapContainer(long[] words, int cardinality) {
+            this.words = words;
+            this.cardinality = cardinality;
+        }
+
+        @Override
+        Container add(char value) {
+            long bit = 1L << value;
+            if ((words[value >>> 6] & bit) == 0) {
+                words[value >>> 6] |= bit;
+                cardinality++;
+            }
+            return this;
+        }
+
+        @Override
+        boolean contains(char value) {
+            return (words[value >>> 6] & (1L << value)) != 0;
+        }
+
+        @Override
+        int cardinality() {
+            return cardinality;
+        }
+
+        @Override
+        Container and(Container other) {
+            if (other instanceof ArrayContainer) {
+                return other.and(this);
+            }
+            long[] otherWords = ((BitmapContainer) other).words;
+            long[] result = new long[BITMAP_WORDS];
+            int count = 0;
+            for (int k = 0; k < BITMAP_WORDS; k++) {
+                result[k] = words[k] & otherWords[k];
+                count += Long.bitCount(result[k]);
+            }
+            return compact(result, count);
+        }
+
+        @Override
+        Container or(Container other) {
+            BitmapContainer result = new BitmapContainer(words.clone(), cardinality);
+            if (other instanceof ArrayContainer) {
+                ArrayContainer array = (ArrayContainer) other;
+                for (int k = 0; k < array.cardinality; k++) {
+                    result.add(array.values[k]);
+                }
+            } else {
+                long[] otherWords = ((BitmapContainer) other).words;
+                int count = 0;
+                for (int k = 0; k < BITMAP_WORDS; k++) {
+                    result.words[k] |= otherWords[k];
+                    count += Long.bitCount(result.words[k]);
+                }
+                result.cardinality = count;
+            }
+            return result;
+        }
+
+        @Override
+        Container copy() {
+            return new BitmapContainer(words.clone(), cardinality);
+        }
+
+        @Override
+        void forEach(int high, IntConsumer action) {
+            for (int k = 0; k < BITMAP_WORDS; k++) {
+                long word = words[k];
+                while (word != 0) {
+                    action.accept(high | (k << 6) | Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+        }
+
+        @Override
+        void write(LittleEndianOutputStream dos) throws IOException {
+            dos.writeByte(BITMAP_CONTAINER);
+            for (long word : words) {
+                dos.writeLong(word);
+            }
+        }
+
+        static BitmapContainer read(LittleEndianInputStream dis) throws IOException {
+            long[] words = new long[BITMAP_WORDS];
+            int cardinality = 0;
+            for (int k = 0; k < BITMAP_WORDS; k++) {
+                words[k] = dis.readLong();
+                cardinality += Long.bitCount(words[k]);
+            }
+            return new BitmapContainer(words, cardinality);
+        }
+
+        /**
+         * @return the smallest container for the bits
+         */
+        private static Container compact(long[] words, int cardinality) {
+            if (cardinality > ARRAY_LIMIT) {
+                return new BitmapContainer(words, cardinality);
+            }
+            ArrayContainer array = new ArrayContainer(new char[Math.max(1, cardinality)], 0);
+            new BitmapContainer(words, cardinality).forEach(0, value -> array.add((char) value));
+            return array;
+        }
+    }
+}
@@ -364,7 +364,7 @@ public class LittleEndianInputStream extends FilterInputStream implements DataIn
      */
     public final long readLong() throws IOException {
         readFully(readBuffer, 0, 8);
-        return (((long) readBuffer[0] << 0) +
+        return (((long) (readBuffer[0] & 255) << 0) +
                 ((long) (readBuffer[1] & 255) << 8) +
                 ((long) (readBuffer[2] & 255) << 16) +
                 ((long) (readBuffer[3] & 255) << 24) +
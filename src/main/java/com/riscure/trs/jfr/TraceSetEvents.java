@@ -0,0 +1,91 @@
+package com.riscure.trs.jfr;
+
+import java.nio.file.Path;
+
+/**
+ * Emits Java Flight Recorder events for the I/O performed by a trace set.
+ *
+ * This is the Java 8 implementation, which does nothing. On Java 11 and later, the multi-release jar contains an
+ * implementation that emits the events {@code com.riscure.trs.Remap}, {@code com.riscure.trs.TraceRead},
+ * {@code com.riscure.trs.WriterFlush} and {@code com.riscure.trs.HeaderWrite}.
+ *
+ * Every {@code begin} method returns an event token, which is null when the event is not enabled in any recording.
+ * Callers pass the token to the matching {@code commit} method, which ignores null tokens.
+ * This class is used internally by the library, and is not intended to be called directly.
+ */
+public final class TraceSetEvents {
+    private TraceSetEvents() {
+    }
+
+    /**
+     * @return a token for a remap of the mapped window of a file, or null if the event is disabled
+     */
+    public static Object beginRemap() {
+        return null;
+    }
+
+    /**
+     * @param token the token returned by {@link #beginRemap()}
+     * @param path the path of the trace set
+     * @param offset the file offset at which the new window starts
+     * @param size the size of the new window in bytes
+     */
+    public static void commitRemap(Object token, Path path, long offset, long size) {
+    }
+
+    /**
+     * @return a token for a span of consecutive trace reads, or null if the event is disabled
+     */
+    public static Object beginTraceRead() {
+        return null;
+    }
+
+    /**
+     * Mark the end of the last trace read in a span
+     * @param token the token returned by {@link #beginTraceRead()}
+     */
+    public static void endTraceRead(Object token) {
+    }
+
+    /**
+     * @param token the token returned by {@link #beginTraceRead()}
+     * @param path the path of the trace set
+     * @param firstTrace the index of the first trace read in the span
+     * @param numberOfTraces the number of consecutive traces read in the span
+     */
+    public static void commitTraceRead(Object token, Path path, long firstTrace, long numberOfTraces) {
+    }
+
+    /**
+     * @return a token for a flush of the write buffer to the file, or null if the event is disabled
+     */
+    public static Object beginWriterFlush() {
+        return null;
+    }
+
+    /**
+     * @param token the token returned by {@link #beginWriterFlush()}
+     * @param path the path of the trace set
+     * @param offset the file offset at which the flushed bytes were written
+     * @param bytes the number of bytes flushed
+     * @param firstTrace the index of the first trace in the flushed bytes
+     * @param numberOfTraces the number of traces in the flushed bytes
+     */
+    public static void commitWriterFlush(Object token, Path path, long offset, long bytes, long firstTrace, long numberOfTraces) {
+    }
+
+    /**
+     * @return a token for a (re)write of the header of a file, or null if the event is disabled
+     */
+    public static Object beginHeaderWrite() {
+        return null;
+    }
+
+    /**
+     * @param token the token returned by {@link #beginHeaderWrite()}
+     * @param path the path of the trace set
+     * @param numberOfTraces the number of traces recorded in the header
+     */
+    public static void commitHeaderWrite(Object token, Path path, long numberOfTraces) {
+    }
+}
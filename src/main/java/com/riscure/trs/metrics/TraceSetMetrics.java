@@ -0,0 +1,218 @@
+package com.riscure.trs.metrics;
+
+import com.riscure.trs.enums.Encoding;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link TraceSetMetricsListener} that keeps plain counters and timers. One instance can be shared by several
+ * trace sets, also when they are used from different threads. Use {@link #snapshot()} to export the current values.
+ */
+public class TraceSetMetrics implements TraceSetMetricsListener {
+    private final LongAdder tracesRead = new LongAdder();
+    private final LongAdder bytesRead = new LongAdder();
+    private final LongAdder tracesWritten = new LongAdder();
+    private final LongAdder bytesWritten = new LongAdder();
+    private final LongAdder remaps = new LongAdder();
+    private final LongAdder remapNanos = new LongAdder();
+    private final LongAdder headerWrites = new LongAdder();
+    private final LongAdder headerWriteNanos = new LongAdder();
+    private final LongAdder blockCacheHits = new LongAdder();
+    private final LongAdder blockCacheMisses = new LongAdder();
+    private final LongAdder blockCacheMissNanos = new LongAdder();
+    private final Map<Encoding, LongAdder> samplesDecoded = new EnumMap<>(Encoding.class);
+    private final Map<Encoding, LongAdder> decodeNanos = new EnumMap<>(Encoding.class);
+
+    public TraceSetMetrics() {
+        for (Encoding encoding : Encoding.values()) {
+            samplesDecoded.put(encoding, new LongAdder());
+            decodeNanos.put(encoding, new LongAdder());
+        }
+    }
+
+    @Override
+    public void traceRead(int index, long bytes) {
+        tracesRead.increment();
+        bytesRead.add(bytes);
+    }
+
+    @Override
+    public void samplesDecoded(Encoding encoding, int numberOfSamples, long nanos) {
+        samplesDecoded.get(encoding).add(numberOfSamples);
+        decodeNanos.get(encoding).add(nanos);
+    }
+
+    @Override
+    public void bufferRemapped(long offset, long size, long nanos) {
+        remaps.increment();
+        remapNanos.add(nanos);
+    }
+
+    @Override
+    public void traceWritten(int index, long bytes) {
+        tracesWritten.increment();
+        bytesWritten.add(bytes);
+    }
+
+    @Override
+    public void headerWritten(long bytes, long nanos) {
+        headerWrites.increment();
+        headerWriteNanos.add(nanos);
+    }
+
+    @Override
+    public void blockCacheHit(int block) {
+        blockCacheHits.increment();
+    }
+
+    @Override
+    public void blockCacheMiss(int block, long nanos) {
+        blockCacheMisses.increment();
+        blockCacheMissNanos.add(nanos);
+    }
+
+    /**
+     * @return the number of trace reads, including reads of only the parameters or a range of the samples of a trace
+     */
+    public long getTracesRead() {
+        return tracesRead.sum();
+    }
+
+    /**
+     * @return the number of trace bytes read
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return the number of traces written
+     */
+    public long getTracesWritten() {
+        return tracesWritten.sum();
+    }
+
+    /**
+     * @return the number of trace bytes written
+     */
+    public long getBytesWritten() {
+        return bytesWritten.sum();
+    }
+
+    /**
+     * @return the number of times the mapped window of a file was moved
+     */
+    public long getRemaps() {
+        return remaps.sum();
+    }
+
+    /**
+     * @return the total time spent moving the mapped window, in nanoseconds
+     */
+    public long getRemapNanos() {
+        return remapNanos.sum();
+    }
+
+    /**
+     * @return the number of times a header was written
+     */
+    public long getHeaderWrites() {
+        return headerWrites.sum();
+    }
+
+    /**
+     * @return the total time spent writing headers, in nanoseconds
+     */
+    public long getHeaderWriteNanos() {
+        return headerWriteNanos.sum();
+    }
+
+    /**
+     * @return the number of traces read from an already decoded block of a compressed trace set
+     */
+    public long getBlockCacheHits() {
+        return blockCacheHits.sum();
+    }
+
+    /**
+     * @return the number of traces for which a block of a compressed trace set had to be decoded first
+     */
+    public long getBlockCacheMisses() {
+        return blockCacheMisses.sum();
+    }
+
+    /**
+     * @return the total time spent waiting for blocks of a compressed trace set to be decoded, in nanoseconds
+     */
+    public long getBlockCacheMissNanos() {
+        return blockCacheMissNanos.sum();
+    }
+
+    /**
+     * @param encoding the encoding of the samples
+     * @return the number of samples decoded from the provided encoding
+     */
+    public long getSamplesDecoded(Encoding encoding) {
+        return samplesDecoded.get(encoding).sum();
+    }
+
+    /**
+     * @param encoding the encoding of the samples
+     * @return the total time spent decoding samples from the provided encoding, in nanoseconds
+     */
+    public long getDecodeNanos(Encoding encoding) {
+        return decodeNanos.get(encoding).sum();
+    }
+
+    /**
+     * Reset all counters and timers to zero
+     */
+    public void reset() {
+        tracesRead.reset();
+        bytesRead.reset();
+        tracesWritten.reset();
+        bytesWritten.reset();
+        remaps.reset();
+        remapNanos.reset();
+        headerWrites.reset();
+        headerWriteNanos.reset();
+        blockCacheHits.reset();
+        blockCacheMisses.reset();
+        blockCacheMissNanos.reset();
+        samplesDecoded.values().forEach(LongAdder::reset);
+        decodeNanos.values().forEach(LongAdder::reset);
+    }
+
+    /**
+     * @return the current value of every counter and timer, keyed by a stable metric name
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("traces.read", getTracesRead());
+        result.put("bytes.read", getBytesRead());
+        result.put("traces.written", getTracesWritten());
+        result.put("bytes.written", getBytesWritten());
+        result.put("remaps", getRemaps());
+        result.put("remaps.nanos", getRemapNanos());
+        result.put("header.writes", getHeaderWrites());
+        result.put("header.writes.nanos", getHeaderWriteNanos());
+        result.put("block.cache.hits", getBlockCacheHits());
+        result.put("block.cache.misses", getBlockCacheMisses());
+        result.put("block.cache.misses.nanos", getBlockCacheMissNanos());
+        for (Encoding encoding : Encoding.values()) {
+            if (encoding == Encoding.ILLEGAL) continue;
+            String name = encoding.name().toLowerCase();
+            result.put("samples.decoded." + name, getSamplesDecoded(encoding));
+            result.put("decode.nanos." + name, getDecodeNanos(encoding));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceSetMetrics" + snapshot();
+    }
+}
@@ -0,0 +1,71 @@
+package com.riscure.trs.metrics;
+
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+
+/**
+ * A listener that is notified of the work done inside a {@link TraceSet}.
+ * Register an implementation with {@link TraceSet#setMetricsListener(TraceSetMetricsListener)}.
+ * When no listener is registered, no measurements are taken at all.
+ *
+ * Callbacks are made on the thread that uses the trace set, so implementations should be cheap.
+ * All methods have an empty default implementation, so only the events of interest need to be implemented.
+ */
+public interface TraceSetMetricsListener {
+    /**
+     * Called after a trace, or only its parameters or a range of its samples, has been read from the file
+     * @param index the index of the trace that was read
+     * @param bytes the number of bytes that were read from the trace
+     */
+    default void traceRead(int index, long bytes) {
+    }
+
+    /**
+     * Called after the samples of a trace have been decoded
+     * @param encoding the encoding of the samples in the file
+     * @param numberOfSamples the number of samples that were decoded
+     * @param nanos the time it took to decode the samples, in nanoseconds
+     */
+    default void samplesDecoded(Encoding encoding, int numberOfSamples, long nanos) {
+    }
+
+    /**
+     * Called after the window of the file that is mapped in memory was moved
+     * @param offset the file offset at which the new window starts
+     * @param size the size of the new window in bytes
+     * @param nanos the time it took to map the new window, in nanoseconds
+     */
+    default void bufferRemapped(long offset, long size, long nanos) {
+    }
+
+    /**
+     * Called after a trace has been written to the file
+     * @param index the index of the trace that was written
+     * @param bytes the number of bytes the trace occupies in the file
+     */
+    default void traceWritten(int index, long bytes) {
+    }
+
+    /**
+     * Called after the header of the file has been written, or rewritten when closing the trace set
+     * @param bytes the size of the header in bytes
+     * @param nanos the time it took to write the header, in nanoseconds
+     */
+    default void headerWritten(long bytes, long nanos) {
+    }
+
+    /**
+     * Called when a trace is read from a block of a compressed trace set that was already decoded
+     * @param block the index of the block
+     */
+    default void blockCacheHit(int block) {
+    }
+
+    /**
+     * Called when a trace is read from a block of a compressed trace set that was not decoded yet
+     * @param block the index of the block
+     * @param nanos the time spent waiting for the block to be read and decoded, in nanoseconds
+     */
+    default void blockCacheMiss(int block, long nanos) {
+    }
+}
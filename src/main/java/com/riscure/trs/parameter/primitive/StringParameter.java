@@ -34,6 +34,20 @@ public class StringParameter extends TraceParameter {
         return new StringParameter(new String(bytes, StandardCharsets.UTF_8));
     }
 
+    /**
+     * Strings that are shorter than the length of their definition are padded with NUL characters when they are
+     * written, see {@link com.riscure.trs.TraceSet}. This removes that padding again.
+     * @param value the string to remove the padding from
+     * @return the string without trailing NUL characters
+     */
+    public static String stripPadding(String value) {
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) == '\0') {
+            end--;
+        }
+        return value.substring(0, end);
+    }
+
     @Override
     public int length() {
         return value.getBytes(StandardCharsets.UTF_8).length;
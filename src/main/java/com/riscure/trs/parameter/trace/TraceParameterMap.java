@@ -14,6 +14,7 @@ import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Optional;
+import java.util.Set;
 
 public class TraceParameterMap extends LinkedHashMap<String, TraceParameter> {
     private static final String KEY_NOT_FOUND = "TraceParameter %s was not found in the trace.";
@@ -80,6 +81,39 @@ public class TraceParameterMap extends LinkedHashMap<String, TraceParameter> {
         return UnmodifiableTraceParameterMap.of(result);
     }
 
+    /**
+     * Decode only the requested parameters from a raw parameter byte array. Every projected parameter is read directly
+     * from its definition offset, so the parameters that are not requested are never materialized.
+     * @param bytes a raw byte array representing the values defined by the definition map
+     * @param definitions the type and length information describing the provided byte array
+     * @param projection the names of the parameters to decode. Names that are not defined are ignored.
+     * @return a new TraceParameterMap containing only the projected parameters, in definition order
+     * @throws RuntimeException if the provided byte array does not represent a valid parameter map
+     */
+    public static TraceParameterMap deserialize(byte[] bytes, TraceParameterDefinitionMap definitions, Set<String> projection) {
+        TraceParameterMap result = new TraceParameterMap();
+        if (bytes != null) {
+            if (bytes.length != definitions.totalSize()) {
+                throw new IllegalArgumentException(String.format(DATA_LENGTH_DEFINITIONS_MISMATCH, bytes.length, definitions.totalSize()));
+            }
+            try {
+                for (Map.Entry<String, TraceParameterDefinition<TraceParameter>> entry : definitions.entrySet()) {
+                    if (!projection.contains(entry.getKey())) continue;
+                    TraceParameterDefinition<TraceParameter> definition = entry.getValue();
+                    int offset = definition.getOffset() & 0xFFFF;
+                    int size = definition.getLength() * definition.getType().getByteSize();
+                    LittleEndianInputStream dis = new LittleEndianInputStream(new ByteArrayInputStream(bytes, offset, size));
+                    result.put(entry.getKey(), TraceParameter.deserialize(definition.getType(), definition.getLength(), dis));
+                }
+            } catch (IOException ex) {
+                throw new RuntimeException(ex);
+            }
+        } else if (definitions.totalSize() != 0) {
+            throw new IllegalArgumentException(EMPTY_DATA_BUT_NONEMPTY_DEFINITIONS);
+        }
+        return UnmodifiableTraceParameterMap.of(result);
+    }
+
     /**
      * Add a new parameter to the map
      * @param typedKey the {@link TypedKey} defining the name and the type of the added value
@@ -0,0 +1,213 @@
+package com.riscure.trs.tools;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TRSMetaDataUtils;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.index.Tombstones;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static com.riscure.trs.enums.TRSTag.*;
+
+/**
+ * The layout of an existing TRS file: its metadata and where its traces are, so that ranges of traces can be copied
+ * without decoding them. The traces that have been deleted from the file (see {@link Tombstones}) are loaded with it,
+ * so that only the live traces are copied.
+ */
+final class TraceSetFile {
+    private static final String SIZE_DIFFERS = "Error reading TRS file: file size of '%s' (%d) != meta data (%d) + trace size (%d) * nr of traces (%d)";
+
+    private final Path path;
+    private final TRSMetaData metaData;
+    private final int headerSize;
+    private final long traceSize;
+    private final int numberOfTraces;
+    private final Tombstones tombstones;
+
+    private TraceSetFile(Path path, TRSMetaData metaData, int headerSize, long traceSize, int numberOfTraces,
+                         Tombstones tombstones) {
+        this.path = path;
+        this.metaData = metaData;
+        this.headerSize = headerSize;
+        this.traceSize = traceSize;
+        this.numberOfTraces = numberOfTraces;
+        this.tombstones = tombstones;
+    }
+
+    /**
+     * Read the layout of a TRS file
+     * @param path the path of the file
+     * @return the layout of the file
+     * @throws TRSFormatException when the header is invalid, or the size of the file does not match the header
+     */
+    static TraceSetFile of(Path path) throws IOException, TRSFormatException {
+        TRSMetaData metaData;
+        int headerSize;
+        long traceSize;
+        try (TraceSet traceSet = TraceSet.open(path.toString())) {
+            metaData = traceSet.getMetaData();
+            headerSize = traceSet.getHeaderSize();
+            traceSize = traceSet.getTraceSize();
+        }
+        long size = Files.size(path);
+        int numberOfTraces = metaData.getInt(NUMBER_OF_TRACES);
+        if (size != headerSize + traceSize * numberOfTraces) {
+            throw new TRSFormatException(String.format(SIZE_DIFFERS, path, size, headerSize, traceSize, numberOfTraces));
+        }
+        Tombstones tombstones = Tombstones.load(path.toString(), numberOfTraces);
+        return new TraceSetFile(path, metaData, headerSize, traceSize, numberOfTraces, tombstones);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the metadata of the file, which can be modified to write the header of a derived file
+     */
+    TRSMetaData getMetaData() {
+        return metaData;
+    }
+
+    /**
+     * @return a copy of the metadata of the file, read from its header
+     */
+    TRSMetaData readMetaData() throws IOException, TRSFormatException {
+        return TraceSet.readMetaData(path);
+    }
+
+    int getHeaderSize() {
+        return headerSize;
+    }
+
+    long getTraceSize() {
+        return traceSize;
+    }
+
+    /**
+     * @return the number of traces in the file, even after the number in the metadata has been changed
+     */
+    int getNumberOfTraces() {
+        return numberOfTraces;
+    }
+
+    /**
+     * @return the deleted traces of the file
+     */
+    Tombstones getTombstones() {
+        return tombstones;
+    }
+
+    /**
+     * @return the number of traces in the file that have not been deleted
+     */
+    int getNumberOfLiveTraces() {
+        return tombstones.getNumberOfLiveTraces();
+    }
+
+    /**
+     * @param live the index of a trace among the live traces, or the number of live traces
+     * @return the index of the trace in the file, or the number of traces in the file
+     */
+    int positionOf(int live) {
+        return live == getNumberOfLiveTraces() ? numberOfTraces : tombstones.select(live);
+    }
+
+    /**
+     * Check that the traces of another file can be stored in the same file as the traces of this one
+     * @param other the layout of the other file
+     * @throws IllegalArgumentException if the number of samples, the sample coding, the data length, the title space,
+     * the version or the trace parameter definitions differ
+     */
+    void checkSameLayout(TraceSetFile other) {
+        TRSMetaDataUtils.checkSameLayout(path, metaData, other.path, other.metaData);
+    }
+
+    /**
+     * @param index the index of a trace
+     * @return the offset of the trace in the file
+     */
+    long offsetOf(int index) {
+        return headerSize + index * traceSize;
+    }
+
+    /**
+     * Decode the trace parameters of a trace without decoding its samples
+     * @param record a buffer positioned at the start of the trace, which is left at the start of its samples
+     * @param parameterNames the names of the parameters to decode, or null to decode all parameters
+     * @return the trace parameters of the trace
+     */
+    TraceParameterMap readParameters(ByteBuffer record, Set<String> parameterNames) {
+        record.position(record.position() + metaData.getInt(TITLE_SPACE));
+        byte[] data = new byte[metaData.getInt(DATA_LENGTH)];
+        record.get(data);
+        return TraceSet.decodeParameters(metaData, data, parameterNames);
+    }
+
+    /**
+     * Copy a range of consecutive traces to a position of a channel. This does not change the position of the target
+     * channel, so several threads can copy traces to the same channel at once, each with its own source channel.
+     * @param in an open channel of this file, of which the position is changed
+     * @param first the index of the first trace to copy
+     * @param count the number of traces to copy
+     * @param out the channel to write the traces to
+     * @param position the position in the target channel to write the first trace to
+     */
+    void transferTraces(FileChannel in, int first, int count, FileChannel out, long position) throws IOException {
+        long remaining = count * traceSize;
+        in.position(offsetOf(first));
+        while (remaining > 0) {
+            long transferred = out.transferFrom(in, position, remaining);
+            if (transferred <= 0) {
+                throw new IOException("Unexpected end of file while copying traces from " + path);
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+
+    /**
+     * Copy the live traces in a range of the file to the current position of a channel, in runs of consecutive live
+     * traces
+     * @param in an open channel of this file
+     * @param first the index in the file of the first trace of the range
+     * @param last the index in the file after the last trace of the range
+     * @param out the channel to append the traces to
+     */
+    void transferLiveTraces(FileChannel in, int first, int last, FileChannel out) throws IOException {
+        int start = tombstones.nextLive(first);
+        while (start < last) {
+            int end = Math.min(last, tombstones.nextDeleted(start));
+            transferTraces(in, start, end - start, out);
+            start = tombstones.nextLive(end);
+        }
+    }
+
+    /**
+     * Copy a range of consecutive traces to the current position of a channel, which the operating system can do
+     * without copying the bytes through the JVM
+     * @param in an open channel of this file
+     * @param first the index of the first trace to copy
+     * @param count the number of traces to copy
+     * @param out the channel to append the traces to
+     */
+    void transferTraces(FileChannel in, int first, int count, FileChannel out) throws IOException {
+        long position = offsetOf(first);
+        long remaining = count * traceSize;
+        while (remaining > 0) {
+            long transferred = in.transferTo(position, remaining, out);
+            if (transferred <= 0) {
+                throw new IOException("Unexpected end of file while copying traces from " + path);
+            }
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+}
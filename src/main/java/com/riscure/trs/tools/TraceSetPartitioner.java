@@ -0,0 +1,206 @@
+package com.riscure.trs.tools;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.index.Tombstones;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.ToIntFunction;
+
+/**
+ * Routes the traces of a trace set to up to {@value #MAX_PARTITIONS} trace sets, keyed by a function of their trace
+ * parameters, for example the value of a key byte for template profiling.
+ *
+ * The source is read once in large sequential chunks, and only the trace parameters of a trace are decoded. The
+ * bytes of the trace are appended to the write buffer of its partition as they are, and a buffer is only written to
+ * its file when it is full, so that the open partitions do not turn into many small random writes. Every partition
+ * gets a copy of the header of the source with its own number of traces. Traces that have been deleted from the source
+ * (see {@link Tombstones}) are skipped.
+ */
+public final class TraceSetPartitioner {
+    public static final int MAX_PARTITIONS = 256;
+    private static final int READ_BUFFER_BYTES = 4 << 20;
+    private static final int DEFAULT_BUFFER_BYTES = 256 << 10;
+    private static final String INVALID_PARTITION = "The partition of trace %d must be in [0, %d) or negative to skip it, but was %d";
+    private static final String INVALID_BUFFER_SIZE = "The buffer size must be positive, but was %d";
+
+    private final ToIntFunction<TraceParameterMap> partition;
+    private Set<String> parameterNames;
+    private int bufferSize = DEFAULT_BUFFER_BYTES;
+
+    /**
+     * @param partition the function that maps the trace parameters of a trace to its partition in
+     * [0, {@value #MAX_PARTITIONS}), or to a negative value to leave the trace out
+     */
+    public TraceSetPartitioner(ToIntFunction<TraceParameterMap> partition) {
+        this.partition = partition;
+    }
+
+    /**
+     * Only decode the trace parameters that the partition function uses
+     * @param parameterNames the names of the parameters to decode, or null to decode all parameters
+     * @return this partitioner
+     */
+    public TraceSetPartitioner setParameterNames(Set<String> parameterNames) {
+        this.parameterNames = parameterNames == null ? null : Collections.unmodifiableSet(new HashSet<>(parameterNames));
+        return this;
+    }
+
+    /**
+     * @param bufferSize the size in bytes of the write buffer of every partition, which is increased to the size of a
+     * trace if that is larger
+     * @return this partitioner
+     */
+    public TraceSetPartitioner setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException(String.format(INVALID_BUFFER_SIZE, bufferSize));
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Partition a trace set. A partition is named after the source with its number, e.g. {@code traces_007.trs}, and
+     * is only created when at least one trace is routed to it.
+     * @param source the path of the TRS file to partition
+     * @param directory the directory to write the partitions to
+     * @return the paths of the partitions that were written, by partition
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     * @throws IllegalArgumentException when the partition function returns a partition that is out of range
+     */
+    public SortedMap<Integer, Path> partition(String source, Path directory) throws IOException, TRSFormatException {
+        TraceSetFile file = TraceSetFile.of(Paths.get(source));
+        Tombstones tombstones = file.getTombstones();
+        long traceSize = file.getTraceSize();
+        int chunkTraces = (int) Math.max(1, Math.min(file.getNumberOfTraces(), READ_BUFFER_BYTES / Math.max(1, traceSize)));
+        ByteBuffer chunk = ByteBuffer.allocate((int) (chunkTraces * traceSize)).order(ByteOrder.LITTLE_ENDIAN);
+        Partition[] partitions = new Partition[MAX_PARTITIONS];
+        boolean completed = false;
+        try (FileChannel in = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+            for (int first = 0; first < file.getNumberOfTraces(); first += chunkTraces) {
+                int count = Math.min(chunkTraces, file.getNumberOfTraces() - first);
+                chunk.clear().limit((int) (count * traceSize));
+                long position = file.offsetOf(first);
+                while (chunk.hasRemaining()) {
+                    int read = in.read(chunk, position);
+                    if (read < 0) {
+                        throw new IOException("Unexpected end of file while partitioning " + source);
+                    }
+                    position += read;
+                }
+                for (int trace = 0; trace < count; trace++) {
+                    if (tombstones.isDeleted(first + trace)) {
+                        continue;
+                    }
+                    int start = (int) (trace * traceSize);
+                    chunk.limit((int) (start + traceSize)).position(start);
+                    int key = partition.applyAsInt(file.readParameters(chunk, parameterNames));
+                    if (key >= MAX_PARTITIONS) {
+                        throw new IllegalArgumentException(String.format(INVALID_PARTITION, first + trace, MAX_PARTITIONS, key));
+                    }
+                    if (key < 0) {
+                        continue;
+                    }
+                    if (partitions[key] == null) {
+                        partitions[key] = new Partition(file, TraceSetTools.shardOf(file.getPath(), directory, key, MAX_PARTITIONS),
+                                (int) Math.max(bufferSize, traceSize));
+                    }
+                    chunk.position(start);
+                    partitions[key].add(chunk);
+                }
+            }
+            SortedMap<Integer, Path> result = new TreeMap<>();
+            for (int key = 0; key < MAX_PARTITIONS; key++) {
+                if (partitions[key] != null) {
+                    partitions[key].close();
+                    result.put(key, partitions[key].destination);
+                }
+            }
+            completed = true;
+            return result;
+        } finally {
+            if (!completed) {
+                for (Partition open : partitions) {
+                    if (open != null) {
+                        open.discard();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The output of one partition, which is written to a temporary file until all traces have been routed
+     */
+    private static final class Partition {
+        private final Path destination;
+        private final Path temporary;
+        private final TRSMetaData metaData;
+        private final FileOutputStream out;
+        private final ByteBuffer buffer;
+        private int numberOfTraces;
+        private boolean closed;
+
+        private Partition(TraceSetFile file, Path destination, int bufferSize) throws IOException, TRSFormatException {
+            this.destination = destination;
+            this.temporary = TraceSetTools.temporaryFileOf(destination);
+            this.metaData = file.readMetaData();
+            this.out = new FileOutputStream(temporary.toFile());
+            this.buffer = ByteBuffer.allocate(bufferSize);
+            TraceSetTools.writeHeader(out, metaData, 0);
+        }
+
+        /**
+         * Append the remaining bytes of a buffer, which contain a single trace
+         */
+        private void add(ByteBuffer trace) throws IOException {
+            if (buffer.remaining() < trace.remaining()) {
+                flush();
+            }
+            buffer.put(trace);
+            numberOfTraces++;
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.getChannel().write(buffer);
+            }
+            buffer.clear();
+        }
+
+        /**
+         * Write the remaining traces and the final header, and move the partition into place
+         */
+        private void close() throws IOException, TRSFormatException {
+            flush();
+            out.getChannel().position(0);
+            TraceSetTools.writeHeader(out, metaData, numberOfTraces);
+            out.close();
+            closed = true;
+            TraceSetTools.replace(temporary, destination);
+        }
+
+        private void discard() throws IOException {
+            if (!closed) {
+                out.close();
+            }
+            Files.deleteIfExists(temporary);
+        }
+    }
+}
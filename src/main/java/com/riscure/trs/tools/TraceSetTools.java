@@ -0,0 +1,383 @@
+package com.riscure.trs.tools;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.TRSMetaDataUtils;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.index.Tombstones;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Predicate;
+
+import static com.riscure.trs.enums.TRSTag.NUMBER_OF_TRACES;
+
+/**
+ * Operations on whole TRS files that copy the bytes of the traces as they are, instead of reading every trace and
+ * adding it to a new trace set.
+ *
+ * Since the traces of a TRS file are records of a fixed size after the header, a range of traces can be moved with
+ * {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)}, which lets the operating system
+ * copy them without decoding or re-encoding any sample. Every operation writes a fresh header for its result to a
+ * temporary file, which replaces the destination when it is complete.
+ *
+ * Traces that have been deleted from a source (see {@link Tombstones}) are not copied: the live traces are copied in
+ * runs of consecutive live traces, and trace ranges are indices among the live traces, like in a trace set that is
+ * opened with {@link TraceSet#openLive(String)}.
+ */
+public final class TraceSetTools {
+    private static final String NO_SOURCES = "At least one trace set is needed to concatenate";
+    private static final String TOO_MANY_TRACES = "The concatenated trace set would contain %d traces, which is more than the maximum of %d";
+    private static final String INVALID_RANGE = "Invalid range of traces [%d, %d) for a trace set of %d traces";
+    private static final String INVALID_SHARDS = "The number of shards must be positive, but was %d";
+    private static final String INVALID_SHARD_SIZE = "A shard of %d bytes cannot contain a header of %d bytes and a trace of %d bytes";
+
+    private TraceSetTools() {
+    }
+
+    /**
+     * Concatenate trace sets that have the same layout into one trace set. The header of the result is the header of
+     * the first trace set, with the total number of live traces.
+     * @param destination the path of the TRS file to write
+     * @param sources the paths of the TRS files to concatenate, in order
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS files is encountered
+     * @throws IllegalArgumentException when the trace sets have a different number of samples, sample coding, data
+     * length, title space or trace parameter definitions
+     */
+    public static void concat(Path destination, String... sources) throws IOException, TRSFormatException {
+        if (sources.length == 0) {
+            throw new IllegalArgumentException(NO_SOURCES);
+        }
+        List<TraceSetFile> files = new ArrayList<>();
+        long numberOfTraces = 0;
+        for (String source : sources) {
+            TraceSetFile file = TraceSetFile.of(Paths.get(source));
+            if (!files.isEmpty()) {
+                files.get(0).checkSameLayout(file);
+            }
+            files.add(file);
+            numberOfTraces += file.getNumberOfLiveTraces();
+        }
+        if (numberOfTraces > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(String.format(TOO_MANY_TRACES, numberOfTraces, Integer.MAX_VALUE));
+        }
+
+        Path temporary = temporaryFileOf(destination);
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+            writeHeader(out, files.get(0).getMetaData(), (int) numberOfTraces);
+            for (TraceSetFile file : files) {
+                try (FileChannel in = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+                    file.transferLiveTraces(in, 0, file.getNumberOfTraces(), out.getChannel());
+                }
+            }
+        }
+        replace(temporary, destination);
+    }
+
+    /**
+     * Copy a range of traces of a trace set into a new trace set with the same header
+     * @param source the path of the TRS file to copy the traces from
+     * @param from the index of the first live trace to copy
+     * @param to the index after the last live trace to copy
+     * @param destination the path of the TRS file to write
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     * @throws IllegalArgumentException when the range is not within the trace set
+     */
+    public static void extract(String source, int from, int to, Path destination) throws IOException, TRSFormatException {
+        TraceSetFile file = TraceSetFile.of(Paths.get(source));
+        if (from < 0 || from > to || to > file.getNumberOfLiveTraces()) {
+            throw new IllegalArgumentException(String.format(INVALID_RANGE, from, to, file.getNumberOfLiveTraces()));
+        }
+        Path temporary = temporaryFileOf(destination);
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile());
+             FileChannel in = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+            writeHeader(out, file.getMetaData(), to - from);
+            file.transferLiveTraces(in, file.positionOf(from), file.positionOf(to), out.getChannel());
+        }
+        replace(temporary, destination);
+    }
+
+    /**
+     * Copy the traces of a trace set whose trace parameters match a predicate into a new trace set with the same
+     * header, see {@link #filter(String, Predicate, Set, Path)}
+     * @param source the path of the TRS file to copy the traces from
+     * @param predicate the condition on the trace parameters of a trace to copy it
+     * @param destination the path of the TRS file to write
+     * @return the number of traces that were copied
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static int filter(String source, Predicate<TraceParameterMap> predicate, Path destination)
+            throws IOException, TRSFormatException {
+        return filter(source, predicate, null, destination);
+    }
+
+    /**
+     * Copy the traces of a trace set whose trace parameters match a predicate into a new trace set with the same
+     * header. The predicate is first evaluated on the trace parameters of every trace, without reading its samples.
+     * The selected traces are then copied in runs of consecutive traces, so that selecting a small part of the traces
+     * costs little more than the I/O of that part. Traces that have been deleted (see {@link Tombstones}) are not copied.
+     * @param source the path of the TRS file to copy the traces from
+     * @param predicate the condition on the trace parameters of a trace to copy it
+     * @param parameterNames the names of the parameters that the predicate uses, or null to decode all parameters
+     * @param destination the path of the TRS file to write
+     * @return the number of traces that were copied
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static int filter(String source, Predicate<TraceParameterMap> predicate, Set<String> parameterNames,
+                             Path destination) throws IOException, TRSFormatException {
+        TraceSetFile file = TraceSetFile.of(Paths.get(source));
+        Tombstones tombstones = file.getTombstones();
+        BitSet selected = new BitSet(file.getNumberOfTraces());
+        try (TraceSet traceSet = TraceSet.open(source)) {
+            for (int index = tombstones.nextLive(0); index < file.getNumberOfTraces(); index = tombstones.nextLive(index + 1)) {
+                if (predicate.test(traceSet.getParameters(index, parameterNames))) {
+                    selected.set(index);
+                }
+            }
+        }
+
+        Path temporary = temporaryFileOf(destination);
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile());
+             FileChannel in = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+            writeHeader(out, file.getMetaData(), selected.cardinality());
+            int first = selected.nextSetBit(0);
+            while (first >= 0) {
+                int last = selected.nextClearBit(first);
+                file.transferTraces(in, first, last - first, out.getChannel());
+                first = selected.nextSetBit(last);
+            }
+        }
+        replace(temporary, destination);
+        return selected.cardinality();
+    }
+
+    /**
+     * Remove the deleted traces (see {@link Tombstones}) from a trace set when they are more than a given part of its
+     * traces. The live traces are copied to a new file in parallel, in runs of consecutive live traces, after which the
+     * new file replaces the trace set and its deleted traces are forgotten.
+     * @param file the path of the TRS file to compact
+     * @param threshold the part of the traces that must be deleted to compact the trace set, in [0, 1)
+     * @param threads the number of threads that copy the live traces
+     * @return whether the trace set was compacted
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static boolean compact(String file, double threshold, int threads) throws IOException, TRSFormatException {
+        Tombstones tombstones = Tombstones.load(file);
+        if (tombstones.getNumberOfDeleted() == 0 || tombstones.getDeletedRatio() <= threshold) {
+            return false;
+        }
+        TraceSetFile source = TraceSetFile.of(Paths.get(file));
+        int numberOfLive = tombstones.getNumberOfLiveTraces();
+        //the runs of live traces, divided over the threads by their number of traces
+        List<int[]> runs = new ArrayList<>();
+        for (int first = tombstones.nextLive(0); first < source.getNumberOfTraces(); ) {
+            int last = tombstones.nextDeleted(first);
+            runs.add(new int[]{first, last - first});
+            first = tombstones.nextLive(last);
+        }
+        int parts = Math.max(1, Math.min(threads, runs.size()));
+
+        Path destination = Paths.get(file);
+        Path temporary = temporaryFileOf(destination);
+        ExecutorService executor = Executors.newFixedThreadPool(parts);
+        try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+            writeHeader(out, source.getMetaData(), numberOfLive);
+            long headerSize = out.getChannel().position();
+            //the copies only write within the file, so it is extended to its final size first
+            if (numberOfLive > 0) {
+                out.getChannel().write(ByteBuffer.allocate(1), headerSize + numberOfLive * source.getTraceSize() - 1);
+            }
+            List<Future<Void>> futures = new ArrayList<>(parts);
+            int run = 0;
+            int copied = 0;
+            for (int part = 0; part < parts; part++) {
+                long partEnd = (long) numberOfLive * (part + 1) / parts;
+                int firstRun = run;
+                int firstCopied = copied;
+                while (run < runs.size() && (copied < partEnd || part == parts - 1)) {
+                    copied += runs.get(run++)[1];
+                }
+                List<int[]> partRuns = runs.subList(firstRun, run);
+                futures.add(executor.submit(() -> {
+                    long position = headerSize + firstCopied * source.getTraceSize();
+                    try (FileChannel in = FileChannel.open(source.getPath(), StandardOpenOption.READ)) {
+                        for (int[] partRun : partRuns) {
+                            source.transferTraces(in, partRun[0], partRun[1], out.getChannel(), position);
+                            position += partRun[1] * source.getTraceSize();
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compacting traces");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        replace(temporary, destination);
+        Files.deleteIfExists(Tombstones.sidecarOf(file));
+        return true;
+    }
+
+    /**
+     * Split a trace set into shards with the same number of traces, up to one. The shards are written in parallel, and
+     * named after the source with the index of the shard, e.g. {@code traces_0.trs}.
+     * @param source the path of the TRS file to split
+     * @param directory the directory to write the shards to
+     * @param numberOfShards the number of shards, which is reduced to the number of live traces if that is lower
+     * @param threads the number of shards to write in parallel
+     * @return the paths of the shards, in the order of the traces
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     */
+    public static List<Path> split(String source, Path directory, int numberOfShards, int threads)
+            throws IOException, TRSFormatException {
+        if (numberOfShards <= 0) {
+            throw new IllegalArgumentException(String.format(INVALID_SHARDS, numberOfShards));
+        }
+        TraceSetFile file = TraceSetFile.of(Paths.get(source));
+        int shards = Math.max(1, Math.min(numberOfShards, file.getNumberOfLiveTraces()));
+        int[] bounds = new int[shards + 1];
+        for (int shard = 0; shard <= shards; shard++) {
+            bounds[shard] = (int) ((long) file.getNumberOfLiveTraces() * shard / shards);
+        }
+        return split(file, directory, bounds, threads);
+    }
+
+    /**
+     * Split a trace set into shards that are no larger than a given size. Every shard but the last contains the same
+     * number of traces. The shards are written in parallel, and named after the source with the index of the shard,
+     * e.g. {@code traces_0.trs}.
+     * @param source the path of the TRS file to split
+     * @param directory the directory to write the shards to
+     * @param maxShardSize the maximum size of a shard in bytes, including its header
+     * @param threads the number of shards to write in parallel
+     * @return the paths of the shards, in the order of the traces
+     * @throws IOException when any read or write exception is encountered
+     * @throws TRSFormatException when any incorrect formatting of the TRS file is encountered
+     * @throws IllegalArgumentException when a shard of the given size cannot contain a single trace
+     */
+    public static List<Path> splitBySize(String source, Path directory, long maxShardSize, int threads)
+            throws IOException, TRSFormatException {
+        TraceSetFile file = TraceSetFile.of(Paths.get(source));
+        long tracesPerShard = (maxShardSize - file.getHeaderSize()) / Math.max(1, file.getTraceSize());
+        if (tracesPerShard <= 0) {
+            throw new IllegalArgumentException(String.format(INVALID_SHARD_SIZE, maxShardSize, file.getHeaderSize(),
+                    file.getTraceSize()));
+        }
+        int shards = (int) Math.max(1, (file.getNumberOfLiveTraces() + tracesPerShard - 1) / tracesPerShard);
+        int[] bounds = new int[shards + 1];
+        for (int shard = 0; shard <= shards; shard++) {
+            bounds[shard] = (int) Math.min(file.getNumberOfLiveTraces(), shard * tracesPerShard);
+        }
+        return split(file, directory, bounds, threads);
+    }
+
+    /**
+     * Write the shards, each with its own copy of the header. All shards read the source through one channel with
+     * positional transfers, so they do not interfere with each other.
+     * @param bounds the index among the live traces of the first trace of every shard, followed by the number of live
+     * traces
+     */
+    private static List<Path> split(TraceSetFile file, Path directory, int[] bounds, int threads) throws IOException {
+        int shards = bounds.length - 1;
+        List<Path> paths = new ArrayList<>(shards);
+        for (int shard = 0; shard < shards; shard++) {
+            paths.add(shardOf(file.getPath(), directory, shard, shards));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, shards)));
+        try (FileChannel in = FileChannel.open(file.getPath(), StandardOpenOption.READ)) {
+            List<Future<Void>> futures = new ArrayList<>(shards);
+            for (int shard = 0; shard < shards; shard++) {
+                Path destination = paths.get(shard);
+                int count = bounds[shard + 1] - bounds[shard];
+                //the positions are looked up before the shards are written, since the lookup is not thread-safe
+                int first = file.positionOf(bounds[shard]);
+                int last = file.positionOf(bounds[shard + 1]);
+                futures.add(executor.submit(() -> {
+                    Path temporary = temporaryFileOf(destination);
+                    try (FileOutputStream out = new FileOutputStream(temporary.toFile())) {
+                        writeHeader(out, file.readMetaData(), count);
+                        file.transferLiveTraces(in, first, last, out.getChannel());
+                    }
+                    replace(temporary, destination);
+                    return null;
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+            return paths;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while splitting traces");
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) throw (IOException) ex.getCause();
+            if (ex.getCause() instanceof RuntimeException) throw (RuntimeException) ex.getCause();
+            throw new IOException(ex.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return the path of a shard, named after the source with the index of the shard
+     */
+    static Path shardOf(Path source, Path directory, int shard, int shards) {
+        String name = source.getFileName().toString();
+        if (name.endsWith(".trs")) {
+            name = name.substring(0, name.length() - ".trs".length());
+        }
+        int digits = Integer.toString(shards - 1).length();
+        return directory.resolve(String.format("%s_%0" + digits + "d.trs", name, shard));
+    }
+
+    /**
+     * Write the header of a derived trace set, after which the traces can be appended to the channel of the stream
+     */
+    static void writeHeader(FileOutputStream out, TRSMetaData metaData, int numberOfTraces)
+            throws IOException, TRSFormatException {
+        metaData.put(NUMBER_OF_TRACES, numberOfTraces);
+        TRSMetaDataUtils.writeTRSMetaData(out, metaData);
+    }
+
+    static Path temporaryFileOf(Path destination) {
+        Path absolute = destination.toAbsolutePath();
+        return absolute.resolveSibling(absolute.getFileName() + ".tmp");
+    }
+
+    static void replace(Path temporary, Path destination) throws IOException {
+        Files.move(temporary, destination.toAbsolutePath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,173 @@
+package com.riscure.trs.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+import java.nio.file.Path;
+
+/**
+ * Emits Java Flight Recorder events for the I/O performed by a trace set.
+ *
+ * This is the Java 11 implementation, which is selected from the multi-release jar. Events are only created and
+ * timed when they are enabled in a running recording: the type of an event is checked before the event is allocated.
+ * This class is used internally by the library, and is not intended to be called directly.
+ */
+public final class TraceSetEvents {
+    private static final EventType REMAP = EventType.getEventType(RemapEvent.class);
+    private static final EventType TRACE_READ = EventType.getEventType(TraceReadEvent.class);
+    private static final EventType WRITER_FLUSH = EventType.getEventType(WriterFlushEvent.class);
+    private static final EventType HEADER_WRITE = EventType.getEventType(HeaderWriteEvent.class);
+
+    private TraceSetEvents() {
+    }
+
+    public static Object beginRemap() {
+        if (!REMAP.isEnabled()) {
+            return null;
+        }
+        RemapEvent event = new RemapEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void commitRemap(Object token, Path path, long offset, long size) {
+        if (token == null) return;
+        RemapEvent event = (RemapEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.offset = offset;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    public static Object beginTraceRead() {
+        if (!TRACE_READ.isEnabled()) {
+            return null;
+        }
+        TraceReadEvent event = new TraceReadEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void endTraceRead(Object token) {
+        if (token == null) return;
+        ((TraceReadEvent) token).end();
+    }
+
+    public static void commitTraceRead(Object token, Path path, long firstTrace, long numberOfTraces) {
+        if (token == null) return;
+        TraceReadEvent event = (TraceReadEvent) token;
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.firstTrace = firstTrace;
+            event.numberOfTraces = numberOfTraces;
+            event.commit();
+        }
+    }
+
+    public static Object beginWriterFlush() {
+        if (!WRITER_FLUSH.isEnabled()) {
+            return null;
+        }
+        WriterFlushEvent event = new WriterFlushEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void commitWriterFlush(Object token, Path path, long offset, long bytes, long firstTrace, long numberOfTraces) {
+        if (token == null) return;
+        WriterFlushEvent event = (WriterFlushEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.offset = offset;
+            event.bytes = bytes;
+            event.firstTrace = firstTrace;
+            event.numberOfTraces = numberOfTraces;
+            event.commit();
+        }
+    }
+
+    public static Object beginHeaderWrite() {
+        if (!HEADER_WRITE.isEnabled()) {
+            return null;
+        }
+        HeaderWriteEvent event = new HeaderWriteEvent();
+        event.begin();
+        return event;
+    }
+
+    public static void commitHeaderWrite(Object token, Path path, long numberOfTraces) {
+        if (token == null) return;
+        HeaderWriteEvent event = (HeaderWriteEvent) token;
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.numberOfTraces = numberOfTraces;
+            event.commit();
+        }
+    }
+
+    @Name("com.riscure.trs.Remap")
+    @Label("Trace Set Remap")
+    @Description("The mapped window of a trace set file was moved")
+    @Category({"Riscure", "Trace Set"})
+    static class RemapEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Offset")
+        long offset;
+        @Label("Size")
+        @DataAmount
+        long size;
+    }
+
+    @Name("com.riscure.trs.TraceRead")
+    @Label("Trace Set Read")
+    @Description("A span of consecutive traces was read from a trace set")
+    @Category({"Riscure", "Trace Set"})
+    static class TraceReadEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("First Trace")
+        long firstTrace;
+        @Label("Number of Traces")
+        long numberOfTraces;
+    }
+
+    @Name("com.riscure.trs.WriterFlush")
+    @Label("Trace Set Writer Flush")
+    @Description("Buffered traces were written to a trace set file")
+    @Category({"Riscure", "Trace Set"})
+    static class WriterFlushEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Offset")
+        long offset;
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+        @Label("First Trace")
+        long firstTrace;
+        @Label("Number of Traces")
+        long numberOfTraces;
+    }
+
+    @Name("com.riscure.trs.HeaderWrite")
+    @Label("Trace Set Header Write")
+    @Description("The header of a trace set file was written")
+    @Category({"Riscure", "Trace Set"})
+    static class HeaderWriteEvent extends Event {
+        @Label("Path")
+        String path;
+        @Label("Number of Traces")
+        long numberOfTraces;
+    }
+}
@@ -1,4 +1,5 @@
 import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.SampleQuantizer;
 import com.riscure.trs.TRSMetaData;
 import com.riscure.trs.Trace;
 import com.riscure.trs.TraceSet;
@@ -6,6 +7,7 @@ import com.riscure.trs.enums.Encoding;
 import com.riscure.trs.enums.ParameterType;
 import com.riscure.trs.enums.TRSTag;
 import com.riscure.trs.io.LittleEndianInputStream;
+import com.riscure.trs.metrics.TraceSetMetrics;
 import com.riscure.trs.parameter.TraceParameter;
 import com.riscure.trs.parameter.primitive.ByteArrayParameter;
 import com.riscure.trs.parameter.trace.TraceParameterMap;
@@ -22,6 +24,7 @@ import org.junit.jupiter.api.Test;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -663,4 +666,327 @@ public class TestTraceSet {
             assertDoesNotThrow(() -> ts.get(0));
         }
     }
+
+    /**
+     * This tests whether only the requested parameters are decoded when reading with a projection
+     */
+    @Test
+    void testReadTraceParametersProjection() throws IOException, TRSFormatException {
+        ByteArrayTypeKey input = new ByteArrayTypeKey("INPUT");
+        IntegerTypeKey counter = new IntegerTypeKey("COUNTER");
+        String name = UUID.randomUUID().toString() + TRS;
+        try (TraceSet traceWithParameters = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            for (int k = 0; k < 25; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("STRING", String.format("%3d", k));
+                parameters.put(input, new byte[]{(byte) k, (byte) (k + 1), (byte) (k + 2)});
+                parameters.put("DOUBLE", (double) k);
+                parameters.put(counter, k);
+                traceWithParameters.add(Trace.create("", FLOAT_SAMPLES, parameters));
+            }
+        }
+        //READ BACK AND CHECK RESULT
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            for (int k = 0; k < 25; k++) {
+                TraceParameterMap projected = readable.get(k, input, counter).getParameters();
+                assertEquals(2, projected.size());
+                assertArrayEquals(new byte[]{(byte) k, (byte) (k + 1), (byte) (k + 2)}, projected.getOrElseThrow(input));
+                assertEquals(k, projected.getOrElseThrow(counter));
+                assertFalse(projected.containsKey("STRING"));
+
+                Trace trace = readable.get(k, Collections.singleton("DOUBLE"));
+                assertEquals(k, trace.getParameters().getDouble("DOUBLE"), 0.01);
+                assertArrayEquals(FLOAT_SAMPLES, trace.getSample(), 0.01f);
+            }
+        }
+    }
+
+    /**
+     * This tests whether metadata values are only overwritten when allowed, for both primitive and boxed tags
+     */
+    @Test
+    void testMetaDataOverwriteNonDefault() {
+        TRSMetaData metaData = TRSMetaData.create();
+        assertTrue(metaData.hasDefaultValue(TRSTag.NUMBER_OF_SAMPLES));
+        assertEquals(Encoding.FLOAT.getValue(), metaData.getInt(TRSTag.SAMPLE_CODING));
+
+        metaData.put(TRSTag.NUMBER_OF_SAMPLES, 100, false);
+        metaData.put(TRSTag.NUMBER_OF_SAMPLES, 200, false);
+        metaData.put(TRSTag.OFFSET_X, 5, false);
+        metaData.put(TRSTag.OFFSET_X, (Object) 6, false);
+        assertFalse(metaData.hasDefaultValue(TRSTag.NUMBER_OF_SAMPLES));
+        assertEquals(100, metaData.getInt(TRSTag.NUMBER_OF_SAMPLES));
+        assertEquals(100, metaData.get(TRSTag.NUMBER_OF_SAMPLES));
+        assertEquals(5, metaData.getInt(TRSTag.OFFSET_X));
+
+        metaData.put(TRSTag.NUMBER_OF_SAMPLES, (Object) 300);
+        assertEquals(300, metaData.getInt(TRSTag.NUMBER_OF_SAMPLES));
+        assertThrows(IllegalArgumentException.class, () -> metaData.put(TRSTag.SCALE_X, 1));
+    }
+
+    /**
+     * This tests whether every enum value can be looked up by its serialized value, and unknown values are rejected
+     */
+    @Test
+    void testEnumLookup() throws TRSFormatException {
+        for (TRSTag tag : TRSTag.values()) {
+            assertEquals(tag, TRSTag.fromValue(tag.getValue()));
+        }
+        for (Encoding encoding : Encoding.values()) {
+            assertEquals(encoding, Encoding.fromValue(encoding.getValue()));
+        }
+        for (ParameterType type : ParameterType.values()) {
+            assertEquals(type, ParameterType.fromValue(type.getValue()));
+        }
+        assertEquals(ParameterType.BOOL, ParameterType.fromClass(boolean[].class));
+        assertEquals(ParameterType.STRING, ParameterType.fromClass(String.class));
+        assertThrows(TRSFormatException.class, () -> TRSTag.fromValue((byte) 0xFF));
+        assertThrows(IllegalArgumentException.class, () -> Encoding.fromValue(0x03));
+        assertThrows(IllegalArgumentException.class, () -> Encoding.fromValue(0x114));
+        assertThrows(IllegalArgumentException.class, () -> Encoding.fromValue(-1));
+        assertThrows(IllegalArgumentException.class, () -> ParameterType.fromValue((byte) 0x7F));
+        assertThrows(IllegalArgumentException.class, () -> ParameterType.fromClass(Object.class));
+    }
+
+    /**
+     * This tests reading a header that is larger than the initial header buffer
+     */
+    @Test
+    void testReadMetaDataLargeHeader() throws IOException, TRSFormatException {
+        TRSMetaData metaData = TRSMetaData.create();
+        TraceSetParameterMap parameters = new TraceSetParameterMap();
+        parameters.put("LARGE", new int[10000]);
+        metaData.put(TRSTag.TRACE_SET_PARAMETERS, parameters);
+        metaData.put(TRSTag.DESCRIPTION, "header only");
+        String name = UUID.randomUUID().toString() + TRS;
+        try (TraceSet traceSet = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name, metaData)) {
+            traceSet.add(Trace.create(BYTE_SAMPLES));
+        }
+        TRSMetaData read = TraceSet.readMetaData(tempDir.resolve(name));
+        assertEquals(1, read.getInt(TRSTag.NUMBER_OF_TRACES));
+        assertEquals("header only", read.getString(TRSTag.DESCRIPTION));
+        assertEquals(10000, read.getTraceSetParameters().getIntArray("LARGE").length);
+    }
+
+    /**
+     * This tests whether long values with the most significant bit of the lowest byte set survive a round trip
+     */
+    @Test
+    void testLongParameterLowByte() {
+        long value = 1792368833164L;
+        TraceParameterMap tpm = new TraceParameterMap();
+        tpm.put("LONG", value);
+        TraceParameterMap deserialized = TraceParameterMap.deserialize(tpm.toByteArray(), TraceParameterDefinitionMap.createFrom(tpm));
+        assertEquals(value, deserialized.getLong("LONG"));
+    }
+
+    /**
+     * This tests whether a registered metrics listener observes the reads, writes and header writes of a trace set
+     */
+    @Test
+    void testMetricsListener() throws IOException, TRSFormatException {
+        TraceSetMetrics metrics = new TraceSetMetrics();
+        String name = UUID.randomUUID().toString() + TRS;
+        try (TraceSet traceSet = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            traceSet.setMetricsListener(metrics);
+            for (int k = 0; k < 10; k++) {
+                traceSet.add(Trace.create(SHORT_SAMPLES));
+            }
+        }
+        assertEquals(10, metrics.getTracesWritten());
+        assertEquals(10L * SHORT_SAMPLES.length * Encoding.SHORT.getSize(), metrics.getBytesWritten());
+        assertEquals(2, metrics.getHeaderWrites());
+
+        try (TraceSet traceSet = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            traceSet.setMetricsListener(metrics);
+            traceSet.get(5);
+            traceSet.get(6);
+            traceSet.get(0);
+        }
+        assertEquals(3, metrics.getTracesRead());
+        assertEquals(3L * SHORT_SAMPLES.length, metrics.getSamplesDecoded(Encoding.SHORT));
+        //the whole file fits in the mapped window, so it never needs to be moved
+        assertEquals(0, metrics.getRemaps());
+        assertEquals(3L, metrics.snapshot().get("traces.read"));
+
+        metrics.reset();
+        assertEquals(0, metrics.getTracesRead());
+    }
+
+    /**
+     * This tests whether the reads of only the parameters or a range of the samples of a trace are reported to the
+     * metrics listener, with the number of bytes that were actually read
+     */
+    @Test
+    void testMetricsListenerPartialReads() throws IOException, TRSFormatException {
+        TraceSetMetrics metrics = new TraceSetMetrics();
+        String name = UUID.randomUUID().toString() + TRS;
+        try (TraceSet traceSet = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            for (int k = 0; k < 10; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("INDEX", k);
+                traceSet.add(Trace.create("", SHORT_SAMPLES, parameters));
+            }
+        }
+
+        try (TraceSet traceSet = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            traceSet.setMetricsListener(metrics);
+            short[] samples = new short[3];
+            traceSet.readSamples(4, 1, samples);
+            traceSet.readSamples(5, 2, samples);
+            assertEquals(6, traceSet.getParameters(6, null).getInt("INDEX"));
+        }
+        assertEquals(3, metrics.getTracesRead());
+        assertEquals(2L * 3 * Encoding.SHORT.getSize() + Integer.BYTES, metrics.getBytesRead());
+        assertEquals(2L * 3, metrics.getSamplesDecoded(Encoding.SHORT));
+    }
+
+    /**
+     * Traces are buffered before they are written; a trace that fails to encode must leave no partial bytes behind,
+     * and the buffered traces must all be in the file after closing it
+     */
+    @Test
+    void testBufferedWriteRollback() throws IOException, TRSFormatException {
+        String name = UUID.randomUUID().toString() + TRS;
+        int numberOfTraces = 3000;
+        try (TraceSet traceSet = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            for (int k = 0; k < numberOfTraces; k++) {
+                float[] samples = new float[500];
+                Arrays.fill(samples, k % 100);
+                traceSet.add(Trace.create(samples));
+                if (k == 10) {
+                    float[] outOfRange = new float[500];
+                    outOfRange[250] = 1000f;
+                    assertThrows(IllegalArgumentException.class, () -> traceSet.add(Trace.create(outOfRange)));
+                }
+            }
+        }
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            assertEquals(numberOfTraces, readable.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+            for (int k = 0; k < numberOfTraces; k++) {
+                float[] samples = readable.get(k).getSample();
+                assertEquals(k % 100, samples[0]);
+                assertEquals(k % 100, samples[499]);
+            }
+        }
+    }
+
+    /**
+     * Float samples quantized with a range taken from the first traces must be restored within half a step, also for
+     * the traces that were kept in memory until the trace set was closed
+     */
+    @Test
+    void testQuantizerFromFirstTraces() throws IOException, TRSFormatException {
+        String name = UUID.randomUUID().toString() + TRS;
+        int numberOfTraces = 50;
+        float[][] written = new float[numberOfTraces][];
+        SampleQuantizer quantizer = SampleQuantizer.fromFirstTraces(Encoding.SHORT, 20);
+        try (TraceSet traceSet = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            traceSet.setQuantizer(quantizer);
+            Random random = new Random(3);
+            for (int k = 0; k < numberOfTraces; k++) {
+                written[k] = new float[200];
+                for (int j = 0; j < written[k].length; j++) {
+                    written[k][j] = 1.5f + (float) random.nextGaussian() * 0.01f;
+                }
+                traceSet.add(Trace.create(written[k]));
+                assertThrows(IllegalArgumentException.class, () -> traceSet.setQuantizer(quantizer));
+            }
+        }
+        assertTrue(quantizer.isCalibrated());
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            TRSMetaData metaData = readable.getMetaData();
+            assertEquals(Encoding.SHORT.getValue(), metaData.getInt(TRSTag.SAMPLE_CODING));
+            assertEquals(quantizer.getScale(), metaData.getFloat(TRSTag.SCALE_Y));
+            assertEquals(quantizer.getOffset(), metaData.getTraceSetParameters().getDouble(SampleQuantizer.OFFSET_Y));
+            assertEquals(numberOfTraces, metaData.getInt(TRSTag.NUMBER_OF_TRACES));
+
+            readable.setApplyScale(true);
+            double tolerance = quantizer.getScale() / 2 + Math.ulp(1.5f);
+            long clipped = 0;
+            for (int k = 0; k < numberOfTraces; k++) {
+                float[] read = readable.get(k).getSample();
+                for (int j = 0; j < read.length; j++) {
+                    if (Math.abs(written[k][j] - read[j]) > tolerance) {
+                        clipped++;
+                    }
+                }
+            }
+            //only samples of the traces after the first 20 can be out of the calibrated range
+            assertEquals(quantizer.getClippedSamples(), clipped);
+
+            readable.setApplyScale(false);
+            for (float sample : readable.get(0).getSample()) {
+                assertEquals(Math.rint(sample), sample);
+                assertTrue(Math.abs(sample) <= Short.MAX_VALUE);
+            }
+        }
+    }
+
+    /**
+     * Samples quantized with an explicit range are clamped to it, and a quantizer cannot represent NaN
+     */
+    @Test
+    void testQuantizerForRange() throws IOException, TRSFormatException {
+        String name = UUID.randomUUID().toString() + TRS;
+        SampleQuantizer quantizer = SampleQuantizer.forRange(Encoding.BYTE, -1, 1);
+        try (TraceSet traceSet = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            traceSet.setQuantizer(quantizer);
+            traceSet.add(Trace.create(new float[]{-1f, -0.5f, 0f, 0.25f, 1f, 2f, -3f}));
+            assertThrows(IllegalArgumentException.class, () -> traceSet.add(Trace.create(new float[]{0, 0, 0, 0, 0, 0, Float.NaN})));
+        }
+        assertEquals(2, quantizer.getClippedSamples());
+        assertThrows(IllegalArgumentException.class, () -> SampleQuantizer.forRange(Encoding.FLOAT, -1, 1));
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            assertEquals(1, readable.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+            assertEquals(Encoding.BYTE.getValue(), readable.getMetaData().getInt(TRSTag.SAMPLE_CODING));
+            readable.setApplyScale(true);
+            float[] expected = {-1f, -0.5f, 0f, 0.25f, 1f, 1f, -1f};
+            assertArrayEquals(expected, readable.get(0).getSample(), 1f / 127);
+        }
+    }
+
+    /**
+     * With adaptive encoding, traces that do not fit the encoding of the first trace promote the encoding of the
+     * whole trace set, and all traces written before and after the promotions are preserved
+     */
+    @Test
+    void testAdaptiveEncoding() throws IOException, TRSFormatException {
+        String name = UUID.randomUUID().toString() + TRS;
+        int numberOfTraces = 4000;
+        try (TraceSet traceSet = TraceSet.create(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            traceSet.setAdaptiveEncoding(true);
+            for (int k = 0; k < numberOfTraces; k++) {
+                traceSet.add(Trace.create(adaptiveSamples(k)));
+            }
+        }
+        try (TraceSet readable = TraceSet.open(tempDir.toAbsolutePath().toString() + File.separator + name)) {
+            assertEquals(Encoding.FLOAT.getValue(), readable.getMetaData().getInt(TRSTag.SAMPLE_CODING));
+            assertEquals(numberOfTraces, readable.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+            for (int k = 0; k < numberOfTraces; k++) {
+                assertArrayEquals(adaptiveSamples(k), readable.get(k).getSample(), "trace " + k);
+            }
+        }
+        try (DirectoryStream<Path> leftovers = Files.newDirectoryStream(tempDir, "*.promoted")) {
+            assertFalse(leftovers.iterator().hasNext());
+        }
+    }
+
+    /**
+     * @return samples that need a wider encoding after every 1000 traces
+     */
+    private static float[] adaptiveSamples(int index) {
+        float[] samples = new float[300];
+        for (int k = 0; k < samples.length; k++) {
+            samples[k] = (index + k) % 100 - 50;
+        }
+        if (index >= 3000) {
+            samples[1] = 0.5f;
+        } else if (index >= 2000) {
+            samples[1] = 100000;
+        } else if (index >= 1000) {
+            samples[1] = 1000;
+        }
+        return samples;
+    }
 }
@@ -0,0 +1,108 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.generator.TraceSetGenerator;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetCpaTest {
+    private static final int NUMBER_OF_TRACES = 2000;
+    private static final int NUMBER_OF_SAMPLES = 40;
+    private static final int LEAKAGE_OFFSET = 10;
+    @TempDir
+    Path tempDir;
+    private String file;
+    private byte[] key;
+
+    @BeforeEach
+    public void setup() throws IOException, TRSFormatException {
+        file = tempDir.resolve("cpa.trs").toString();
+        TraceSetGenerator generator = new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES)
+                .setLeakage(LEAKAGE_OFFSET, 2)
+                .setNoise(1000, 4)
+                .setSeed(11);
+        generator.generate(file);
+        key = generator.getKey();
+    }
+
+    private static LeakageModel[] allKeyBytes() {
+        LeakageModel[] models = new LeakageModel[TraceSetGenerator.KEY_LENGTH];
+        for (int b = 0; b < models.length; b++) {
+            models[b] = LeakageModel.sboxHammingWeight(TraceSetGenerator.INPUT, b);
+        }
+        return models;
+    }
+
+    @Test
+    public void testRecoversKey() throws IOException, TRSFormatException {
+        CpaResult result = new TraceSetCpa(allKeyBytes())
+                .setThreads(3)
+                .setParameterNames(TraceSetGenerator.INPUT.getKey())
+                .run(file);
+        assertEquals(NUMBER_OF_TRACES, result.getTracesProcessed());
+        assertArrayEquals(key, result.getBestGuesses());
+        //the correct guess of byte b peaks at the sample where it leaks
+        double[][] correlation = result.getCorrelation(3);
+        double[] correct = correlation[key[3] & 0xFF];
+        assertEquals(LEAKAGE_OFFSET + 3, indexOfMax(correct));
+    }
+
+    /**
+     * The accumulated correlation must match the textbook Pearson correlation
+     */
+    @Test
+    public void testMatchesPearson() throws IOException, TRSFormatException {
+        int guess = 0x42;
+        int sample = LEAKAGE_OFFSET;
+        LeakageModel model = LeakageModel.sboxHammingWeight(TraceSetGenerator.INPUT, 0);
+        double sumX = 0, sumY = 0, sumXX = 0, sumYY = 0, sumXY = 0;
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                Trace trace = traceSet.get(index);
+                double x = trace.getSample()[sample];
+                double y = model.leakage(trace.getParameters(), guess);
+                sumX += x;
+                sumY += y;
+                sumXX += x * x;
+                sumYY += y * y;
+                sumXY += x * y;
+            }
+        }
+        double n = NUMBER_OF_TRACES;
+        double pearson = (n * sumXY - sumX * sumY) / Math.sqrt((n * sumXX - sumX * sumX) * (n * sumYY - sumY * sumY));
+
+        CpaResult result = new TraceSetCpa(model).setSampleWindow(sample, 5).setThreads(2).run(file);
+        assertEquals(pearson, result.getCorrelation(0)[guess][0], 1e-9);
+    }
+
+    @Test
+    public void testRankingCheckpoints() throws IOException, TRSFormatException {
+        int[] checkpoints = new int[1];
+        CpaResult result = new TraceSetCpa(LeakageModel.sboxHammingWeight(TraceSetGenerator.INPUT, 5))
+                .setCheckpointInterval(500)
+                .setListener(intermediate -> {
+                    checkpoints[0]++;
+                    return intermediate.getRanking(0)[0] != (key[5] & 0xFF);
+                })
+                .run(file);
+        assertTrue(result.isStopped());
+        assertEquals(checkpoints[0] * 500, result.getTracesProcessed());
+        assertEquals(key[5] & 0xFF, result.getRanking(0)[0]);
+    }
+
+    private static int indexOfMax(double[] values) {
+        int best = 0;
+        for (int k = 1; k < values.length; k++) {
+            if (values[k] > values[best]) best = k;
+        }
+        return best;
+    }
+}
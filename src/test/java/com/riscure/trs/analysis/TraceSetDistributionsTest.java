@@ -0,0 +1,107 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.generator.TraceSetGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetDistributionsTest {
+    private static final int NUMBER_OF_TRACES = 3001;
+    private static final int NUMBER_OF_SAMPLES = 30;
+    private static final double[] QUANTILES = {0, 0.01, 0.25, 0.5, 0.9, 1};
+    @TempDir
+    Path tempDir;
+
+    private static float[][] columns(String file, int offset, int length) throws IOException, TRSFormatException {
+        float[][] columns = new float[length][NUMBER_OF_TRACES];
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                float[] samples = traceSet.get(index).getSample();
+                for (int k = 0; k < length; k++) {
+                    columns[k][index] = samples[offset + k];
+                }
+            }
+        }
+        for (float[] column : columns) {
+            Arrays.sort(column);
+        }
+        return columns;
+    }
+
+    private static float exact(float[] sorted, double quantile) {
+        return sorted[(int) Math.floor(quantile * (sorted.length - 1))];
+    }
+
+    @Test
+    public void testExactHistograms() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("short.trs").toString();
+        new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(Encoding.SHORT)
+                .setLeakage(4, 50).setNoise(-20, 300).setSeed(2).generate(file);
+
+        SampleDistribution distribution = TraceSetDistributions.compute(file, 0, NUMBER_OF_TRACES, 2, 20, 3);
+        assertTrue(distribution instanceof SampleHistograms);
+        SampleHistograms histograms = (SampleHistograms) distribution;
+        assertEquals(NUMBER_OF_TRACES, histograms.getCount());
+
+        float[][] columns = columns(file, 2, 20);
+        for (int k = 0; k < 20; k++) {
+            for (double quantile : QUANTILES) {
+                assertEquals(exact(columns[k], quantile), histograms.getQuantile(k, quantile), "sample " + k + " quantile " + quantile);
+            }
+            assertEquals(columns[k][0], histograms.getMin(k));
+            assertEquals(columns[k][NUMBER_OF_TRACES - 1], histograms.getMax(k));
+            int median = (int) columns[k][NUMBER_OF_TRACES / 2];
+            long frequency = 0;
+            for (float value : columns[k]) {
+                if (value == median) frequency++;
+            }
+            assertEquals(frequency, histograms.getFrequency(k, median));
+        }
+    }
+
+    @Test
+    public void testQuantileSketches() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("float.trs").toString();
+        new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(Encoding.FLOAT)
+                .setLeakage(4, 5).setNoise(1, 3).setSeed(3).generate(file);
+
+        SampleDistribution distribution = TraceSetDistributions.compute(file);
+        assertTrue(distribution instanceof SampleQuantileSketches);
+        double accuracy = ((SampleQuantileSketches) distribution).getRelativeAccuracy();
+
+        float[][] columns = columns(file, 0, NUMBER_OF_SAMPLES);
+        for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+            for (double quantile : QUANTILES) {
+                double expected = exact(columns[k], quantile);
+                assertEquals(expected, distribution.getQuantile(k, quantile), Math.abs(expected) * accuracy * 1.0001,
+                        "sample " + k + " quantile " + quantile);
+            }
+        }
+    }
+
+    @Test
+    public void testSketchBucketsAreBounded() {
+        SampleQuantileSketches single = new SampleQuantileSketches(1, 0.01, 64);
+        SampleQuantileSketches left = new SampleQuantileSketches(1, 0.01, 64);
+        SampleQuantileSketches right = new SampleQuantileSketches(1, 0.01, 64);
+        for (int k = 1; k <= 10000; k++) {
+            float[] value = {(float) Math.pow(1.01, k % 2000)};
+            single.add(value);
+            (k % 3 == 0 ? left : right).add(value);
+        }
+        left.merge(right);
+        //the highest values are kept within the accuracy, the lowest are collapsed
+        double expected = Math.pow(1.01, 1999);
+        assertEquals(expected, single.getQuantile(0, 1), expected * 0.0101);
+        assertEquals(single.getQuantile(0, 0.99), left.getQuantile(0, 0.99));
+        assertTrue(single.getQuantile(0, 0) >= 1);
+    }
+}
@@ -0,0 +1,98 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.generator.TraceSetGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetStatisticsTest {
+    private static final int NUMBER_OF_TRACES = 1000;
+    private static final int NUMBER_OF_SAMPLES = 50;
+    @TempDir
+    Path tempDir;
+
+    /**
+     * The parallel statistics on native samples must match a straightforward two-pass computation on float samples
+     */
+    @Test
+    public void testMatchesTwoPass() throws IOException, TRSFormatException {
+        for (Encoding encoding : new Encoding[]{Encoding.BYTE, Encoding.SHORT, Encoding.INT, Encoding.FLOAT}) {
+            testMatchesTwoPass(encoding);
+        }
+    }
+
+    private void testMatchesTwoPass(Encoding encoding) throws IOException, TRSFormatException {
+        String file = tempDir.resolve(encoding + ".trs").toString();
+        new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(encoding)
+                .setLeakage(10, 3).setNoise(20, 10).setSeed(1).generate(file);
+
+        double[] mean = new double[NUMBER_OF_SAMPLES];
+        double[] variance = new double[NUMBER_OF_SAMPLES];
+        float[] min = new float[NUMBER_OF_SAMPLES];
+        float[] max = new float[NUMBER_OF_SAMPLES];
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                float[] samples = traceSet.get(index).getSample();
+                for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+                    mean[k] += samples[k] / (double) NUMBER_OF_TRACES;
+                    min[k] = index == 0 ? samples[k] : Math.min(min[k], samples[k]);
+                    max[k] = index == 0 ? samples[k] : Math.max(max[k], samples[k]);
+                }
+            }
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                float[] samples = traceSet.get(index).getSample();
+                for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+                    variance[k] += (samples[k] - mean[k]) * (samples[k] - mean[k]) / (NUMBER_OF_TRACES - 1);
+                }
+            }
+        }
+
+        SampleStatistics statistics = TraceSetStatistics.compute(file, 0, NUMBER_OF_TRACES, 3);
+        assertEquals(NUMBER_OF_TRACES, statistics.getCount());
+        assertArrayEquals(mean, statistics.getMean(), 1e-9);
+        assertArrayEquals(variance, statistics.getVariance(), 1e-6);
+        assertArrayEquals(min, statistics.getMin());
+        assertArrayEquals(max, statistics.getMax());
+    }
+
+    @Test
+    public void testMergeMatchesSingleAccumulator() {
+        SampleStatistics single = new SampleStatistics(2);
+        SampleStatistics left = new SampleStatistics(2);
+        SampleStatistics right = new SampleStatistics(2);
+        for (int k = 0; k < 100; k++) {
+            short[] samples = {(short) (k * 300 - 15000), (short) (k % 7)};
+            single.add(samples);
+            (k < 30 ? left : right).add(samples);
+        }
+        left.merge(right);
+        assertEquals(100, left.getCount());
+        assertArrayEquals(single.getMean(), left.getMean(), 1e-9);
+        assertArrayEquals(single.getVariance(), left.getVariance(), 1e-6);
+        assertArrayEquals(new float[]{-15000, 0}, left.getMin());
+        assertArrayEquals(new float[]{14700, 6}, left.getMax());
+    }
+
+    @Test
+    public void testReadSamplesChecksEncoding() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("short.trs").toString();
+        new TraceSetGenerator(10, NUMBER_OF_SAMPLES).setEncoding(Encoding.SHORT).generate(file);
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            short[] window = new short[5];
+            traceSet.readSamples(3, 20, window);
+            float[] samples = traceSet.get(3).getSample();
+            for (int k = 0; k < window.length; k++) {
+                assertEquals(samples[20 + k], window[k]);
+            }
+            assertThrows(IllegalArgumentException.class, () -> traceSet.readSamples(0, 0, new float[NUMBER_OF_SAMPLES]));
+            assertThrows(IllegalArgumentException.class, () -> traceSet.readSamples(0, 46, new short[5]));
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.index.Tombstones;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetTTestTest {
+    private static final int NUMBER_OF_TRACES = 4000;
+    private static final int NUMBER_OF_SAMPLES = 20;
+    private static final int MEAN_LEAK = 5;
+    private static final int VARIANCE_LEAK = 12;
+    private static final String FIXED = "FIXED";
+    @TempDir
+    Path tempDir;
+    private String file;
+
+    /**
+     * Create a trace set in which the fixed group has a different mean at one sample, and a different variance at
+     * another sample
+     */
+    @BeforeEach
+    public void setup() throws IOException, TRSFormatException {
+        file = tempDir.resolve("tvla.trs").toString();
+        Random random = new Random(3);
+        try (TraceSet traceSet = TraceSet.create(file)) {
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                boolean fixed = random.nextBoolean();
+                float[] samples = new float[NUMBER_OF_SAMPLES];
+                for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+                    double noise = random.nextGaussian() * (fixed && k == VARIANCE_LEAK ? 40 : 20);
+                    samples[k] = (float) Math.rint(100 + noise + (fixed && k == MEAN_LEAK ? 5 : 0));
+                }
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put(FIXED, fixed);
+                parameters.put("OTHER", new byte[8]);
+                traceSet.add(Trace.create("", samples, parameters));
+            }
+        }
+    }
+
+    @Test
+    public void testMomentsMergeMatchesDirect() {
+        Random random = new Random(5);
+        double[] values = new double[200];
+        MomentStatistics single = new MomentStatistics(1, 6);
+        MomentStatistics left = new MomentStatistics(1, 6);
+        MomentStatistics right = new MomentStatistics(1, 6);
+        for (int k = 0; k < values.length; k++) {
+            float[] sample = {(float) Math.exp(random.nextGaussian())};
+            values[k] = sample[0];
+            single.add(sample);
+            (k < 70 ? left : right).add(sample);
+        }
+        left.merge(right);
+
+        double mean = 0;
+        for (double value : values) mean += value / values.length;
+        assertEquals(mean, single.getMean()[0], 1e-12);
+        assertEquals(mean, left.getMean()[0], 1e-12);
+        for (int p = 2; p <= 6; p++) {
+            double moment = 0;
+            for (double value : values) moment += Math.pow(value - mean, p) / values.length;
+            assertEquals(moment, single.getCentralMoment(p)[0], Math.abs(moment) * 1e-9, "moment " + p);
+            assertEquals(moment, left.getCentralMoment(p)[0], Math.abs(moment) * 1e-9, "merged moment " + p);
+        }
+    }
+
+    @Test
+    public void testFirstAndSecondOrder() throws IOException, TRSFormatException {
+        TTestResult result = new TraceSetTTest(parameters -> parameters.getBoolean(FIXED))
+                .setMaxOrder(2)
+                .setThreads(4)
+                .setParameterNames(FIXED)
+                .run(file);
+        assertEquals(NUMBER_OF_TRACES, result.getTracesProcessed());
+        assertEquals(NUMBER_OF_TRACES, result.getFirstGroupSize() + result.getSecondGroupSize());
+        assertFalse(result.isStopped());
+
+        double[] first = result.getT(1);
+        double[] second = result.getT(2);
+        assertTrue(Math.abs(first[MEAN_LEAK]) > TraceSetTTest.THRESHOLD);
+        assertTrue(Math.abs(second[VARIANCE_LEAK]) > TraceSetTTest.THRESHOLD);
+        for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+            if (k != MEAN_LEAK) assertTrue(Math.abs(first[k]) < TraceSetTTest.THRESHOLD, "sample " + k);
+            if (k != VARIANCE_LEAK) assertTrue(Math.abs(second[k]) < TraceSetTTest.THRESHOLD, "sample " + k);
+        }
+
+        //the first order statistic is the textbook Welch t-test
+        double[] sum = new double[2];
+        double[] sumOfSquares = new double[2];
+        long[] count = new long[2];
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                Trace trace = traceSet.get(index);
+                int group = trace.getParameters().getBoolean(FIXED) ? 0 : 1;
+                double x = trace.getSample()[MEAN_LEAK];
+                sum[group] += x;
+                sumOfSquares[group] += x * x;
+                count[group]++;
+            }
+        }
+        double[] mean = {sum[0] / count[0], sum[1] / count[1]};
+        double[] variance = {sumOfSquares[0] / count[0] - mean[0] * mean[0], sumOfSquares[1] / count[1] - mean[1] * mean[1]};
+        double t = (mean[0] - mean[1]) / Math.sqrt(variance[0] / count[0] + variance[1] / count[1]);
+        assertEquals(t, first[MEAN_LEAK], 1e-9);
+    }
+
+    @Test
+    public void testEarlyStop() throws IOException, TRSFormatException {
+        int[] checkpoints = new int[1];
+        TTestResult result = new TraceSetTTest(parameters -> parameters.getBoolean(FIXED))
+                .setCheckpointInterval(250)
+                .setListener(intermediate -> {
+                    checkpoints[0]++;
+                    return TTestListener.stopAbove(TraceSetTTest.THRESHOLD).progress(intermediate);
+                })
+                .run(file);
+        assertTrue(result.isStopped());
+        assertTrue(result.getMaxAbsT(1) > TraceSetTTest.THRESHOLD);
+        assertEquals(checkpoints[0] * 250, result.getTracesProcessed());
+        assertTrue(result.getTracesProcessed() < NUMBER_OF_TRACES);
+    }
+
+    @Test
+    public void testCheckpointsMatchSinglePass() throws IOException, TRSFormatException {
+        TTestResult single = new TraceSetTTest(parameters -> parameters.getBoolean(FIXED)).setMaxOrder(2).run(file);
+        //the workers and their accumulators are reused over many small checkpoints, including fewer traces than threads
+        for (int interval : new int[]{37, 3}) {
+            int[] checkpoints = new int[1];
+            TTestResult checkpointed = new TraceSetTTest(parameters -> parameters.getBoolean(FIXED))
+                    .setMaxOrder(2)
+                    .setThreads(4)
+                    .setCheckpointInterval(interval)
+                    .setListener(intermediate -> {
+                        checkpoints[0]++;
+                        return true;
+                    })
+                    .run(file);
+            assertEquals((NUMBER_OF_TRACES + interval - 1) / interval, checkpoints[0]);
+            assertEquals(single.getFirstGroupSize(), checkpointed.getFirstGroupSize());
+            for (int order = 1; order <= 2; order++) {
+                for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+                    double expected = single.getT(order)[k];
+                    assertEquals(expected, checkpointed.getT(order)[k], Math.abs(expected) * 1e-9 + 1e-12, "sample " + k);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testDeletedTracesAreSkipped() throws IOException, TRSFormatException {
+        TTestResult all = new TraceSetTTest(parameters -> parameters.getBoolean(FIXED)).setMaxOrder(2).run(file);
+
+        //delete the fixed traces with the highest leaking sample, and copy the other traces for reference
+        String live = tempDir.resolve("live.trs").toString();
+        Tombstones tombstones = Tombstones.load(file);
+        try (TraceSet traceSet = TraceSet.open(file);
+             TraceSet copy = TraceSet.create(live)) {
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                Trace trace = traceSet.get(index);
+                if (trace.getParameters().getBoolean(FIXED) && trace.getSample()[MEAN_LEAK] > 105) {
+                    tombstones.delete(index);
+                } else {
+                    copy.add(Trace.create("", trace.getSample(), trace.getParameters()));
+                }
+            }
+        }
+        tombstones.save();
+        int numberOfLive = tombstones.getNumberOfLiveTraces();
+
+        for (int interval : new int[]{0, 300}) {
+            TTestResult deleted = new TraceSetTTest(parameters -> parameters.getBoolean(FIXED))
+                    .setMaxOrder(2)
+                    .setThreads(4)
+                    .setCheckpointInterval(interval)
+                    .run(file);
+            TTestResult expected = new TraceSetTTest(parameters -> parameters.getBoolean(FIXED))
+                    .setMaxOrder(2)
+                    .run(live);
+            assertEquals(numberOfLive, deleted.getTracesProcessed());
+            assertEquals(all.getSecondGroupSize(), deleted.getSecondGroupSize());
+            assertEquals(expected.getFirstGroupSize(), deleted.getFirstGroupSize());
+            assertTrue(deleted.getFirstGroupSize() < all.getFirstGroupSize());
+            assertNotEquals(all.getT(1)[MEAN_LEAK], deleted.getT(1)[MEAN_LEAK]);
+            for (int order = 1; order <= 2; order++) {
+                for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+                    double t = expected.getT(order)[k];
+                    assertEquals(t, deleted.getT(order)[k], Math.abs(t) * 1e-9 + 1e-12, "sample " + k);
+                }
+            }
+        }
+        assertThrows(IllegalArgumentException.class, () -> new TraceSetTTest(parameters -> parameters.getBoolean(FIXED))
+                .run(file, 0, numberOfLive + 1));
+    }
+}
@@ -0,0 +1,98 @@
+package com.riscure.trs.analysis;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.generator.TraceSetGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetTransposeTest {
+    private static final int NUMBER_OF_TRACES = 777;
+    private static final int NUMBER_OF_SAMPLES = 150;
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testTransposeWindow() throws IOException, TRSFormatException {
+        for (Encoding encoding : new Encoding[]{Encoding.BYTE, Encoding.SHORT, Encoding.INT, Encoding.FLOAT}) {
+            String file = tempDir.resolve(encoding + ".trs").toString();
+            new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(encoding)
+                    .setLeakage(30, 4).setNoise(10, 20).setSeed(9).generate(file);
+            Path sidecar = tempDir.resolve(encoding + ".columns");
+            TraceSetTranspose.transpose(file, sidecar, 20, 100, 3);
+
+            try (TraceSet traceSet = TraceSet.open(file);
+                 SampleMajorTraceSet columns = SampleMajorTraceSet.open(sidecar)) {
+                assertEquals(encoding, columns.getEncoding());
+                assertEquals(NUMBER_OF_TRACES, columns.getNumberOfTraces());
+                assertEquals(20, columns.getSampleOffset());
+                assertEquals(100, columns.getNumberOfSamples());
+                float[][] expected = new float[NUMBER_OF_TRACES][];
+                for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                    expected[index] = traceSet.get(index).getSample();
+                }
+                for (int sample = 20; sample < 120; sample++) {
+                    float[] column = columns.readColumn(sample);
+                    for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                        assertEquals(expected[index][sample], column[index], encoding + " sample " + sample + " trace " + index);
+                    }
+                }
+                assertThrows(IllegalArgumentException.class, () -> columns.readColumn(19));
+                assertThrows(IllegalArgumentException.class, () -> columns.readColumn(120));
+            }
+        }
+    }
+
+    /**
+     * Tiles that are too small for a whole trace are split into strips of samples, the last of which is narrower
+     */
+    @Test
+    public void testTransposeStrips() throws IOException, TRSFormatException {
+        for (Encoding encoding : new Encoding[]{Encoding.BYTE, Encoding.SHORT, Encoding.FLOAT}) {
+            String file = tempDir.resolve(encoding + ".trs").toString();
+            new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(encoding)
+                    .setNoise(0, 100).setSeed(3).generate(file);
+            Path sidecar = tempDir.resolve(encoding + ".columns");
+            TraceSetTranspose.transpose(file, sidecar, 7, 131, 2, 16 << 10);
+
+            try (TraceSet traceSet = TraceSet.open(file);
+                 SampleMajorTraceSet columns = SampleMajorTraceSet.open(sidecar)) {
+                float[][] expected = new float[NUMBER_OF_TRACES][];
+                for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                    expected[index] = traceSet.get(index).getSample();
+                }
+                for (int sample = 7; sample < 138; sample++) {
+                    float[] column = columns.readColumn(sample);
+                    for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                        assertEquals(expected[index][sample], column[index], encoding + " sample " + sample + " trace " + index);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testNativeColumn() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("short.trs").toString();
+        new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(Encoding.SHORT).setNoise(0, 100).generate(file);
+        Path sidecar = TraceSetTranspose.transpose(file);
+        assertEquals(TraceSetTranspose.sidecarOf(file), sidecar);
+        try (TraceSet traceSet = TraceSet.open(file);
+             SampleMajorTraceSet columns = SampleMajorTraceSet.open(sidecar)) {
+            short[] column = new short[NUMBER_OF_TRACES];
+            columns.readColumn(NUMBER_OF_SAMPLES - 1, column);
+            short[] sample = new short[1];
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                traceSet.readSamples(index, NUMBER_OF_SAMPLES - 1, sample);
+                assertEquals(sample[0], column[index]);
+            }
+            assertThrows(IllegalArgumentException.class, () -> columns.readColumn(0, new float[NUMBER_OF_TRACES]));
+        }
+    }
+}
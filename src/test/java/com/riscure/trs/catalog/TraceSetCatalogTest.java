@@ -0,0 +1,103 @@
+package com.riscure.trs.catalog;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.TRSTag;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetCatalogTest {
+    @TempDir
+    Path tempDir;
+
+    @BeforeEach
+    public void setup() throws IOException, TRSFormatException {
+        Files.createDirectory(tempDir.resolve("nested"));
+        createTraceSet(tempDir.resolve("small.trs"), 10, 16);
+        createTraceSet(tempDir.resolve("nested").resolve("large.trs"), 20, 100);
+        Files.write(tempDir.resolve("corrupt.trs"), new byte[]{0x41, 0x04, 0x00});
+        Files.write(tempDir.resolve("notes.txt"), new byte[]{1, 2, 3});
+    }
+
+    static void createTraceSet(Path file, int numberOfTraces, int inputLength) throws IOException, TRSFormatException {
+        try (TraceSet traceSet = TraceSet.create(file.toString())) {
+            for (int k = 0; k < numberOfTraces; k++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put("INPUT", new byte[inputLength]);
+                traceSet.add(Trace.create("", new float[]{k, 2 * k}, parameters));
+            }
+        }
+    }
+
+    @Test
+    public void testScan() throws IOException {
+        TraceSetCatalog catalog = TraceSetCatalog.scan(tempDir, 2);
+        assertEquals(2, catalog.size());
+
+        TraceSetCatalogEntry small = catalog.get(tempDir.resolve("small.trs"));
+        assertNotNull(small);
+        assertEquals(Files.size(tempDir.resolve("small.trs")), small.getSize());
+        assertEquals(10, small.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+        assertEquals(2, small.getMetaData().getInt(TRSTag.NUMBER_OF_SAMPLES));
+
+        List<TraceSetCatalogEntry> found = catalog.find(entry ->
+                entry.getMetaData().getTraceParameterDefinitions().get("INPUT").getLength() == 100);
+        assertEquals(1, found.size());
+        assertEquals(20, found.get(0).getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+    }
+
+    @Test
+    public void testReadMetaDataMatchesOpen() throws IOException, TRSFormatException {
+        Path file = tempDir.resolve("small.trs");
+        TRSMetaData headerOnly = TraceSet.readMetaData(file);
+        try (TraceSet traceSet = TraceSet.open(file.toString())) {
+            for (TRSTag tag : TRSTag.values()) {
+                assertEquals(traceSet.getMetaData().get(tag), headerOnly.get(tag));
+            }
+        }
+        assertThrows(TRSFormatException.class, () -> TraceSet.readMetaData(tempDir.resolve("corrupt.trs")));
+    }
+
+    @Test
+    public void testPersistAndRefresh() throws IOException, TRSFormatException {
+        Path catalogFile = tempDir.resolve("catalog.bin");
+        TraceSetCatalog catalog = TraceSetCatalog.update(tempDir, catalogFile);
+        assertEquals(2, catalog.size());
+        assertTrue(Files.exists(catalogFile));
+
+        TraceSetCatalog loaded = TraceSetCatalog.load(catalogFile);
+        assertEquals(2, loaded.size());
+        List<TraceSetCatalogEntry> found = loaded.find(entry ->
+                entry.getMetaData().getInt(TRSTag.NUMBER_OF_SAMPLES) == 2 &&
+                entry.getMetaData().getTraceParameterDefinitions().containsKey("INPUT") &&
+                entry.getMetaData().getTraceParameterDefinitions().get("INPUT").getLength() == 16);
+        assertEquals(1, found.size());
+        assertEquals(tempDir.resolve("small.trs").toAbsolutePath().normalize(), found.get(0).getPath());
+        assertEquals(10, found.get(0).getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+
+        //nothing changed, so not even the unreadable file should be read again
+        assertEquals(Collections.singletonList(tempDir.resolve("corrupt.trs").toAbsolutePath().normalize()), loaded.getUnreadable());
+        assertEquals(0, loaded.refresh(tempDir, 2));
+        Files.write(tempDir.resolve("corrupt.trs"), new byte[]{0x41, 0x04, 0x00, 0x00});
+        assertEquals(1, loaded.refresh(tempDir, 2));
+        assertEquals(1, loaded.getUnreadable().size());
+
+        Files.delete(tempDir.resolve("small.trs"));
+        createTraceSet(tempDir.resolve("added.trs"), 5, 16);
+        assertEquals(1, loaded.refresh(tempDir, 2));
+        assertNull(loaded.get(tempDir.resolve("small.trs")));
+        assertEquals(5, loaded.get(tempDir.resolve("added.trs")).getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+    }
+}
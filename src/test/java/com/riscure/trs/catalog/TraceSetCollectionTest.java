@@ -0,0 +1,139 @@
+package com.riscure.trs.catalog;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.enums.TRSTag;
+import com.riscure.trs.generator.TraceSetGenerator;
+import com.riscure.trs.index.Tombstones;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetCollectionTest {
+    private static final int[] NUMBER_OF_TRACES = {100, 0, 37, 250, 1, 0, 64};
+    private static final int NUMBER_OF_SAMPLES = 40;
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testGlobalIndex() throws IOException, TRSFormatException {
+        List<Path> files = generate(Encoding.SHORT);
+        List<Trace> expected = readAll(files);
+        //fewer open files than files, so that files are closed and opened again
+        try (TraceSetCollection collection = TraceSetCollection.open(files, 2)) {
+            assertEquals(expected.size(), collection.size());
+            assertEquals(files.size(), collection.getNumberOfFiles());
+            assertEquals(3, collection.fileOf(137));
+            assertEquals(6, collection.fileOf(collection.size() - 1));
+            for (int step = 0, index = 0; step < 3 * expected.size(); step++, index = (index + 97) % expected.size()) {
+                Trace trace = collection.get(index);
+                assertArrayEquals(expected.get(index).getSample(), trace.getSample(), "trace " + index);
+                assertEquals(expected.get(index).getParameters(), trace.getParameters());
+            }
+            assertThrows(IllegalArgumentException.class, () -> collection.get(collection.size()));
+            assertThrows(IllegalArgumentException.class, () -> collection.get(-1));
+        }
+    }
+
+    @Test
+    public void testStreams() throws IOException, TRSFormatException {
+        List<Path> files = generate(Encoding.FLOAT);
+        List<Trace> expected = readAll(files);
+        try (TraceSetCollection collection = TraceSetCollection.of(TraceSetCatalog.scan(tempDir).getEntries(), 3)) {
+            assertEquals(expected.size(), collection.size());
+            List<float[]> sequential = collection.stream().map(Trace::getSample).collect(Collectors.toList());
+            List<float[]> parallel = collection.parallelStream().map(Trace::getSample).collect(Collectors.toList());
+            for (int index = 0; index < expected.size(); index++) {
+                assertArrayEquals(expected.get(index).getSample(), sequential.get(index));
+                assertArrayEquals(expected.get(index).getSample(), parallel.get(index));
+            }
+        }
+    }
+
+    @Test
+    public void testDifferentLayouts() throws IOException, TRSFormatException {
+        List<Path> files = generate(Encoding.BYTE);
+        Path other = tempDir.resolve("other.trs");
+        new TraceSetGenerator(10, NUMBER_OF_SAMPLES + 1).setEncoding(Encoding.BYTE).generate(other.toString());
+        files.add(other);
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class, () -> TraceSetCollection.open(files, 4));
+        assertTrue(ex.getMessage().contains("NUMBER_OF_SAMPLES"), ex.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> TraceSetCollection.open(new ArrayList<>(), 4));
+        assertThrows(IllegalArgumentException.class, () -> TraceSetCollection.open(files.subList(0, 1), 0));
+    }
+
+    @Test
+    public void testOutOfDateEntries() throws IOException, TRSFormatException {
+        List<Path> files = generate(Encoding.BYTE);
+        Collection<TraceSetCatalogEntry> entries = TraceSetCatalog.scan(tempDir).getEntries();
+        new TraceSetGenerator(NUMBER_OF_TRACES[2] + 1, NUMBER_OF_SAMPLES).setEncoding(Encoding.BYTE)
+                .generate(files.get(2).toString());
+        IOException ex = assertThrows(IOException.class, () -> TraceSetCollection.of(entries, 4));
+        assertTrue(ex.getMessage().contains(files.get(2).getFileName().toString()), ex.getMessage());
+
+        Files.delete(files.get(2));
+        assertThrows(IOException.class, () -> TraceSetCollection.of(entries, 4));
+        try (TraceSetCollection collection = TraceSetCollection.of(TraceSetCatalog.scan(tempDir).getEntries(), 4)) {
+            assertEquals(files.size() - 1, collection.getNumberOfFiles());
+        }
+    }
+
+    @Test
+    public void testDeletedTraces() throws IOException, TRSFormatException {
+        List<Path> files = generate(Encoding.SHORT);
+        int all = readAll(files).size();
+        Tombstones tombstones = Tombstones.load(files.get(3).toString());
+        for (int index = 0; index < 250; index += 2) {
+            tombstones.delete(index);
+        }
+        tombstones.save();
+        tombstones = Tombstones.load(files.get(4).toString());
+        tombstones.delete(0);
+        tombstones.save();
+
+        List<Trace> expected = readAll(files);
+        assertEquals(all - 126, expected.size());
+        try (TraceSetCollection collection = TraceSetCollection.of(TraceSetCatalog.scan(tempDir).getEntries(), 2)) {
+            assertEquals(expected.size(), collection.size());
+            assertEquals(6, collection.fileOf(100 + 37 + 125));
+            List<float[]> samples = collection.stream().map(Trace::getSample).collect(Collectors.toList());
+            for (int index = 0; index < expected.size(); index++) {
+                assertArrayEquals(expected.get(index).getSample(), samples.get(index), "trace " + index);
+            }
+        }
+    }
+
+    private List<Path> generate(Encoding encoding) throws IOException, TRSFormatException {
+        List<Path> files = new ArrayList<>();
+        for (int file = 0; file < NUMBER_OF_TRACES.length; file++) {
+            Path path = tempDir.resolve(String.format("part%02d.trs", file));
+            new TraceSetGenerator(NUMBER_OF_TRACES[file], NUMBER_OF_SAMPLES).setEncoding(encoding)
+                    .setLeakage(10, 4).setNoise(10, 20).setSeed(file).generate(path.toString());
+            files.add(path);
+        }
+        return files;
+    }
+
+    private static List<Trace> readAll(List<Path> files) throws IOException, TRSFormatException {
+        List<Trace> traces = new ArrayList<>();
+        for (Path file : files) {
+            try (TraceSet traceSet = TraceSet.openLive(file.toString())) {
+                for (int index = 0; index < traceSet.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES); index++) {
+                    traces.add(traceSet.get(index));
+                }
+            }
+        }
+        return traces;
+    }
+}
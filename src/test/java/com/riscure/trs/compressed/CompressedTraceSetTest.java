@@ -0,0 +1,170 @@
+package com.riscure.trs.compressed;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.enums.TRSTag;
+import com.riscure.trs.generator.TraceSetGenerator;
+import com.riscure.trs.index.Tombstones;
+import com.riscure.trs.metrics.TraceSetMetrics;
+import com.riscure.trs.tools.TraceSetTools;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompressedTraceSetTest {
+    private static final int NUMBER_OF_TRACES = 1000;
+    private static final int NUMBER_OF_SAMPLES = 300;
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRandomAccess() throws IOException, TRSFormatException {
+        for (Encoding encoding : new Encoding[]{Encoding.BYTE, Encoding.SHORT, Encoding.INT, Encoding.FLOAT}) {
+            String file = tempDir.resolve(encoding + ".trs").toString();
+            new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(encoding)
+                    .setLeakage(40, 3).setNoise(20, 30).setSeed(5).generate(file);
+            Path compressed = tempDir.resolve(encoding + TraceSetCompressor.EXTENSION);
+            TraceSetCompressor.compress(file, compressed, null, 64, 3);
+
+            try (TraceSet traceSet = TraceSet.open(file);
+                 CompressedTraceSet compressedSet = CompressedTraceSet.open(compressed.toString(), 4, 2)) {
+                assertEquals(NUMBER_OF_TRACES, compressedSet.size());
+                assertEquals(16, compressedSet.getNumberOfBlocks());
+                //a stride that skips between blocks, and wraps around to revisit them
+                for (int step = 0, index = 0; step < 2 * NUMBER_OF_TRACES; step++, index = (index + 379) % NUMBER_OF_TRACES) {
+                    Trace expected = traceSet.get(index);
+                    Trace actual = compressedSet.get(index);
+                    assertEquals(expected.getTitle(), actual.getTitle());
+                    assertArrayEquals(expected.getSample(), actual.getSample(), encoding + " trace " + index);
+                    assertEquals(expected.getParameters(), actual.getParameters());
+                }
+                assertThrows(IllegalArgumentException.class, () -> compressedSet.get(NUMBER_OF_TRACES));
+            }
+        }
+    }
+
+    @Test
+    public void testCompressionIsLossless() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("short.trs").toString();
+        new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(Encoding.SHORT)
+                .setLeakage(40, 3).setNoise(1000, 1).generate(file);
+        Path compressed = tempDir.resolve("short" + TraceSetCompressor.EXTENSION);
+        TraceSetCompressor.compress(file, compressed);
+        assertTrue(Files.size(compressed) * 2 < Files.size(Paths.get(file)),
+                "Expected a compression ratio of at least 2, but got " + Files.size(compressed) + " bytes");
+
+        Path restored = tempDir.resolve("restored.trs");
+        TraceSetCompressor.decompress(compressed.toString(), restored);
+        assertArrayEquals(Files.readAllBytes(Paths.get(file)), Files.readAllBytes(restored));
+    }
+
+    @Test
+    public void testDeletedTracesAreLeftOut() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("deleted.trs").toString();
+        new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(Encoding.SHORT).setSeed(6).generate(file);
+        Tombstones tombstones = Tombstones.load(file);
+        for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+            //single deleted traces, and a run that spans several blocks
+            if (index % 9 == 4 || (index >= 100 && index < 300)) {
+                tombstones.delete(index);
+            }
+        }
+        tombstones.save();
+        int live = tombstones.getNumberOfLiveTraces();
+        Path compressed = tempDir.resolve("deleted" + TraceSetCompressor.EXTENSION);
+        TraceSetCompressor.compress(file, compressed, null, 64, 3);
+
+        try (TraceSet traceSet = TraceSet.openLive(file);
+             CompressedTraceSet compressedSet = CompressedTraceSet.open(compressed.toString())) {
+            assertEquals(live, compressedSet.size());
+            assertEquals(live, compressedSet.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+            for (int index = 0; index < live; index++) {
+                Trace expected = traceSet.get(index);
+                Trace actual = compressedSet.get(index);
+                assertArrayEquals(expected.getSample(), actual.getSample(), "trace " + index);
+                assertEquals(expected.getParameters(), actual.getParameters());
+            }
+        }
+
+        //decompressing gives the trace set without its deleted traces
+        Path restored = tempDir.resolve("restored.trs");
+        TraceSetCompressor.decompress(compressed.toString(), restored);
+        Path filtered = tempDir.resolve("filtered.trs");
+        TraceSetTools.filter(file, parameters -> true, filtered);
+        assertArrayEquals(Files.readAllBytes(filtered), Files.readAllBytes(restored));
+    }
+
+    @Test
+    public void testFloatCodec() throws IOException, TRSFormatException {
+        //the average of 64 byte captures of a smooth signal, with repeated values and values that must survive bit for bit
+        float[] samples = new float[NUMBER_OF_SAMPLES];
+        for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+            samples[k] = Math.round(Math.sin(k / 20.0) * 100 * 64) / 64f;
+        }
+        samples[10] = samples[11] = samples[12];
+        samples[20] = -0.0f;
+        samples[21] = Float.MIN_VALUE;
+        samples[22] = -Float.MAX_VALUE;
+        String file = tempDir.resolve("float.trs").toString();
+        try (TraceSet traceSet = TraceSet.create(file)) {
+            for (int index = 0; index < 100; index++) {
+                float[] shifted = samples.clone();
+                shifted[100] += index;
+                Trace trace = Trace.create(shifted);
+                trace.forceFloatCoding();
+                traceSet.add(trace);
+            }
+        }
+        Path compressed = tempDir.resolve("float" + TraceSetCompressor.EXTENSION);
+        TraceSetCompressor.compress(file, compressed, SampleCodec.XOR_FLOAT, 30, 2);
+        assertTrue(Files.size(compressed) * 3 < Files.size(Paths.get(file)) * 2,
+                "Expected a compression ratio of at least 1.5, but got " + Files.size(compressed) + " bytes");
+        assertThrows(IllegalArgumentException.class,
+                () -> TraceSetCompressor.compress(file, compressed, SampleCodec.DELTA_BITPACK, 30, 2));
+
+        try (TraceSet traceSet = TraceSet.open(file);
+             CompressedTraceSet compressedSet = CompressedTraceSet.open(compressed.toString())) {
+            for (int index = 0; index < 100; index++) {
+                float[] expected = traceSet.get(index).getSample();
+                float[] actual = compressedSet.get(index).getSample();
+                for (int k = 0; k < NUMBER_OF_SAMPLES; k++) {
+                    assertEquals(Float.floatToRawIntBits(expected[k]), Float.floatToRawIntBits(actual[k]));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBlockCache() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("byte.trs").toString();
+        new TraceSetGenerator(NUMBER_OF_TRACES, NUMBER_OF_SAMPLES).setEncoding(Encoding.BYTE).generate(file);
+        Path compressed = tempDir.resolve("byte" + TraceSetCompressor.EXTENSION);
+        TraceSetCompressor.compress(file, compressed, SampleCodec.RAW, 100, 2);
+
+        TraceSetMetrics metrics = new TraceSetMetrics();
+        try (CompressedTraceSet compressedSet = CompressedTraceSet.open(compressed.toString(), 2, 0)) {
+            compressedSet.setMetricsListener(metrics);
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                compressedSet.get(index);
+            }
+            assertEquals(10, metrics.getBlockCacheMisses());
+            assertEquals(NUMBER_OF_TRACES - 10, metrics.getBlockCacheHits());
+
+            metrics.reset();
+            compressedSet.get(950);
+            compressedSet.get(0);
+            compressedSet.get(850);
+            assertEquals(1, metrics.getBlockCacheHits());
+            assertEquals(2, metrics.getBlockCacheMisses());
+            assertEquals(3, metrics.snapshot().get("traces.read"));
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.riscure.trs.crypto;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class AesSboxTest {
+    @Test
+    public void testSbox() {
+        assertEquals(0x63, AesSbox.sbox(0x00));
+        assertEquals(0x7C, AesSbox.sbox(0x01));
+        assertEquals(0xED, AesSbox.sbox(0x53));
+        assertEquals(0x16, AesSbox.sbox(0xFF));
+    }
+}
@@ -0,0 +1,71 @@
+package com.riscure.trs.generator;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.crypto.AesSbox;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.enums.ParameterType;
+import com.riscure.trs.enums.TRSTag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetGeneratorTest {
+    @TempDir
+    Path tempDir;
+
+    /**
+     * The generated file only depends on the seed, not on the number of threads or the chunk size
+     */
+    @Test
+    public void testReproducible() throws IOException, TRSFormatException {
+        Path single = tempDir.resolve("single.trs");
+        Path parallel = tempDir.resolve("parallel.trs");
+        new TraceSetGenerator(500, 64).setSeed(7).addParameter("COUNTER", ParameterType.INT, 2)
+                .setThreads(1).setChunkSize(500).generate(single.toString());
+        new TraceSetGenerator(500, 64).setSeed(7).addParameter("COUNTER", ParameterType.INT, 2)
+                .setThreads(4).setChunkSize(16).generate(parallel.toString());
+        assertArrayEquals(Files.readAllBytes(single), Files.readAllBytes(parallel));
+
+        Path other = tempDir.resolve("other.trs");
+        new TraceSetGenerator(500, 64).setSeed(8).addParameter("COUNTER", ParameterType.INT, 2)
+                .generate(other.toString());
+        assertFalse(Arrays.equals(Files.readAllBytes(single), Files.readAllBytes(other)));
+    }
+
+    @Test
+    public void testLeakageModel() throws IOException, TRSFormatException {
+        Path file = tempDir.resolve("leakage.trs");
+        TraceSetGenerator generator = new TraceSetGenerator(100, 40)
+                .setEncoding(Encoding.BYTE)
+                .setLeakage(10, 2.0)
+                .setNoise(5, 0)
+                .setSeed(42);
+        generator.generate(file.toString());
+
+        try (TraceSet traceSet = TraceSet.open(file.toString())) {
+            assertEquals(100, traceSet.getMetaData().getInt(TRSTag.NUMBER_OF_TRACES));
+            assertEquals(Encoding.BYTE.getValue(), traceSet.getMetaData().getInt(TRSTag.SAMPLE_CODING));
+            byte[] key = traceSet.getMetaData().getTraceSetParameters().getByteArray(TraceSetGenerator.KEY.getKey());
+            assertArrayEquals(generator.getKey(), key);
+            for (int k = 0; k < 100; k++) {
+                Trace trace = traceSet.get(k);
+                byte[] input = trace.getParameters().getOrElseThrow(TraceSetGenerator.INPUT);
+                float[] samples = trace.getSample();
+                assertEquals(5, samples[9]);
+                for (int b = 0; b < TraceSetGenerator.KEY_LENGTH; b++) {
+                    int hammingWeight = Integer.bitCount(AesSbox.sbox((input[b] ^ key[b]) & 0xFF));
+                    assertEquals(5 + 2 * hammingWeight, samples[10 + b]);
+                }
+                assertEquals(5, samples[26]);
+            }
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package com.riscure.trs.index;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import com.riscure.trs.types.BooleanTypeKey;
+import com.riscure.trs.types.ByteArrayTypeKey;
+import com.riscure.trs.types.DoubleTypeKey;
+import com.riscure.trs.types.IntegerTypeKey;
+import com.riscure.trs.types.StringTypeKey;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParameterIndexTest {
+    private static final int NUMBER_OF_TRACES = 5000;
+    private static final IntegerTypeKey COUNTER = new IntegerTypeKey("COUNTER");
+    private static final BooleanTypeKey FAULT = new BooleanTypeKey("FAULT");
+    private static final DoubleTypeKey VOLTAGE = new DoubleTypeKey("VOLTAGE");
+    private static final ByteArrayTypeKey INPUT = new ByteArrayTypeKey("INPUT");
+    private static final StringTypeKey LABEL = new StringTypeKey("LABEL");
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testQueries() throws IOException, TRSFormatException {
+        String file = generate();
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            //counter in [1000, 2000] and fault = true
+            TraceBitmap result = traceSet.indicesBetween(COUNTER, 1000, 2000).and(traceSet.indicesWhere(FAULT, true));
+            BitSet expected = new BitSet();
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                if (counter(index) >= 1000 && counter(index) <= 2000 && fault(index)) {
+                    expected.set(index);
+                }
+            }
+            assertArrayEquals(expected.stream().toArray(), result.toArray());
+            assertTrue(result.cardinality() > 0);
+
+            assertArrayEquals(IntStream.range(0, NUMBER_OF_TRACES).filter(index -> index % 256 == 7).toArray(),
+                    traceSet.indicesWhere(INPUT, input(7)).toArray());
+            assertEquals(NUMBER_OF_TRACES / 10, traceSet.indicesWhere(LABEL, label(3)).cardinality());
+            assertEquals(0, traceSet.indicesWhere(LABEL, "none").cardinality());
+            assertArrayEquals(new int[]{0}, traceSet.indicesBetween(VOLTAGE, -1.0, -0.5).toArray());
+            assertEquals(NUMBER_OF_TRACES, traceSet.indicesBetween(VOLTAGE, -1.0, Double.MAX_VALUE).cardinality());
+            assertEquals(0, traceSet.indicesBetween(COUNTER, 2000, 1000).cardinality());
+            assertThrows(IllegalArgumentException.class, () -> traceSet.indicesBetween(new IntegerTypeKey("UNKNOWN"), 0, 1));
+        }
+    }
+
+    @Test
+    public void testSidecar() throws IOException, TRSFormatException {
+        String file = generate();
+        ParameterIndex index = ParameterIndex.index(file);
+        Path sidecar = ParameterIndex.sidecarOf(file);
+        assertTrue(Files.exists(sidecar));
+
+        ParameterIndex loaded = ParameterIndex.load(sidecar);
+        assertTrue(loaded.isUpToDate(Paths.get(file)));
+        assertEquals(NUMBER_OF_TRACES, loaded.getNumberOfTraces());
+        assertEquals(index.getParameterNames(), loaded.getParameterNames());
+        assertTrue(loaded.isExact(COUNTER.getKey()));
+        assertFalse(loaded.isExact(INPUT.getKey()));
+        for (int counter = 0; counter < 100; counter++) {
+            assertEquals(index.where(COUNTER, counter), loaded.where(COUNTER, counter));
+        }
+        assertEquals(index.whereBetween(VOLTAGE, 0.5, 1.5), loaded.whereBetween(VOLTAGE, 0.5, 1.5));
+        assertThrows(IllegalArgumentException.class, () -> loaded.whereBetween(new IntegerTypeKey(LABEL.getKey()), 0, 1));
+
+        //an index of another version of the file is not used
+        Files.setLastModifiedTime(Paths.get(file), FileTime.fromMillis(0));
+        assertFalse(ParameterIndex.load(sidecar).isUpToDate(Paths.get(file)));
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            assertEquals(index.where(FAULT, false), traceSet.indicesWhere(FAULT, false));
+        }
+    }
+
+    @Test
+    public void testPartialIndex() throws IOException, TRSFormatException {
+        String file = generate();
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            ParameterIndex index = ParameterIndex.build(traceSet, Collections.singleton(FAULT.getKey()));
+            assertEquals(Collections.singleton(FAULT.getKey()), index.getParameterNames());
+            assertEquals(NUMBER_OF_TRACES, index.where(FAULT, true).or(index.where(FAULT, false)).cardinality());
+            assertThrows(IllegalArgumentException.class, () -> index.where(COUNTER, 1));
+        }
+    }
+
+    @Test
+    public void testLabelShorterThanDefinition() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("labels.trs").toString();
+        try (TraceSet traceSet = TraceSet.create(file)) {
+            for (int index = 0; index < 10; index++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                //the first label defines a length of 4, so the shorter labels are stored padded to it
+                parameters.put(LABEL, index == 0 ? "long" : "ok");
+                traceSet.add(Trace.create("", new float[]{index}, parameters));
+            }
+        }
+        int[] expected = IntStream.range(1, 10).toArray();
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            assertArrayEquals(expected, traceSet.indicesWhere(LABEL, "ok").toArray());
+            assertArrayEquals(expected, traceSet.indicesWhere(LABEL, "ok\0\0").toArray());
+            assertArrayEquals(new int[]{0}, traceSet.indicesWhere(LABEL, "long").toArray());
+        }
+        ParameterIndex.index(file);
+        try (TraceSet traceSet = TraceSet.open(file)) {
+            assertArrayEquals(expected, traceSet.indicesWhere(LABEL, "ok").toArray());
+        }
+    }
+
+    private String generate() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("parameters.trs").toString();
+        try (TraceSet traceSet = TraceSet.create(file)) {
+            for (int index = 0; index < NUMBER_OF_TRACES; index++) {
+                TraceParameterMap parameters = new TraceParameterMap();
+                parameters.put(COUNTER, counter(index));
+                parameters.put(FAULT, fault(index));
+                parameters.put(VOLTAGE, index == 0 ? -0.75 : index / 1000.0);
+                parameters.put(INPUT, input(index));
+                parameters.put(LABEL, label(index % 10));
+                traceSet.add(Trace.create("", new float[]{index % 100}, parameters));
+            }
+        }
+        return file;
+    }
+
+    private static int counter(int index) {
+        return (index * 7) % 3000;
+    }
+
+    private static boolean fault(int index) {
+        return index % 3 == 0;
+    }
+
+    private static byte[] input(int index) {
+        return new byte[]{(byte) index, 1, 2, 3};
+    }
+
+    private static String label(int value) {
+        return String.format("label%02d", value);
+    }
+}
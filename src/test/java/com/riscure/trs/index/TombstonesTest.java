@@ -0,0 +1,96 @@
+package com.riscure.trs.index;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.generator.TraceSetGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.riscure.trs.enums.TRSTag.NUMBER_OF_TRACES;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TombstonesTest {
+    private static final int NUMBER_OF_TRACES_IN_SET = 3001;
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testRankAndSelect() throws IOException, TRSFormatException {
+        String file = generate();
+        Random random = new Random(1);
+        for (double ratio : new double[]{0, 0.01, 0.5, 0.99}) {
+            Tombstones tombstones = Tombstones.load(file);
+            List<Integer> live = new ArrayList<>();
+            for (int index = 0; index < NUMBER_OF_TRACES_IN_SET; index++) {
+                //a long run of deleted traces in the middle
+                if (random.nextDouble() < ratio || (ratio > 0 && index >= 1000 && index < 2200)) {
+                    tombstones.delete(index);
+                } else {
+                    live.add(index);
+                }
+            }
+            assertEquals(live.size(), tombstones.getNumberOfLiveTraces());
+            for (int k = 0; k < live.size(); k++) {
+                assertEquals((int) live.get(k), tombstones.select(k));
+                assertEquals(k, tombstones.rank(live.get(k)));
+            }
+            assertEquals(live.size(), tombstones.rank(NUMBER_OF_TRACES_IN_SET));
+            assertThrows(IllegalArgumentException.class, () -> tombstones.select(live.size()));
+        }
+    }
+
+    @Test
+    public void testOpenLive() throws IOException, TRSFormatException {
+        String file = generate();
+        Tombstones tombstones = Tombstones.load(file);
+        assertEquals(0, tombstones.getNumberOfDeleted());
+        for (int index = 0; index < NUMBER_OF_TRACES_IN_SET; index += 3) {
+            tombstones.delete(index);
+        }
+        tombstones.save();
+        assertTrue(Files.exists(Tombstones.sidecarOf(file)));
+
+        try (TraceSet traceSet = TraceSet.open(file);
+             TraceSet live = TraceSet.openLive(file)) {
+            assertEquals(NUMBER_OF_TRACES_IN_SET, traceSet.getMetaData().getInt(NUMBER_OF_TRACES));
+            assertEquals(2000, live.getMetaData().getInt(NUMBER_OF_TRACES));
+            for (int index = 0; index < 2000; index++) {
+                int expected = index / 2 * 3 + index % 2 + 1;
+                assertArrayEquals(traceSet.get(expected).getSample(), live.get(index).getSample(), "trace " + index);
+                assertEquals(traceSet.getParameters(expected, null), live.getParameters(index, null));
+            }
+            assertThrows(IllegalArgumentException.class, () -> live.get(2000));
+        }
+
+        Tombstones reloaded = Tombstones.load(file);
+        assertEquals(1001, reloaded.getNumberOfDeleted());
+        assertTrue(reloaded.isDeleted(3000));
+        assertFalse(reloaded.isDeleted(2999));
+
+        //the deleted traces of another trace set are not used
+        String other = tempDir.resolve("other.trs").toString();
+        new TraceSetGenerator(10, 32).setEncoding(Encoding.BYTE).generate(other);
+        Files.copy(Tombstones.sidecarOf(file), Tombstones.sidecarOf(other));
+        assertThrows(IOException.class, () -> Tombstones.load(other));
+        Files.delete(Tombstones.sidecarOf(other));
+
+        //saving without deleted traces removes the sidecar
+        Tombstones.load(other).save();
+        assertFalse(Files.exists(Tombstones.sidecarOf(other)));
+    }
+
+    private String generate() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("traces.trs").toString();
+        new TraceSetGenerator(NUMBER_OF_TRACES_IN_SET, 32).setEncoding(Encoding.BYTE)
+                .setLeakage(10, 4).setNoise(10, 20).setSeed(2).generate(file);
+        return file;
+    }
+}
@@ -0,0 +1,82 @@
+package com.riscure.trs.index;
+
+import com.riscure.trs.io.LittleEndianInputStream;
+import com.riscure.trs.io.LittleEndianOutputStream;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceBitmapTest {
+
+    @Test
+    public void testAgainstBitSet() throws IOException {
+        Random random = new Random(3);
+        //sparse groups are stored as arrays, and dense groups as bitmaps
+        double[] densities = {0.001, 0.05, 0.5};
+        for (double first : densities) {
+            for (double second : densities) {
+                BitSet expectedFirst = new BitSet();
+                BitSet expectedSecond = new BitSet();
+                TraceBitmap bitmapFirst = new TraceBitmap();
+                TraceBitmap bitmapSecond = new TraceBitmap();
+                for (int index = 0; index < 300_000; index++) {
+                    if (random.nextDouble() < first) {
+                        expectedFirst.set(index);
+                        bitmapFirst.add(index);
+                    }
+                    if (random.nextDouble() < second) {
+                        expectedSecond.set(index);
+                        bitmapSecond.add(index);
+                    }
+                }
+                assertBitmapEquals(expectedFirst, bitmapFirst);
+                assertBitmapEquals(expectedFirst, roundTrip(bitmapFirst));
+
+                BitSet and = (BitSet) expectedFirst.clone();
+                and.and(expectedSecond);
+                assertBitmapEquals(and, bitmapFirst.and(bitmapSecond));
+                BitSet or = (BitSet) expectedFirst.clone();
+                or.or(expectedSecond);
+                assertBitmapEquals(or, bitmapFirst.or(bitmapSecond));
+                assertBitmapEquals(or, roundTrip(bitmapSecond.or(bitmapFirst)));
+            }
+        }
+    }
+
+    @Test
+    public void testUnorderedAdd() {
+        TraceBitmap bitmap = new TraceBitmap();
+        int[] indices = {Integer.MAX_VALUE, 70_000, 5, 65_536, 5, 0, 65_535};
+        for (int index : indices) {
+            bitmap.add(index);
+        }
+        assertArrayEquals(new int[]{0, 5, 65_535, 65_536, 70_000, Integer.MAX_VALUE}, bitmap.toArray());
+        assertTrue(bitmap.contains(65_536));
+        assertFalse(bitmap.contains(6));
+        assertFalse(bitmap.contains(-1));
+        assertThrows(IllegalArgumentException.class, () -> bitmap.add(-1));
+        assertTrue(new TraceBitmap().isEmpty());
+        assertTrue(bitmap.and(new TraceBitmap()).isEmpty());
+    }
+
+    private static void assertBitmapEquals(BitSet expected, TraceBitmap actual) {
+        assertEquals(expected.cardinality(), actual.cardinality());
+        assertArrayEquals(expected.stream().toArray(), actual.toArray());
+    }
+
+    private static TraceBitmap roundTrip(TraceBitmap bitmap) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (LittleEndianOutputStream dos = new LittleEndianOutputStream(bytes)) {
+            bitmap.write(dos);
+        }
+        try (LittleEndianInputStream dis = new LittleEndianInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return TraceBitmap.read(dis);
+        }
+    }
+}
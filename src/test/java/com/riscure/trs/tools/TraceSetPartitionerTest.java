@@ -0,0 +1,115 @@
+package com.riscure.trs.tools;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.generator.TraceSetGenerator;
+import com.riscure.trs.index.Tombstones;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static com.riscure.trs.enums.TRSTag.NUMBER_OF_TRACES;
+import static com.riscure.trs.tools.TraceSetPartitioner.MAX_PARTITIONS;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetPartitionerTest {
+    private static final int NUMBER_OF_TRACES_IN_SET = 2000;
+    private static final int NUMBER_OF_SAMPLES = 64;
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testPartitionByInputByte() throws IOException, TRSFormatException {
+        String source = generate();
+        //a small buffer, so that every partition is flushed several times
+        SortedMap<Integer, Path> partitions = new TraceSetPartitioner(parameters -> parameters.getOrElseThrow(TraceSetGenerator.INPUT)[0] & 0xFF)
+                .setParameterNames(Collections.singleton(TraceSetGenerator.INPUT.getKey()))
+                .setBufferSize(1024)
+                .partition(source, tempDir);
+        assertTrue(partitions.size() > 200, "Expected most byte values, but got " + partitions.size());
+        assertEquals(tempDir.resolve("traces_007.trs"), partitions.get(7));
+
+        int total = 0;
+        try (TraceSet traceSet = TraceSet.open(source)) {
+            Map<Integer, List<Integer>> expectedIndices = new HashMap<>();
+            for (int index = 0; index < NUMBER_OF_TRACES_IN_SET; index++) {
+                int key = traceSet.getParameters(index, null).getOrElseThrow(TraceSetGenerator.INPUT)[0] & 0xFF;
+                expectedIndices.computeIfAbsent(key, k -> new ArrayList<>()).add(index);
+            }
+            assertEquals(expectedIndices.keySet(), partitions.keySet());
+            for (Map.Entry<Integer, Path> entry : partitions.entrySet()) {
+                try (TraceSet partition = TraceSet.open(entry.getValue().toString())) {
+                    assertEquals(traceSet.getMetaData().getTraceSetParameters(), partition.getMetaData().getTraceSetParameters());
+                    //the traces of a partition keep their order
+                    List<Integer> indices = expectedIndices.get(entry.getKey());
+                    assertEquals(indices.size(), partition.getMetaData().getInt(NUMBER_OF_TRACES));
+                    for (int k = 0; k < indices.size(); k++) {
+                        Trace expected = traceSet.get(indices.get(k));
+                        Trace actual = partition.get(k);
+                        assertArrayEquals(expected.getSample(), actual.getSample());
+                        assertEquals(expected.getParameters(), actual.getParameters());
+                    }
+                    total += indices.size();
+                }
+            }
+        }
+        assertEquals(NUMBER_OF_TRACES_IN_SET, total);
+    }
+
+    @Test
+    public void testSkipAndInvalidPartitions() throws IOException, TRSFormatException {
+        String source = generate();
+        Path directory = Files.createDirectory(tempDir.resolve("partitions"));
+        SortedMap<Integer, Path> partitions = new TraceSetPartitioner(parameters -> (parameters.getOrElseThrow(TraceSetGenerator.INPUT)[0] & 1) - 1)
+                .partition(source, directory);
+        assertEquals(1, partitions.size());
+        assertTrue(partitions.containsKey(0));
+
+        //an invalid partition after the first traces have been routed
+        AtomicInteger calls = new AtomicInteger();
+        TraceSetPartitioner invalid = new TraceSetPartitioner(parameters -> calls.getAndIncrement() < 10 ? 3 : MAX_PARTITIONS);
+        assertThrows(IllegalArgumentException.class, () -> invalid.partition(source, directory));
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(1, files.count(), "Expected no files of the failed partitioning");
+        }
+    }
+
+    @Test
+    public void testSkipDeletedTraces() throws IOException, TRSFormatException {
+        String source = generate();
+        Tombstones tombstones = Tombstones.load(source);
+        for (int index = 1; index < NUMBER_OF_TRACES_IN_SET; index += 2) {
+            tombstones.delete(index);
+        }
+        tombstones.save();
+        SortedMap<Integer, Path> partitions = new TraceSetPartitioner(parameters -> 0).partition(source, tempDir);
+
+        try (TraceSet traceSet = TraceSet.openLive(source);
+             TraceSet partition = TraceSet.open(partitions.get(0).toString())) {
+            assertEquals(NUMBER_OF_TRACES_IN_SET / 2, partition.getMetaData().getInt(NUMBER_OF_TRACES));
+            for (int index = 0; index < NUMBER_OF_TRACES_IN_SET / 2; index++) {
+                assertArrayEquals(traceSet.get(index).getSample(), partition.get(index).getSample());
+            }
+        }
+    }
+
+    private String generate() throws IOException, TRSFormatException {
+        String file = tempDir.resolve("traces.trs").toString();
+        new TraceSetGenerator(NUMBER_OF_TRACES_IN_SET, NUMBER_OF_SAMPLES).setEncoding(Encoding.SHORT)
+                .setLeakage(20, 4).setNoise(10, 20).setSeed(11).generate(file);
+        return file;
+    }
+}
@@ -0,0 +1,294 @@
+package com.riscure.trs.tools;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.TRSMetaData;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import com.riscure.trs.enums.Encoding;
+import com.riscure.trs.generator.TraceSetGenerator;
+import com.riscure.trs.index.Tombstones;
+import com.riscure.trs.parameter.trace.TraceParameterMap;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static com.riscure.trs.enums.TRSTag.NUMBER_OF_TRACES;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceSetToolsTest {
+    private static final int NUMBER_OF_SAMPLES = 100;
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testConcat() throws IOException, TRSFormatException {
+        String first = generate("first.trs", 300, Encoding.SHORT, 1);
+        String second = generate("second.trs", 1, Encoding.SHORT, 2);
+        String third = generate("third.trs", 77, Encoding.SHORT, 3);
+        Path destination = tempDir.resolve("concat.trs");
+        TraceSetTools.concat(destination, first, second, third);
+
+        try (TraceSet result = TraceSet.open(destination.toString())) {
+            assertEquals(378, result.getMetaData().getInt(NUMBER_OF_TRACES));
+            assertEquals(TraceSet.readMetaData(Paths.get(first)).getTraceSetParameters(),
+                    result.getMetaData().getTraceSetParameters());
+            int index = 0;
+            for (String source : new String[]{first, second, third}) {
+                try (TraceSet traceSet = TraceSet.open(source)) {
+                    for (int k = 0; k < traceSet.getMetaData().getInt(NUMBER_OF_TRACES); k++, index++) {
+                        assertTraceEquals(traceSet.get(k), result.get(index));
+                    }
+                }
+            }
+        }
+        assertFalse(Files.exists(TraceSetTools.temporaryFileOf(destination)));
+    }
+
+    @Test
+    public void testExtract() throws IOException, TRSFormatException {
+        String source = generate("source.trs", 500, Encoding.FLOAT, 4);
+        Path destination = tempDir.resolve("extract.trs");
+        TraceSetTools.extract(source, 123, 456, destination);
+
+        try (TraceSet traceSet = TraceSet.open(source);
+             TraceSet result = TraceSet.open(destination.toString())) {
+            assertEquals(333, result.getMetaData().getInt(NUMBER_OF_TRACES));
+            for (int index = 0; index < 333; index++) {
+                assertTraceEquals(traceSet.get(123 + index), result.get(index));
+            }
+        }
+        TraceSetTools.extract(source, 500, 500, tempDir.resolve("empty.trs"));
+        assertThrows(IllegalArgumentException.class, () -> TraceSetTools.extract(source, 400, 501, destination));
+        assertThrows(IllegalArgumentException.class, () -> TraceSetTools.extract(source, 10, 9, destination));
+    }
+
+    @Test
+    public void testFilter() throws IOException, TRSFormatException {
+        String source = generate("source.trs", 3000, Encoding.BYTE, 9);
+        Path destination = tempDir.resolve("filtered.trs");
+        //about 3% of the traces, mostly in runs of a single trace
+        Predicate<TraceParameterMap> predicate = parameters -> (parameters.getOrElseThrow(TraceSetGenerator.INPUT)[0] & 0xFF) < 8;
+        int count = TraceSetTools.filter(source, predicate, Collections.singleton(TraceSetGenerator.INPUT.getKey()), destination);
+
+        try (TraceSet traceSet = TraceSet.open(source);
+             TraceSet result = TraceSet.open(destination.toString())) {
+            assertEquals(count, result.getMetaData().getInt(NUMBER_OF_TRACES));
+            int selected = 0;
+            for (int index = 0; index < 3000; index++) {
+                Trace trace = traceSet.get(index);
+                if (predicate.test(trace.getParameters())) {
+                    assertTraceEquals(trace, result.get(selected++));
+                }
+            }
+            assertEquals(count, selected);
+            assertTrue(count > 0);
+        }
+
+        //runs that include the first and the last trace
+        assertEquals(3000, TraceSetTools.filter(source, parameters -> true, destination));
+        assertArrayEquals(Files.readAllBytes(Paths.get(source)), Files.readAllBytes(destination));
+        assertEquals(0, TraceSetTools.filter(source, parameters -> false, destination));
+    }
+
+    @Test
+    public void testFilterSkipsDeletedTraces() throws IOException, TRSFormatException {
+        String source = generate("source.trs", 1000, Encoding.BYTE, 12);
+        Tombstones tombstones = Tombstones.load(source);
+        for (int index = 0; index < 1000; index += 3) {
+            tombstones.delete(index);
+        }
+        tombstones.save();
+        Path destination = tempDir.resolve("filtered.trs");
+        assertEquals(tombstones.getNumberOfLiveTraces(), TraceSetTools.filter(source, parameters -> true, destination));
+
+        try (TraceSet traceSet = TraceSet.openLive(source);
+             TraceSet result = TraceSet.open(destination.toString())) {
+            assertEquals(tombstones.getNumberOfLiveTraces(), result.getMetaData().getInt(NUMBER_OF_TRACES));
+            for (int index = 0; index < tombstones.getNumberOfLiveTraces(); index++) {
+                assertTraceEquals(traceSet.get(index), result.get(index));
+            }
+        }
+    }
+
+    @Test
+    public void testCompact() throws IOException, TRSFormatException {
+        String source = generate("source.trs", 2000, Encoding.SHORT, 10);
+        List<Trace> expected = new ArrayList<>();
+        Tombstones tombstones = Tombstones.load(source);
+        try (TraceSet traceSet = TraceSet.open(source)) {
+            for (int index = 0; index < 2000; index++) {
+                //runs of deleted traces of different lengths
+                if (index % 7 == 0 || (index / 100) % 3 == 1) {
+                    tombstones.delete(index);
+                } else {
+                    expected.add(traceSet.get(index));
+                }
+            }
+        }
+        tombstones.save();
+        assertFalse(TraceSetTools.compact(source, 0.5, 4));
+        assertTrue(Files.exists(Tombstones.sidecarOf(source)));
+
+        assertTrue(TraceSetTools.compact(source, 0.3, 4));
+        assertFalse(Files.exists(Tombstones.sidecarOf(source)));
+        try (TraceSet traceSet = TraceSet.open(source)) {
+            assertEquals(expected.size(), traceSet.getMetaData().getInt(NUMBER_OF_TRACES));
+            for (int index = 0; index < expected.size(); index++) {
+                assertTraceEquals(expected.get(index), traceSet.get(index));
+            }
+        }
+        assertFalse(TraceSetTools.compact(source, 0, 4));
+    }
+
+    @Test
+    public void testConcatDifferentLayouts() throws IOException, TRSFormatException {
+        String bytes = generate("byte.trs", 10, Encoding.BYTE, 5);
+        String shorts = generate("short.trs", 10, Encoding.SHORT, 6);
+        Path destination = tempDir.resolve("concat.trs");
+        IllegalArgumentException ex = assertThrows(IllegalArgumentException.class,
+                () -> TraceSetTools.concat(destination, bytes, shorts));
+        assertTrue(ex.getMessage().contains("SAMPLE_CODING"), ex.getMessage());
+        assertFalse(Files.exists(destination));
+    }
+
+    @Test
+    public void testSplit() throws IOException, TRSFormatException {
+        String source = generate("traces.trs", 1001, Encoding.INT, 7);
+        List<Path> shards = TraceSetTools.split(source, tempDir, 12, 4);
+        assertEquals(12, shards.size());
+        assertEquals(tempDir.resolve("traces_00.trs"), shards.get(0));
+        assertEquals(tempDir.resolve("traces_11.trs"), shards.get(11));
+        int total = 0;
+        for (Path shard : shards) {
+            TRSMetaData metaData = TraceSet.readMetaData(shard);
+            assertTrue(Math.abs(metaData.getInt(NUMBER_OF_TRACES) - 1001 / 12) <= 1);
+            assertEquals(TraceSet.readMetaData(Paths.get(source)).getTraceSetParameters(), metaData.getTraceSetParameters());
+            total += metaData.getInt(NUMBER_OF_TRACES);
+        }
+        assertEquals(1001, total);
+
+        //joining the shards restores the original file
+        Path joined = tempDir.resolve("joined.trs");
+        TraceSetTools.concat(joined, shards.stream().map(Path::toString).toArray(String[]::new));
+        assertArrayEquals(Files.readAllBytes(Paths.get(source)), Files.readAllBytes(joined));
+    }
+
+    @Test
+    public void testSplitBySize() throws IOException, TRSFormatException {
+        String source = generate("traces.trs", 500, Encoding.SHORT, 8);
+        Path directory = Files.createDirectory(tempDir.resolve("shards"));
+        long maxShardSize = 64 * 1024;
+        List<Path> shards = TraceSetTools.splitBySize(source, directory, maxShardSize, 3);
+        assertTrue(shards.size() > 1);
+        try (TraceSet traceSet = TraceSet.open(source)) {
+            int index = 0;
+            for (Path shard : shards) {
+                assertTrue(Files.size(shard) <= maxShardSize);
+                try (TraceSet part = TraceSet.open(shard.toString())) {
+                    for (int k = 0; k < part.getMetaData().getInt(NUMBER_OF_TRACES); k++, index++) {
+                        assertTraceEquals(traceSet.get(index), part.get(k));
+                    }
+                }
+            }
+            assertEquals(500, index);
+        }
+        assertThrows(IllegalArgumentException.class, () -> TraceSetTools.splitBySize(source, directory, 100, 1));
+    }
+
+    @Test
+    public void testConcatSkipsDeletedTraces() throws IOException, TRSFormatException {
+        String first = generate("first.trs", 300, Encoding.SHORT, 13);
+        String second = generate("second.trs", 77, Encoding.SHORT, 14);
+        int live = delete(first).getNumberOfLiveTraces() + 77;
+        Path destination = tempDir.resolve("concat.trs");
+        TraceSetTools.concat(destination, first, second);
+
+        try (TraceSet result = TraceSet.open(destination.toString())) {
+            assertEquals(live, result.getMetaData().getInt(NUMBER_OF_TRACES));
+            int index = 0;
+            for (String source : new String[]{first, second}) {
+                try (TraceSet traceSet = TraceSet.openLive(source)) {
+                    for (int k = 0; k < traceSet.getMetaData().getInt(NUMBER_OF_TRACES); k++, index++) {
+                        assertTraceEquals(traceSet.get(k), result.get(index));
+                    }
+                }
+            }
+            assertEquals(live, index);
+        }
+    }
+
+    @Test
+    public void testExtractSkipsDeletedTraces() throws IOException, TRSFormatException {
+        String source = generate("source.trs", 500, Encoding.FLOAT, 15);
+        Tombstones tombstones = delete(source);
+        Path destination = tempDir.resolve("extract.trs");
+        TraceSetTools.extract(source, 20, 150, destination);
+
+        try (TraceSet traceSet = TraceSet.openLive(source);
+             TraceSet result = TraceSet.open(destination.toString())) {
+            assertEquals(130, result.getMetaData().getInt(NUMBER_OF_TRACES));
+            for (int index = 0; index < 130; index++) {
+                assertTraceEquals(traceSet.get(20 + index), result.get(index));
+            }
+        }
+        int live = tombstones.getNumberOfLiveTraces();
+        TraceSetTools.extract(source, 0, live, destination);
+        assertEquals(live, TraceSet.readMetaData(destination).getInt(NUMBER_OF_TRACES));
+        assertThrows(IllegalArgumentException.class, () -> TraceSetTools.extract(source, 0, live + 1, destination));
+    }
+
+    @Test
+    public void testSplitSkipsDeletedTraces() throws IOException, TRSFormatException {
+        String source = generate("traces.trs", 1000, Encoding.INT, 16);
+        int live = delete(source).getNumberOfLiveTraces();
+        Path directory = Files.createDirectory(tempDir.resolve("shards"));
+        List<Path> shards = TraceSetTools.split(source, directory, 7, 3);
+        int total = 0;
+        for (Path shard : shards) {
+            total += TraceSet.readMetaData(shard).getInt(NUMBER_OF_TRACES);
+        }
+        assertEquals(live, total);
+
+        //joining the shards gives the live traces
+        Path joined = tempDir.resolve("joined.trs");
+        TraceSetTools.concat(joined, shards.stream().map(Path::toString).toArray(String[]::new));
+        Path filtered = tempDir.resolve("filtered.trs");
+        TraceSetTools.filter(source, parameters -> true, filtered);
+        assertArrayEquals(Files.readAllBytes(filtered), Files.readAllBytes(joined));
+    }
+
+    /**
+     * Delete single traces, and a run of traces that spans the start of the trace set
+     */
+    private static Tombstones delete(String source) throws IOException, TRSFormatException {
+        Tombstones tombstones = Tombstones.load(source);
+        for (int index = 0; index < tombstones.getNumberOfTraces(); index++) {
+            if (index % 11 == 5 || index < 40) {
+                tombstones.delete(index);
+            }
+        }
+        tombstones.save();
+        return tombstones;
+    }
+
+    private String generate(String name, int numberOfTraces, Encoding encoding, long seed)
+            throws IOException, TRSFormatException {
+        String file = tempDir.resolve(name).toString();
+        new TraceSetGenerator(numberOfTraces, NUMBER_OF_SAMPLES).setEncoding(encoding)
+                .setLeakage(30, 4).setNoise(10, 20).setSeed(seed).generate(file);
+        return file;
+    }
+
+    private static void assertTraceEquals(Trace expected, Trace actual) {
+        assertArrayEquals(expected.getSample(), actual.getSample());
+        assertEquals(expected.getParameters(), actual.getParameters());
+    }
+}
@@ -0,0 +1,186 @@
+package com.riscure.trs.jfr;
+
+import com.riscure.trs.TRSFormatException;
+import com.riscure.trs.Trace;
+import com.riscure.trs.TraceSet;
+import jdk.jfr.Event;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Tests the Java 11 implementation of {@link TraceSetEvents}.
+ *
+ * The tests run against the compiled classes rather than the multi-release jar, so the library is loaded again in a
+ * class loader that prefers the versioned classes, like the jar does on Java 11 and later.
+ */
+public class TraceSetEventsTest {
+    private static final int NUMBER_OF_TRACES = 10;
+    private static final String[] EVENTS = {"com.riscure.trs.Remap", "com.riscure.trs.TraceRead",
+            "com.riscure.trs.WriterFlush", "com.riscure.trs.HeaderWrite"};
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    public void testEventsAreRecorded() throws Exception {
+        Path file = tempDir.resolve("events.trs").toAbsolutePath();
+        Path recordingFile = tempDir.resolve("events.jfr");
+        try (VersionedClassLoader loader = new VersionedClassLoader()) {
+            assertTrue(Event.class.isAssignableFrom(loader.loadClass(TraceSetEvents.class.getName() + "$RemapEvent")),
+                    "Expected the Java 11 implementation of the events");
+            @SuppressWarnings("unchecked")
+            Consumer<Path> driver = (Consumer<Path>) loader.loadClass(Driver.class.getName()).getDeclaredConstructor().newInstance();
+            try (Recording recording = new Recording()) {
+                for (String event : EVENTS) {
+                    recording.enable(event).withThreshold(Duration.ZERO);
+                }
+                recording.start();
+                driver.accept(file);
+                recording.stop();
+                recording.dump(recordingFile);
+            }
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(recordingFile).stream()
+                .filter(event -> file.toString().equals(event.getString("path")))
+                .collect(Collectors.toList());
+
+        List<RecordedEvent> headers = ofType(events, "com.riscure.trs.HeaderWrite");
+        assertFalse(headers.isEmpty());
+        assertEquals(NUMBER_OF_TRACES, headers.get(headers.size() - 1).getLong("numberOfTraces"));
+
+        List<RecordedEvent> flushes = ofType(events, "com.riscure.trs.WriterFlush");
+        assertEquals(1, flushes.size());
+        assertEquals(0, flushes.get(0).getLong("firstTrace"));
+        assertEquals(NUMBER_OF_TRACES, flushes.get(0).getLong("numberOfTraces"));
+        assertTrue(flushes.get(0).getLong("bytes") > 0);
+
+        List<RecordedEvent> remaps = ofType(events, "com.riscure.trs.Remap");
+        assertFalse(remaps.isEmpty());
+        assertEquals(0, remaps.get(0).getLong("offset"));
+        assertEquals(Files.size(file), remaps.get(0).getLong("size"));
+
+        //a span of all traces, and a single trace read out of order
+        List<RecordedEvent> reads = ofType(events, "com.riscure.trs.TraceRead");
+        assertEquals(2, reads.size());
+        assertEquals(0, reads.get(0).getLong("firstTrace"));
+        assertEquals(NUMBER_OF_TRACES, reads.get(0).getLong("numberOfTraces"));
+        assertEquals(3, reads.get(1).getLong("firstTrace"));
+        assertEquals(1, reads.get(1).getLong("numberOfTraces"));
+    }
+
+    @Test
+    public void testNoEventsWithoutRecording() throws Exception {
+        try (VersionedClassLoader loader = new VersionedClassLoader()) {
+            Class<?> events = loader.loadClass(TraceSetEvents.class.getName());
+            for (String begin : new String[]{"beginRemap", "beginTraceRead", "beginWriterFlush", "beginHeaderWrite"}) {
+                assertNull(events.getMethod(begin).invoke(null), begin);
+            }
+        }
+    }
+
+    private static List<RecordedEvent> ofType(List<RecordedEvent> events, String name) {
+        return events.stream()
+                .filter(event -> event.getEventType().getName().equals(name))
+                .sorted((a, b) -> a.getStartTime().compareTo(b.getStartTime()))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Writes and reads a trace set. It is loaded by the {@link VersionedClassLoader}, so that it uses the versioned
+     * implementation of the events.
+     */
+    public static final class Driver implements Consumer<Path> {
+        @Override
+        public void accept(Path file) {
+            try {
+                try (TraceSet traceSet = TraceSet.create(file.toString())) {
+                    for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                        traceSet.add(Trace.create(new float[]{k, k + 1, k + 2}));
+                    }
+                }
+                try (TraceSet traceSet = TraceSet.open(file.toString())) {
+                    for (int k = 0; k < NUMBER_OF_TRACES; k++) {
+                        traceSet.get(k);
+                    }
+                    traceSet.get(3);
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (TRSFormatException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+    }
+
+    /**
+     * Loads the classes of the library from the versioned classes first, then from the regular and test classes
+     */
+    private static final class VersionedClassLoader extends URLClassLoader {
+        private static final String LIBRARY_PACKAGE = "com.riscure.trs.";
+
+        private VersionedClassLoader() throws IOException {
+            super(classPath(), TraceSetEventsTest.class.getClassLoader());
+        }
+
+        private static URL[] classPath() throws IOException {
+            List<URL> urls = new ArrayList<>();
+            Path classes = locationOf(TraceSet.class);
+            Path versioned = classes.resolve("META-INF").resolve("versions").resolve("11");
+            if (Files.isDirectory(versioned)) {
+                urls.add(versioned.toUri().toURL());
+            }
+            urls.add(classes.toUri().toURL());
+            urls.add(locationOf(TraceSetEventsTest.class).toUri().toURL());
+            return urls.toArray(new URL[0]);
+        }
+
+        private static Path locationOf(Class<?> type) throws IOException {
+            try {
+                return Paths.get(type.getProtectionDomain().getCodeSource().getLocation().toURI());
+            } catch (URISyntaxException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (!name.startsWith(LIBRARY_PACKAGE)) {
+                return super.loadClass(name, resolve);
+            }
+            synchronized (getClassLoadingLock(name)) {
+                Class<?> type = findLoadedClass(name);
+                if (type == null) {
+                    try {
+                        type = findClass(name);
+                    } catch (ClassNotFoundException ex) {
+                        type = super.loadClass(name, false);
+                    }
+                }
+                if (resolve) {
+                    resolveClass(type);
+                }
+                return type;
+            }
+        }
+    }
+}